@@ -1,5 +1,9 @@
 package docSharing;
 
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
@@ -7,4 +11,14 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @EnableScheduling
 public class SpringConfig {
 
-}
\ No newline at end of file
+    /**
+     * Sends inserts of the same entity in JDBC batches, so saveAll() of logs is one round-trip per batch.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatching(@Value("${docSharing.jdbc.batch-size:50}") int batchSize) {
+        return properties -> {
+            properties.putIfAbsent(AvailableSettings.STATEMENT_BATCH_SIZE, batchSize);
+            properties.putIfAbsent(AvailableSettings.ORDER_INSERTS, true);
+        };
+    }
+}
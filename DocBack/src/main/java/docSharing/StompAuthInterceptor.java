@@ -0,0 +1,300 @@
+package docSharing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import docSharing.entities.file.DocOperation;
+import docSharing.entities.permission.Permission;
+import docSharing.service.AuthService;
+import docSharing.service.DocumentRouter;
+import docSharing.service.PermissionCache;
+import docSharing.service.PermissionService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authenticates STOMP sessions once and authorizes every inbound frame against the session.
+ * CONNECT must carry the userId and token headers of a logged-in user; the user is stored as the
+ * session's principal. The user's permission on a document is resolved on the first frame for that
+ * document and pinned to the session, so edits are authorized without any service lookup.
+ * The pins are dropped whenever PermissionCache is invalidated or expires, so permission changes apply to open sessions.
+ * When documents are spread over several nodes, frames of documents owned by another node are rejected,
+ * so a document is only ever edited on its owner.
+ * Clients may only send to the application's own destinations: a frame sent straight to a broker destination
+ * (/topic, /queue or /user) would be relayed to its subscribers without any of these checks.
+ * Frames that are not authorized are rejected here and never reach DocumentEditController.
+ */
+@Component
+public class StompAuthInterceptor implements ChannelInterceptor {
+    private static final String USER_ID = "userId";
+    private static final String TOKEN = "token";
+    private static final String PERMISSIONS = "permissions";
+    private static final String DOCUMENT_TOPIC_PREFIX = "/topic/documents/";
+
+    private static final Map<String, DocOperation> OPERATIONS = new HashMap<>();
+    // Application destinations that do not touch a document.
+    private static final Set<String> UNCHECKED_DESTINATIONS = Collections.singleton("/app/hello");
+
+    static {
+        OPERATIONS.put("/app/join", DocOperation.JOIN);
+        OPERATIONS.put("/app/leave", DocOperation.JOIN);
+        OPERATIONS.put("/app/update", DocOperation.UPDATE);
+        OPERATIONS.put("/app/updates", DocOperation.UPDATE);
+        OPERATIONS.put("/app/metadata", DocOperation.JOIN);
+        OPERATIONS.put("/app/activeUsers", DocOperation.JOIN);
+        OPERATIONS.put("/app/cursor", DocOperation.JOIN);
+    }
+
+    private final AuthService authService;
+    private final PermissionService permissionService;
+    private final PermissionCache permissionCache;
+    private final DocumentRouter documentRouter;
+    private final JsonFactory jsonFactory;
+
+    private static final Logger logger = LogManager.getLogger(StompAuthInterceptor.class.getName());
+
+    public StompAuthInterceptor(AuthService authService, PermissionService permissionService,
+                                PermissionCache permissionCache, DocumentRouter documentRouter) {
+        this.authService = authService;
+        this.permissionService = permissionService;
+        this.permissionCache = permissionCache;
+        this.documentRouter = documentRouter;
+        this.jsonFactory = new JsonFactory();
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        switch (accessor.getCommand()) {
+            case CONNECT:
+                authenticate(accessor);
+                break;
+            case SUBSCRIBE:
+                authorizeSubscribe(accessor);
+                break;
+            case SEND:
+                authorizeSend(accessor, message);
+                break;
+            default:
+                break;
+        }
+
+        return message;
+    }
+
+    private void authenticate(StompHeaderAccessor accessor) {
+        String userIdHeader = accessor.getFirstNativeHeader(USER_ID);
+        String token = accessor.getFirstNativeHeader(TOKEN);
+
+        int userId;
+        try {
+            userId = Integer.parseInt(userIdHeader);
+        } catch (NumberFormatException e) {
+            throw reject("CONNECT is missing a valid userId header");
+        }
+
+        if (!authService.isAuthenticated(userId, token)) {
+            throw reject(String.format("User #%d is not logged-in!", userId));
+        }
+
+        accessor.setUser(new StompPrincipal(userId));
+        accessor.getSessionAttributes().put(USER_ID, userId);
+        accessor.getSessionAttributes().put(PERMISSIONS, new PinnedPermissions());
+    }
+
+    private void authorizeSubscribe(StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith(DOCUMENT_TOPIC_PREFIX)) {
+            return;
+        }
+
+        int end = destination.indexOf('/', DOCUMENT_TOPIC_PREFIX.length());
+        try {
+            int documentId = Integer.parseInt(destination.substring(DOCUMENT_TOPIC_PREFIX.length(),
+                    end < 0 ? destination.length() : end));
+            authorize(accessor, documentId, DocOperation.JOIN);
+        } catch (NumberFormatException e) {
+            throw reject("Invalid document destination: " + destination);
+        }
+    }
+
+    private void authorizeSend(StompHeaderAccessor accessor, Message<?> message) {
+        int userId = getUserId(accessor);
+        DocOperation operation = OPERATIONS.get(accessor.getDestination());
+        if (operation == null) {
+            if (UNCHECKED_DESTINATIONS.contains(accessor.getDestination())) {
+                return;
+            }
+            throw reject(String.format("User #%d cannot send frames to %s", userId, accessor.getDestination()));
+        }
+
+        FrameIds ids = readIds(message.getPayload());
+        if (ids.documentId == null) {
+            throw reject("Frame to " + accessor.getDestination() + " is missing a documentId");
+        }
+        if (ids.userId == null && !ids.bareDocumentId) {
+            throw reject("Frame to " + accessor.getDestination() + " is missing a userId");
+        }
+        if (ids.userId != null && ids.userId != userId) {
+            throw reject(String.format("User #%d cannot send frames of user #%d", userId, ids.userId));
+        }
+
+        if (!documentRouter.isLocal(ids.documentId)) {
+            throw reject(String.format("Document #%d is served by node %s", ids.documentId,
+                    documentRouter.getOwner(ids.documentId)));
+        }
+
+        authorize(accessor, ids.documentId, operation);
+        if ("/app/leave".equals(accessor.getDestination())) {
+            // Resolved again on the next join, so permission changes apply from then on.
+            getPinned(accessor).permissions.remove(ids.documentId);
+        }
+    }
+
+    /**
+     * Checks the session's permission on documentId, resolving and pinning it on the first use.
+     */
+    private void authorize(StompHeaderAccessor accessor, int documentId, DocOperation operation) {
+        int userId = getUserId(accessor);
+        PinnedPermissions pinned = getPinned(accessor);
+
+        long generation = permissionCache.getGeneration();
+        if (pinned.generation != generation) {
+            // A permission changed or the cache expired since the pins were resolved, resolve them again.
+            pinned.permissions.clear();
+            pinned.generation = generation;
+        }
+
+        Permission permission = pinned.permissions.get(documentId);
+        if (permission == null) {
+            permission = permissionService.getPermission(documentId, userId);
+            if (permission != null && permissionCache.getGeneration() == generation) {
+                pinned.permissions.put(documentId, permission);
+            }
+        }
+
+        if (!PermissionService.isAllowed(permission, operation)) {
+            String reason = String.format("User #%d is not authorized to %s document #%d", userId, operation, documentId);
+            logger.warn(reason);
+            throw reject(reason);
+        }
+    }
+
+    private int getUserId(StompHeaderAccessor accessor) {
+        Object userId = accessor.getSessionAttributes() == null ? null : accessor.getSessionAttributes().get(USER_ID);
+        if (userId == null) {
+            throw reject("Session is not authenticated");
+        }
+
+        return (Integer) userId;
+    }
+
+    private PinnedPermissions getPinned(StompHeaderAccessor accessor) {
+        return (PinnedPermissions) accessor.getSessionAttributes().get(PERMISSIONS);
+    }
+
+    /**
+     * Reads documentId and userId from a frame's payload without binding the whole message.
+     * The payload is either a JSON object with these fields, or a bare document id.
+     * Jackson binds the last of duplicate keys, so a frame that repeats either id is rejected: otherwise
+     * the ids authorized here could differ from the ids the controller receives.
+     */
+    private FrameIds readIds(Object payload) {
+        FrameIds ids = new FrameIds();
+        if (!(payload instanceof byte[])) {
+            return ids;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser((byte[]) payload)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_STRING) {
+                ids.documentId = parser.getValueAsInt();
+                ids.bareDocumentId = true;
+                return ids;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                return ids;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("documentId".equals(field)) {
+                    if (ids.documentId != null) {
+                        throw reject("Frame has more than one documentId");
+                    }
+                    ids.documentId = parser.getValueAsInt();
+                } else if (USER_ID.equals(field)) {
+                    if (ids.userId != null) {
+                        throw reject("Frame has more than one userId");
+                    }
+                    ids.userId = parser.getValueAsInt();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw reject("Malformed frame: " + e.getMessage());
+        }
+
+        return ids;
+    }
+
+    private static MessageDeliveryException reject(String reason) {
+        return new MessageDeliveryException(reason);
+    }
+
+    private static final class FrameIds {
+        private Integer documentId;
+        private Integer userId;
+        // The payload is only a document id, e.g. /app/metadata.
+        private boolean bareDocumentId;
+    }
+
+    /**
+     * The permissions pinned to a session, valid while PermissionCache stays at the same generation.
+     */
+    private static final class PinnedPermissions {
+        private final Map<Integer, Permission> permissions = new ConcurrentHashMap<>();
+        private volatile long generation;
+    }
+
+    /**
+     * The authenticated user of a STOMP session.
+     */
+    public static final class StompPrincipal implements Principal {
+        private final int userId;
+
+        public StompPrincipal(int userId) {
+            this.userId = userId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        @Override
+        public String getName() {
+            return String.valueOf(userId);
+        }
+    }
+}
@@ -1,18 +1,59 @@
 package docSharing;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+/**
+ * Document events are published on /topic, replies to a single session (e.g. joins) on /user/queue.
+ * The broker is in memory by default (docSharing.broker.mode=simple), which only reaches sessions of this node.
+ * With docSharing.broker.mode=relay, /topic and /queue messages are relayed to an external STOMP broker
+ * (e.g. ActiveMQ or Artemis), so every node's subscribers receive them.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    private static final String RELAY_MODE = "relay";
+
+    private final StompAuthInterceptor stompAuthInterceptor;
+
+    @Value("${docSharing.broker.mode:simple}")
+    private String brokerMode;
+    @Value("${docSharing.broker.relay.host:localhost}")
+    private String relayHost;
+    @Value("${docSharing.broker.relay.port:61613}")
+    private int relayPort;
+    @Value("${docSharing.broker.relay.login:guest}")
+    private String relayLogin;
+    @Value("${docSharing.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    private static final Logger logger = LogManager.getLogger(WebSocketConfig.class.getName());
+
+    public WebSocketConfig(StompAuthInterceptor stompAuthInterceptor) {
+        this.stompAuthInterceptor = stompAuthInterceptor;
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        if (RELAY_MODE.equals(brokerMode)) {
+            logger.info(String.format("Relaying /topic to the STOMP broker at %s:%d", relayHost, relayPort));
+            config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode);
+        } else {
+            config.enableSimpleBroker("/topic", "/queue");
+        }
         config.setApplicationDestinationPrefixes("/app");
     }
 
@@ -21,4 +62,9 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*").withSockJS();
     }
 
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(stompAuthInterceptor);
+    }
+
 }
@@ -3,21 +3,34 @@ package docSharing.controller;
 import docSharing.controller.request.ShareRequest;
 import docSharing.controller.response.BaseResponse;
 import docSharing.entities.DTO.DocumentDTO;
+import docSharing.entities.DTO.DocumentDiffDTO;
+import docSharing.entities.DTO.DocumentPageDTO;
+import docSharing.entities.DTO.DocumentVersionDTO;
 import docSharing.entities.DTO.UserDTO;
 import docSharing.entities.file.DocOperation;
+import docSharing.entities.file.DocumentSort;
 import docSharing.entities.permission.Permission;
 import docSharing.service.AuthService;
+import docSharing.service.DocumentHistoryService;
+import docSharing.service.DocumentImportService;
+import docSharing.service.DocumentRouter;
 import docSharing.service.DocumentService;
 import docSharing.service.PermissionService;
 import docSharing.service.UserService;
+import docSharing.utils.FilesUtils;
 import docSharing.utils.Utils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,6 +47,12 @@ public class DocumentController {
     private AuthService authService;
     @Autowired
     private PermissionService permissionService;
+    @Autowired
+    private DocumentHistoryService documentHistoryService;
+    @Autowired
+    private DocumentImportService documentImportService;
+    @Autowired
+    private DocumentRouter documentRouter;
     private static final Logger logger = LogManager.getLogger(DocumentController.class.getName());
 
     public DocumentController() {
@@ -73,6 +92,8 @@ public class DocumentController {
     /**
      * Updates permissions for users specified in shareRequest body.
      * Sends notification email if shareRequest.notify is true.
+     * Only the node that edits the document accepts it, so the sessions editing the document lose a revoked
+     * permission at once.
      * @param token
      * @param shareRequest
      * @return Void
@@ -90,6 +111,7 @@ public class DocumentController {
         }
 
         try {
+            documentRouter.checkLocal(Collections.singleton(shareRequest.getDocumentID()));
             if (shareToUsersList(retrieveShareRequestUsers(shareRequest), shareRequest)) {
                 return ResponseEntity.ok(BaseResponse.noContent(true, "Share succeed for all users"));
             } else {
@@ -116,9 +138,21 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Returns the address of the node that edits the document, clients open the document's WebSocket there.
+     * @param documentId
+     * @return the owner node's address, null if it is this node
+     */
+    @RequestMapping(method = RequestMethod.GET, path="/node")
+    public ResponseEntity<BaseResponse<String>> getNode(@RequestHeader int documentId) {
+        logger.info("in getNode()");
+
+        return ResponseEntity.ok(BaseResponse.success(documentRouter.getAddress(documentId)));
+    }
+
     /**
      * Updates document's parent folder.
-     * User must be logged in and must have edit permissions.
+     * User must be logged in and must have edit permissions. Only the node that edits the document accepts it.
      * @param documentId
      * @param userId
      * @param token
@@ -139,6 +173,7 @@ public class DocumentController {
         }
 
         try {
+            documentRouter.checkLocal(Collections.singleton(documentId));
             return ResponseEntity.ok(BaseResponse.success(documentService.setParent(documentId, parentId)));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
@@ -147,7 +182,7 @@ public class DocumentController {
     /**
      * Updates document's title.
      * The title must be unique in the containing folder and must not be empty.
-     * User must be logged in and must have edit permissions.
+     * User must be logged in and must have edit permissions. Only the node that edits the document accepts it.
      * @param documentId
      * @param userId
      * @param token
@@ -168,6 +203,7 @@ public class DocumentController {
         }
 
         try {
+            documentRouter.checkLocal(Collections.singleton(documentId));
             return ResponseEntity.ok(BaseResponse.success(documentService.setTitle(documentId, title)));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
@@ -176,7 +212,7 @@ public class DocumentController {
 
     /**
      * Deletes document from the database.
-     * User must be logged in and must have edit permissions.
+     * User must be logged in and must have edit permissions. Only the node that edits the document accepts it.
      * @param documentId
      * @param token
      * @param userId
@@ -196,6 +232,7 @@ public class DocumentController {
         }
 
         try {
+            documentRouter.checkLocal(Collections.singleton(documentId));
             if (documentService.delete(documentId)) {
                 return ResponseEntity.ok(BaseResponse.noContent(true, "document was successfully deleted"));
             } else {
@@ -207,24 +244,30 @@ public class DocumentController {
     }
 
     /**
-     * Imports a document from specified filepath.
-     * Will create a new document with the imported title and content.
+     * Imports an uploaded text file.
+     * Will create a new document with the file's name and content.
      * @param token
      * @param ownerId
-     * @param filePath
+     * @param file
      * @param parentId
+     * @param charset the file's encoding
      * @return The imported document
      */
     @RequestMapping(method = RequestMethod.POST, path="/import")
     public ResponseEntity<BaseResponse<DocumentDTO>> importFile(@RequestHeader String token, @RequestHeader int ownerId,
-                                                             @RequestParam String filePath, @RequestParam int parentId) {
+                                                             @RequestParam MultipartFile file, @RequestParam int parentId,
+                                                             @RequestParam(defaultValue = "UTF-8") String charset) {
 
         if (!authService.isAuthenticated(ownerId, token)) {
             return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
         }
+        if (file.getOriginalFilename() == null || file.getOriginalFilename().isEmpty()) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("File name is missing!"));
+        }
 
         try {
-            return ResponseEntity.ok(BaseResponse.success(documentService.importFile(filePath, ownerId, parentId)));
+            return ResponseEntity.ok(BaseResponse.success(documentImportService.importFile(file.getInputStream(),
+                    FilesUtils.getFileName(file.getOriginalFilename()), Charset.forName(charset), ownerId, parentId)));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
         }
@@ -273,6 +316,105 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Lists the user's documents page by page, without their content.
+     * @param token
+     * @param userId
+     * @param sort ID, TITLE or LAST_UPDATED (default)
+     * @param cursor nextCursor of the previous page, omitted for the first page
+     * @param size page size, at most DocumentService.MAX_PAGE_SIZE
+     * @return a page of document summaries and the cursor of the next page.
+     */
+    @RequestMapping(method = RequestMethod.GET, path="/listByUser")
+    public ResponseEntity<BaseResponse<DocumentPageDTO>> listByUser(@RequestHeader String token, @RequestHeader int userId,
+                                                                 @RequestParam(defaultValue = "LAST_UPDATED") DocumentSort sort,
+                                                                 @RequestParam(required = false) String cursor,
+                                                                 @RequestParam(defaultValue = "50") int size) {
+        logger.info("in listByUser()");
+
+        if (!authService.isAuthenticated(userId, token)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
+        }
+
+        try {
+            return ResponseEntity.ok(BaseResponse.success(documentService.getDocumentsPageByUser(userId, sort, cursor, size)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the document as it was at a revision, or at a point in time.
+     * User must be logged in and must have view permissions.
+     * @param documentId
+     * @param token
+     * @param userId
+     * @param revision the version's revision, takes precedence over timestamp
+     * @param timestamp ISO date-time, the version at that time
+     * @return the document's content at that version
+     */
+    @RequestMapping(method = RequestMethod.GET, path="/version")
+    public ResponseEntity<BaseResponse<DocumentVersionDTO>> getVersion(@RequestHeader int documentId, @RequestHeader String token,
+                                                                    @RequestHeader int userId,
+                                                                    @RequestParam(required = false) Integer revision,
+                                                                    @RequestParam(required = false)
+                                                                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime timestamp) {
+        logger.info("in getVersion()");
+
+        if (!authService.isAuthenticated(userId, token)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
+        }
+
+        if (!permissionService.isAuthorized(documentId, userId, DocOperation.JOIN)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(
+                    String.format("User #%d is not authorized to view document #%d", userId, documentId)));
+        }
+
+        if (revision == null && timestamp == null) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("Either revision or timestamp is required"));
+        }
+
+        try {
+            return ResponseEntity.ok(BaseResponse.success(revision != null
+                    ? documentHistoryService.getVersion(documentId, revision)
+                    : documentHistoryService.getVersionAt(documentId, timestamp)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the operations between two revisions of the document.
+     * User must be logged in and must have view permissions.
+     * @param documentId
+     * @param token
+     * @param userId
+     * @param fromRevision
+     * @param toRevision
+     * @return the operations that turn fromRevision into toRevision
+     */
+    @RequestMapping(method = RequestMethod.GET, path="/diff")
+    public ResponseEntity<BaseResponse<DocumentDiffDTO>> getDiff(@RequestHeader int documentId, @RequestHeader String token,
+                                                              @RequestHeader int userId, @RequestParam int fromRevision,
+                                                              @RequestParam int toRevision) {
+        logger.info("in getDiff()");
+
+        if (!authService.isAuthenticated(userId, token)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
+        }
+
+        if (!permissionService.isAuthorized(documentId, userId, DocOperation.JOIN)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(
+                    String.format("User #%d is not authorized to view document #%d", userId, documentId)));
+        }
+
+        try {
+            return ResponseEntity.ok(BaseResponse.success(documentHistoryService.getDiff(documentId, fromRevision, toRevision)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+        }
+    }
+
     /**
      * @param shareRequest
      * @return List of Users corresponding to the shareRequest's emails list
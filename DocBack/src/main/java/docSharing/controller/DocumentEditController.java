@@ -1,33 +1,50 @@
 package docSharing.controller;
 
+import docSharing.StompAuthInterceptor;
 import docSharing.controller.request.AccessRequest;
+import docSharing.controller.request.BatchUpdateRequest;
+import docSharing.controller.request.CursorRequest;
 import docSharing.controller.request.UpdateRequest;
 import docSharing.controller.response.BaseResponse;
-import docSharing.entities.DTO.DocumentDTO;
-import docSharing.entities.file.DocOperation;
-import docSharing.entities.file.MetaData;
+import docSharing.entities.DTO.DocumentJoinDTO;
+import docSharing.entities.DTO.PresenceDTO;
+import docSharing.service.CursorService;
+import docSharing.service.DocumentEditExecutor;
 import docSharing.service.DocumentService;
-import docSharing.service.PermissionService;
-import docSharing.utils.Utils;
+import docSharing.service.PresenceService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
-import java.util.ArrayList;
+import java.security.Principal;
 import java.util.List;
+import java.util.Map;
 
 @Controller
 @ComponentScan
 public class DocumentEditController {
+    private static final String JOIN_QUEUE = "/queue/join";
+    private static final String UPDATES_QUEUE = "/queue/updates";
+
     @Autowired
     private DocumentService documentService;
     @Autowired
-    private PermissionService permissionService;
+    private DocumentEditExecutor documentEditExecutor;
+    @Autowired
+    private PresenceService presenceService;
+    @Autowired
+    private CursorService cursorService;
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
 
     private static final Logger logger = LogManager.getLogger(DocumentEditController.class.getName());
 
@@ -35,95 +52,195 @@ public class DocumentEditController {
     }
 
     /**
-     * Checks whether the user is authorized to the file.
      * Inserts the user into the document - on active user (service- join function)
+     * The reply is sent to the joining session only, on /user/queue/join: the operations it missed since
+     * the revision it sent, or the content. The user's presence is announced to /topic/documents/{documentId}/presence.
+     * The join runs in the document's mailbox and replies from there, the inbound channel's thread never waits for it.
+     * Frames reach this controller only after StompAuthInterceptor authorized them, and the userId of every
+     * frame is set to the session's user.
      *
-     * @param accessRequest (documentId, userId)
-     * @return DocumentDTO if success- else error message
+     * @param accessRequest (documentId, userId, revision)
+     * @param headerAccessor the frame's headers, the presence is tracked per WebSocket session
      */
     @MessageMapping("/join")
-    @SendTo("/topic/join")
-    public ResponseEntity<BaseResponse<DocumentDTO>> join(AccessRequest accessRequest) {
+    public void join(AccessRequest accessRequest, SimpMessageHeaderAccessor headerAccessor) {
         logger.info("in join()");
 
-        if(!permissionService.isAuthorized(accessRequest.getDocumentId(), accessRequest.getUserId(), DocOperation.JOIN)) {
-            logger.warn("User is not authorized");
-            return Utils.getNoEditPermissionResponse(accessRequest.getUserId());
-        }
-
-        try {
-            return ResponseEntity.ok(BaseResponse.success(
-                    documentService.join(accessRequest.getDocumentId(), accessRequest.getUserId())));
-        } catch (IllegalArgumentException e) {
-            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
-        }
+        Principal user = headerAccessor.getUser();
+        accessRequest.setUserId(userId(user));
+        String sessionId = headerAccessor.getSessionId();
+        documentEditExecutor.submit(accessRequest.getDocumentId(), () -> {
+            DocumentJoinDTO joined = documentService.join(accessRequest.getDocumentId(), accessRequest.getUserId(),
+                    accessRequest.getRevision());
+            presenceService.join(accessRequest.getDocumentId(), accessRequest.getUserId(), sessionId);
+            return joined;
+        }).whenComplete((joined, e) -> {
+            ResponseEntity<BaseResponse<DocumentJoinDTO>> response = e == null
+                    ? ResponseEntity.ok(BaseResponse.success(joined))
+                    : ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+            replyToSession(user, sessionId, JOIN_QUEUE, response);
+        });
     }
 
     /**
      * Removes the user from the document.
+     * The document's mailbox is released once nobody is left in it.
      *
      * @param accessRequest ( documentId, userId).
+     * @param headerAccessor the frame's headers, the presence is tracked per WebSocket session
      */
     @MessageMapping("/leave")
-    public void leave(AccessRequest accessRequest) {
+    public void leave(AccessRequest accessRequest, SimpMessageHeaderAccessor headerAccessor) {
         logger.info("in leave()");
 
-        try {
-            documentService.leave(accessRequest.getDocumentId(), accessRequest.getUserId());
-        } catch (Exception e) {
-            logger.error(String.format("Failed to leave user #%d from document #%d",
-                    accessRequest.getUserId(), accessRequest.getDocumentId()));
-        }
+        accessRequest.setUserId(userId(headerAccessor.getUser()));
+        presenceService.leave(accessRequest.getDocumentId(), accessRequest.getUserId(), headerAccessor.getSessionId());
+        leaveDocument(accessRequest.getDocumentId(), accessRequest.getUserId());
+    }
+
+    /**
+     * Removes a closed session from the documents it did not leave, the same way as /leave does.
+     * @param event
+     */
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<Integer, Integer> left = presenceService.disconnect(event.getSessionId());
+        left.forEach(this::leaveDocument);
     }
 
     /**
      * get update request and update the content on DB.
-     * @param updateRequest (documentId, userId, type, content, startPosition, endPosition)
-     *
-     * @return the updateRequest
+     * The update is applied and broadcast to /topic/documents/{documentId}/updates from the document's mailbox,
+     * so concurrent updates of the same document are applied and broadcast in order.
+     * An update that cannot be applied (e.g. its revision is too old to rebase) is answered on /user/queue/updates,
+     * to the sending session only, which then joins again to resync.
+     * @param updateRequest (documentId, userId, type, content, startPosition, endPosition, revision, batchId)
+     * @param headerAccessor the frame's headers, failures are sent to the frame's session
      */
     @MessageMapping("/update")
-    @SendTo("/topic/updates")
-    public UpdateRequest update(UpdateRequest updateRequest) {
+    public void update(UpdateRequest updateRequest, SimpMessageHeaderAccessor headerAccessor) {
         logger.info("in update() - update message: " + updateRequest.getContent());
 
-        if (!permissionService.isAuthorized(updateRequest.getDocumentId(), updateRequest.getUserId(), DocOperation.UPDATE)) {
-            return null;
-        }
+        Principal user = headerAccessor.getUser();
+        updateRequest.setUserId(userId(user));
+        String sessionId = headerAccessor.getSessionId();
+        documentEditExecutor.execute(updateRequest.getDocumentId(), () -> {
+            try {
+                documentService.update(updateRequest);
+                messagingTemplate.convertAndSend(documentTopic(updateRequest.getDocumentId(), "updates"), updateRequest);
+            } catch (Exception e) {
+                logger.error("Error occurred while trying to update: " + e.getMessage());
+                replyToSession(user, sessionId, UPDATES_QUEUE,
+                        ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage())));
+            }
+        });
+    }
 
-        try {
-            documentService.update(updateRequest);
-        } catch (Exception e) {
-            logger.error("Error occurred while trying to update: " + e.getMessage());
-        }
+    /**
+     * get a batch of updates to one document and apply it as a single edit.
+     * The batch is authorized once by StompAuthInterceptor, applied all or nothing, and broadcast to
+     * /topic/documents/{documentId}/updates as one message, carrying the client's batchId back to the sender.
+     * A batch that cannot be applied is answered on /user/queue/updates, to the sending session only.
+     * @param batchUpdateRequest (documentId, userId, revision, updates, batchId)
+     * @param headerAccessor the frame's headers, failures are sent to the frame's session
+     */
+    @MessageMapping("/updates")
+    public void update(BatchUpdateRequest batchUpdateRequest, SimpMessageHeaderAccessor headerAccessor) {
+        logger.info("in update() - batch of " + batchUpdateRequest.getUpdates().size() + " updates");
+
+        Principal user = headerAccessor.getUser();
+        batchUpdateRequest.setUserId(userId(user));
+        String sessionId = headerAccessor.getSessionId();
+        documentEditExecutor.execute(batchUpdateRequest.getDocumentId(), () -> {
+            try {
+                documentService.update(batchUpdateRequest);
+                messagingTemplate.convertAndSend(documentTopic(batchUpdateRequest.getDocumentId(), "updates"),
+                        batchUpdateRequest);
+            } catch (Exception e) {
+                logger.error("Error occurred while trying to apply batch update: " + e.getMessage());
+                replyToSession(user, sessionId, UPDATES_QUEUE,
+                        ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage())));
+            }
+        });
+    }
 
-        return updateRequest;
+    /**
+     * get a user's caret or selection.
+     * Cursors are not broadcast one by one: the latest cursor of each user is sent with the others of the
+     * document every tick to /topic/documents/{documentId}/cursors, transformed to the latest revision.
+     * @param cursorRequest (documentId, userId, revision, startPosition, endPosition)
+     * @param user the session's user
+     */
+    @MessageMapping("/cursor")
+    public void cursor(CursorRequest cursorRequest, Principal user) {
+        cursorRequest.setUserId(userId(user));
+        cursorService.submit(cursorRequest);
     }
 
     /**
+     * Sends the metadata of document (title, owner, parentId, created, last update)
+     * to /topic/documents/{documentId}/metadata.
      * @param documentId
-     * @return the metadata of document (title, owner, parentId, created, last update)
      */
     @MessageMapping("/metadata")
-    @SendTo("/topic/metadata")
-    public MetaData getMetaData(int documentId) {
-        return documentService.getMetadata(documentId);
+    public void getMetaData(int documentId) {
+        messagingTemplate.convertAndSend(documentTopic(documentId, "metadata"), documentService.getMetadata(documentId));
     }
 
     /**
-     *
+     * Sends the list of all active user of document to /topic/documents/{documentId}/activeUsers.
+     * Later joins and leaves are sent as deltas to /topic/documents/{documentId}/presence.
      * @param documentId
-     * @return list of all active user of document by document id.
      */
     @MessageMapping("/activeUsers")
-    @SendTo("/topic/activeUsers")
-    public List<String> getActiveUsers(int documentId) {
-        try {
-            return documentService.getActiveUsers(documentId);
-        } catch (Exception e) {
-            logger.error("Error occurred while trying to retrieve active users: " + e.getMessage());
-            return new ArrayList<>();
-        }
+    public void getActiveUsers(int documentId) {
+        List<PresenceDTO> activeUsers = presenceService.getActiveUsers(documentId);
+
+        messagingTemplate.convertAndSend(documentTopic(documentId, "activeUsers"), activeUsers);
+    }
+
+    /**
+     * Document events are published per document, so only the document's editors receive them.
+     * @param documentId
+     * @param channel
+     * @return the destination of the document's channel
+     */
+    public static String documentTopic(int documentId, String channel) {
+        return String.format("/topic/documents/%d/%s", documentId, channel);
+    }
+
+    /**
+     * @param user the principal StompAuthInterceptor set on CONNECT
+     * @return the id of the session's user
+     */
+    private static int userId(Principal user) {
+        return ((StompAuthInterceptor.StompPrincipal) user).getUserId();
+    }
+
+    /**
+     * Closes userId's edits of the document in its mailbox, and releases the mailbox once nobody is left in it.
+     * The user's presence is already removed.
+     */
+    private void leaveDocument(int documentId, int userId) {
+        documentEditExecutor.execute(documentId, () -> {
+            documentService.leave(documentId, userId);
+            if (!presenceService.isActive(documentId)) {
+                documentEditExecutor.release(documentId);
+            }
+        }).exceptionally(e -> {
+            logger.error(String.format("Failed to leave user #%d from document #%d", userId, documentId));
+            return null;
+        });
+    }
+
+    /**
+     * Sends payload to one session of user, the way @SendToUser(broadcast = false) replies.
+     */
+    private void replyToSession(Principal user, String sessionId, String destination, Object payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(user.getName(), destination, payload, headers.getMessageHeaders());
     }
 
     /**
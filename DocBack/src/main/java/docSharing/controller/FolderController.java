@@ -1,6 +1,8 @@
 package docSharing.controller;
 
+import docSharing.controller.request.MoveRequest;
 import docSharing.controller.response.BaseResponse;
+import docSharing.entities.DTO.FolderPageDTO;
 import docSharing.entities.file.Folder;
 import docSharing.service.AuthService;
 import docSharing.service.FolderService;
@@ -9,6 +11,7 @@ import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @CrossOrigin
@@ -47,6 +50,43 @@ public class FolderController {
         }
     }
 
+    /**
+     * Lists the folder's documents and folders page by page, ordered by title.
+     * The ETag is the folder's modification counter, so a client revalidating with If-None-Match
+     * gets 304 Not Modified without the page being read while the folder has not changed.
+     * User must be logged in.
+     * @param token
+     * @param userId
+     * @param folderId
+     * @param cursor nextCursor of the previous page, omitted for the first page
+     * @param size page size, at most DocumentService.MAX_PAGE_SIZE
+     * @param request
+     * @return a page of the folder's files and the cursor of the next page.
+     */
+    @RequestMapping(method = RequestMethod.GET, path="/children")
+    public ResponseEntity<BaseResponse<FolderPageDTO>> children(@RequestHeader String token, @RequestHeader int userId,
+                                                                @RequestParam int folderId,
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(defaultValue = "50") int size,
+                                                                WebRequest request) {
+        logger.info("in children()");
+
+        if (!authService.isAuthenticated(userId, token)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
+        }
+
+        try {
+            String eTag = "\"" + folderId + "-" + folderService.getModifications(folderId) + "\"";
+            if (request.checkNotModified(eTag)) {
+                return null;
+            }
+
+            return ResponseEntity.ok().eTag(eTag).body(BaseResponse.success(folderService.getChildren(folderId, cursor, size)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+        }
+    }
+
     /**
      * Updates folder's parent folder.
      * User must be logged in.
@@ -98,9 +138,35 @@ public class FolderController {
         }
     }
 
+    /**
+     * Moves documents and folders to another folder in one batch, renaming the files given a new title.
+     * Titles must be unique in the destination folder and must not be empty.
+     * User must be logged in and may move, and rename if given a new title, every moved document.
+     * Only a node that edits all the moved documents accepts it.
+     * @param token
+     * @param userId
+     * @param moveRequest
+     */
+    @RequestMapping(method = RequestMethod.PATCH, path="/move")
+    public ResponseEntity<BaseResponse<Void>> move(@RequestHeader String token, @RequestHeader int userId,
+                                                   @RequestBody MoveRequest moveRequest) {
+        logger.info("in move()");
+
+        if (!authService.isAuthenticated(userId, token)) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
+        }
+
+        try {
+            folderService.move(moveRequest, userId);
+            return ResponseEntity.ok(BaseResponse.noContent(true, "Files were successfully moved"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
+        }
+    }
+
     /**
      * Deletes folder from the database.
-     * User must be logged in.
+     * User must be logged in. Only a node that edits all the documents below the folder accepts it.
      * @param folderId
      * @param userId
      * @param token
@@ -114,10 +180,14 @@ public class FolderController {
             return ResponseEntity.badRequest().body(BaseResponse.failure("User is not logged-in!"));
         }
 
-        if (folderService.delete(folderId)) {
-            return ResponseEntity.ok(BaseResponse.noContent(true, "Folder was successfully deleted"));
-        } else {
-            return ResponseEntity.badRequest().body(BaseResponse.failure("Folder deletion failed"));
+        try {
+            if (folderService.delete(folderId)) {
+                return ResponseEntity.ok(BaseResponse.noContent(true, "Folder was successfully deleted"));
+            } else {
+                return ResponseEntity.badRequest().body(BaseResponse.failure("Folder deletion failed"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(BaseResponse.failure(e.getMessage()));
         }
     }
 }
@@ -3,6 +3,8 @@ package docSharing.controller.request;
 public class AccessRequest {
     private int documentId;
     private int userId;
+    // The revision of the client's copy of the document, null if it has none.
+    private Integer revision;
 
     public AccessRequest() {
     }
@@ -20,6 +22,10 @@ public class AccessRequest {
         return userId;
     }
 
+    public Integer getRevision() {
+        return revision;
+    }
+
     public void setDocumentId(int documentId) {
         this.documentId = documentId;
     }
@@ -27,4 +33,8 @@ public class AccessRequest {
     public void setUserId(int userId) {
         this.userId = userId;
     }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
 }
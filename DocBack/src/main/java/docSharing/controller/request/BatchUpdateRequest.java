@@ -0,0 +1,67 @@
+package docSharing.controller.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchUpdateRequest {
+    private int documentId;
+    private int userId;
+    // Sent by the client: the document revision all the updates were based on (null - apply as is).
+    // Broadcast by the server: the revision the last update created.
+    private Integer revision;
+    // Applied in order, each update sees the document as left by the previous one.
+    private List<UpdateRequest> updates;
+    // Set by the client and broadcast back as is, the sending session recognizes its own batch by it.
+    private String batchId;
+
+    public BatchUpdateRequest() {
+        this.updates = new ArrayList<>();
+    }
+
+    public BatchUpdateRequest(int documentId, int userId, Integer revision, List<UpdateRequest> updates) {
+        this.documentId = documentId;
+        this.userId = userId;
+        this.revision = revision;
+        this.updates = updates;
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(int documentId) {
+        this.documentId = documentId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public List<UpdateRequest> getUpdates() {
+        return updates;
+    }
+
+    public void setUpdates(List<UpdateRequest> updates) {
+        this.updates = updates;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+}
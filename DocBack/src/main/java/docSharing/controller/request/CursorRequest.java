@@ -0,0 +1,75 @@
+package docSharing.controller.request;
+
+/**
+ * A user's caret or selection [startPosition, endPosition) in a document, as of the given revision.
+ * A caret has startPosition == endPosition.
+ */
+public class CursorRequest {
+    private int documentId;
+    private int userId;
+    private Integer revision;
+    private int startPosition;
+    private int endPosition;
+
+    public CursorRequest() {
+    }
+
+    public CursorRequest(int documentId, int userId, Integer revision, int startPosition, int endPosition) {
+        this.documentId = documentId;
+        this.userId = userId;
+        this.revision = revision;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public int getStartPosition() {
+        return startPosition;
+    }
+
+    public int getEndPosition() {
+        return endPosition;
+    }
+
+    public void setDocumentId(int documentId) {
+        this.documentId = documentId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public void setStartPosition(int startPosition) {
+        this.startPosition = startPosition;
+    }
+
+    public void setEndPosition(int endPosition) {
+        this.endPosition = endPosition;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorRequest{" +
+                "documentId=" + documentId +
+                ", userId=" + userId +
+                ", revision=" + revision +
+                ", startPosition=" + startPosition +
+                ", endPosition=" + endPosition +
+                '}';
+    }
+}
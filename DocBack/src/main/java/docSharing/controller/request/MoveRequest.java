@@ -0,0 +1,65 @@
+package docSharing.controller.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MoveRequest {
+    private int parentId;
+    // Documents and folders alike, moved together to parentId.
+    private List<Item> files;
+
+    public MoveRequest() {
+        this.files = new ArrayList<>();
+    }
+
+    public MoveRequest(int parentId, List<Item> files) {
+        this.parentId = parentId;
+        this.files = files;
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(int parentId) {
+        this.parentId = parentId;
+    }
+
+    public List<Item> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<Item> files) {
+        this.files = files;
+    }
+
+    public static class Item {
+        private int fileId;
+        // The file's new title (null - keep its title).
+        private String title;
+
+        public Item() {
+        }
+
+        public Item(int fileId, String title) {
+            this.fileId = fileId;
+            this.title = title;
+        }
+
+        public int getFileId() {
+            return fileId;
+        }
+
+        public void setFileId(int fileId) {
+            this.fileId = fileId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -7,6 +7,11 @@ public class UpdateRequest {
     private String content;
     private int startPosition;
     private int endPosition;
+    // Sent by the client: the document revision the update was based on (null - apply as is).
+    // Broadcast by the server: the revision the update created.
+    private Integer revision;
+    // Set by the client and broadcast back as is, the sending session recognizes its own update by it.
+    private String batchId;
 
     public UpdateRequest() {
     }
@@ -18,6 +23,8 @@ public class UpdateRequest {
         this.content = builder.content;
         this.startPosition = builder.startPosition;
         this.endPosition = builder.endPosition;
+        this.revision = builder.revision;
+        this.batchId = builder.batchId;
     }
 
     public int getDocumentId() {
@@ -68,6 +75,22 @@ public class UpdateRequest {
         this.endPosition = endPosition;
     }
 
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
     public enum UpdateType{
         DELETE,
         APPEND,
@@ -82,6 +105,8 @@ public class UpdateRequest {
         private String content;
         private int startPosition;
         private int endPosition;
+        private Integer revision;
+        private String batchId;
 
         public UpdateRequestBuilder() {
         }
@@ -116,6 +141,16 @@ public class UpdateRequest {
             return this;
         }
 
+        public UpdateRequestBuilder setRevision(Integer revision) {
+            this.revision = revision;
+            return this;
+        }
+
+        public UpdateRequestBuilder setBatchId(String batchId) {
+            this.batchId = batchId;
+            return this;
+        }
+
         public UpdateRequest build() {
             return new UpdateRequest(this);
         }
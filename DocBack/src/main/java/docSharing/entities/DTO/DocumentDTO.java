@@ -8,6 +8,7 @@ public class DocumentDTO {
     private String url;
     private MetaData metaData;
     private String content;
+    private int revision;
 
     public DocumentDTO() {
     }
@@ -23,6 +24,7 @@ public class DocumentDTO {
         this.metaData = document.getMetadata();
         this.url = url;
         this.content = document.getContent();
+        this.revision = document.getRevision();
     }
 
     public int getDocumentId() {
@@ -40,4 +42,8 @@ public class DocumentDTO {
     public String getContent() {
         return content;
     }
+
+    public int getRevision() {
+        return revision;
+    }
 }
@@ -0,0 +1,41 @@
+package docSharing.entities.DTO;
+
+import docSharing.entities.file.OperationLog;
+
+import java.util.List;
+
+/**
+ * The changes between two revisions of a document: the operations that turn the first into the second.
+ */
+public class DocumentDiffDTO {
+    private int documentId;
+    private int fromRevision;
+    private int toRevision;
+    private List<OperationLog> operations;
+
+    public DocumentDiffDTO() {
+    }
+
+    public DocumentDiffDTO(int documentId, int fromRevision, int toRevision, List<OperationLog> operations) {
+        this.documentId = documentId;
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.operations = operations;
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getFromRevision() {
+        return fromRevision;
+    }
+
+    public int getToRevision() {
+        return toRevision;
+    }
+
+    public List<OperationLog> getOperations() {
+        return operations;
+    }
+}
@@ -0,0 +1,83 @@
+package docSharing.entities.DTO;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.MetaData;
+import docSharing.entities.file.OperationHistory;
+import docSharing.entities.file.TextOperation;
+
+import java.util.List;
+
+/**
+ * The reply to a join, sent to the joining session only.
+ * A client that already has the document at a recent revision gets the operations it missed; any other
+ * client gets the content. The content is serialized once per revision and shared by all joiners.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DocumentJoinDTO {
+    private int documentId;
+    private String url;
+    private MetaData metaData;
+    private int revision;
+    private String content;
+    private List<TextOperation> operations;
+
+    public DocumentJoinDTO() {
+    }
+
+    private DocumentJoinDTO(Document document, String url, String content, List<TextOperation> operations) {
+        this.documentId = document.getId();
+        this.url = url;
+        this.metaData = document.getMetadata();
+        this.revision = document.getRevision();
+        this.content = content;
+        this.operations = operations;
+    }
+
+    /**
+     * Must run in the document's edit mailbox.
+     * @param document
+     * @param url
+     * @param baseRevision the revision the client last saw, null if it has no copy of the document
+     * @param maxMissedOperations above it the content is sent instead of the operations
+     * @return the operations applied after baseRevision if they are known and few enough, otherwise the content
+     */
+    public static DocumentJoinDTO of(Document document, String url, Integer baseRevision, int maxMissedOperations) {
+        OperationHistory history = document.getHistory();
+        if (baseRevision != null && history.contains(baseRevision)
+                && document.getRevision() - baseRevision <= maxMissedOperations) {
+            return new DocumentJoinDTO(document, url, null, history.since(baseRevision));
+        }
+
+        return new DocumentJoinDTO(document, url, document.getContentJson(), null);
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public MetaData getMetaData() {
+        return metaData;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the content as a JSON string literal, written to the reply as is.
+     */
+    @JsonRawValue
+    public String getContent() {
+        return content;
+    }
+
+    public List<TextOperation> getOperations() {
+        return operations;
+    }
+}
@@ -0,0 +1,25 @@
+package docSharing.entities.DTO;
+
+import java.util.List;
+
+public class DocumentPageDTO {
+    private List<DocumentSummaryDTO> documents;
+    // Pass back as the cursor to get the next page, null on the last page.
+    private String nextCursor;
+
+    public DocumentPageDTO() {
+    }
+
+    public DocumentPageDTO(List<DocumentSummaryDTO> documents, String nextCursor) {
+        this.documents = documents;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<DocumentSummaryDTO> getDocuments() {
+        return documents;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
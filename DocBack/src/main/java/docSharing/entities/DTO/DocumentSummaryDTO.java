@@ -0,0 +1,65 @@
+package docSharing.entities.DTO;
+
+import docSharing.entities.permission.Permission;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * A document listing row: everything a dashboard shows, without the document's content.
+ * Built directly by a JPQL constructor expression, so no entity is loaded.
+ */
+public class DocumentSummaryDTO {
+    private int documentId;
+    private String title;
+    private int parentId;
+    private LocalDate created;
+    private LocalDateTime lastUpdated;
+    private Permission permission;
+    private String url;
+
+    public DocumentSummaryDTO() {
+    }
+
+    public DocumentSummaryDTO(int documentId, String title, int parentId, LocalDate created,
+                              LocalDateTime lastUpdated, Permission permission) {
+        this.documentId = documentId;
+        this.title = title;
+        this.parentId = parentId;
+        this.created = created;
+        this.lastUpdated = lastUpdated;
+        this.permission = permission;
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    public LocalDate getCreated() {
+        return created;
+    }
+
+    public LocalDateTime getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public Permission getPermission() {
+        return permission;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+}
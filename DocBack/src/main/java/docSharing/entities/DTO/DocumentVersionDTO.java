@@ -0,0 +1,40 @@
+package docSharing.entities.DTO;
+
+import java.time.LocalDateTime;
+
+/**
+ * A document's content as it was at a past revision.
+ */
+public class DocumentVersionDTO {
+    private int documentId;
+    private int revision;
+    // When the revision was created, null for the initial empty version.
+    private LocalDateTime timestamp;
+    private String content;
+
+    public DocumentVersionDTO() {
+    }
+
+    public DocumentVersionDTO(int documentId, int revision, LocalDateTime timestamp, String content) {
+        this.documentId = documentId;
+        this.revision = revision;
+        this.timestamp = timestamp;
+        this.content = content;
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public String getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,55 @@
+package docSharing.entities.DTO;
+
+import java.time.LocalDateTime;
+
+/**
+ * A folder listing row: a document or a folder, without its content or children.
+ * Built directly by a JPQL constructor expression, so no entity is loaded.
+ */
+public class FolderChildDTO {
+    private int fileId;
+    private String title;
+    private boolean folder;
+    private LocalDateTime lastUpdated;
+    private int ownerId;
+    private String ownerName;
+
+    public FolderChildDTO() {
+    }
+
+    public FolderChildDTO(int fileId, String title, boolean folder, LocalDateTime lastUpdated, int ownerId) {
+        this.fileId = fileId;
+        this.title = title;
+        this.folder = folder;
+        this.lastUpdated = lastUpdated;
+        this.ownerId = ownerId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isFolder() {
+        return folder;
+    }
+
+    public LocalDateTime getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public void setOwnerName(String ownerName) {
+        this.ownerName = ownerName;
+    }
+}
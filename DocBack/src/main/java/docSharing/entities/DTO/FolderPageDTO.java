@@ -0,0 +1,25 @@
+package docSharing.entities.DTO;
+
+import java.util.List;
+
+public class FolderPageDTO {
+    private List<FolderChildDTO> children;
+    // Pass back as the cursor to get the next page, null on the last page.
+    private String nextCursor;
+
+    public FolderPageDTO() {
+    }
+
+    public FolderPageDTO(List<FolderChildDTO> children, String nextCursor) {
+        this.children = children;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<FolderChildDTO> getChildren() {
+        return children;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,41 @@
+package docSharing.entities.DTO;
+
+/**
+ * A user's presence in a document. Sent as a delta when the user joins (active) or leaves (not active),
+ * and as the list of active users when a client asks for it.
+ */
+public class PresenceDTO {
+    private int userId;
+    private String name;
+    private boolean active;
+
+    public PresenceDTO() {
+    }
+
+    public PresenceDTO(int userId, String name, boolean active) {
+        this.userId = userId;
+        this.name = name;
+        this.active = active;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public String toString() {
+        return "PresenceDTO{" +
+                "userId=" + userId +
+                ", name='" + name + '\'' +
+                ", active=" + active +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package docSharing.entities.file;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * How far a compaction job got, so a restarted job carries on where the last run stopped.
+ */
+@Entity
+@Table(name = "compaction_watermarks")
+public class CompactionWatermark {
+    @Id
+    private String name;
+    private LocalDateTime compactedUntil;
+
+    public CompactionWatermark() {
+    }
+
+    public CompactionWatermark(String name, LocalDateTime compactedUntil) {
+        this.name = name;
+        this.compactedUntil = compactedUntil;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LocalDateTime getCompactedUntil() {
+        return compactedUntil;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionWatermark{" +
+                "name='" + name + '\'' +
+                ", compactedUntil=" + compactedUntil +
+                '}';
+    }
+}
@@ -10,56 +10,225 @@ public class Content {
     @GeneratedValue(strategy = GenerationType.AUTO)
     private int id;
 
-    private String content;
+    // Edits are applied to the rope. The content column only holds the latest snapshot,
+    // later revisions are rebuilt by replaying the document's OperationLog.
+    @Transient
+    private volatile State state;
+
+    @Transient
+    private volatile Materialized materialized;
+
+    @Transient
+    private volatile String snapshotText;
+
+    @Column(name = "snapshot_revision")
+    private volatile int snapshotRevision;
+
+    // Logged since the snapshot, used to decide when the next snapshot is due.
+    @Transient
+    private int loggedOperations;
+
+    @Transient
+    private long loggedBytes;
 
     @OneToOne(mappedBy = "content")
     private Document document;
 
     public Content() {
-        content = "";
+        this.state = new State(Rope.empty(), 0);
+        this.snapshotText = "";
     }
 
+    /**
+     * Replaces the whole content. The new content is also the new snapshot.
+     * @param content
+     */
     public void setContent(String content) {
-        this.content = content;
+        String text = content == null ? "" : content;
+        State replaced = new State(Rope.of(text), this.state.revision);
+        this.state = replaced;
+        this.materialized = new Materialized(replaced.rope, text);
+        snapshotSaved(new Snapshot(text, replaced.revision));
     }
 
     public String getContent() {
-        return content;
+        return materialize(this.state.rope);
     }
 
-    public String append(String content, int start) {
-        this.content = this.content.substring(0, start) + content;
-        if (this.content.length() >= start + content.length()) {
-            this.content += this.content.substring(start + content.length());
-        }
+    public int length() {
+        return this.state.rope.length();
+    }
 
-        return this.content;
+    /**
+     * @return the revision of the latest applied operation.
+     */
+    public int getRevision() {
+        return this.state.revision;
     }
 
-    public String delete(int start, int end) {
+    public void append(String content, int start) {
+        edit(this.state.rope.insert(start, content));
+    }
+
+    public void delete(int start, int end) {
         int count = start - end;
-        this.content = this.content.substring(0, max(0, start - count)) + this.content.substring(start);
+        edit(this.state.rope.delete(max(0, start - count), start));
+    }
+
+    public void appendRange(String content, int start, int end) {
+        edit(this.state.rope.replace(start, end, content));
+    }
+
+    public void deleteRange(int start, int end) {
+        edit(this.state.rope.delete(start, end));
+    }
+
+    /**
+     * Applies operation as revision. The text and its revision are published together,
+     * so a concurrent snapshot never pairs one with the other's previous value.
+     * @param operation
+     * @param revision
+     */
+    public void apply(TextOperation operation, int revision) {
+        this.state = new State(this.state.rope.replace(operation.getFrom(), operation.getTo(), operation.getText()),
+                revision);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSnapshotRevision() {
+        return snapshotRevision;
+    }
+
+    /**
+     * @return the current content and its revision, consistent with each other.
+     */
+    public Snapshot snapshot() {
+        State current = this.state;
+        return new Snapshot(materialize(current.rope), current.revision);
+    }
+
+    /**
+     * Records that snapshot was persisted, which resets the operations logged since the last snapshot.
+     * @param snapshot
+     */
+    public void snapshotSaved(Snapshot snapshot) {
+        this.snapshotText = snapshot.text;
+        this.snapshotRevision = snapshot.revision;
+        this.loggedOperations = 0;
+        this.loggedBytes = 0;
+    }
+
+    /**
+     * Records operations appended to the operation log since the last snapshot.
+     * @param operations
+     * @param bytes
+     */
+    public void operationsLogged(int operations, long bytes) {
+        this.loggedOperations += operations;
+        this.loggedBytes += bytes;
+    }
+
+    public int getLoggedOperations() {
+        return loggedOperations;
+    }
+
+    public long getLoggedBytes() {
+        return loggedBytes;
+    }
+
+    State getState() {
+        return this.state;
+    }
+
+    /**
+     * Restores a state returned by getState(), if a batch of edits fails half way.
+     * @param state
+     */
+    void restore(State state) {
+        this.state = state;
+    }
 
-        return this.content;
+    @Access(AccessType.PROPERTY)
+    @Column(name = "content")
+    @Lob
+    protected String getPersistedContent() {
+        return this.snapshotText;
     }
 
-    public String appendRange(String content, int start, int end) {
-        this.content = this.content.substring(0, start) + content
-                + this.content.substring(end);
+    protected void setPersistedContent(String content) {
+        this.snapshotText = content == null ? "" : content;
+    }
+
+    @PostLoad
+    private void loadSnapshot() {
+        this.state = new State(Rope.of(this.snapshotText), this.snapshotRevision);
+        this.materialized = new Materialized(this.state.rope, this.snapshotText);
+    }
 
-        return this.content;
+    private void edit(Rope edited) {
+        this.state = new State(edited, this.state.revision);
     }
 
-    public String deleteRange(int start, int end) {
-        this.content = this.content.substring(0, start) + this.content.substring(end);
+    private String materialize(Rope rope) {
+        Materialized cached = this.materialized;
+        if (cached != null && cached.rope == rope) {
+            return cached.text;
+        }
 
-        return this.content;
+        String text = rope.toString();
+        this.materialized = new Materialized(rope, text);
+        return text;
     }
 
     @Override
     public String toString() {
         return "Content{" +
-                "content='" + content + '\'' +
+                "length=" + length() +
+                ", revision=" + getRevision() +
                 '}';
     }
-}
\ No newline at end of file
+
+    /**
+     * The content at a revision.
+     */
+    public static final class Snapshot {
+        private final String text;
+        private final int revision;
+
+        public Snapshot(String text, int revision) {
+            this.text = text;
+            this.revision = revision;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+    }
+
+    static final class State {
+        private final Rope rope;
+        private final int revision;
+
+        private State(Rope rope, int revision) {
+            this.rope = rope;
+            this.revision = revision;
+        }
+    }
+
+    private static final class Materialized {
+        private final Rope rope;
+        private final String text;
+
+        private Materialized(Rope rope, String text) {
+            this.rope = rope;
+            this.text = text;
+        }
+    }
+}
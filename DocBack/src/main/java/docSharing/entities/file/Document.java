@@ -1,5 +1,6 @@
 package docSharing.entities.file;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import docSharing.controller.request.UpdateRequest;
 import docSharing.entities.User;
 import docSharing.repository.UpdateLogRepository;
@@ -12,36 +13,76 @@ import java.util.List;
 @Entity
 @Table(name = "document")
 public class Document extends File {
-    @OneToOne(cascade = CascadeType.ALL)
+    // Lazy: metadata-only paths never read the body. Documents opened for editing are
+    // loaded with DocumentRepository.findWithContentById instead.
+    @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JoinColumn(name = "content_id", referencedColumnName = "id")
     private Content content;
 
     @Transient
-    private final List<Integer> activeUsers;
+    private UpdateLog lastUpdate;
 
+    // Created on the first edit, documents that are never edited do not hold a buffer.
     @Transient
-    private UpdateLog lastUpdate;
+    private OperationHistory history;
+
+    // The content serialized for join replies, reused until the next edit.
+    @Transient
+    private String contentJson;
+
+    @Transient
+    private int contentJsonRevision;
 
 
     public Document() {
         super();
-        this.activeUsers = new ArrayList<>();
     }
 
     public Document(User owner, int parentId, String title) {
         super(owner, parentId, title);
         this.content = new Content();
-        this.activeUsers = new ArrayList<>();
     }
 
     public void setContent(String content) {
         this.content.setContent(content);
+        this.contentJson = null;
     }
 
     public String getContent() {
         return content.getContent();
     }
 
+    public int getContentLength() {
+        return content.length();
+    }
+
+    /**
+     * @return the content as a JSON string literal, serialized once per revision.
+     */
+    public String getContentJson() {
+        if (this.contentJson == null || this.contentJsonRevision != getRevision()) {
+            this.contentJson = '"' + new String(JsonStringEncoder.getInstance().quoteAsString(getContent())) + '"';
+            this.contentJsonRevision = getRevision();
+        }
+
+        return this.contentJson;
+    }
+
+    /**
+     * @return the length of the serialized content held for join replies, 0 if none is held.
+     */
+    public int getContentJsonLength() {
+        String contentJson = this.contentJson;
+        return contentJson == null ? 0 : contentJson.length();
+    }
+
+    /**
+     * Drops the serialized content, the next join reply serializes it again.
+     */
+    public void dropContentJson() {
+        this.contentJson = null;
+    }
+
     public UpdateLog getLastUpdate() {
         return lastUpdate;
     }
@@ -54,49 +95,150 @@ public class Document extends File {
         this.lastUpdate.unite(updateLog);
     }
 
-    public void addActiveUser(int userId) {
-        if (!this.activeUsers.contains(userId)) {
-            this.activeUsers.add(userId);
-        }
+    public int getRevision() {
+        return this.content.getRevision();
     }
 
-    public void removeActiveUser(int userId) {
-        if (this.activeUsers.contains(userId)) {
-            this.activeUsers.remove(userId);
+    public OperationHistory getHistory() {
+        if (this.history == null) {
+            this.history = new OperationHistory(OperationHistory.DEFAULT_CAPACITY, getRevision());
         }
+
+        return this.history;
+    }
+
+    public int getContentId() {
+        return this.content.getId();
     }
 
-    public List<Integer> getActiveUsers() {
-        return this.activeUsers;
+    public int getSnapshotRevision() {
+        return this.content.getSnapshotRevision();
     }
 
-    public boolean isContinuousLog(UpdateLog updateLog) {
-        return this.lastUpdate != null && this.lastUpdate.isContinuousLog(updateLog);
+    /**
+     * @return the current content and its revision, safe to call while the document is being edited.
+     */
+    public Content.Snapshot snapshot() {
+        return this.content.snapshot();
     }
 
-    public boolean isActiveUser(int userId) {
-        return this.activeUsers.contains(userId);
+    public void snapshotSaved(Content.Snapshot snapshot) {
+        this.content.snapshotSaved(snapshot);
     }
 
+    public void operationsLogged(int operations, long bytes) {
+        this.content.operationsLogged(operations, bytes);
+    }
+
+    public int getLoggedOperations() {
+        return this.content.getLoggedOperations();
+    }
+
+    public long getLoggedBytes() {
+        return this.content.getLoggedBytes();
+    }
+
+    /**
+     * Rebuilds the latest content by replaying the operations logged after the loaded snapshot.
+     * Replayed operations are also kept in the history, so clients can still rebase on them.
+     * @param operations the document's operations after the snapshot revision, ordered by revision
+     * @throws IllegalStateException if a revision is missing from the log
+     */
+    public void replay(List<OperationLog> operations) {
+        this.history = new OperationHistory(OperationHistory.DEFAULT_CAPACITY, getRevision());
+
+        long bytes = 0;
+        int replayed = 0;
+        for (OperationLog operation : operations) {
+            if (operation.getRevision() <= getRevision()) {
+                continue;
+            }
+            if (operation.getRevision() != getRevision() + 1) {
+                throw new IllegalStateException(String.format("Operation log of document #%d is missing revision %d",
+                        getId(), getRevision() + 1));
+            }
+
+            TextOperation textOperation = operation.toTextOperation();
+            this.content.apply(textOperation, operation.getRevision());
+            this.history.append(textOperation);
+            bytes += operation.size();
+            replayed++;
+        }
+
+        this.content.operationsLogged(replayed, bytes);
+    }
+
+    /**
+     * Rebases updateRequest on the latest revision, applies it and assigns it a new revision.
+     * updateRequest's positions and revision are updated in place, so it can be broadcast as is.
+     * @param updateRequest
+     * @return the update's log entry
+     */
     public UpdateLog updateContent(UpdateRequest updateRequest) {
-        switch (updateRequest.getType()) {
-            case APPEND:
-                this.content.append(updateRequest.getContent(), updateRequest.getStartPosition());
-                break;
-            case DELETE:
-                this.content.delete(updateRequest.getStartPosition(), updateRequest.getEndPosition());
-                break;
-            case APPEND_RANGE:
-                this.content.appendRange(updateRequest.getContent(), updateRequest.getStartPosition(),
-                        updateRequest.getEndPosition());
-                break;
-            case DELETE_RANGE:
-                this.content.deleteRange(updateRequest.getStartPosition(), updateRequest.getEndPosition());
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported update request type!");
+        // Created before the content changes, so the history starts at the revision before this update.
+        OperationHistory history = getHistory();
+        TextOperation operation = TextOperation.of(updateRequest);
+        if (updateRequest.getRevision() != null) {
+            operation = history.rebase(operation, updateRequest.getRevision());
+            operation.applyTo(updateRequest);
         }
 
+        return apply(updateRequest, operation, history);
+    }
+
+    /**
+     * Applies updateRequests in order, all or nothing.
+     * Every update was created after the previous updates of the batch, so it cannot be rebased from the
+     * base revision directly: the concurrent updates are transformed past each applied update of the batch,
+     * and the next update is rebased on them.
+     * If any update fails, the content and the history are restored and the exception is rethrown.
+     * @param updateRequests
+     * @param baseRevision the revision the batch was based on (null - apply as is)
+     * @return the log entries of the applied updates
+     */
+    public List<UpdateLog> updateContent(List<UpdateRequest> updateRequests, Integer baseRevision) {
+        OperationHistory history = getHistory();
+        List<TextOperation> concurrent = new ArrayList<>();
+        if (baseRevision != null) {
+            concurrent.addAll(history.since(baseRevision));
+        }
+
+        Content.State previousContent = this.content.getState();
+        int previousRevision = getRevision();
+
+        List<UpdateLog> updateLogs = new ArrayList<>(updateRequests.size());
+        try {
+            for (UpdateRequest updateRequest : updateRequests) {
+                TextOperation operation = TextOperation.of(updateRequest);
+                for (int i = 0; i < concurrent.size(); i++) {
+                    TextOperation applied = concurrent.get(i);
+                    concurrent.set(i, applied.transform(operation, true));
+                    operation = operation.transform(applied, false);
+                }
+                if (baseRevision != null) {
+                    operation.applyTo(updateRequest);
+                }
+
+                updateLogs.add(apply(updateRequest, operation, history));
+            }
+        } catch (RuntimeException e) {
+            this.content.restore(previousContent);
+            history.truncate(previousRevision);
+            throw e;
+        }
+
+        return updateLogs;
+    }
+
+    /**
+     * Applies operation, the rebased form of updateRequest, and assigns updateRequest its new revision.
+     */
+    private UpdateLog apply(UpdateRequest updateRequest, TextOperation operation, OperationHistory history) {
+        int revision = getRevision() + 1;
+        this.content.apply(operation, revision);
+        history.append(operation);
+
+        updateRequest.setRevision(revision);
         this.getMetadata().setLastUpdated(LocalDateTime.now());
         return new UpdateLog(updateRequest, LocalDateTime.now(), this);
     }
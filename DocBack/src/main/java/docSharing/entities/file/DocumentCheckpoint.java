@@ -0,0 +1,93 @@
+package docSharing.entities.file;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The full content of a document at a revision, kept for version history.
+ * A past version is rebuilt from the nearest checkpoint at or before it, by replaying the
+ * operations logged between them, so the replay never exceeds the distance between checkpoints.
+ */
+@Entity
+@Table(name = "documents_checkpoints",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"document_id", "revision"}))
+public class DocumentCheckpoint {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private int id;
+    @Column(name = "document_id")
+    private int documentId;
+    @Column(name = "revision")
+    private int revision;
+    private LocalDateTime timestamp;
+    @Lob
+    private String content;
+
+    public DocumentCheckpoint() {
+    }
+
+    public DocumentCheckpoint(int documentId, Content.Snapshot snapshot, LocalDateTime timestamp) {
+        this.documentId = documentId;
+        this.revision = snapshot.getRevision();
+        this.content = snapshot.getText();
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * The checkpoint of a document that has none: its empty content before the first operation.
+     * @param documentId
+     * @return the initial checkpoint
+     */
+    public static DocumentCheckpoint initial(int documentId) {
+        return new DocumentCheckpoint(documentId, new Content.Snapshot("", 0), null);
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Applies operations to this checkpoint's content.
+     * @param operations the operations right after this checkpoint, ordered by revision
+     * @return the content at the last operation's revision
+     * @throws IllegalStateException if a revision is missing from operations
+     */
+    public Content.Snapshot replay(List<OperationLog> operations) {
+        Rope rope = Rope.of(content);
+        int current = revision;
+        for (OperationLog operation : operations) {
+            if (operation.getRevision() != current + 1) {
+                throw new IllegalStateException(String.format("Operation log of document #%d is missing revision %d",
+                        documentId, current + 1));
+            }
+
+            TextOperation textOperation = operation.toTextOperation();
+            rope = rope.replace(textOperation.getFrom(), textOperation.getTo(), textOperation.getText());
+            current = operation.getRevision();
+        }
+
+        return new Content.Snapshot(rope.toString(), current);
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCheckpoint{" +
+                "documentId=" + documentId +
+                ", revision=" + revision +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
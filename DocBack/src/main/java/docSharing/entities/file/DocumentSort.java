@@ -0,0 +1,11 @@
+package docSharing.entities.file;
+
+/**
+ * Orders of the paginated document listing.
+ * Every order is total (ties are broken by document id), which keyset pagination requires.
+ */
+public enum DocumentSort {
+    ID,
+    TITLE,
+    LAST_UPDATED
+}
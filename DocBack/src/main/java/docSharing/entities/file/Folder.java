@@ -3,33 +3,25 @@ package docSharing.entities.file;
 import docSharing.entities.User;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * A folder's children are kept in the folder tree (FolderEntry), not in the folder itself.
+ */
 @Entity
 @Table(name = "folder")
 public class Folder extends File {
-    @ElementCollection
-    @Column(name = "sub_files")
-    private List<File> subFiles;
+    // Bumped whenever the folder's children change, the ETag of its listing.
+    @Column(name = "modifications", nullable = false)
+    private long modifications;
 
     public Folder() {
     }
 
     public Folder(User owner, int parentId, String title) {
         super(owner, parentId, title);
-        this.subFiles = new ArrayList<>();
     }
 
-    public List<File> getSubFiles() {
-        return subFiles;
-    }
-
-    public void addSubFile(File file) {
-        this.subFiles.add(file);
-    }
-
-    public void removeSubFile(File file) {
-        this.subFiles.remove(file);
+    public long getModifications() {
+        return modifications;
     }
 }
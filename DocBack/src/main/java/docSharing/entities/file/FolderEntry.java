@@ -0,0 +1,63 @@
+package docSharing.entities.file;
+
+import javax.persistence.*;
+
+/**
+ * A file's row in the folder tree: the parent -> children adjacency list.
+ * The unique (parent_id, title) constraint keeps titles unique within a folder, also between nodes.
+ * Files at the root are not in the tree, the root is shared by all users.
+ */
+@Entity
+@Table(name = "folder_entries", uniqueConstraints = {
+        @UniqueConstraint(columnNames = {"parent_id", "title"}),
+        @UniqueConstraint(columnNames = {"file_id"})
+})
+public class FolderEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private int id;
+    @Column(name = "parent_id", nullable = false)
+    private int parentId;
+    @Column(name = "file_id", nullable = false)
+    private int fileId;
+    @Column(name = "title", nullable = false)
+    private String title;
+    @Column(name = "folder", nullable = false)
+    private boolean folder;
+
+    public FolderEntry() {
+    }
+
+    public FolderEntry(int parentId, int fileId, String title, boolean folder) {
+        this.parentId = parentId;
+        this.fileId = fileId;
+        this.title = title;
+        this.folder = folder;
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isFolder() {
+        return folder;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderEntry{" +
+                "parentId=" + parentId +
+                ", fileId=" + fileId +
+                ", title='" + title + '\'' +
+                ", folder=" + folder +
+                '}';
+    }
+}
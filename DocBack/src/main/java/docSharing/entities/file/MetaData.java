@@ -39,6 +39,10 @@ public class MetaData {
         this.parentId = parentId;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public LocalDate getCreated() {
         return created;
     }
@@ -0,0 +1,107 @@
+package docSharing.entities.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded ring buffer of the last operations applied to a document, indexed by revision.
+ * Revision r is the document state after the r-th operation; revision 0 is the state the history started from.
+ * Not thread safe - a document's history is only used from the document's edit mailbox.
+ */
+public class OperationHistory {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TextOperation[] operations;
+    private final int initialRevision;
+    private int revision;
+
+    public OperationHistory() {
+        this(DEFAULT_CAPACITY, 0);
+    }
+
+    public OperationHistory(int capacity, int revision) {
+        this.operations = new TextOperation[capacity];
+        this.initialRevision = revision;
+        this.revision = revision;
+    }
+
+    /**
+     * @return the revision of the latest applied operation.
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * @param baseRevision
+     * @return true if all operations applied after baseRevision are still in the buffer.
+     */
+    public boolean contains(int baseRevision) {
+        return baseRevision <= revision && baseRevision >= Math.max(initialRevision, revision - operations.length);
+    }
+
+    /**
+     * Transforms operation, created on baseRevision, against every operation applied since then.
+     * A client sends its next operations only once its previous ones were acknowledged, so baseRevision
+     * already includes the sender's own operations and everything after it is concurrent.
+     * @param operation
+     * @param baseRevision
+     * @return the operation rebased on the latest revision
+     */
+    public TextOperation rebase(TextOperation operation, int baseRevision) {
+        if (!contains(baseRevision)) {
+            throw new IllegalStateException(String.format(
+                    "Revision %d is not available (current revision: %d), the document must be reloaded",
+                    baseRevision, revision));
+        }
+
+        TextOperation rebased = operation;
+        for (TextOperation concurrent : since(baseRevision)) {
+            rebased = rebased.transform(concurrent);
+        }
+
+        return rebased;
+    }
+
+    /**
+     * Records an applied operation.
+     * @param operation
+     * @return the new revision
+     */
+    public int append(TextOperation operation) {
+        revision++;
+        operations[revision % operations.length] = operation;
+        return revision;
+    }
+
+    /**
+     * Forgets the operations recorded after revision, used when a batch of edits is rolled back.
+     * @param revision
+     */
+    public void truncate(int revision) {
+        if (revision > this.revision || revision < initialRevision) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot truncate to revision %d (current revision: %d)", revision, this.revision));
+        }
+
+        this.revision = revision;
+    }
+
+    /**
+     * @param baseRevision
+     * @return the operations applied after baseRevision, oldest first.
+     */
+    public List<TextOperation> since(int baseRevision) {
+        if (!contains(baseRevision)) {
+            throw new IllegalStateException(String.format(
+                    "Revision %d is not available (current revision: %d)", baseRevision, revision));
+        }
+
+        List<TextOperation> missed = new ArrayList<>(revision - baseRevision);
+        for (int current = baseRevision + 1; current <= revision; current++) {
+            missed.add(operations[current % operations.length]);
+        }
+
+        return missed;
+    }
+}
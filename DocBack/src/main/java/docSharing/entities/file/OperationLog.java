@@ -0,0 +1,106 @@
+package docSharing.entities.file;
+
+import docSharing.controller.request.UpdateRequest;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * One applied edit in a document's append-only operation log.
+ * The log holds every operation after the document's content snapshot, so the latest content is
+ * the snapshot with the operations of higher revisions replayed on top of it.
+ */
+@Entity
+@Table(name = "documents_operation_logs",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"document_id", "revision"}))
+public class OperationLog {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private int id;
+    @Column(name = "document_id")
+    private int documentId;
+    @Column(name = "revision")
+    private int revision;
+    private int userId;
+    @Column(name = "from_position")
+    private int fromPosition;
+    @Column(name = "to_position")
+    private int toPosition;
+    @Lob
+    private String text;
+    private LocalDateTime timestamp;
+
+    public OperationLog() {
+    }
+
+    public OperationLog(int documentId, int revision, TextOperation operation, LocalDateTime timestamp) {
+        this.documentId = documentId;
+        this.revision = revision;
+        this.userId = operation.getUserId();
+        this.fromPosition = operation.getFrom();
+        this.toPosition = operation.getTo();
+        this.text = operation.getText();
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @param documentId
+     * @param updateRequest an applied update, carrying its rebased positions and new revision
+     * @return the log entry of updateRequest.
+     */
+    public static OperationLog of(int documentId, UpdateRequest updateRequest) {
+        return new OperationLog(documentId, updateRequest.getRevision(), TextOperation.of(updateRequest),
+                LocalDateTime.now());
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getFromPosition() {
+        return fromPosition;
+    }
+
+    public int getToPosition() {
+        return toPosition;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public TextOperation toTextOperation() {
+        return new TextOperation(userId, fromPosition, toPosition, text);
+    }
+
+    /**
+     * @return the number of characters inserted or removed by the operation.
+     */
+    public int size() {
+        return (text == null ? 0 : text.length()) + (toPosition - fromPosition);
+    }
+
+    @Override
+    public String toString() {
+        return "OperationLog{" +
+                "documentId=" + documentId +
+                ", revision=" + revision +
+                ", userId=" + userId +
+                ", fromPosition=" + fromPosition +
+                ", toPosition=" + toPosition +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
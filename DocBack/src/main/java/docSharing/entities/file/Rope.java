@@ -0,0 +1,201 @@
+package docSharing.entities.file;
+
+/**
+ * Immutable, height-balanced rope used as the in-memory text store of a document.
+ * Every edit shares all untouched nodes with the previous version, so insertions and
+ * deletions cost O(log n) plus the copy of at most one leaf, instead of copying the whole text.
+ * Because nodes are never mutated, a rope reference can be read safely while another thread edits.
+ */
+final class Rope {
+    static final int MAX_LEAF_LENGTH = 512;
+
+    private static final Rope EMPTY = new Rope(null);
+
+    private final Node root;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    static Rope empty() {
+        return EMPTY;
+    }
+
+    static Rope of(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new Rope(build(text, 0, text.length()));
+    }
+
+    int length() {
+        return root == null ? 0 : root.length;
+    }
+
+    /**
+     * Replaces the characters in [from, to) with text.
+     * @param from
+     * @param to
+     * @param text
+     * @return the edited rope
+     */
+    Rope replace(int from, int to, String text) {
+        if (from < 0 || to < from || to > length()) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Range [%d, %d) is out of bounds for length %d", from, to, length()));
+        }
+
+        Node[] tail = split(root, to);
+        Node[] head = split(tail[0], from);
+        Node middle = (text == null || text.isEmpty()) ? null : build(text, 0, text.length());
+
+        return new Rope(join(join(head[0], middle), tail[1]));
+    }
+
+    Rope insert(int position, String text) {
+        return replace(position, position, text);
+    }
+
+    Rope delete(int from, int to) {
+        return replace(from, to, null);
+    }
+
+    @Override
+    public String toString() {
+        if (root == null) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder(root.length);
+        appendTo(root, builder);
+        return builder.toString();
+    }
+
+    private static void appendTo(Node node, StringBuilder builder) {
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            appendTo(branch.left, builder);
+            node = branch.right;
+        }
+
+        builder.append(((Leaf) node).text);
+    }
+
+    private static Node build(String text, int from, int to) {
+        if (to - from <= MAX_LEAF_LENGTH) {
+            return new Leaf(text.substring(from, to));
+        }
+
+        int middle = (from + to) >>> 1;
+        return new Branch(build(text, from, middle), build(text, middle, to));
+    }
+
+    private static Node[] split(Node node, int position) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        if (position <= 0) {
+            return new Node[]{null, node};
+        }
+        if (position >= node.length) {
+            return new Node[]{node, null};
+        }
+
+        if (node instanceof Leaf) {
+            String text = ((Leaf) node).text;
+            return new Node[]{new Leaf(text.substring(0, position)), new Leaf(text.substring(position))};
+        }
+
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+
+        if (position < leftLength) {
+            Node[] parts = split(branch.left, position);
+            return new Node[]{parts[0], join(parts[1], branch.right)};
+        }
+
+        Node[] parts = split(branch.right, position - leftLength);
+        return new Node[]{join(branch.left, parts[0]), parts[1]};
+    }
+
+    private static Node join(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MAX_LEAF_LENGTH) {
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+        }
+
+        // Descending towards a single leaf lets it merge with its neighbour instead of
+        // leaving one tiny leaf per keystroke in the tree.
+        if (left.height > right.height + 1 || (right instanceof Leaf && left instanceof Branch)) {
+            Branch branch = (Branch) left;
+            return balance(branch.left, join(branch.right, right));
+        }
+        if (right.height > left.height + 1 || (left instanceof Leaf && right instanceof Branch)) {
+            Branch branch = (Branch) right;
+            return balance(join(left, branch.left), branch.right);
+        }
+
+        return new Branch(left, right);
+    }
+
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            Branch heavy = (Branch) left;
+            if (heavy.left.height >= heavy.right.height) {
+                return new Branch(heavy.left, new Branch(heavy.right, right));
+            }
+
+            Branch inner = (Branch) heavy.right;
+            return new Branch(new Branch(heavy.left, inner.left), new Branch(inner.right, right));
+        }
+
+        if (right.height > left.height + 1) {
+            Branch heavy = (Branch) right;
+            if (heavy.right.height >= heavy.left.height) {
+                return new Branch(new Branch(left, heavy.left), heavy.right);
+            }
+
+            Branch inner = (Branch) heavy.left;
+            return new Branch(new Branch(left, inner.left), new Branch(inner.right, heavy.right));
+        }
+
+        return new Branch(left, right);
+    }
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0);
+            this.text = text;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package docSharing.entities.file;
+
+import docSharing.controller.request.UpdateRequest;
+
+import static java.lang.Math.max;
+
+/**
+ * An applied edit normalized to "replace [from, to) with text".
+ * All four UpdateRequest types map to this form, which keeps the transformation rules in one place.
+ */
+public class TextOperation {
+    private final int userId;
+    private final int from;
+    private final int to;
+    private final String text;
+
+    public TextOperation(int userId, int from, int to, String text) {
+        this.userId = userId;
+        this.from = from;
+        this.to = to;
+        this.text = text == null ? "" : text;
+    }
+
+    /**
+     * @param updateRequest
+     * @return the replace operation equivalent to updateRequest.
+     */
+    public static TextOperation of(UpdateRequest updateRequest) {
+        int start = updateRequest.getStartPosition();
+        int end = updateRequest.getEndPosition();
+
+        switch (updateRequest.getType()) {
+            case APPEND:
+                return new TextOperation(updateRequest.getUserId(), start, start, updateRequest.getContent());
+            case DELETE:
+                return new TextOperation(updateRequest.getUserId(), max(0, end), start, null);
+            case APPEND_RANGE:
+                return new TextOperation(updateRequest.getUserId(), start, end, updateRequest.getContent());
+            case DELETE_RANGE:
+                return new TextOperation(updateRequest.getUserId(), start, end, null);
+            default:
+                throw new IllegalArgumentException("Unsupported update request type!");
+        }
+    }
+
+    /**
+     * Writes this operation's positions and text back to updateRequest, keeping its type.
+     * The text changes only when the transformation dropped it.
+     * @param updateRequest
+     */
+    public void applyTo(UpdateRequest updateRequest) {
+        switch (updateRequest.getType()) {
+            case APPEND:
+                updateRequest.setStartPosition(from);
+                updateRequest.setEndPosition(from + text.length());
+                updateRequest.setContent(text);
+                break;
+            case DELETE:
+                updateRequest.setStartPosition(to);
+                updateRequest.setEndPosition(from);
+                break;
+            case APPEND_RANGE:
+                updateRequest.setStartPosition(from);
+                updateRequest.setEndPosition(to);
+                updateRequest.setContent(text);
+                break;
+            case DELETE_RANGE:
+                updateRequest.setStartPosition(from);
+                updateRequest.setEndPosition(to);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported update request type!");
+        }
+    }
+
+    /**
+     * Same as transform(applied, false): on a tie this operation goes after the applied one.
+     * @param applied
+     * @return the transformed operation
+     */
+    public TextOperation transform(TextOperation applied) {
+        return transform(applied, false);
+    }
+
+    /**
+     * Transforms this operation so it can be applied after a concurrent operation that was applied first.
+     * Both orders converge: applied followed by this.transform(applied, p) leaves the same text as this
+     * followed by applied.transform(this, !p).
+     * Text removed by the applied operation is not removed twice. When the replaced ranges start at the
+     * same position, the shorter one goes first, and priority decides between equal ones. Text inserted
+     * strictly inside a range the other operation replaces is replaced with it.
+     * @param applied
+     * @param priority true if this operation goes first on a tie
+     * @return the transformed operation
+     */
+    public TextOperation transform(TextOperation applied, boolean priority) {
+        int delta = applied.text.length() - (applied.to - applied.from);
+        int appliedEnd = applied.from + applied.text.length();
+
+        if (from == applied.from) {
+            if (to < applied.to || (to == applied.to && priority)) {
+                return new TextOperation(userId, from, from, text);
+            }
+            return new TextOperation(userId, appliedEnd, appliedEnd + to - applied.to, text);
+        }
+
+        if (from < applied.from) {
+            if (to <= applied.from) {
+                return this;
+            }
+            if (to <= applied.to) {
+                return new TextOperation(userId, from, applied.from, text);
+            }
+            return new TextOperation(userId, from, to + delta, text);
+        }
+
+        if (from >= applied.to) {
+            return new TextOperation(userId, from + delta, to + delta, text);
+        }
+        if (to >= applied.to) {
+            return new TextOperation(userId, appliedEnd, appliedEnd + to - applied.to, text);
+        }
+        return new TextOperation(userId, appliedEnd, appliedEnd, null);
+    }
+
+    public boolean isInsert() {
+        return from == to;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return "TextOperation{" +
+                "userId=" + userId +
+                ", from=" + from +
+                ", to=" + to +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
@@ -8,11 +8,18 @@ import java.time.LocalDateTime;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+/**
+ * An entry of a document's edit history: "replace [startPosition, endPosition) with content",
+ * in the positions of the text before the entry. Consecutive edits of one user are united into a
+ * single entry, see UpdateLogCoalescer.
+ */
 @Entity
 @Table(name = "documents_update_logs")
 public class UpdateLog {
+    // Ids are allocated 50 at a time, so batched inserts do not hit the id table for every row.
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "update_log_ids")
+    @SequenceGenerator(name = "update_log_ids", sequenceName = "update_log_ids", allocationSize = 50)
     private int id;
     private LocalDateTime timestamp;
     private int userId;
@@ -21,22 +28,24 @@ public class UpdateLog {
     private int startPosition;
     private int endPosition;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "document_id", referencedColumnName = "id")
     private Document document;
 
-    @Transient
-    private final int MAX_SECONDS_TO_UNITE = 5;
+    // The number of edits united into this log, 0 in rows written before logs were stored as replaces.
+    private int operations;
 
     public UpdateLog() {
     }
 
     public UpdateLog(UpdateRequest updateRequest, LocalDateTime timestamp, Document document) {
+        TextOperation operation = TextOperation.of(updateRequest);
         this.userId = updateRequest.getUserId();
-        this.type = updateRequest.getType();
-        this.content = updateRequest.getContent();
-        this.startPosition = updateRequest.getStartPosition();
-        this.endPosition = updateRequest.getEndPosition();
+        this.startPosition = operation.getFrom();
+        this.endPosition = operation.getTo();
+        this.content = operation.getText();
+        this.type = typeOf(startPosition, endPosition, content);
+        this.operations = 1;
         this.timestamp = timestamp;
         this.document = document;
     }
@@ -49,6 +58,10 @@ public class UpdateLog {
         this.timestamp = timestamp;
     }
 
+    public int getDocumentId() {
+        return document.getId();
+    }
+
     public int getUserId() {
         return userId;
     }
@@ -89,94 +102,72 @@ public class UpdateLog {
         this.endPosition = endPosition;
     }
 
-    public boolean isContinuousLog(UpdateLog updateLog) {
-        return (updateLog != null &&
-                isSameUser(updateLog) &&
-                isMatchingType(updateLog) &&
-                isFromLastXSeconds(updateLog, MAX_SECONDS_TO_UNITE) &&
-                isContinuousIndex(updateLog));
+    public int getOperations() {
+        return Math.max(1, operations);
     }
 
-    public void unite(UpdateLog updateLog) {
-        int previousStart = this.getStartPosition();
-        int previousEnd = this.getEndPosition();
-        int currentStart = updateLog.getStartPosition();
-        int currentEnd = updateLog.getEndPosition();
-
-        switch(this.type) {
-            case APPEND:
-            case APPEND_RANGE:
-                appendContent(updateLog);
-                this.setStartPosition(min(previousStart, currentStart));
-                this.setEndPosition(max(previousEnd, currentEnd));
-                break;
-            case DELETE:
-                this.setEndPosition(min(previousEnd, currentEnd));
-                break;
-            case DELETE_RANGE:
-                this.setStartPosition(min(previousStart, currentEnd));
-                break;
-            default:
-                throw new IllegalArgumentException(
-                        String.format("Update type: %s is not supported!", updateLog.getType()));
-        }
+    /**
+     * @return true if this row was written before logs were stored as replaces. Such rows kept the
+     * positions of the edit request (an append ended at start + length, a backspace started after its end),
+     * so they cannot be read or united as "replace [start, end)".
+     */
+    public boolean isLegacy() {
+        return operations == 0;
+    }
 
-        this.setTimestamp(updateLog.getTimestamp());
+    /**
+     * @return the number of characters this log inserts and removes.
+     */
+    public int getSize() {
+        return (content == null ? 0 : content.length()) + (endPosition - startPosition);
     }
 
-    private void appendContent(UpdateLog updateLog) {
-        String previousContent = this.getContent();
-        int previousStart = this.getStartPosition();
-        int currentStart = updateLog.getStartPosition();
-        int currentEnd = updateLog.getEndPosition();
+    /**
+     * @param updateLog a log applied right after this one
+     * @return true if updateLog is by the same user and touches the text this log inserted or the
+     * position it deleted at, so that the two can be united into one replace.
+     */
+    public boolean isAdjacent(UpdateLog updateLog) {
+        int insertedEnd = startPosition + (content == null ? 0 : content.length());
+        return updateLog != null &&
+                isSameUser(updateLog) &&
+                updateLog.getStartPosition() <= insertedEnd &&
+                updateLog.getEndPosition() >= startPosition;
+    }
 
-        this.setContent(previousContent.substring(0, currentStart - previousStart)
-                + updateLog.getContent()
-                + previousContent.substring(min(previousContent.length(), currentEnd - previousStart)));
+    /**
+     * Unites an adjacent log applied right after this one into this log.
+     * The result replaces the same text as both logs applied in order: inserts, deletes and
+     * replaces of any mix are composed into one replace of the text before this log.
+     * @param updateLog
+     */
+    public void unite(UpdateLog updateLog) {
+        String inserted = content == null ? "" : content;
+        int insertedEnd = startPosition + inserted.length();
+        int nextStart = updateLog.getStartPosition();
+        int nextEnd = updateLog.getEndPosition();
+
+        // Whatever the next log removes outside this log's inserted text is text from before this log.
+        this.content = inserted.substring(0, max(0, nextStart - startPosition))
+                + (updateLog.getContent() == null ? "" : updateLog.getContent())
+                + inserted.substring(min(inserted.length(), max(0, nextEnd - startPosition)));
+        this.endPosition = endPosition + max(0, nextEnd - insertedEnd);
+        this.startPosition = min(startPosition, nextStart);
+        this.type = typeOf(startPosition, endPosition, content);
+        this.operations = getOperations() + updateLog.getOperations();
+        this.timestamp = updateLog.getTimestamp();
     }
 
     private boolean isSameUser(UpdateLog updateLog) {
         return this.getUserId() == updateLog.getUserId();
     }
 
-    private boolean isMatchingType(UpdateLog updateLog) {
-        switch (this.getType()) {
-            case APPEND:
-            case APPEND_RANGE:
-                return updateLog.getType() == UpdateRequest.UpdateType.APPEND;
-
-            case DELETE:
-            case DELETE_RANGE:
-                return updateLog.getType() == UpdateRequest.UpdateType.DELETE;
-
-            default:
-                throw new IllegalArgumentException(
-                        String.format("Update type: %s is not supported!", this.getType()));
+    private static UpdateRequest.UpdateType typeOf(int start, int end, String content) {
+        if (content == null || content.isEmpty()) {
+            return UpdateRequest.UpdateType.DELETE_RANGE;
         }
-    }
-
-    private boolean isFromLastXSeconds(UpdateLog updateLog, int seconds) {
-        return this.getTimestamp().isAfter(updateLog.getTimestamp().minusSeconds(seconds));
-    }
-
-    private boolean isContinuousIndex(UpdateLog updateLog) {
-        int previousStart = this.getStartPosition();
-        int previousEnd = this.getEndPosition();
-        int currentStart = updateLog.getStartPosition();
 
-        switch (this.getType()) {
-            case APPEND:
-            case DELETE:
-                return currentStart >= previousStart && currentStart <= previousEnd + 1;
-
-            case APPEND_RANGE:
-            case DELETE_RANGE:
-                return currentStart >= previousStart &&
-                        currentStart <= previousStart + this.getContent().length();
-            default:
-                throw new IllegalArgumentException(
-                        String.format("Update type: %s is not supported!", updateLog.getType()));
-        }
+        return start == end ? UpdateRequest.UpdateType.APPEND : UpdateRequest.UpdateType.APPEND_RANGE;
     }
 
     @Override
@@ -188,6 +179,7 @@ public class UpdateLog {
                 ", content='" + content + '\'' +
                 ", startPosition=" + startPosition +
                 ", endPosition=" + endPosition +
+                ", operations=" + operations +
                 ", document=" + document +
                 '}';
     }
@@ -0,0 +1,9 @@
+package docSharing.repository;
+
+import docSharing.entities.file.CompactionWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CompactionWatermarkRepository extends JpaRepository<CompactionWatermark, String> {
+}
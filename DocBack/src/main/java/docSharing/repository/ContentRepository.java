@@ -0,0 +1,25 @@
+package docSharing.repository;
+
+import docSharing.entities.file.Content;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+@Repository
+public interface ContentRepository extends JpaRepository<Content, Integer> {
+
+    // Writes the snapshot without loading and merging the previous one.
+    @Transactional
+    @Modifying
+    @Query("UPDATE Content c SET c.persistedContent=?2, c.snapshotRevision=?3 WHERE c.id=?1")
+    void saveSnapshot(int contentId, String text, int revision);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE Content c WHERE c.id IN ?1")
+    void deleteByIds(Collection<Integer> contentIds);
+}
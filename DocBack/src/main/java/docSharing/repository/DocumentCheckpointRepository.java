@@ -0,0 +1,29 @@
+package docSharing.repository;
+
+import docSharing.entities.file.DocumentCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Optional;
+
+@Repository
+public interface DocumentCheckpointRepository extends JpaRepository<DocumentCheckpoint, Integer> {
+
+    @Query("SELECT c FROM DocumentCheckpoint c WHERE c.documentId=?1 AND c.revision=" +
+            "(SELECT MAX(l.revision) FROM DocumentCheckpoint l WHERE l.documentId=?1 AND l.revision<=?2)")
+    Optional<DocumentCheckpoint> findLatestAtOrBefore(int documentId, int revision);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE DocumentCheckpoint c WHERE c.documentId=?1")
+    void deleteByDocumentId(int documentId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE DocumentCheckpoint c WHERE c.documentId IN ?1")
+    void deleteByDocumentIds(Collection<Integer> documentIds);
+}
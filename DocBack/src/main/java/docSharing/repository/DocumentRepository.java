@@ -1,10 +1,60 @@
 package docSharing.repository;
 
+import docSharing.entities.DTO.FolderChildDTO;
 import docSharing.entities.file.Document;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DocumentRepository extends JpaRepository<Document, Integer> {
 
+    @Query("SELECT d FROM Document d JOIN FETCH d.content WHERE d.id=?1")
+    Optional<Document> findWithContentById(int documentId);
+
+    @Query("SELECT m.owner.id FROM Document d JOIN d.metadata m WHERE d.id=?1")
+    Optional<Integer> findOwnerId(int documentId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MetaData m SET m.lastUpdated=?2 WHERE m.id=?1")
+    void updateLastUpdated(int metadataId, LocalDateTime lastUpdated);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MetaData m SET m.parentId=?2 WHERE m.id IN (SELECT d.metadata.id FROM Document d WHERE d.id IN ?1)")
+    void updateParentIds(Collection<Integer> documentIds, int parentId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MetaData m SET m.title=?2 WHERE m.id IN (SELECT d.metadata.id FROM Document d WHERE d.id=?1)")
+    void updateTitle(int documentId, String title);
+
+    @Query("SELECT new docSharing.entities.DTO.FolderChildDTO(d.id, m.title, false, m.lastUpdated, m.owner.id) " +
+            "FROM Document d JOIN d.metadata m WHERE d.id IN ?1")
+    List<FolderChildDTO> findChildren(Collection<Integer> documentIds);
+
+    @Query("SELECT d.content.id FROM Document d WHERE d.id IN ?1")
+    List<Integer> findContentIds(Collection<Integer> documentIds);
+
+    @Query("SELECT d.metadata.id FROM Document d WHERE d.id IN ?1")
+    List<Integer> findMetadataIds(Collection<Integer> documentIds);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE Document d WHERE d.id IN ?1")
+    void deleteByIds(Collection<Integer> documentIds);
+
+    // Metadata of documents and folders alike, delete the files first.
+    @Transactional
+    @Modifying
+    @Query("DELETE MetaData m WHERE m.id IN ?1")
+    void deleteMetadataByIds(Collection<Integer> metadataIds);
 }
@@ -0,0 +1,91 @@
+package docSharing.repository;
+
+import docSharing.entities.file.FolderEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.LockModeType;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface FolderEntryRepository extends JpaRepository<FolderEntry, Integer> {
+
+    @Query("SELECT e.title FROM FolderEntry e WHERE e.parentId=?1")
+    List<String> findTitlesByParentId(int parentId);
+
+    @Query("SELECT e FROM FolderEntry e WHERE e.parentId=?1")
+    List<FolderEntry> findByParentId(int parentId);
+
+    // Reads the (parent_id, title) index in order, titles are unique in a folder so the last one is the cursor.
+    @Query("SELECT e FROM FolderEntry e WHERE e.parentId=?1 AND e.title > ?2 ORDER BY e.title")
+    List<FolderEntry> findPage(int parentId, String afterTitle, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FolderEntry e SET e.title=?2 WHERE e.fileId=?1")
+    int updateTitle(int fileId, String title);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FolderEntry e SET e.parentId=?2 WHERE e.fileId=?1")
+    int updateParentId(int fileId, int parentId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FolderEntry e SET e.parentId=?2 WHERE e.fileId IN ?1")
+    int updateParentIds(Collection<Integer> fileIds, int parentId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FolderEntry e SET e.parentId=?2, e.title=?3 WHERE e.fileId=?1")
+    int updatePlace(int fileId, int parentId, String title);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FolderEntry e WHERE e.fileId=?1")
+    int deleteByFileId(int fileId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FolderEntry e WHERE e.fileId IN ?1")
+    int deleteByFileIds(Collection<Integer> fileIds);
+
+    // The files in the folders, locked until the transaction ends. On MySQL the locks cover the folders' range of the
+    // (parent_id, title) index, so no file can be added to the folders until then either.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM FolderEntry e WHERE e.parentId IN ?1")
+    List<FolderEntry> findByParentIdsForUpdate(Collection<Integer> parentIds);
+
+    // The folders above folderId, from its parent up to a folder at the root.
+    @Query(value = "WITH RECURSIVE ancestors(id) AS (" +
+            "SELECT parent_id FROM folder_entries WHERE file_id = ?1 " +
+            "UNION ALL " +
+            "SELECT e.parent_id FROM folder_entries e JOIN ancestors a ON e.file_id = a.id) " +
+            "SELECT id FROM ancestors", nativeQuery = true)
+    List<Integer> findAncestorIds(int folderId);
+
+    // The current place of the files, including files at the root, which have no entry.
+    @Query("SELECT new docSharing.entities.file.FolderEntry(m.parentId, d.id, m.title, false) " +
+            "FROM Document d JOIN d.metadata m WHERE d.id IN ?1")
+    List<FolderEntry> findDocumentEntries(Collection<Integer> documentIds);
+
+    @Query("SELECT new docSharing.entities.file.FolderEntry(m.parentId, f.id, m.title, true) " +
+            "FROM Folder f JOIN f.metadata m WHERE f.id IN ?1")
+    List<FolderEntry> findFolderEntries(Collection<Integer> folderIds);
+
+    // Backfills the tree of files created before it existed.
+    @Query("SELECT new docSharing.entities.file.FolderEntry(m.parentId, d.id, m.title, false) " +
+            "FROM Document d JOIN d.metadata m WHERE m.parentId<>0")
+    List<FolderEntry> findDocumentEntries();
+
+    @Query("SELECT new docSharing.entities.file.FolderEntry(m.parentId, f.id, m.title, true) " +
+            "FROM Folder f JOIN f.metadata m WHERE m.parentId<>0")
+    List<FolderEntry> findFolderEntries();
+}
@@ -1,10 +1,47 @@
 package docSharing.repository;
 
+import docSharing.entities.DTO.FolderChildDTO;
 import docSharing.entities.file.Folder;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface FolderRepository extends JpaRepository<Folder, Integer> {
 
-}
\ No newline at end of file
+    @Transactional
+    @Modifying
+    @Query("UPDATE MetaData m SET m.parentId=?2 WHERE m.id IN (SELECT f.metadata.id FROM Folder f WHERE f.id IN ?1)")
+    void updateParentIds(Collection<Integer> folderIds, int parentId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MetaData m SET m.title=?2 WHERE m.id IN (SELECT f.metadata.id FROM Folder f WHERE f.id=?1)")
+    void updateTitle(int folderId, String title);
+
+    @Query("SELECT f.modifications FROM Folder f WHERE f.id=?1")
+    Optional<Long> findModifications(int folderId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Folder f SET f.modifications=f.modifications+1 WHERE f.id IN ?1")
+    void incrementModifications(Collection<Integer> folderIds);
+
+    @Query("SELECT new docSharing.entities.DTO.FolderChildDTO(f.id, m.title, true, m.lastUpdated, m.owner.id) " +
+            "FROM Folder f JOIN f.metadata m WHERE f.id IN ?1")
+    List<FolderChildDTO> findChildren(Collection<Integer> folderIds);
+
+    @Query("SELECT f.metadata.id FROM Folder f WHERE f.id IN ?1")
+    List<Integer> findMetadataIds(Collection<Integer> folderIds);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE Folder f WHERE f.id IN ?1")
+    void deleteByIds(Collection<Integer> folderIds);
+}
@@ -0,0 +1,36 @@
+package docSharing.repository;
+
+import docSharing.entities.file.OperationLog;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface OperationLogRepository extends JpaRepository<OperationLog, Integer> {
+
+    @Query("SELECT o FROM OperationLog o WHERE o.documentId=?1 AND o.revision>?2 ORDER BY o.revision")
+    List<OperationLog> findAfterRevision(int documentId, int revision);
+
+    @Query("SELECT o FROM OperationLog o WHERE o.documentId=?1 AND o.revision>?2 AND o.revision<=?3 ORDER BY o.revision")
+    List<OperationLog> findBetween(int documentId, int fromRevision, int toRevision);
+
+    @Query("SELECT MAX(o.revision) FROM OperationLog o WHERE o.documentId=?1 AND o.timestamp<=?2")
+    Optional<Integer> findLastRevisionAt(int documentId, LocalDateTime timestamp);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE OperationLog o WHERE o.documentId=?1")
+    void deleteByDocumentId(int documentId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE OperationLog o WHERE o.documentId IN ?1")
+    void deleteByDocumentIds(Collection<Integer> documentIds);
+}
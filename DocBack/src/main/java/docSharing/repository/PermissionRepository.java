@@ -1,12 +1,17 @@
 package docSharing.repository;
 
+import docSharing.entities.DTO.DocumentSummaryDTO;
 import docSharing.entities.permission.Authorization;
+import docSharing.entities.permission.Permission;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
@@ -16,11 +21,49 @@ public interface PermissionRepository extends JpaRepository<Authorization, Integ
     @Query("SELECT a FROM Authorization a WHERE a.document.id=?1 AND a.user.id=?2")
     List<Authorization> findByDocumentAndUser(int documentId, int userId);
 
+    @Query("SELECT a.permission FROM Authorization a WHERE a.document.id=?1 AND a.user.id=?2")
+    List<Permission> findPermission(int documentId, int userId);
+
+    // documentId, permission pairs of the user's documents among documentIds
+    @Query("SELECT a.document.id, a.permission FROM Authorization a WHERE a.document.id IN ?1 AND a.user.id=?2")
+    List<Object[]> findPermissions(Collection<Integer> documentIds, int userId);
+
     @Query("SELECT a FROM Authorization a WHERE a.user.id=?1")
     List<Authorization> findByUser(int userId);
 
+    // Keyset pages of a user's documents, one query per page and no entity loaded.
+    // Each query continues after the last row of the previous page, ties are broken by document id.
+
+    @Query("SELECT new docSharing.entities.DTO.DocumentSummaryDTO(d.id, m.title, m.parentId, m.created, " +
+            "m.lastUpdated, a.permission) FROM Authorization a JOIN a.document d JOIN d.metadata m " +
+            "WHERE a.user.id=?1 AND d.id > ?2 ORDER BY d.id")
+    List<DocumentSummaryDTO> findDocumentsById(int userId, int afterId, Pageable pageable);
+
+    @Query("SELECT new docSharing.entities.DTO.DocumentSummaryDTO(d.id, m.title, m.parentId, m.created, " +
+            "m.lastUpdated, a.permission) FROM Authorization a JOIN a.document d JOIN d.metadata m " +
+            "WHERE a.user.id=?1 AND (m.title > ?2 OR (m.title = ?2 AND d.id > ?3)) ORDER BY m.title, d.id")
+    List<DocumentSummaryDTO> findDocumentsByTitle(int userId, String afterTitle, int afterId, Pageable pageable);
+
+    @Query("SELECT new docSharing.entities.DTO.DocumentSummaryDTO(d.id, m.title, m.parentId, m.created, " +
+            "m.lastUpdated, a.permission) FROM Authorization a JOIN a.document d JOIN d.metadata m " +
+            "WHERE a.user.id=?1 AND (m.lastUpdated < ?2 OR (m.lastUpdated = ?2 AND d.id > ?3) OR m.lastUpdated IS NULL) " +
+            "ORDER BY m.lastUpdated DESC NULLS LAST, d.id")
+    List<DocumentSummaryDTO> findDocumentsByLastUpdated(int userId, LocalDateTime beforeLastUpdated, int afterId,
+                                                        Pageable pageable);
+
+    // The documents without lastUpdated, which findDocumentsByLastUpdated() lists last.
+    @Query("SELECT new docSharing.entities.DTO.DocumentSummaryDTO(d.id, m.title, m.parentId, m.created, " +
+            "m.lastUpdated, a.permission) FROM Authorization a JOIN a.document d JOIN d.metadata m " +
+            "WHERE a.user.id=?1 AND m.lastUpdated IS NULL AND d.id > ?2 ORDER BY d.id")
+    List<DocumentSummaryDTO> findDocumentsWithoutLastUpdated(int userId, int afterId, Pageable pageable);
+
     @Transactional
     @Modifying
     @Query("DELETE Authorization a WHERE a.document.id=?1")
     void deleteByDocumentId(int documentId);
-}
\ No newline at end of file
+
+    @Transactional
+    @Modifying
+    @Query("DELETE Authorization a WHERE a.document.id IN ?1")
+    void deleteByDocumentIds(Collection<Integer> documentIds);
+}
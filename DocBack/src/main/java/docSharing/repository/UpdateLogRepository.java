@@ -1,23 +1,42 @@
 package docSharing.repository;
 
 import docSharing.entities.file.UpdateLog;
-import docSharing.entities.permission.Authorization;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface UpdateLogRepository extends JpaRepository<UpdateLog, Integer> {
 
     @Query("SELECT u FROM UpdateLog u WHERE u.document.id=?1")
-    List<Authorization> findByDocument(int documentId);
+    List<UpdateLog> findByDocument(int documentId);
+
+    @Query("SELECT DISTINCT u.document.id FROM UpdateLog u WHERE u.timestamp>=?1 AND u.timestamp<?2")
+    List<Integer> findDocumentIdsBetween(LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT u FROM UpdateLog u WHERE u.document.id=?1 AND u.timestamp>=?2 AND u.timestamp<?3 ORDER BY u.timestamp, u.id")
+    List<UpdateLog> findByDocumentBetween(int documentId, LocalDateTime from, LocalDateTime to);
 
     @Transactional
     @Modifying
     @Query("DELETE UpdateLog u WHERE u.document.id=?1")
     void deleteByDocumentId(int documentId);
-}
\ No newline at end of file
+
+    @Transactional
+    @Modifying
+    @Query("DELETE UpdateLog u WHERE u.document.id IN ?1")
+    void deleteByDocumentIds(Collection<Integer> documentIds);
+
+    // Moves the update_log_ids table of the pooled generator past the ids of rows inserted before it existed.
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE update_log_ids SET next_val = (SELECT COALESCE(MAX(id), 0) + ?1 FROM documents_update_logs) " +
+            "WHERE next_val <= (SELECT COALESCE(MAX(id), 0) FROM documents_update_logs)", nativeQuery = true)
+    int seedIds(int gap);
+}
@@ -14,6 +14,9 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Integer> {
         Optional<User> findByEmail(String email);
 
+        @Query("select u.name from User u where u.id = ?1")
+        Optional<String> findNameById(int id);
+
         @Transactional
         @Modifying
         @Query("delete from User u where u.id = ?1")
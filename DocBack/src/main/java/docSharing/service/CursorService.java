@@ -0,0 +1,141 @@
+package docSharing.service;
+
+import docSharing.controller.request.CursorRequest;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.OperationHistory;
+import docSharing.entities.file.TextOperation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static docSharing.controller.DocumentEditController.documentTopic;
+
+/**
+ * Broadcasts carets and selections, throttled per document.
+ * Only the latest cursor of each user is kept between ticks, and every tick sends one message per document
+ * to /topic/documents/{documentId}/cursors. Cursors are transformed from the revision the client saw to the
+ * document's latest revision in the document's edit mailbox, so they point at the same text as the edits
+ * broadcast before them.
+ */
+@Service
+public class CursorService {
+    public static final String CURSORS_CHANNEL = "cursors";
+
+    // documentId -> userId -> latest cursor; the inner maps are only touched inside compute() and after remove().
+    private final Map<Integer, Map<Integer, CursorRequest>> pending;
+    private final DocumentCache documentsCache;
+    private final DocumentEditExecutor documentEditExecutor;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final Counter received;
+    private final Counter sent;
+    private final Counter dropped;
+
+    private static final Logger logger = LogManager.getLogger(CursorService.class.getName());
+
+    public CursorService(DocumentCache documentsCache, DocumentEditExecutor documentEditExecutor,
+                         SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry) {
+        this.pending = new ConcurrentHashMap<>();
+        this.documentsCache = documentsCache;
+        this.documentEditExecutor = documentEditExecutor;
+        this.messagingTemplate = messagingTemplate;
+
+        this.received = meterRegistry.counter("cursors.received");
+        this.sent = meterRegistry.counter("cursors.sent");
+        this.dropped = meterRegistry.counter("cursors.dropped");
+    }
+
+    /**
+     * Queues the user's cursor for the next tick, replacing the cursor they sent earlier in this tick.
+     * @param cursorRequest (documentId, userId, revision, startPosition, endPosition)
+     */
+    public void submit(CursorRequest cursorRequest) {
+        received.increment();
+        pending.compute(cursorRequest.getDocumentId(), (id, cursors) -> {
+            Map<Integer, CursorRequest> latest = cursors == null ? new HashMap<>() : cursors;
+            latest.put(cursorRequest.getUserId(), cursorRequest);
+            return latest;
+        });
+    }
+
+    /**
+     * Sends the cursors queued since the last tick, one message per document.
+     */
+    @Scheduled(fixedRateString = "${docSharing.cursors.tick-ms:50}")
+    public void flush() {
+        for (Integer documentId : pending.keySet()) {
+            Map<Integer, CursorRequest> cursors = pending.remove(documentId);
+            if (cursors == null || cursors.isEmpty()) {
+                continue;
+            }
+
+            documentEditExecutor.execute(documentId, () -> broadcast(documentId, cursors.values()))
+                    .exceptionally(e -> {
+                        logger.error(String.format("Failed to send cursors of document #%d: %s", documentId,
+                                e.getMessage()));
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Runs in the document's mailbox, so the history does not change while the cursors are transformed.
+     */
+    private void broadcast(int documentId, Iterable<CursorRequest> cursors) {
+        Optional<Document> document = documentsCache.getIfPresent(documentId);
+        if (!document.isPresent()) {
+            // Nobody has the document open anymore.
+            return;
+        }
+
+        List<CursorRequest> transformed = new ArrayList<>();
+        for (CursorRequest cursor : cursors) {
+            try {
+                transformed.add(transform(cursor, document.get()));
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                dropped.increment();
+                logger.debug(String.format("Dropped cursor of user #%d: %s", cursor.getUserId(), e.getMessage()));
+            }
+        }
+
+        if (!transformed.isEmpty()) {
+            messagingTemplate.convertAndSend(documentTopic(documentId, CURSORS_CHANNEL), transformed);
+            sent.increment(transformed.size());
+        }
+    }
+
+    /**
+     * @param cursor
+     * @param document
+     * @return the cursor moved through the edits other users applied after its revision
+     * @throws IllegalStateException if the revision is no longer in the document's history
+     */
+    static CursorRequest transform(CursorRequest cursor, Document document) {
+        int start = Math.min(cursor.getStartPosition(), cursor.getEndPosition());
+        int end = Math.max(cursor.getStartPosition(), cursor.getEndPosition());
+        if (start < 0) {
+            throw new IllegalArgumentException("Cursor position cannot be negative");
+        }
+
+        OperationHistory history = document.getHistory();
+        TextOperation selection = new TextOperation(cursor.getUserId(), start, end, null);
+        if (cursor.getRevision() != null) {
+            selection = history.rebase(selection, cursor.getRevision());
+        }
+
+        int length = document.getContentLength();
+        return new CursorRequest(cursor.getDocumentId(), cursor.getUserId(), history.getRevision(),
+                Math.min(selection.getFrom(), length), Math.min(selection.getTo(), length));
+    }
+}
@@ -0,0 +1,274 @@
+package docSharing.service;
+
+import docSharing.entities.file.Document;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.OperationLogRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Lazily loaded, size-bounded cache of open documents.
+ * Entries are weighted by content length, including the content serialized for join replies, and evicted in LRU order once the total weight exceeds
+ * the configured maximum. Documents with active users or unflushed edits are never evicted,
+ * since their in-memory state is the only up-to-date copy. A document that grew while cached is weighed again
+ * on access, which may evict others. Evicted documents' mailboxes are released.
+ * The last update log a document holds open is queued for saving when it is evicted and on shutdown,
+ * from the document's mailbox.
+ */
+@Component
+public class DocumentCache {
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final DocumentRepository documentRepository;
+    private final OperationLogRepository operationLogRepository;
+    private final DocumentFlushService documentFlushService;
+    private final PresenceService presenceService;
+    private final DocumentEditExecutor documentEditExecutor;
+    private final UpdateLogWriter updateLogWriter;
+    private final LinkedHashMap<Integer, Entry> entries;
+    private final long maxWeight;
+    private long weight;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private static final Logger logger = LogManager.getLogger(DocumentCache.class.getName());
+
+    public DocumentCache(DocumentRepository documentRepository, OperationLogRepository operationLogRepository,
+                         DocumentFlushService documentFlushService, PresenceService presenceService,
+                         DocumentEditExecutor documentEditExecutor, UpdateLogWriter updateLogWriter,
+                         MeterRegistry meterRegistry,
+                         @Value("${docSharing.cache.max-weight:67108864}") long maxWeight) {
+        this.documentRepository = documentRepository;
+        this.operationLogRepository = operationLogRepository;
+        this.documentFlushService = documentFlushService;
+        this.presenceService = presenceService;
+        this.documentEditExecutor = documentEditExecutor;
+        this.updateLogWriter = updateLogWriter;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxWeight = maxWeight;
+
+        this.hits = meterRegistry.counter("documents.cache.hits");
+        this.misses = meterRegistry.counter("documents.cache.misses");
+        this.evictions = meterRegistry.counter("documents.cache.evictions");
+        meterRegistry.gauge("documents.cache.size", this, DocumentCache::size);
+        meterRegistry.gauge("documents.cache.weight", this, DocumentCache::getWeight);
+    }
+
+    /**
+     * Returns the cached document, loading it from the database on a miss.
+     * @param documentId
+     * @return the document
+     * @throws IllegalArgumentException if the document does not exist
+     */
+    public Document get(int documentId) {
+        Optional<Document> cached = getIfPresent(documentId);
+        if (cached.isPresent()) {
+            hits.increment();
+            return cached.get();
+        }
+
+        misses.increment();
+        // Cached documents are edited outside of any persistence context, so the content is fetched eagerly.
+        Optional<Document> loaded = documentRepository.findWithContentById(documentId);
+        if (!loaded.isPresent()) {
+            throw new IllegalArgumentException(String.format("Document ID: %d was not found!", documentId));
+        }
+
+        // The content column holds the last snapshot, the operations logged after it bring it up to date.
+        Document document = loaded.get();
+        document.replay(operationLogRepository.findAfterRevision(documentId, document.getSnapshotRevision()));
+
+        // Another thread may have loaded the same document meanwhile, everyone must share one instance.
+        synchronized (this) {
+            Entry entry = entries.get(documentId);
+            if (entry == null) {
+                entry = new Entry(document);
+                entries.put(documentId, entry);
+                weight += entry.weight;
+                evict();
+            }
+
+            return entry.document;
+        }
+    }
+
+    /**
+     * Weighs the cached document again, it may have grown since it was cached, and evicts over the maximum weight.
+     * @param documentId
+     * @return the cached document, without loading it.
+     */
+    public synchronized Optional<Document> getIfPresent(int documentId) {
+        Entry entry = entries.get(documentId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        reweigh(entry);
+        evict();
+        return Optional.of(entry.document);
+    }
+
+    public synchronized void put(Document document) {
+        Entry previous = entries.put(document.getId(), new Entry(document));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+
+        weight += entries.get(document.getId()).weight;
+        evict();
+    }
+
+    public synchronized void remove(int documentId) {
+        Entry removed = entries.remove(documentId);
+        if (removed != null) {
+            weight -= removed.weight;
+            removed.document.dropContentJson();
+        }
+    }
+
+    /**
+     * Drops the state of deleted documents once their deletion is committed: their queued update logs,
+     * unsaved edits and cached instances. Each document is dropped from its mailbox, after the edits queued
+     * before the deletion, and the mailbox is released.
+     * @param documentIds
+     */
+    public void onDeleted(Set<Integer> documentIds) {
+        // One pass over the queue for the logs queued so far, the mailboxes drop those their edits queue meanwhile.
+        updateLogWriter.discard(documentIds);
+        for (Integer documentId : documentIds) {
+            documentEditExecutor.execute(documentId, () -> {
+                Optional<Document> cached = getIfPresent(documentId);
+                remove(documentId);
+                documentFlushService.discard(documentId);
+                if (cached.isPresent()) {
+                    cached.get().setLastUpdate(null);
+                    updateLogWriter.discard(documentId);
+                }
+                documentEditExecutor.release(documentId);
+            }).exceptionally(e -> {
+                logger.error(String.format("Failed to drop deleted document #%d: %s", documentId, e.getMessage()));
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Moves the cached instances of documents that were moved or renamed, once the change is committed.
+     * Each document is changed from its mailbox, after the edits queued before the move.
+     * @param titles documentId -> the document's title after the move
+     * @param parentId the documents' new parent
+     */
+    public void onMoved(Map<Integer, String> titles, int parentId) {
+        titles.forEach((documentId, title) -> documentEditExecutor.execute(documentId, () ->
+                getIfPresent(documentId).ifPresent(document -> {
+                    document.getMetadata().setParentId(parentId);
+                    document.setTitle(title);
+                })).exceptionally(e -> {
+                    logger.error(String.format("Failed to move cached document #%d: %s", documentId, e.getMessage()));
+                    return null;
+                }));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Queues the open update log of every cached document, from the document's mailbox so it follows
+     * the edits already queued there. Runs before DocumentEditExecutor, which runs the mailboxes
+     * to the end, and UpdateLogWriter, which saves the queued logs, shut down.
+     */
+    @PreDestroy
+    private synchronized void shutdown() {
+        for (Entry entry : entries.values()) {
+            Document document = entry.document;
+            if (document.getLastUpdate() != null) {
+                documentEditExecutor.execute(document.getId(), () -> writeLastUpdate(document));
+            }
+        }
+    }
+
+    private void reweigh(Entry entry) {
+        long current = weigh(entry.document);
+        weight += current - entry.weight;
+        entry.weight = current;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Entry candidate = iterator.next().getValue();
+            if (isPinned(candidate.document)) {
+                continue;
+            }
+
+            iterator.remove();
+            weight -= candidate.weight;
+            evictions.increment();
+            onEvicted(candidate.document);
+        }
+    }
+
+    /**
+     * Queues the evicted document's last log and drops its serialized content from its mailbox, after the
+     * edits already queued there, and releases the mailbox.
+     */
+    private void onEvicted(Document document) {
+        int documentId = document.getId();
+        documentEditExecutor.execute(documentId, () -> {
+            writeLastUpdate(document);
+            // Instances still referenced after eviction should not keep a second copy of the content.
+            document.dropContentJson();
+            documentEditExecutor.release(documentId);
+            logger.debug("Evicted document #" + documentId);
+        }).exceptionally(e -> {
+            logger.error(String.format("Failed to evict document #%d: %s", documentId, e.getMessage()));
+            return null;
+        });
+    }
+
+    private boolean isPinned(Document document) {
+        return presenceService.isActive(document.getId()) || documentFlushService.isDirty(document.getId());
+    }
+
+    private void writeLastUpdate(Document document) {
+        if (document.getLastUpdate() != null) {
+            updateLogWriter.write(document.getLastUpdate());
+            document.setLastUpdate(null);
+        }
+    }
+
+    /**
+     * The serialized content is created by joins after the document was weighed, it is counted from the next access.
+     */
+    private static long weigh(Document document) {
+        return ENTRY_OVERHEAD + 2L * (document.getContentLength() + document.getContentJsonLength());
+    }
+
+    private static final class Entry {
+        private final Document document;
+        private long weight;
+
+        private Entry(Document document) {
+            this.document = document;
+            this.weight = weigh(document);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package docSharing.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs document edits as single-writer actors.
+ * Every open document has its own mailbox: tasks of one document run one at a time and in
+ * submission order, while mailboxes of different documents are drained in parallel by a shared pool.
+ * Document state therefore needs no locks as long as it is only mutated from its mailbox.
+ */
+@Component
+@DependsOn({"documentFlushService", "updateLogWriter"})
+public class DocumentEditExecutor {
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+
+    private final ExecutorService workers;
+    private final Map<Integer, Mailbox> mailboxes;
+
+    private static final Logger logger = LogManager.getLogger(DocumentEditExecutor.class.getName());
+
+    public DocumentEditExecutor(@Value("${docSharing.edit.threads:0}") int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                runnable -> new Thread(runnable, "document-edit-" + threadCount.incrementAndGet()));
+        this.mailboxes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Queues task in the document's mailbox.
+     * @param documentId
+     * @param task
+     * @return a future completed with the task's result once it ran
+     */
+    public <T> CompletableFuture<T> submit(int documentId, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable wrapped = () -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        // Enqueuing inside compute() keeps it atomic with release(), so a document never has two mailboxes.
+        Mailbox mailbox = mailboxes.compute(documentId, (id, existing) -> {
+            Mailbox target = existing == null ? new Mailbox(id) : existing;
+            target.tasks.add(wrapped);
+            target.released = false;
+            return target;
+        });
+        mailbox.schedule();
+
+        return result;
+    }
+
+    /**
+     * Queues task in the document's mailbox.
+     * @param documentId
+     * @param task
+     * @return a future completed once the task ran
+     */
+    public CompletableFuture<Void> execute(int documentId, Runnable task) {
+        return submit(documentId, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs task in the document's mailbox and waits for it. Must not be called from a mailbox task.
+     * @param documentId
+     * @param task
+     * @return the task's result
+     * @throws RuntimeException the task's failure
+     */
+    public <T> T call(int documentId, Supplier<T> task) {
+        try {
+            return submit(documentId, task).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Drops the mailbox of a closed, evicted or deleted document once it is idle.
+     * May be called from one of the document's own tasks, the mailbox is then dropped when it drains,
+     * unless a task was submitted since.
+     * @param documentId
+     */
+    public void release(int documentId) {
+        mailboxes.computeIfPresent(documentId, (id, mailbox) -> {
+            mailbox.released = true;
+            return mailbox.isIdle() ? null : mailbox;
+        });
+    }
+
+    /**
+     * @return the number of documents that have a mailbox.
+     */
+    public int size() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Stops accepting new mailbox runs and waits for queued edits to finish.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Document edit workers did not finish in time");
+        }
+    }
+
+    private final class Mailbox {
+        private final int documentId;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Set by release(), cleared by submit(), both inside the map's compute.
+        private volatile boolean released;
+
+        private Mailbox(int documentId) {
+            this.documentId = documentId;
+        }
+
+        private boolean isIdle() {
+            return !scheduled.get() && tasks.isEmpty();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        /**
+         * Runs a bounded number of tasks, then yields the worker so one busy
+         * document cannot starve the others.
+         */
+        private void drain() {
+            Runnable task;
+            int processed = 0;
+            while (processed < MAX_TASKS_PER_DRAIN && (task = tasks.poll()) != null) {
+                task.run();
+                processed++;
+            }
+
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            } else if (released) {
+                mailboxes.computeIfPresent(documentId, (id, mailbox) -> mailbox == this && isIdle() ? null : mailbox);
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package docSharing.service;
+
+import docSharing.entities.file.Content;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.OperationLogRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence for edited documents.
+ * Edits only mark a document as dirty; dirty documents are saved in batches on a fixed interval,
+ * when the dirty bytes exceed a threshold, on leave, on memory pressure and on shutdown.
+ * Saving appends the document's new operations to the operation log. The full content is only
+ * written as a snapshot, once the operations logged since the last snapshot grow too many or too large.
+ * Every snapshot is also kept as a version history checkpoint.
+ */
+@Service
+public class DocumentFlushService {
+    private final DocumentRepository documentRepository;
+    private final ContentRepository contentRepository;
+    private final OperationLogRepository operationLogRepository;
+    private final DocumentCheckpointRepository documentCheckpointRepository;
+    private final FolderTree folderTree;
+    private final Map<Integer, DirtyDocument> dirtyDocuments;
+    // documentId -> number of flushes writing the document's edits, which are no longer in dirtyDocuments.
+    private final Map<Integer, Integer> flushingDocuments;
+    private final AtomicLong dirtyBytes;
+    private final AtomicBoolean flushScheduled;
+    private final ExecutorService flushExecutor;
+    // The heap pools whose threshold this service set, and the listener it registered, undone on shutdown.
+    private final List<MemoryPoolMXBean> thresholdPools;
+    private NotificationListener memoryPressureListener;
+
+    private final long maxDirtyBytes;
+    private final double memoryThreshold;
+    private final int snapshotMaxOperations;
+    private final long snapshotMinBytes;
+    private final double snapshotSizeRatio;
+
+    private final Timer flushLatency;
+    private final DistributionSummary coalescedWrites;
+    private final Counter loggedOperations;
+    private final Counter snapshots;
+
+    private static final Logger logger = LogManager.getLogger(DocumentFlushService.class.getName());
+
+    public DocumentFlushService(DocumentRepository documentRepository, ContentRepository contentRepository,
+                                OperationLogRepository operationLogRepository,
+                                DocumentCheckpointRepository documentCheckpointRepository, FolderTree folderTree,
+                                MeterRegistry meterRegistry,
+                                @Value("${docSharing.flush.max-dirty-bytes:1048576}") long maxDirtyBytes,
+                                @Value("${docSharing.flush.memory-threshold:0.85}") double memoryThreshold,
+                                @Value("${docSharing.snapshot.max-operations:1000}") int snapshotMaxOperations,
+                                @Value("${docSharing.snapshot.min-bytes:65536}") long snapshotMinBytes,
+                                @Value("${docSharing.snapshot.size-ratio:0.5}") double snapshotSizeRatio) {
+        this.documentRepository = documentRepository;
+        this.contentRepository = contentRepository;
+        this.operationLogRepository = operationLogRepository;
+        this.documentCheckpointRepository = documentCheckpointRepository;
+        this.folderTree = folderTree;
+        this.dirtyDocuments = new ConcurrentHashMap<>();
+        this.flushingDocuments = new ConcurrentHashMap<>();
+        this.dirtyBytes = new AtomicLong();
+        this.flushScheduled = new AtomicBoolean();
+        this.flushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "document-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.thresholdPools = new ArrayList<>();
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.memoryThreshold = memoryThreshold;
+        this.snapshotMaxOperations = snapshotMaxOperations;
+        this.snapshotMinBytes = snapshotMinBytes;
+        this.snapshotSizeRatio = snapshotSizeRatio;
+
+        this.flushLatency = meterRegistry.timer("documents.flush.latency");
+        this.coalescedWrites = meterRegistry.summary("documents.flush.coalesced.writes");
+        this.loggedOperations = meterRegistry.counter("documents.flush.logged.operations");
+        this.snapshots = meterRegistry.counter("documents.snapshots");
+        meterRegistry.gauge("documents.dirty", dirtyDocuments, Map::size);
+        meterRegistry.gauge("documents.dirty.bytes", dirtyBytes);
+    }
+
+    /**
+     * Registers a heap usage threshold so dirty documents are flushed under memory pressure.
+     * The thresholds are JVM-wide, so a pool whose threshold is already set keeps it and the flush runs
+     * when that threshold is exceeded.
+     */
+    @PostConstruct
+    private void registerMemoryPressureListener() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.getUsage().getMax() > 0 && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * memoryThreshold));
+                thresholdPools.add(pool);
+            }
+        }
+
+        memoryPressureListener = (notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                logger.warn("Heap usage threshold exceeded - flushing dirty documents");
+                scheduleFlush();
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                .addNotificationListener(memoryPressureListener, null, null);
+    }
+
+    /**
+     * Removes the listener and the thresholds registerMemoryPressureListener() added, the platform MXBean
+     * outlives this service.
+     */
+    private void unregisterMemoryPressureListener() {
+        if (memoryPressureListener != null) {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                        .removeNotificationListener(memoryPressureListener);
+            } catch (ListenerNotFoundException e) {
+                logger.warn("Memory pressure listener was already removed");
+            }
+            memoryPressureListener = null;
+        }
+
+        for (MemoryPoolMXBean pool : thresholdPools) {
+            pool.setCollectionUsageThreshold(0);
+        }
+        thresholdPools.clear();
+    }
+
+    /**
+     * Marks document as dirty instead of saving it.
+     * Triggers an early flush when the accumulated dirty bytes exceed the threshold.
+     * @param document
+     * @param operations the applied operations, in revision order
+     */
+    public void markDirty(Document document, List<OperationLog> operations) {
+        long bytes = 0;
+        for (OperationLog operation : operations) {
+            bytes += operation.size();
+        }
+
+        long size = bytes;
+        dirtyDocuments.compute(document.getId(), (id, dirty) -> {
+            DirtyDocument updated = dirty == null ? new DirtyDocument(document) : dirty;
+            updated.operations.addAll(operations);
+            updated.bytes += size;
+            return updated;
+        });
+
+        if (dirtyBytes.addAndGet(bytes) >= maxDirtyBytes) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Saves the document now if it has unflushed edits.
+     * @param documentId
+     */
+    public void flush(int documentId) {
+        DirtyDocument dirty = takeDirty(documentId);
+        try {
+            if (dirty != null) {
+                save(Collections.singletonList(dirty));
+            }
+        } finally {
+            flushed(documentId);
+        }
+    }
+
+    /**
+     * Drops pending edits of a deleted document, so it is not saved again.
+     * @param documentId
+     */
+    public void discard(int documentId) {
+        DirtyDocument dirty = dirtyDocuments.remove(documentId);
+        if (dirty != null) {
+            dirtyBytes.addAndGet(-dirty.bytes);
+        }
+    }
+
+    /**
+     * @param documentId
+     * @return true if the document has edits that were not saved yet, including edits being saved right now.
+     */
+    public boolean isDirty(int documentId) {
+        return dirtyDocuments.containsKey(documentId) || flushingDocuments.containsKey(documentId);
+    }
+
+    /**
+     * Saves all dirty documents in one batch.
+     */
+    @Scheduled(fixedDelayString = "${docSharing.flush.interval-ms:2000}")
+    public void flushAll() {
+        List<Integer> documentIds = new ArrayList<>(dirtyDocuments.keySet());
+        List<DirtyDocument> batch = new ArrayList<>();
+        try {
+            for (Integer documentId : documentIds) {
+                DirtyDocument dirty = takeDirty(documentId);
+                if (dirty != null) {
+                    batch.add(dirty);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                save(batch);
+            }
+        } finally {
+            documentIds.forEach(this::flushed);
+        }
+    }
+
+    /**
+     * Takes the document's unsaved edits for a flush. The document counts as dirty until flushed() is called,
+     * so it is not evicted and reloaded without them while they are written, nor after the write failed
+     * and they were put back.
+     */
+    private DirtyDocument takeDirty(int documentId) {
+        flushingDocuments.merge(documentId, 1, Integer::sum);
+        return dirtyDocuments.remove(documentId);
+    }
+
+    private void flushed(int documentId) {
+        flushingDocuments.computeIfPresent(documentId, (id, flushes) -> flushes == 1 ? null : flushes - 1);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        logger.info("Flushing dirty documents before shutdown");
+        unregisterMemoryPressureListener();
+        flushExecutor.shutdownNow();
+        flushAll();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> {
+                flushScheduled.set(false);
+                flushAll();
+            });
+        }
+    }
+
+    private synchronized void save(List<DirtyDocument> batch) {
+        List<OperationLog> operations = new ArrayList<>();
+        long bytes = 0;
+        for (DirtyDocument dirty : batch) {
+            operations.addAll(dirty.operations);
+            bytes += dirty.bytes;
+        }
+
+        long start = System.nanoTime();
+        try {
+            operationLogRepository.saveAll(operations);
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush " + batch.size() + " documents, will retry: " + e.getMessage());
+            for (DirtyDocument dirty : batch) {
+                // The failed operations precede any logged meanwhile.
+                dirtyDocuments.merge(dirty.document.getId(), dirty, (newer, failed) -> failed.mergeWith(newer));
+            }
+            return;
+        }
+
+        Set<Integer> parentIds = new HashSet<>();
+        for (DirtyDocument dirty : batch) {
+            dirty.document.operationsLogged(dirty.operations.size(), dirty.bytes);
+            parentIds.add(dirty.document.getMetadata().getParentId());
+            try {
+                if (isSnapshotDue(dirty.document)) {
+                    saveSnapshot(dirty.document);
+                }
+                documentRepository.updateLastUpdated(dirty.document.getMetadata().getId(), LocalDateTime.now());
+            } catch (RuntimeException e) {
+                // The operations are logged, the snapshot is retried on the next flush.
+                logger.error("Failed to save a snapshot of document #" + dirty.document.getId() + ": " + e.getMessage());
+            }
+        }
+
+        try {
+            // The documents' lastUpdated changed, so did their folders' listings.
+            folderTree.touch(parentIds);
+        } catch (RuntimeException e) {
+            logger.error("Failed to update the modification counters of " + parentIds.size() + " folders: " + e.getMessage());
+        }
+
+        flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        dirtyBytes.addAndGet(-bytes);
+        coalescedWrites.record(operations.size());
+        loggedOperations.increment(operations.size());
+        logger.debug(String.format("Flushed %d documents (%d operations logged)", batch.size(), operations.size()));
+    }
+
+    /**
+     * A snapshot is due once replaying the log since the last snapshot would cost more than
+     * reading a new one: too many operations, or more bytes than a fraction of the content.
+     */
+    private boolean isSnapshotDue(Document document) {
+        long maxBytes = Math.max(snapshotMinBytes, (long) (snapshotSizeRatio * document.getContentLength()));
+        return document.getLoggedOperations() >= snapshotMaxOperations || document.getLoggedBytes() >= maxBytes;
+    }
+
+    private void saveSnapshot(Document document) {
+        Content.Snapshot snapshot = document.snapshot();
+        contentRepository.saveSnapshot(document.getContentId(), snapshot.getText(), snapshot.getRevision());
+        document.snapshotSaved(snapshot);
+        documentCheckpointRepository.save(new DocumentCheckpoint(document.getId(), snapshot, LocalDateTime.now()));
+        snapshots.increment();
+        logger.debug(String.format("Saved a snapshot of document #%d at revision %d",
+                document.getId(), snapshot.getRevision()));
+    }
+
+    private static final class DirtyDocument {
+        private final Document document;
+        private final List<OperationLog> operations;
+        private long bytes;
+
+        private DirtyDocument(Document document) {
+            this.document = document;
+            this.operations = new ArrayList<>();
+        }
+
+        private DirtyDocument mergeWith(DirtyDocument other) {
+            this.operations.addAll(other.operations);
+            this.bytes += other.bytes;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package docSharing.service;
+
+import docSharing.entities.DTO.DocumentDiffDTO;
+import docSharing.entities.DTO.DocumentVersionDTO;
+import docSharing.entities.file.Content;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.OperationLogRepository;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Version history of documents, rebuilt from checkpoints and the operation log.
+ * A version is the nearest checkpoint at or before it plus the operations between them,
+ * so the cost of a lookup is bounded by the checkpoint interval, not by the document's age.
+ */
+@Service
+public class DocumentHistoryService {
+    private final DocumentCheckpointRepository documentCheckpointRepository;
+    private final OperationLogRepository operationLogRepository;
+    private final DocumentFlushService documentFlushService;
+
+
+    private DocumentHistoryService(DocumentCheckpointRepository documentCheckpointRepository,
+                                   OperationLogRepository operationLogRepository,
+                                   DocumentFlushService documentFlushService) {
+        this.documentCheckpointRepository = documentCheckpointRepository;
+        this.operationLogRepository = operationLogRepository;
+        this.documentFlushService = documentFlushService;
+    }
+
+    /**
+     * @param documentId
+     * @param revision
+     * @return the document's content at revision.
+     * @throws IllegalArgumentException if the document has no such revision
+     */
+    public DocumentVersionDTO getVersion(int documentId, int revision) {
+        if (revision < 0) {
+            throw new IllegalArgumentException(String.format("Revision: %d is not valid!", revision));
+        }
+
+        // Edits that were not flushed yet are not in the log.
+        documentFlushService.flush(documentId);
+
+        DocumentCheckpoint checkpoint = documentCheckpointRepository.findLatestAtOrBefore(documentId, revision)
+                .orElseGet(() -> DocumentCheckpoint.initial(documentId));
+        List<OperationLog> operations = operationLogRepository.findBetween(documentId, checkpoint.getRevision(), revision);
+
+        Content.Snapshot version = checkpoint.replay(operations);
+        if (version.getRevision() != revision) {
+            throw new IllegalArgumentException(String.format("Document ID: %d has no revision %d!", documentId, revision));
+        }
+
+        LocalDateTime timestamp = operations.isEmpty() ? checkpoint.getTimestamp()
+                : operations.get(operations.size() - 1).getTimestamp();
+        return new DocumentVersionDTO(documentId, version.getRevision(), timestamp, version.getText());
+    }
+
+    /**
+     * @param documentId
+     * @param timestamp
+     * @return the document's content as it was at timestamp.
+     */
+    public DocumentVersionDTO getVersionAt(int documentId, LocalDateTime timestamp) {
+        documentFlushService.flush(documentId);
+        int revision = operationLogRepository.findLastRevisionAt(documentId, timestamp).orElse(0);
+
+        return getVersion(documentId, revision);
+    }
+
+    /**
+     * @param documentId
+     * @param fromRevision
+     * @param toRevision
+     * @return the operations that turn fromRevision into toRevision, in order.
+     * @throws IllegalArgumentException if the range is not valid or not fully logged
+     */
+    public DocumentDiffDTO getDiff(int documentId, int fromRevision, int toRevision) {
+        if (fromRevision < 0 || fromRevision > toRevision) {
+            throw new IllegalArgumentException(String.format("Revisions: %d..%d are not a valid range!",
+                    fromRevision, toRevision));
+        }
+
+        documentFlushService.flush(documentId);
+        List<OperationLog> operations = operationLogRepository.findBetween(documentId, fromRevision, toRevision);
+        if (operations.size() != toRevision - fromRevision) {
+            throw new IllegalArgumentException(String.format("Document ID: %d has no revisions %d..%d!",
+                    documentId, fromRevision, toRevision));
+        }
+
+        return new DocumentDiffDTO(documentId, fromRevision, toRevision, operations);
+    }
+}
@@ -0,0 +1,226 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.DTO.DocumentDTO;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.OperationLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports text files as new documents without reading them whole.
+ * The file is read and decoded in fixed-size chunks, and every chunk is appended to the document as an
+ * operation, from the document's mailbox like any edit. The operations are flushed every few chunks, so the
+ * log and snapshots are written by DocumentFlushService as for any edit, and the reader waits for the
+ * queued chunks there. The reader holds a chunk and the chunks queued since the last flush, but the whole
+ * text is still held by the cached document and partly by its operation history.
+ */
+@Service
+public class DocumentImportService {
+    private final DocumentService documentService;
+    private final DocumentCache documentsCache;
+    private final DocumentFlushService documentFlushService;
+    private final DocumentRouter documentRouter;
+    private final DocumentEditExecutor documentEditExecutor;
+    private final int chunkBytes;
+    private final long flushChars;
+
+    private final AtomicInteger activeImports;
+    private final Counter importedBytes;
+    private final Counter imports;
+    private final Counter failures;
+
+    private static final Logger logger = LogManager.getLogger(DocumentImportService.class.getName());
+
+    public DocumentImportService(DocumentService documentService, DocumentCache documentsCache,
+                                 DocumentFlushService documentFlushService, DocumentRouter documentRouter,
+                                 DocumentEditExecutor documentEditExecutor, MeterRegistry meterRegistry,
+                                 @Value("${docSharing.import.chunk-bytes:8192}") int chunkBytes,
+                                 @Value("${docSharing.import.flush-chars:1048576}") long flushChars) {
+        this.documentService = documentService;
+        this.documentsCache = documentsCache;
+        this.documentFlushService = documentFlushService;
+        this.documentRouter = documentRouter;
+        this.documentEditExecutor = documentEditExecutor;
+        this.chunkBytes = chunkBytes;
+        this.flushChars = flushChars;
+
+        this.activeImports = new AtomicInteger();
+        this.importedBytes = meterRegistry.counter("documents.import.bytes");
+        this.imports = meterRegistry.counter("documents.imports");
+        this.failures = meterRegistry.counter("documents.import.failures");
+        meterRegistry.gauge("documents.import.active", activeImports);
+    }
+
+    /**
+     * Creates a document titled fileName and streams the file's text into it.
+     * The document is deleted again if the file cannot be read or decoded. The new document's id decides
+     * which node edits it, so an import on another node is flushed and dropped from this node's cache.
+     * @param inputStream the file's bytes, closed when the import ends
+     * @param fileName
+     * @param charset the file's encoding
+     * @param ownerId
+     * @param parentId
+     * @return The imported document, without its content
+     */
+    public DocumentDTO importFile(InputStream inputStream, String fileName, Charset charset, int ownerId, int parentId) {
+        DocumentDTO created = documentService.createDocument(ownerId, parentId, fileName);
+
+        try (ReadableByteChannel channel = Channels.newChannel(inputStream)) {
+            importContent(created.getDocumentId(), ownerId, channel, charset);
+        } catch (IOException | RuntimeException e) {
+            documentService.delete(created.getDocumentId());
+            if (e instanceof CharacterCodingException) {
+                throw new IllegalArgumentException(String.format("%s is not a valid %s text file!", fileName, charset));
+            }
+            throw new IllegalArgumentException(String.format("Failed to import %s: %s", fileName, e.getMessage()));
+        }
+
+        // The content is sent on join, not copied into the response.
+        DocumentDTO imported = new DocumentDTO(created.getDocumentId(), created.getUrl(),
+                documentsCache.get(created.getDocumentId()).getMetadata());
+        if (!documentRouter.isLocal(created.getDocumentId())) {
+            // Nobody could open the new document yet. Its owner loads the flushed content on the first join.
+            documentsCache.remove(created.getDocumentId());
+        }
+
+        return imported;
+    }
+
+    /**
+     * Appends the text read from channel to the end of the document, a chunk at a time.
+     * The chunks are applied in the document's mailbox, the file is read meanwhile.
+     * Malformed or unmappable input fails the import instead of being replaced.
+     * @param documentId
+     * @param userId the user the operations are logged for
+     * @param channel
+     * @param charset
+     */
+    void importContent(int documentId, int userId, ReadableByteChannel channel, Charset charset) throws IOException {
+        List<CompletableFuture<Void>> appended = new ArrayList<>();
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer bytes = ByteBuffer.allocate(chunkBytes);
+        CharBuffer chars = CharBuffer.allocate((int) Math.ceil(chunkBytes * (double) decoder.maxCharsPerByte()));
+
+        activeImports.incrementAndGet();
+        try {
+            long total = 0;
+            long unflushedChars = 0;
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                int read = channel.read(bytes);
+                endOfInput = read == -1;
+                if (read > 0) {
+                    importedBytes.increment(read);
+                    total += read;
+                }
+
+                bytes.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, endOfInput);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    unflushedChars += append(documentId, userId, chars, appended);
+                } while (result.isOverflow());
+                bytes.compact();
+
+                if (endOfInput) {
+                    do {
+                        result = decoder.flush(chars);
+                        unflushedChars += append(documentId, userId, chars, appended);
+                    } while (result.isOverflow());
+                }
+
+                if (unflushedChars >= flushChars || endOfInput) {
+                    appended.add(documentEditExecutor.execute(documentId, () -> documentFlushService.flush(documentId)));
+                    await(appended);
+                    unflushedChars = 0;
+                    logger.debug(String.format("Imported %d bytes into document #%d", total, documentId));
+                }
+            }
+
+            imports.increment();
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            // The document is deleted after a failure, the chunks already queued must not be applied after that.
+            try {
+                await(appended);
+            } catch (RuntimeException queued) {
+                e.addSuppressed(queued);
+            }
+            throw e;
+        } finally {
+            activeImports.decrementAndGet();
+        }
+    }
+
+    /**
+     * Queues the decoded characters in the document's mailbox, to be appended as one operation the way
+     * DocumentService.update() applies an update, and empties the buffer.
+     * @param appended the chunk's task is added to it
+     * @return the number of queued characters
+     */
+    private int append(int documentId, int userId, CharBuffer chars, List<CompletableFuture<Void>> appended) {
+        chars.flip();
+        String text = chars.toString();
+        chars.clear();
+        if (text.isEmpty()) {
+            return 0;
+        }
+
+        appended.add(documentEditExecutor.execute(documentId, () -> {
+            Document document = documentsCache.get(documentId);
+            UpdateRequest updateRequest = new UpdateRequest.UpdateRequestBuilder()
+                    .setDocumentId(documentId)
+                    .setUserId(userId)
+                    .setType(UpdateRequest.UpdateType.APPEND)
+                    .setContent(text)
+                    .setStartPosition(document.getContentLength())
+                    .build();
+            document.updateContent(updateRequest);
+            documentFlushService.markDirty(document,
+                    Collections.singletonList(OperationLog.of(documentId, updateRequest)));
+        }));
+        return text.length();
+    }
+
+    /**
+     * Waits for the queued tasks, and empties the list.
+     * @throws RuntimeException the first task's failure
+     */
+    private static void await(List<CompletableFuture<Void>> tasks) {
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } finally {
+            tasks.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package docSharing.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Assigns every document to one edit node, so a document's in-memory state has a single owner.
+ * Nodes are placed on a consistent hash ring, each with several virtual points: adding or removing
+ * a node only moves the documents of the ring segments it owns.
+ * Configured with docSharing.cluster.nodes ("id=address,id=address") and docSharing.cluster.node-id;
+ * without nodes every document is local. WebSocket frames and REST writes for a document are only
+ * accepted by its owner.
+ */
+@Component
+public class DocumentRouter {
+    private final String nodeId;
+    private final Map<String, String> addresses;
+    private final NavigableMap<Integer, String> ring;
+
+    private static final Logger logger = LogManager.getLogger(DocumentRouter.class.getName());
+
+    public DocumentRouter(@Value("${docSharing.cluster.node-id:}") String nodeId,
+                          @Value("${docSharing.cluster.nodes:}") String nodes,
+                          @Value("${docSharing.cluster.virtual-nodes:128}") int virtualNodes) {
+        this.nodeId = nodeId;
+        this.addresses = parseNodes(nodes);
+        this.ring = new TreeMap<>();
+
+        for (String node : addresses.keySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+
+        if (isEnabled() && !addresses.containsKey(nodeId)) {
+            throw new IllegalArgumentException(String.format("Node '%s' is not one of the cluster nodes %s",
+                    nodeId, addresses.keySet()));
+        }
+        logger.info(String.format("Document affinity %s, %d nodes", isEnabled() ? "enabled" : "disabled",
+                addresses.size()));
+    }
+
+    /**
+     * @return true if documents are spread over several nodes.
+     */
+    public boolean isEnabled() {
+        return !ring.isEmpty();
+    }
+
+    /**
+     * @param documentId
+     * @return the id of the node that owns the document, this node's if affinity is disabled.
+     */
+    public String getOwner(int documentId) {
+        if (!isEnabled()) {
+            return nodeId;
+        }
+
+        Map.Entry<Integer, String> point = ring.ceilingEntry(hash(String.valueOf(documentId)));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * @param documentId
+     * @return the address clients should open the document's WebSocket on, null for this node.
+     */
+    public String getAddress(int documentId) {
+        return isLocal(documentId) ? null : addresses.get(getOwner(documentId));
+    }
+
+    /**
+     * @param documentId
+     * @return true if this node owns the document.
+     */
+    public boolean isLocal(int documentId) {
+        return !isEnabled() || nodeId.equals(getOwner(documentId));
+    }
+
+    /**
+     * Asserts that this node owns the documents, their in-memory state may only be changed by their owner.
+     * @param documentIds
+     * @throws IllegalArgumentException if another node owns one of them
+     */
+    public void checkLocal(Collection<Integer> documentIds) {
+        for (Integer documentId : documentIds) {
+            if (!isLocal(documentId)) {
+                throw new IllegalArgumentException(String.format("Document ID: %d is edited on node %s, " +
+                        "send the request to %s!", documentId, getOwner(documentId), getAddress(documentId)));
+            }
+        }
+    }
+
+    private static Map<String, String> parseNodes(String nodes) {
+        if (nodes == null || nodes.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> addresses = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            String[] idAndAddress = node.trim().split("=", 2);
+            if (idAndAddress.length != 2 || idAndAddress[0].isEmpty()) {
+                throw new IllegalArgumentException("Cluster node must be id=address: " + node);
+            }
+            addresses.put(idAndAddress[0].trim(), idAndAddress[1].trim());
+        }
+
+        return addresses;
+    }
+
+    private static int hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return (digest[0] & 0xFF) << 24 | (digest[1] & 0xFF) << 16 | (digest[2] & 0xFF) << 8 | (digest[3] & 0xFF);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,78 +1,119 @@
 package docSharing.service;
 
 import docSharing.entities.DTO.DocumentDTO;
+import docSharing.entities.DTO.DocumentJoinDTO;
+import docSharing.entities.DTO.DocumentPageDTO;
+import docSharing.entities.DTO.DocumentSummaryDTO;
 import docSharing.entities.file.*;
 import docSharing.entities.permission.Authorization;
 import docSharing.repository.*;
-import docSharing.utils.Utils;
+import docSharing.controller.request.BatchUpdateRequest;
 import docSharing.controller.request.UpdateRequest;
 import docSharing.entities.User;
 import docSharing.entities.permission.Permission;
 import docSharing.utils.GMailer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.nio.file.FileSystems;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import static docSharing.utils.FilesUtils.*;
 
 
 @Service
 public class DocumentService {
+    public static final int MAX_PAGE_SIZE = 200;
+    private static final String CURSOR_SEPARATOR = ":";
+    // Encodes a null lastUpdated in a cursor.
+    private static final String NO_LAST_UPDATED = "";
+    // Later than any lastUpdated, the first LAST_UPDATED page starts below it (also fits a MySQL DATETIME).
+    private static final LocalDateTime LAST_UPDATED_UPPER_BOUND = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
     private final DocumentRepository documentRepository;
-    private final FolderRepository folderRepository;
     private final UserRepository userRepository;
     private final PermissionRepository permissionRepository;
     private final UpdateLogRepository updateLogRepository;
-    private Map<Integer, Document> documentsCache;
-
-
-    private DocumentService(DocumentRepository documentRepository, FolderRepository folderRepository,
+    private final UpdateLogWriter updateLogWriter;
+    private final UpdateLogCoalescer updateLogCoalescer;
+    private final OperationLogRepository operationLogRepository;
+    private final DocumentCheckpointRepository documentCheckpointRepository;
+    private final DocumentFlushService documentFlushService;
+    private final DocumentCache documentsCache;
+    private final DocumentEditExecutor documentEditExecutor;
+    private final PermissionCache permissionCache;
+    private final TransactionTemplate transactionTemplate;
+    private final FolderPathIndex folderPathIndex;
+    private final FolderTree folderTree;
+    private final int joinMaxMissedOperations;
+
+
+    private DocumentService(DocumentRepository documentRepository, FolderTree folderTree,
                             UserRepository userRepository, PermissionRepository permissionRepository,
-                            UpdateLogRepository updateLogRepository) {
+                            UpdateLogRepository updateLogRepository, UpdateLogWriter updateLogWriter,
+                            UpdateLogCoalescer updateLogCoalescer,
+                            OperationLogRepository operationLogRepository,
+                            DocumentCheckpointRepository documentCheckpointRepository,
+                            DocumentFlushService documentFlushService,
+                            DocumentCache documentsCache, DocumentEditExecutor documentEditExecutor,
+                            PermissionCache permissionCache,
+                            TransactionTemplate transactionTemplate,
+                            FolderPathIndex folderPathIndex,
+                            @Value("${docSharing.join.max-missed-operations:256}") int joinMaxMissedOperations) {
         this.documentRepository = documentRepository;
-        this.folderRepository = folderRepository;
+        this.folderTree = folderTree;
         this.userRepository = userRepository;
         this.permissionRepository = permissionRepository;
         this.updateLogRepository = updateLogRepository;
-
-        this.loadDocumentCache();
-
-    }
-
-    private void loadDocumentCache() {
-        this.documentsCache = documentRepository.findAll().stream()
-                .collect(Collectors.toMap(File::getId, Function.identity()));
+        this.updateLogWriter = updateLogWriter;
+        this.updateLogCoalescer = updateLogCoalescer;
+        this.operationLogRepository = operationLogRepository;
+        this.documentCheckpointRepository = documentCheckpointRepository;
+        this.documentFlushService = documentFlushService;
+        this.documentsCache = documentsCache;
+        this.documentEditExecutor = documentEditExecutor;
+        this.permissionCache = permissionCache;
+        this.transactionTemplate = transactionTemplate;
+        this.folderPathIndex = folderPathIndex;
+        this.joinMaxMissedOperations = joinMaxMissedOperations;
     }
 
     /**
-     * Adds userId to the document's activeUsers list.
+     * Opens the document for userId, the user's presence is tracked by PresenceService.
+     * Must run in the document's edit mailbox.
      * @param documentId
      * @param userId
+     * @param revision the revision of the client's copy, null if it has none
+     * @return the operations the client missed, or the content if they are no longer known or too many
      */
-    public DocumentDTO join(int documentId, int userId) {
+    public DocumentJoinDTO join(int documentId, int userId, Integer revision) {
         Document document = documentsCache.get(documentId);
-        document.addActiveUser(userId);
 
-        return new DocumentDTO(document, generateUrl(documentId));
+        return DocumentJoinDTO.of(document, generateUrl(document), revision, joinMaxMissedOperations);
     }
 
     /**
-     * Removes userId from the document's activeUsers list.
+     * Flushes the document's pending edits and closes userId's last update log.
      * @param documentId
      * @param userId
      */
     public void leave(int documentId, int userId) {
         Document document = documentsCache.get(documentId);
-        document.removeActiveUser(userId);
+        documentFlushService.flush(documentId);
 
         if (document.getLastUpdate() != null && document.getLastUpdate().getUserId() == userId) {
-            updateLogRepository.save(document.getLastUpdate());
+            // Queued logs are no longer merged into, the next update starts a new one.
+            updateLogWriter.write(document.getLastUpdate());
+            document.setLastUpdate(null);
         }
     }
 
@@ -89,74 +130,102 @@ public class DocumentService {
             throw new IllegalArgumentException(String.format("owner ID: %d was not found!", ownerId));
         }
 
-        Optional<Folder> parent = folderRepository.findById(parentId);
-        Utils.validateTitle(parent, title);
+        folderTree.validateTitle(parentId, title);
 
         Document document = new Document(owner.get(), parentId, title);
         Document saved = documentRepository.save(document);
-        this.documentsCache.put(document.getId(), saved);
-        addDocumentToParentSubFiles(document);
+        try {
+            folderTree.add(parentId, saved.getId(), title, false);
+            folderTree.checkParent(parentId, saved.getId());
+        } catch (IllegalArgumentException e) {
+            // Another request took the title since it was validated, or deleted the parent folder.
+            documentRepository.delete(saved);
+            throw e;
+        }
+        this.documentsCache.put(saved);
 
         Document savedDocument = this.documentsCache.get(document.getId());
-        return new DocumentDTO(savedDocument, generateUrl(savedDocument.getId()));
+        return new DocumentDTO(savedDocument, generateUrl(savedDocument));
     }
 
     /**
      * Updates a document and adds a track log to its history.
+     * The document is only marked as dirty, DocumentFlushService persists it later.
      * @param updateRequest
      */
     public void update(UpdateRequest updateRequest) {
         Document document = documentsCache.get(updateRequest.getDocumentId());
-        UpdateLog updateLog = document.updateContent(updateRequest);
+        trackLog(document, document.updateContent(updateRequest));
 
-        if (document.isContinuousLog(updateLog)) {
-            document.updateLastLog(updateLog);
-        } else {
-            if (document.getLastUpdate() != null) {
-                updateLogRepository.save(document.getLastUpdate());
-            }
+        documentFlushService.markDirty(document,
+                Collections.singletonList(OperationLog.of(document.getId(), updateRequest)));
+    }
 
-            document.setLastUpdate(updateLog);
+    /**
+     * Applies a batch of updates to one document, all or nothing.
+     * Each update is assigned its new revision, and the batch is assigned the revision of the last one.
+     * @param batchUpdateRequest
+     */
+    public void update(BatchUpdateRequest batchUpdateRequest) {
+        Document document = documentsCache.get(batchUpdateRequest.getDocumentId());
+        for (UpdateRequest updateRequest : batchUpdateRequest.getUpdates()) {
+            updateRequest.setDocumentId(batchUpdateRequest.getDocumentId());
+            updateRequest.setUserId(batchUpdateRequest.getUserId());
+        }
+
+        List<UpdateLog> updateLogs = document.updateContent(batchUpdateRequest.getUpdates(),
+                batchUpdateRequest.getRevision());
+
+        List<OperationLog> operations = new ArrayList<>(updateLogs.size());
+        for (int i = 0; i < updateLogs.size(); i++) {
+            trackLog(document, updateLogs.get(i));
+            operations.add(OperationLog.of(document.getId(), batchUpdateRequest.getUpdates().get(i)));
         }
 
-        documentRepository.save(document);
+        batchUpdateRequest.setRevision(document.getRevision());
+        documentFlushService.markDirty(document, operations);
     }
 
     /**
      * Updates document's parent folder.
+     * The cached document is changed in its mailbox and only the parent is written, the content is left
+     * to DocumentFlushService.
      * @param documentId
      * @param parentId
      * @return the updated document representation
      */
     public DocumentDTO setParent(int documentId, int parentId) {
-        Document document = this.documentsCache.get(documentId);
-        Optional<Folder> parentToBe = folderRepository.findById(parentId);
-
-        Utils.validateTitle(parentToBe, document.getMetadata().getTitle());
+        return documentEditExecutor.call(documentId, () -> {
+            Document document = this.documentsCache.get(documentId);
 
-        removeDocumentFromParentSubFiles(document);
-        document.getMetadata().setParentId(parentId);
-        Document savedDocument = documentRepository.save(document);
-        addDocumentToParentSubFiles(document);
+            folderTree.move(documentId, document.getMetadata().getTitle(), false,
+                    document.getMetadata().getParentId(), parentId);
+            documentRepository.updateParentIds(Collections.singleton(documentId), parentId);
+            document.getMetadata().setParentId(parentId);
 
-        return new DocumentDTO(savedDocument, generateUrl(savedDocument.getId()));
+            return new DocumentDTO(document, generateUrl(document));
+        });
     }
 
     /**
      * Updates document's title.
+     * The cached document is changed in its mailbox and only the title is written, the content is left
+     * to DocumentFlushService.
      * @param documentId
      * @param title
      * @return the updated document representation
      */
     public DocumentDTO setTitle(int documentId, String title) {
-        Document document = this.documentsCache.get(documentId);
-        Optional<Folder> parent = folderRepository.findById(document.getMetadata().getParentId());
+        return documentEditExecutor.call(documentId, () -> {
+            Document document = this.documentsCache.get(documentId);
 
-        Utils.validateTitle(parent, title);
-        document.setTitle(title);
-        Document savedDocument = documentRepository.save(document);
+            folderTree.rename(document.getMetadata().getParentId(), documentId, document.getMetadata().getTitle(),
+                    title);
+            documentRepository.updateTitle(documentId, title);
+            document.setTitle(title);
 
-        return new DocumentDTO(savedDocument, generateUrl(savedDocument.getId()));
+            return new DocumentDTO(document, generateUrl(document));
+        });
     }
 
     /**
@@ -172,7 +241,7 @@ public class DocumentService {
 
             String subject = "Document shared with you: " + document.getMetadata().getTitle();
             String message = String.format("The document owner has invited you to %s the following document: %s",
-                    permission.toString(), generateUrl(documentId));
+                    permission.toString(), generateUrl(document));
             GMailer.sendMail(email, subject, message);
         } catch (Exception e) {
             return false;
@@ -186,23 +255,7 @@ public class DocumentService {
      * @return The document's URL
      */
     public String getUrl(int documentId) {
-        return generateUrl(documentId);
-    }
-
-    /**
-     * Imports a document from specified filepath.
-     * Will create a new document with the imported title and content.
-     * @param path
-     * @param ownerId
-     * @param parentID
-     * @return The imported document
-     */
-    public DocumentDTO importFile(String path, int ownerId, int parentID) {
-        DocumentDTO document = createDocument(ownerId, parentID, getFileName(path));
-        updateContent(document.getDocumentId(), readFromFile(path));
-
-        Document savedDocument = this.documentsCache.get(document.getDocumentId());
-        return new DocumentDTO(savedDocument, generateUrl(savedDocument.getId()));
+        return generateUrl(this.documentsCache.get(documentId));
     }
 
     /**
@@ -232,115 +285,194 @@ public class DocumentService {
 
     /**
      *
-     * @param documentId
-     * @return document's active users
+     * @param userId
+     * @return all documents associated with userId.
      */
-    public List<String> getActiveUsers(int documentId) {
-        Document document = this.documentsCache.get(documentId);
+    public List<DocumentDTO> getDocumentsByUser(int userId) {
+        List<Authorization> authorizations = this.permissionRepository.findByUser(userId);
 
-        List<String> activeUsersName = new ArrayList<>();
-        for (Integer userId : document.getActiveUsers()) {
-            Optional<User> activeUser = userRepository.findById(userId);
-            if (activeUser.isPresent()) {
-                activeUsersName.add(activeUser.get().getName());
-            }
+        List<DocumentDTO> userDocuments = new ArrayList<>();
+        for (Authorization authorization : authorizations) {
+            // Prefer the cached instance, it may hold edits that were not flushed yet.
+            Document document = this.documentsCache.getIfPresent(authorization.getDocument().getId())
+                    .orElse(authorization.getDocument());
+            userDocuments.add(new DocumentDTO(document, generateUrl(document)));
         }
 
-        return activeUsersName;
+        return userDocuments;
     }
 
     /**
-     *
+     * Lists a page of the user's documents, without their content.
+     * The page is read with a single projection query and continues after cursor (keyset pagination),
+     * so deep pages cost the same as the first one.
      * @param userId
-     * @return all documents associated with userId.
+     * @param sort
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param size requested page size, capped at MAX_PAGE_SIZE
+     * @return the page and the cursor of the next one
      */
-    public List<DocumentDTO> getDocumentsByUser(int userId) {
-        List<Authorization> authorizations = this.permissionRepository.findByUser(userId);
+    public DocumentPageDTO getDocumentsPageByUser(int userId, DocumentSort sort, String cursor, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid page size: %d", size));
+        }
 
-        List<DocumentDTO> userDocuments = new ArrayList<>();
-        for (Authorization authorization : authorizations) {
-            Document document = authorization.getDocument();
-            userDocuments.add(new DocumentDTO(document, generateUrl(document.getId())));
+        int limit = Math.min(size, MAX_PAGE_SIZE);
+        // One extra row tells whether there is a next page.
+        Pageable pageable = PageRequest.of(0, limit + 1);
+        CursorPosition position = decodeCursor(cursor, sort);
+        int afterId = position == null ? 0 : position.afterId;
+
+        List<DocumentSummaryDTO> documents;
+        switch (sort) {
+            case ID:
+                documents = permissionRepository.findDocumentsById(userId, afterId, pageable);
+                break;
+            case TITLE:
+                documents = permissionRepository.findDocumentsByTitle(userId,
+                        position == null ? "" : position.title, afterId, pageable);
+                break;
+            case LAST_UPDATED:
+                if (position != null && position.lastUpdated == null) {
+                    // Documents without lastUpdated come last, the previous page ended among them.
+                    documents = permissionRepository.findDocumentsWithoutLastUpdated(userId, afterId, pageable);
+                } else {
+                    documents = permissionRepository.findDocumentsByLastUpdated(userId,
+                            position == null ? LAST_UPDATED_UPPER_BOUND : position.lastUpdated, afterId, pageable);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported sort: " + sort);
         }
 
-        return userDocuments;
+        String nextCursor = null;
+        if (documents.size() > limit) {
+            documents = new ArrayList<>(documents.subList(0, limit));
+            nextCursor = encodeCursor(documents.get(limit - 1), sort);
+        }
+
+        for (DocumentSummaryDTO document : documents) {
+            document.setUrl(folderPathIndex.getPath(document.getParentId(), document.getTitle()));
+        }
+
+        return new DocumentPageDTO(documents, nextCursor);
     }
 
     /**
-     * Deletes document from the database.
+     * Deletes document from the database, in one transaction.
+     * Once committed, the document's queued logs, unsaved edits and cached state are dropped from its mailbox,
+     * and the mailbox is released.
      * @param documentId
      * @return success status
      */
     public boolean delete(int documentId) {
         try {
             Document document = this.documentsCache.get(documentId);
-            removeDocumentFromParentSubFiles(document);
-            permissionRepository.deleteByDocumentId(documentId);
-            updateLogRepository.deleteByDocumentId(documentId);
-            documentRepository.delete(document);
-            this.documentsCache.remove(documentId);
+            transactionTemplate.executeWithoutResult(status -> {
+                folderTree.remove(document.getMetadata().getParentId(), documentId, document.getMetadata().getTitle());
+                permissionRepository.deleteByDocumentId(documentId);
+                updateLogRepository.deleteByDocumentId(documentId);
+                operationLogRepository.deleteByDocumentId(documentId);
+                documentCheckpointRepository.deleteByDocumentId(documentId);
+                documentRepository.delete(document);
+            });
         } catch (Exception e) {
             return false;
         }
 
+        permissionCache.invalidateDocument(documentId);
+        this.documentsCache.onDeleted(Collections.singleton(documentId));
         return true;
     }
 
     /**
-     * Adds document to its parent folder sub files.
+     * Merges updateLog into the document's last log if it continues it,
+     * otherwise saves the last log and starts a new one.
      * @param document
+     * @param updateLog
      */
-    private void addDocumentToParentSubFiles(Document document) {
-        Optional<Folder> optionalParent = folderRepository.findById(document.getMetadata().getParentId());
+    private void trackLog(Document document, UpdateLog updateLog) {
+        if (updateLogCoalescer.isContinuous(document.getLastUpdate(), updateLog)) {
+            document.updateLastLog(updateLog);
+        } else {
+            if (document.getLastUpdate() != null) {
+                updateLogWriter.write(document.getLastUpdate());
+            }
 
-        if (optionalParent.isPresent()) {
-            optionalParent.get().addSubFile(document);
-            folderRepository.save(optionalParent.get());
+            document.setLastUpdate(updateLog);
         }
     }
 
     /**
-     * Removes document from its parent folder sub files.
-     * @param document
+     * @param last the last document of a page
+     * @param sort
+     * @return an opaque cursor holding the sort and last's position in it.
      */
-    private void removeDocumentFromParentSubFiles(Document document) {
-        Optional<Folder> optionalParent = folderRepository.findById(document.getMetadata().getParentId());
-
-        if (optionalParent.isPresent()) {
-            optionalParent.get().removeSubFile(document);
-            folderRepository.save(optionalParent.get());
+    private static String encodeCursor(DocumentSummaryDTO last, DocumentSort sort) {
+        String position = sort.name() + CURSOR_SEPARATOR + last.getDocumentId();
+        if (sort == DocumentSort.TITLE) {
+            position += CURSOR_SEPARATOR + last.getTitle();
+        } else if (sort == DocumentSort.LAST_UPDATED) {
+            position += CURSOR_SEPARATOR + (last.getLastUpdated() == null ? NO_LAST_UPDATED : last.getLastUpdated());
         }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
-     * Sets the content of the document that corresponds to documentId to content.
-     * @param documentId
-     * @param content
+     * @param cursor
+     * @param sort the sort of the requested page, the cursor must be of the same sort
+     * @return the cursor's position, null for the first page.
+     * @throws IllegalArgumentException if the cursor was not encoded by encodeCursor() for sort
      */
-    private void updateContent(int documentId, String content) {
-        Document document = this.documentsCache.get(documentId);
-        document.setContent(content);
-        documentRepository.save(document);
+    private static CursorPosition decodeCursor(String cursor, DocumentSort sort) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(CURSOR_SEPARATOR, 3);
+            if (!sort.name().equals(position[0]) || position.length != (sort == DocumentSort.ID ? 2 : 3)) {
+                throw new IllegalArgumentException("Cursor of another sort");
+            }
+
+            int afterId = Integer.parseInt(position[1]);
+            if (sort == DocumentSort.TITLE) {
+                return new CursorPosition(afterId, position[2], null);
+            }
+            if (sort == DocumentSort.LAST_UPDATED) {
+                return new CursorPosition(afterId, null,
+                        NO_LAST_UPDATED.equals(position[2]) ? null : LocalDateTime.parse(position[2]));
+            }
+            return new CursorPosition(afterId, null, null);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("Invalid cursor: %s", cursor));
+        }
     }
 
     /**
-     * Generates the URL address of the document corresponds to documentId.
-     * @param documentId
+     * Generates the URL address of the document from its parent folder's indexed path.
+     * @param document
      * @return the document's URL.
      */
-    private String generateUrl(int documentId) {
-        Document document = this.documentsCache.get(documentId);
-
-        String url = document.getMetadata().getTitle();
-        int parentId = document.getMetadata().getParentId();
-
-        Optional<Folder> parent = folderRepository.findById(parentId);
+    private String generateUrl(Document document) {
+        return folderPathIndex.getPath(document.getMetadata().getParentId(), document.getMetadata().getTitle());
+    }
 
-        while (parent.isPresent()) {
-            url = parent.get().getMetadata().getTitle() + FileSystems.getDefault().getSeparator() + url;
-            parent = folderRepository.findById(parent.get().getMetadata().getParentId());
+    /**
+     * The position of a page's last document in its sort order, the next page continues after it.
+     */
+    private static final class CursorPosition {
+        private final int afterId;
+        private final String title;
+        // null when the document has no lastUpdated.
+        private final LocalDateTime lastUpdated;
+
+        private CursorPosition(int afterId, String title, LocalDateTime lastUpdated) {
+            this.afterId = afterId;
+            this.title = title;
+            this.lastUpdated = lastUpdated;
         }
-
-        return url;
     }
-}
\ No newline at end of file
+}
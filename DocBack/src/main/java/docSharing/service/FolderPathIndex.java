@@ -0,0 +1,184 @@
+package docSharing.service;
+
+import docSharing.entities.file.Folder;
+import docSharing.repository.FolderRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.FileSystems;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Materialized full paths of folders, used to build document URLs without walking the folder chain.
+ * Folders are loaded lazily on the first lookup, together with their missing ancestors.
+ * Renames and moves rewrite the cached paths of the folder's whole subtree.
+ * Folders are changed on any node, and only that node's index hears of it: the whole index expires every
+ * docSharing.folders.path-ttl-ms, so a path changed on another node is stale for that long at most.
+ */
+@Component
+public class FolderPathIndex {
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private final FolderRepository folderRepository;
+    private final Map<Integer, Node> nodes;
+
+    public FolderPathIndex(FolderRepository folderRepository) {
+        this.folderRepository = folderRepository;
+        this.nodes = new HashMap<>();
+    }
+
+    /**
+     * @param folderId
+     * @return the folder's full path, null if there is no such folder (e.g. the root).
+     */
+    public synchronized String getPath(int folderId) {
+        Node node = getNode(folderId);
+        return node == null ? null : node.path;
+    }
+
+    /**
+     * @param parentId
+     * @param title
+     * @return the full path of a file named title in folder parentId.
+     */
+    public String getPath(int parentId, String title) {
+        String parentPath = getPath(parentId);
+        return parentPath == null ? title : parentPath + SEPARATOR + title;
+    }
+
+    /**
+     * Updates the paths of folderId's subtree after it was renamed.
+     * @param folderId
+     * @param title
+     */
+    public synchronized void onRenamed(int folderId, String title) {
+        Node node = nodes.get(folderId);
+        if (node != null) {
+            node.title = title;
+            updateSubtree(node);
+        }
+    }
+
+    /**
+     * Updates the paths of folderId's subtree after it was moved to parentId.
+     * @param folderId
+     * @param parentId
+     */
+    public synchronized void onMoved(int folderId, int parentId) {
+        Node node = nodes.get(folderId);
+        if (node == null) {
+            return;
+        }
+
+        Node previousParent = nodes.get(node.parentId);
+        if (previousParent != null) {
+            previousParent.children.remove(folderId);
+        }
+
+        node.parentId = parentId;
+        Node parent = getNode(parentId);
+        if (parent != null) {
+            parent.children.add(folderId);
+        }
+
+        updateSubtree(node);
+    }
+
+    /**
+     * Forgets folderId and its cached subtree after they were deleted.
+     * @param folderId
+     */
+    public synchronized void onDeleted(int folderId) {
+        Node node = nodes.remove(folderId);
+        if (node == null) {
+            return;
+        }
+
+        Node parent = nodes.get(node.parentId);
+        if (parent != null) {
+            parent.children.remove(folderId);
+        }
+
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            for (Integer childId : pending.pop().children) {
+                Node child = nodes.remove(childId);
+                if (child != null) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all the indexed folders, they are loaded again on their next lookup.
+     */
+    @Scheduled(fixedDelayString = "${docSharing.folders.path-ttl-ms:30000}")
+    public synchronized void expire() {
+        nodes.clear();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private Node getNode(int folderId) {
+        Node node = nodes.get(folderId);
+        if (node != null) {
+            return node;
+        }
+
+        Optional<Folder> folder = folderRepository.findById(folderId);
+        if (!folder.isPresent()) {
+            return null;
+        }
+
+        node = new Node(folder.get().getMetadata().getParentId(), folder.get().getMetadata().getTitle());
+        Node parent = folderId == node.parentId ? null : getNode(node.parentId);
+        node.path = parent == null ? node.title : parent.path + SEPARATOR + node.title;
+        if (parent != null) {
+            parent.children.add(folderId);
+        }
+
+        nodes.put(folderId, node);
+        return node;
+    }
+
+    private void updateSubtree(Node root) {
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            Node parent = nodes.get(node.parentId);
+            node.path = parent == null ? node.title : parent.path + SEPARATOR + node.title;
+
+            for (Integer childId : node.children) {
+                Node child = nodes.get(childId);
+                if (child != null) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+        private int parentId;
+        private String title;
+        private String path;
+        private final Set<Integer> children;
+
+        private Node(int parentId, String title) {
+            this.parentId = parentId;
+            this.title = title;
+            this.children = new HashSet<>();
+        }
+    }
+}
@@ -1,35 +1,91 @@
 package docSharing.service;
 
+import docSharing.controller.request.MoveRequest;
+import docSharing.entities.DTO.FolderChildDTO;
+import docSharing.entities.DTO.FolderPageDTO;
 import docSharing.entities.User;
-import docSharing.entities.file.Document;
-import docSharing.entities.file.File;
+import docSharing.entities.file.DocOperation;
 import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.permission.Permission;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
 import docSharing.repository.DocumentRepository;
 import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
 import docSharing.repository.PermissionRepository;
+import docSharing.repository.UpdateLogRepository;
 import docSharing.repository.UserRepository;
-import docSharing.utils.Utils;
-import org.springframework.data.jpa.repository.Modifying;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 
 @Service
 public class FolderService {
     private final FolderRepository folderRepository;
     private final DocumentRepository documentRepository;
+    private final ContentRepository contentRepository;
     private final UserRepository userRepository;
     private final PermissionRepository permissionRepository;
+    private final UpdateLogRepository updateLogRepository;
+    private final OperationLogRepository operationLogRepository;
+    private final DocumentCheckpointRepository documentCheckpointRepository;
+    private final PermissionCache permissionCache;
+    private final PermissionService permissionService;
+    private final FolderPathIndex folderPathIndex;
+    private final FolderTree folderTree;
+    private final DocumentCache documentsCache;
+    private final UserNameDirectory userNameDirectory;
+    private final TransactionTemplate transactionTemplate;
+    private final DocumentRouter documentRouter;
+    // The most ids in one IN list of a bulk delete.
+    private final int deleteBatchSize;
+
+    private static final Logger logger = LogManager.getLogger(FolderService.class.getName());
 
 
     private FolderService(FolderRepository folderRepository, DocumentRepository documentRepository,
-                          UserRepository userRepository, PermissionRepository permissionRepository) {
+                          ContentRepository contentRepository, UserRepository userRepository,
+                          PermissionRepository permissionRepository, UpdateLogRepository updateLogRepository,
+                          OperationLogRepository operationLogRepository,
+                          DocumentCheckpointRepository documentCheckpointRepository, PermissionCache permissionCache,
+                          PermissionService permissionService,
+                          FolderPathIndex folderPathIndex, FolderTree folderTree, DocumentCache documentsCache,
+                          UserNameDirectory userNameDirectory, TransactionTemplate transactionTemplate,
+                          DocumentRouter documentRouter,
+                          @Value("${docSharing.folders.delete-batch-size:1000}") int deleteBatchSize) {
         this.folderRepository = folderRepository;
         this.documentRepository = documentRepository;
+        this.contentRepository = contentRepository;
         this.userRepository = userRepository;
         this.permissionRepository = permissionRepository;
+        this.updateLogRepository = updateLogRepository;
+        this.operationLogRepository = operationLogRepository;
+        this.documentCheckpointRepository = documentCheckpointRepository;
+        this.permissionCache = permissionCache;
+        this.permissionService = permissionService;
+        this.folderPathIndex = folderPathIndex;
+        this.folderTree = folderTree;
+        this.documentsCache = documentsCache;
+        this.userNameDirectory = userNameDirectory;
+        this.transactionTemplate = transactionTemplate;
+        this.documentRouter = documentRouter;
+        this.deleteBatchSize = deleteBatchSize;
     }
 
     /**
@@ -45,15 +101,19 @@ public class FolderService {
             throw new IllegalArgumentException(String.format("owner ID: %d was not found!", ownerId));
         }
 
-        Optional<Folder> parent = folderRepository.findById(parentId);
-        if (!Utils.isUniqueTitleInFolder(parent, title)) {
-            throw new IllegalArgumentException(String.format("title: %s already exists in folder!", title));
-        }
+        folderTree.validateTitle(parentId, title);
 
         Folder folder = new Folder(owner.get(), parentId, title);
 
         Folder savedFolder = folderRepository.save(folder);
-        addFolderToParentSubFiles(folder);
+        try {
+            folderTree.add(parentId, savedFolder.getId(), title, true);
+            folderTree.checkParent(parentId, savedFolder.getId());
+        } catch (IllegalArgumentException e) {
+            // Another request took the title since it was validated, or deleted the parent folder.
+            folderRepository.delete(savedFolder);
+            throw e;
+        }
 
         return savedFolder;
     }
@@ -67,12 +127,10 @@ public class FolderService {
     public Folder setParent(int folderId, int parentId) {
         Folder folder = folderRepository.getReferenceById(folderId);
 
-        validateUniqueTitle(parentId, folder.getMetadata().getTitle());
-
-        removeFolderFromParentSubFiles(folder);
+        folderTree.move(folderId, folder.getMetadata().getTitle(), true, folder.getMetadata().getParentId(), parentId);
         folder.getMetadata().setParentId(parentId);
         Folder savedFolder = folderRepository.save(folder);
-        addFolderToParentSubFiles(folder);
+        folderPathIndex.onMoved(folderId, parentId);
 
         return savedFolder;
     }
@@ -86,90 +144,285 @@ public class FolderService {
     public Folder setTitle(int folderId, String title) {
         Folder folder = folderRepository.getReferenceById(folderId);
 
-        validateUniqueTitle(folder.getMetadata().getParentId(), title);
-
+        folderTree.rename(folder.getMetadata().getParentId(), folderId, folder.getMetadata().getTitle(), title);
         folder.setTitle(title);
-        return folderRepository.save(folder);
+        Folder savedFolder = folderRepository.save(folder);
+        folderPathIndex.onRenamed(folderId, title);
+
+        return savedFolder;
+    }
+
+    /**
+     * @param folderId
+     * @return the folder's modification counter, it changes whenever the folder's listing does.
+     * @throws IllegalArgumentException if there is no such folder
+     */
+    public long getModifications(int folderId) {
+        return folderTree.getModifications(folderId).orElseThrow(() ->
+                new IllegalArgumentException(String.format("Folder ID: %d was not found!", folderId)));
+    }
+
+    /**
+     * Lists a page of the folder's documents and folders, ordered by title.
+     * The page is read from the folder tree's (parent_id, title) index and continues after cursor
+     * (keyset pagination), then its files' metadata are read by id, so no folder or document is loaded.
+     * @param folderId
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param size requested page size, capped at DocumentService.MAX_PAGE_SIZE
+     * @return the page and the cursor of the next one
+     */
+    public FolderPageDTO getChildren(int folderId, String cursor, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid page size: %d", size));
+        }
+
+        int limit = Math.min(size, DocumentService.MAX_PAGE_SIZE);
+        // One extra row tells whether there is a next page.
+        List<FolderEntry> entries = folderTree.getPage(folderId, decodeCursor(cursor), limit + 1);
+        String nextCursor = null;
+        if (entries.size() > limit) {
+            entries = entries.subList(0, limit);
+            nextCursor = encodeCursor(entries.get(limit - 1).getTitle());
+        }
+
+        List<Integer> documentIds = new ArrayList<>();
+        List<Integer> folderIds = new ArrayList<>();
+        for (FolderEntry entry : entries) {
+            (entry.isFolder() ? folderIds : documentIds).add(entry.getFileId());
+        }
+
+        Map<Integer, FolderChildDTO> files = new HashMap<>();
+        if (!documentIds.isEmpty()) {
+            documentRepository.findChildren(documentIds).forEach(child -> files.put(child.getFileId(), child));
+        }
+        if (!folderIds.isEmpty()) {
+            folderRepository.findChildren(folderIds).forEach(child -> files.put(child.getFileId(), child));
+        }
+
+        List<FolderChildDTO> children = new ArrayList<>(entries.size());
+        for (FolderEntry entry : entries) {
+            FolderChildDTO child = files.get(entry.getFileId());
+            // Deleted since the page was read.
+            if (child != null) {
+                child.setOwnerName(userNameDirectory.getName(child.getOwnerId()).orElse(null));
+                children.add(child);
+            }
+        }
+
+        return new FolderPageDTO(children, nextCursor);
+    }
+
+    /**
+     * Moves documents and folders to folder parentId, renaming the files given a new title.
+     * The titles of the whole batch are checked at once, and the files that keep their title are moved
+     * with one statement per table, so moving a selection does not save every file and folder on its way.
+     * Nothing is moved unless the user may move every document, and rename the documents given a new title.
+     * @param moveRequest
+     * @param userId
+     * @throws IllegalArgumentException if a file or the folder do not exist, the user may not move or rename
+     * one of the documents, a folder would be moved into itself, the folder has files with the same titles,
+     * or another node edits one of the documents
+     */
+    public void move(MoveRequest moveRequest, int userId) {
+        int parentId = moveRequest.getParentId();
+        Map<Integer, String> titles = new HashMap<>();
+        for (MoveRequest.Item item : moveRequest.getFiles()) {
+            titles.put(item.getFileId(), item.getTitle());
+        }
+        if (titles.isEmpty()) {
+            return;
+        }
+
+        if (parentId != FolderTree.ROOT_ID && !folderRepository.findById(parentId).isPresent()) {
+            throw new IllegalArgumentException(String.format("Folder ID: %d was not found!", parentId));
+        }
+
+        List<FolderEntry> files = folderTree.getEntries(titles.keySet());
+        List<Integer> documentIds = new ArrayList<>();
+        List<Integer> folderIds = new ArrayList<>();
+        for (FolderEntry file : files) {
+            (file.isFolder() ? folderIds : documentIds).add(file.getFileId());
+            if (titles.get(file.getFileId()) == null) {
+                titles.put(file.getFileId(), file.getTitle());
+            }
+        }
+        if (files.size() < titles.size()) {
+            Set<Integer> missing = new HashSet<>(titles.keySet());
+            files.forEach(file -> missing.remove(file.getFileId()));
+            throw new IllegalArgumentException(String.format("File ID: %d was not found!", missing.iterator().next()));
+        }
+        Map<Integer, Permission> permissions = permissionService.getPermissions(documentIds, userId);
+        for (FolderEntry file : files) {
+            if (file.isFolder()) {
+                continue;
+            }
+            Permission permission = permissions.get(file.getFileId());
+            boolean renamed = !titles.get(file.getFileId()).equals(file.getTitle());
+            if (!PermissionService.isAllowed(permission, DocOperation.SET_PARENT)
+                    || renamed && !PermissionService.isAllowed(permission, DocOperation.SET_TITLE)) {
+                throw new IllegalArgumentException(String.format(
+                        "User: %d does not have edit permission for document ID: %d!", userId, file.getFileId()));
+            }
+        }
+        // The moved documents' cached metadata is updated, so they must be cached here.
+        documentRouter.checkLocal(documentIds);
+
+        if (!folderIds.isEmpty() && parentId != FolderTree.ROOT_ID) {
+            List<Integer> destination = new ArrayList<>(folderTree.getAncestors(parentId));
+            destination.add(parentId);
+            for (Integer folderId : destination) {
+                if (folderIds.contains(folderId)) {
+                    throw new IllegalArgumentException(
+                            String.format("Folder ID: %d cannot be moved into itself!", folderId));
+                }
+            }
+        }
+
+        folderTree.validateMove(files, titles, parentId);
+        transactionTemplate.executeWithoutResult(status -> {
+            for (FolderEntry file : files) {
+                String title = titles.get(file.getFileId());
+                if (title.equals(file.getTitle())) {
+                    continue;
+                }
+                if (file.isFolder()) {
+                    folderRepository.updateTitle(file.getFileId(), title);
+                } else {
+                    documentRepository.updateTitle(file.getFileId(), title);
+                }
+            }
+            if (!documentIds.isEmpty()) {
+                documentRepository.updateParentIds(documentIds, parentId);
+            }
+            if (!folderIds.isEmpty()) {
+                folderRepository.updateParentIds(folderIds, parentId);
+            }
+            folderTree.moveEntries(files, titles, parentId);
+        });
+
+        folderTree.onMoved(files, titles, parentId);
+        Map<Integer, String> documentTitles = new HashMap<>();
+        for (Integer documentId : documentIds) {
+            documentTitles.put(documentId, titles.get(documentId));
+        }
+        documentsCache.onMoved(documentTitles, parentId);
+        for (Integer folderId : folderIds) {
+            folderPathIndex.onRenamed(folderId, titles.get(folderId));
+            folderPathIndex.onMoved(folderId, parentId);
+        }
     }
 
     /**
-     * Deletes folder from the database.
+     * Deletes folder and everything below it from the database, in one transaction.
+     * The subtree is read and locked inside the transaction, a query per level, so no file can be added to it
+     * until the delete commits. Every table is cleared with a few set-based statements per deleteBatchSize files,
+     * rather than row by row.
+     * Once committed, the deleted documents' queued logs, unsaved edits and cached state are dropped
+     * from their mailboxes.
      * @param folderId
      * @return success status
+     * @throws IllegalArgumentException if another node edits one of the documents
      */
     public boolean delete(int folderId) {
-        boolean success = true;
-
         Optional<Folder> folder = folderRepository.findById(folderId);
         if (!folder.isPresent()) {
             return false;
         }
 
+        List<Integer> documentIds = new ArrayList<>();
+        List<Integer> folderIds = new ArrayList<>();
         try {
-            removeFolderFromParentSubFiles(folder.get());
-            deleteSubFiles(folder.get());
-            folderRepository.delete(folder.get());
-        } catch (Exception e) {
-            success = false;
+            transactionTemplate.executeWithoutResult(status -> {
+                folderTree.lockSubtree(folderId, folderIds, documentIds);
+                // The deleted documents' edits and cached state are dropped, so they must be edited here.
+                documentRouter.checkLocal(documentIds);
+                folderIds.add(folderId);
+                forEachBatch(documentIds, this::deleteDocuments);
+                forEachBatch(folderIds, this::deleteFolders);
+                folderTree.touch(Collections.singleton(folder.get().getMetadata().getParentId()));
+            });
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to delete folder #%d: %s", folderId, e.getMessage()));
+            return false;
         }
 
-        return success;
+        Set<Integer> deletedDocuments = new HashSet<>(documentIds);
+        // Pending writes would insert rows for the deleted documents, the documents' mailboxes drop them.
+        documentsCache.onDeleted(deletedDocuments);
+        permissionCache.invalidateDocuments(deletedDocuments);
+        folderTree.onSubtreeDeleted(folder.get().getMetadata().getParentId(), folder.get().getMetadata().getTitle(),
+                folderIds);
+        folderPathIndex.onDeleted(folderId);
+        logger.info(String.format("Deleted folder #%d with %d folders and %d documents",
+                folderId, folderIds.size() - 1, documentIds.size()));
+
+        return true;
     }
 
     /**
-     * Adds folder to its parent folder sub files.
-     * @param folder
+     * Deletes the documents and the rows that reference them.
+     * @param documentIds
      */
-    private void addFolderToParentSubFiles(Folder folder) {
-        Optional<Folder> optionalParent = folderRepository.findById(folder.getMetadata().getParentId());
+    private void deleteDocuments(List<Integer> documentIds) {
+        permissionRepository.deleteByDocumentIds(documentIds);
+        updateLogRepository.deleteByDocumentIds(documentIds);
+        operationLogRepository.deleteByDocumentIds(documentIds);
+        documentCheckpointRepository.deleteByDocumentIds(documentIds);
 
-        if (optionalParent.isPresent()) {
-            optionalParent.get().addSubFile(folder);
-            folderRepository.save(optionalParent.get());
+        List<Integer> contentIds = documentRepository.findContentIds(documentIds);
+        List<Integer> metadataIds = documentRepository.findMetadataIds(documentIds);
+        documentRepository.deleteByIds(documentIds);
+        if (!contentIds.isEmpty()) {
+            contentRepository.deleteByIds(contentIds);
+        }
+        if (!metadataIds.isEmpty()) {
+            documentRepository.deleteMetadataByIds(metadataIds);
         }
+        folderTree.deleteEntries(documentIds);
     }
 
     /**
-     * Removes folder from its parent folder sub files.
-     * @param folder
+     * Deletes the folders, their metadata and their entries in the tree.
+     * @param folderIds
      */
-    private void removeFolderFromParentSubFiles(Folder folder) {
-        Optional<Folder> optionalParent = folderRepository.findById(folder.getMetadata().getParentId());
-
-        if (optionalParent.isPresent()) {
-            optionalParent.get().removeSubFile(folder);
-            folderRepository.save(optionalParent.get());
+    private void deleteFolders(List<Integer> folderIds) {
+        List<Integer> metadataIds = folderRepository.findMetadataIds(folderIds);
+        folderRepository.deleteByIds(folderIds);
+        if (!metadataIds.isEmpty()) {
+            documentRepository.deleteMetadataByIds(metadataIds);
         }
+        folderTree.deleteEntries(folderIds);
     }
 
     /**
-     * Asserts that there is no file with the same title in the folder.
-     * Throws IllegalArgumentException otherwise.
-     * @param folder_id
-     * @param title
+     * @param title the last title of a page
+     * @return an opaque cursor holding the title.
      */
-    private void validateUniqueTitle(int folder_id, String title) {
-        Optional<Folder> folder = folderRepository.findById(folder_id);
-        if (!Utils.isUniqueTitleInFolder(folder, title)) {
-            throw new IllegalArgumentException(String.format("File with title: %s already exists in that folder!", title));
-        }
+    private static String encodeCursor(String title) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(title.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
-     * Deletes all folder's sub files.
-     * @param folder
+     * @param cursor
+     * @return the cursor's title, "" for the first page.
      */
-    @Transactional
-    @Modifying
-    private void deleteSubFiles(Folder folder) {
-        for (File file : folder.getSubFiles()) {
-            if (file instanceof Folder) {
-                deleteSubFiles((Folder) file);
-                folderRepository.delete((Folder) file);
-            } else if (file instanceof Document) {
-                permissionRepository.deleteByDocumentId(file.getId());
-                documentRepository.delete((Document) file);
-            }
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return "";
+        }
+
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid cursor: %s", cursor));
+        }
+    }
+
+    private void forEachBatch(List<Integer> ids, Consumer<List<Integer>> action) {
+        for (int from = 0; from < ids.size(); from += deleteBatchSize) {
+            action.accept(ids.subList(from, Math.min(ids.size(), from + deleteBatchSize)));
         }
     }
 }
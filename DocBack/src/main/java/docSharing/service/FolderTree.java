@@ -0,0 +1,511 @@
+package docSharing.service;
+
+import docSharing.entities.file.FolderEntry;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The folder tree, stored as a parent -> children table (FolderEntry).
+ * The titles of recently used folders are kept in hash sets, so title checks do not read the folder's
+ * children; the unique (parent_id, title) constraint settles concurrent creates of the same title.
+ * Checks and writes of titles lock the folder they are added to only, changes to other folders proceed.
+ * Cached titles may be stale when other nodes changed the folder, so a folder is read again before a title
+ * found in its cache is rejected.
+ * Files at the root (ROOT_ID) are not in the tree and their titles are not checked.
+ * Every change to a folder's children increments the folder's modification counter, which versions its listing.
+ */
+@Component
+public class FolderTree {
+    public static final int ROOT_ID = 0;
+    private static final int LOCK_STRIPES = 64;
+    // No title starts with a control character, so a file renamed in two steps never takes a user's title.
+    private static final String MOVING_TITLE = "\u0001moving-%d";
+
+    private final FolderEntryRepository folderEntryRepository;
+    private final FolderRepository folderRepository;
+    // parentId -> titles of its children, in LRU order
+    private final LinkedHashMap<Integer, Set<String>> titles;
+    // parentId % LOCK_STRIPES -> the lock of the folder's title checks and writes
+    private final Object[] locks;
+
+    private static final Logger logger = LogManager.getLogger(FolderTree.class.getName());
+
+    public FolderTree(FolderEntryRepository folderEntryRepository, FolderRepository folderRepository,
+                      @Value("${docSharing.folders.cached-folders:1024}") int maxCachedFolders) {
+        this.folderEntryRepository = folderEntryRepository;
+        this.folderRepository = folderRepository;
+        this.titles = new LinkedHashMap<Integer, Set<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Set<String>> eldest) {
+                return size() > maxCachedFolders;
+            }
+        };
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Fills the tree from the files' metadata the first time the application runs with it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (folderEntryRepository.count() > 0) {
+            return;
+        }
+
+        List<FolderEntry> entries = folderEntryRepository.findFolderEntries();
+        entries.addAll(folderEntryRepository.findDocumentEntries());
+        if (!entries.isEmpty()) {
+            folderEntryRepository.saveAll(entries);
+            logger.info(String.format("Added %d files to the folder tree", entries.size()));
+        }
+    }
+
+    /**
+     * Asserts that title can be used in folder parentId.
+     * Throws IllegalArgumentException otherwise.
+     * @param parentId
+     * @param title
+     */
+    public void validateTitle(int parentId, String title) {
+        if (title == null || title.equals("")) {
+            throw new IllegalArgumentException("Title cannot be empty!");
+        }
+        if (parentId == ROOT_ID) {
+            return;
+        }
+
+        synchronized (lock(parentId)) {
+            if (getTitles(parentId).contains(title) && loadTitles(parentId).contains(title)) {
+                throw new IllegalArgumentException(String.format("File with title: %s already exists in that folder!", title));
+            }
+        }
+    }
+
+    /**
+     * Adds a new file to folder parentId.
+     * @param parentId
+     * @param fileId
+     * @param title
+     * @param folder true if the file is a folder
+     * @throws IllegalArgumentException if the folder has a file with the same title
+     */
+    public void add(int parentId, int fileId, String title, boolean folder) {
+        if (parentId == ROOT_ID) {
+            return;
+        }
+
+        synchronized (lock(parentId)) {
+            validateTitle(parentId, title);
+            try {
+                folderEntryRepository.save(new FolderEntry(parentId, fileId, title, folder));
+            } catch (DataIntegrityViolationException e) {
+                throw conflict(parentId, title);
+            }
+            getTitles(parentId).add(title);
+        }
+        touch(Collections.singleton(parentId));
+    }
+
+    /**
+     * Renames file fileId in folder parentId.
+     * @param parentId
+     * @param fileId
+     * @param title the file's current title
+     * @param newTitle
+     * @throws IllegalArgumentException if the folder has a file with the new title
+     */
+    public void rename(int parentId, int fileId, String title, String newTitle) {
+        if (parentId == ROOT_ID) {
+            validateTitle(parentId, newTitle);
+            return;
+        }
+
+        synchronized (lock(parentId)) {
+            validateTitle(parentId, newTitle);
+            try {
+                folderEntryRepository.updateTitle(fileId, newTitle);
+            } catch (DataIntegrityViolationException e) {
+                throw conflict(parentId, newTitle);
+            }
+            Set<String> children = getTitles(parentId);
+            children.remove(title);
+            children.add(newTitle);
+        }
+        touch(Collections.singleton(parentId));
+    }
+
+    /**
+     * Moves file fileId from folder parentId to folder newParentId.
+     * @param fileId
+     * @param title
+     * @param folder true if the file is a folder
+     * @param parentId
+     * @param newParentId
+     * @throws IllegalArgumentException if the new folder has a file with the same title
+     */
+    public void move(int fileId, String title, boolean folder, int parentId, int newParentId) {
+        synchronized (lock(newParentId)) {
+            validateTitle(newParentId, title);
+            try {
+                if (parentId == ROOT_ID) {
+                    folderEntryRepository.save(new FolderEntry(newParentId, fileId, title, folder));
+                } else if (newParentId == ROOT_ID) {
+                    folderEntryRepository.deleteByFileId(fileId);
+                } else {
+                    folderEntryRepository.updateParentId(fileId, newParentId);
+                }
+            } catch (DataIntegrityViolationException e) {
+                throw conflict(newParentId, title);
+            }
+            if (newParentId != ROOT_ID) {
+                getTitles(newParentId).add(title);
+            }
+        }
+        touch(Arrays.asList(parentId, newParentId));
+
+        Set<String> children = parentId == ROOT_ID ? null : getCachedTitles(parentId);
+        if (children != null) {
+            children.remove(title);
+        }
+    }
+
+    /**
+     * Asserts that the files can be moved to folder newParentId with their new titles.
+     * Checks the whole batch against the folder's titles, reading them at most once.
+     * Throws IllegalArgumentException otherwise.
+     * @param files the files' current places
+     * @param newTitles fileId -> the file's title after the move
+     * @param newParentId
+     */
+    public void validateMove(List<FolderEntry> files, Map<Integer, String> newTitles, int newParentId) {
+        // Titles the moved files free in the destination, by leaving it or by being renamed.
+        Set<String> freed = new HashSet<>();
+        for (FolderEntry file : files) {
+            if (file.getParentId() == newParentId) {
+                freed.add(file.getTitle());
+            }
+        }
+
+        synchronized (lock(newParentId)) {
+            Set<String> taken = newParentId == ROOT_ID ? Collections.emptySet() : getTitles(newParentId);
+            boolean reloaded = false;
+            Set<String> moved = new HashSet<>();
+            for (FolderEntry file : files) {
+                String title = newTitles.get(file.getFileId());
+                if (title == null || title.equals("")) {
+                    throw new IllegalArgumentException("Title cannot be empty!");
+                }
+                if (newParentId == ROOT_ID) {
+                    continue;
+                }
+                if (taken.contains(title) && !freed.contains(title) && !reloaded) {
+                    taken = loadTitles(newParentId);
+                    reloaded = true;
+                }
+                if (!moved.add(title) || taken.contains(title) && !freed.contains(title)) {
+                    throw new IllegalArgumentException(String.format("File with title: %s already exists in that folder!", title));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the files' entries after a move to folder newParentId, with one statement for all the files
+     * that keep their title. A file renamed to a title another file of the batch gives up, as in a swap,
+     * first gets a temporary title, so the unique (parent_id, title) constraint holds after every statement.
+     * Call onMoved() once the move is committed.
+     * @param files the files' current places
+     * @param newTitles fileId -> the file's title after the move
+     * @param newParentId
+     * @throws IllegalArgumentException if another node took one of the titles
+     */
+    public void moveEntries(List<FolderEntry> files, Map<Integer, String> newTitles, int newParentId) {
+        List<FolderEntry> added = new ArrayList<>();
+        List<Integer> moved = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        List<FolderEntry> renamedTwice = new ArrayList<>();
+        Set<Integer> changed = new HashSet<>();
+        changed.add(newParentId);
+
+        // Titles the renamed files give up in the destination.
+        Set<String> freed = new HashSet<>();
+        for (FolderEntry file : files) {
+            if (file.getParentId() == newParentId && !newTitles.get(file.getFileId()).equals(file.getTitle())) {
+                freed.add(file.getTitle());
+            }
+        }
+
+        try {
+            for (FolderEntry file : files) {
+                String title = newTitles.get(file.getFileId());
+                changed.add(file.getParentId());
+                if (file.getParentId() == ROOT_ID) {
+                    if (newParentId != ROOT_ID) {
+                        added.add(new FolderEntry(newParentId, file.getFileId(), title, file.isFolder()));
+                    }
+                } else if (newParentId == ROOT_ID) {
+                    removed.add(file.getFileId());
+                } else if (!title.equals(file.getTitle())) {
+                    if (freed.contains(title)) {
+                        title = String.format(MOVING_TITLE, file.getFileId());
+                        renamedTwice.add(file);
+                    }
+                    folderEntryRepository.updatePlace(file.getFileId(), newParentId, title);
+                } else if (file.getParentId() != newParentId) {
+                    moved.add(file.getFileId());
+                }
+            }
+            for (FolderEntry file : renamedTwice) {
+                folderEntryRepository.updateTitle(file.getFileId(), newTitles.get(file.getFileId()));
+            }
+
+            if (!moved.isEmpty()) {
+                folderEntryRepository.updateParentIds(moved, newParentId);
+            }
+            if (!removed.isEmpty()) {
+                folderEntryRepository.deleteByFileIds(removed);
+            }
+            if (!added.isEmpty()) {
+                // Flushed here, a conflict at commit would escape as a DataIntegrityViolationException.
+                folderEntryRepository.saveAllAndFlush(added);
+            }
+            touch(changed);
+        } catch (DataIntegrityViolationException e) {
+            forgetTitles(newParentId);
+            throw new IllegalArgumentException("Another file with one of the titles was added to that folder!");
+        }
+    }
+
+    /**
+     * Updates the cached titles after the files were moved to folder newParentId.
+     * @param files the files' places before the move
+     * @param newTitles fileId -> the file's title after the move
+     * @param newParentId
+     */
+    public void onMoved(List<FolderEntry> files, Map<Integer, String> newTitles, int newParentId) {
+        for (FolderEntry file : files) {
+            Set<String> children = getCachedTitles(file.getParentId());
+            if (children != null) {
+                children.remove(file.getTitle());
+            }
+        }
+
+        Set<String> children = newParentId == ROOT_ID ? null : getCachedTitles(newParentId);
+        if (children != null) {
+            for (FolderEntry file : files) {
+                children.add(newTitles.get(file.getFileId()));
+            }
+        }
+    }
+
+    /**
+     * Increments the modification counters of the folders, after their children changed.
+     * @param folderIds
+     */
+    public void touch(Collection<Integer> folderIds) {
+        List<Integer> folders = new ArrayList<>(folderIds.size());
+        for (Integer folderId : folderIds) {
+            if (folderId != ROOT_ID) {
+                folders.add(folderId);
+            }
+        }
+
+        if (!folders.isEmpty()) {
+            folderRepository.incrementModifications(folders);
+        }
+    }
+
+    /**
+     * @param folderId
+     * @return the folder's modification counter, empty if there is no such folder.
+     */
+    public Optional<Long> getModifications(int folderId) {
+        return folderRepository.findModifications(folderId);
+    }
+
+    /**
+     * @param parentId
+     * @param afterTitle the last title of the previous page, "" for the first page
+     * @param size
+     * @return up to size files of folder parentId, ordered by title.
+     */
+    public List<FolderEntry> getPage(int parentId, String afterTitle, int size) {
+        return folderEntryRepository.findPage(parentId, afterTitle, PageRequest.of(0, size));
+    }
+
+    /**
+     * @param fileIds documents and folders
+     * @return the current places of the files that exist, files at the root included.
+     */
+    public List<FolderEntry> getEntries(Collection<Integer> fileIds) {
+        List<FolderEntry> entries = folderEntryRepository.findDocumentEntries(fileIds);
+        entries.addAll(folderEntryRepository.findFolderEntries(fileIds));
+        return entries;
+    }
+
+    /**
+     * @param folderId
+     * @return the ids of the folders above folderId, the root excluded.
+     */
+    public List<Integer> getAncestors(int folderId) {
+        return folderEntryRepository.findAncestorIds(folderId);
+    }
+
+    /**
+     * Removes file fileId from folder parentId.
+     * @param parentId
+     * @param fileId
+     * @param title
+     */
+    public void remove(int parentId, int fileId, String title) {
+        if (parentId == ROOT_ID) {
+            return;
+        }
+
+        folderEntryRepository.deleteByFileId(fileId);
+        touch(Collections.singleton(parentId));
+        Set<String> children = getCachedTitles(parentId);
+        if (children != null) {
+            children.remove(title);
+        }
+    }
+
+    /**
+     * @param parentId
+     * @return the files in folder parentId.
+     */
+    public List<FolderEntry> getChildren(int parentId) {
+        return folderEntryRepository.findByParentId(parentId);
+    }
+
+    /**
+     * Reads the files below folderId at any depth, a level per query, and locks them until the transaction ends,
+     * so no file can be added below folderId meanwhile. Must run in a transaction.
+     * @param folderId
+     * @param folderIds the folders below folderId are added to it
+     * @param documentIds the documents below folderId are added to it
+     */
+    public void lockSubtree(int folderId, List<Integer> folderIds, List<Integer> documentIds) {
+        List<Integer> level = Collections.singletonList(folderId);
+        while (!level.isEmpty()) {
+            List<Integer> subfolders = new ArrayList<>();
+            for (FolderEntry entry : folderEntryRepository.findByParentIdsForUpdate(level)) {
+                (entry.isFolder() ? subfolders : documentIds).add(entry.getFileId());
+            }
+            folderIds.addAll(subfolders);
+            level = subfolders;
+        }
+    }
+
+    /**
+     * Removes the entry of a file just added to folder parentId if the folder was deleted meanwhile.
+     * A folder's delete locks the files below it, so an entry added before the lock is deleted with the folder,
+     * and one added after it waits for the delete to commit and then finds the folder gone.
+     * @param parentId
+     * @param fileId
+     * @throws IllegalArgumentException if the folder no longer exists
+     */
+    public void checkParent(int parentId, int fileId) {
+        if (parentId == ROOT_ID || folderRepository.existsById(parentId)) {
+            return;
+        }
+
+        folderEntryRepository.deleteByFileId(fileId);
+        forgetTitles(parentId);
+        throw new IllegalArgumentException(String.format("Folder ID: %d was not found!", parentId));
+    }
+
+    /**
+     * Deletes the entries of the files, without touching the cached titles.
+     * Call onSubtreeDeleted() once the deletion is committed.
+     * @param fileIds
+     */
+    public void deleteEntries(Collection<Integer> fileIds) {
+        folderEntryRepository.deleteByFileIds(fileIds);
+    }
+
+    /**
+     * Forgets the titles of a deleted folder and of the folders below it.
+     * @param parentId
+     * @param title
+     * @param folderIds the deleted folders
+     */
+    public void onSubtreeDeleted(int parentId, String title, Collection<Integer> folderIds) {
+        Set<String> children = getCachedTitles(parentId);
+        if (children != null) {
+            children.remove(title);
+        }
+        for (Integer folderId : folderIds) {
+            forgetTitles(folderId);
+        }
+    }
+
+    private Object lock(int parentId) {
+        return locks[Math.floorMod(parentId, LOCK_STRIPES)];
+    }
+
+    /**
+     * Must be called with the folder's lock held.
+     */
+    private Set<String> getTitles(int parentId) {
+        Set<String> children = getCachedTitles(parentId);
+        return children != null ? children : loadTitles(parentId);
+    }
+
+    /**
+     * Reads the folder's titles from the database and caches them. Must be called with the folder's lock held.
+     */
+    private Set<String> loadTitles(int parentId) {
+        // Titles are removed without the folder's lock, when files leave it.
+        Set<String> children = ConcurrentHashMap.newKeySet();
+        children.addAll(folderEntryRepository.findTitlesByParentId(parentId));
+        synchronized (titles) {
+            titles.put(parentId, children);
+        }
+
+        return children;
+    }
+
+    private Set<String> getCachedTitles(int parentId) {
+        synchronized (titles) {
+            return titles.get(parentId);
+        }
+    }
+
+    private void forgetTitles(int parentId) {
+        synchronized (titles) {
+            titles.remove(parentId);
+        }
+    }
+
+    /**
+     * Another node added the title first, the cached titles of the folder are out of date.
+     */
+    private IllegalArgumentException conflict(int parentId, String title) {
+        forgetTitles(parentId);
+        return new IllegalArgumentException(String.format("File with title: %s already exists in that folder!", title));
+    }
+}
@@ -0,0 +1,127 @@
+package docSharing.service;
+
+import docSharing.entities.permission.Permission;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of authorization decisions, keyed by (documentId, userId) packed into a long.
+ * Values are Permission ordinals, or NO_PERMISSION when the user has no access, so repeated
+ * unauthorized messages do not reach the database either.
+ * Every write to the authorized_users table must invalidate the affected entries. Writes are only accepted by the
+ * document's node, other nodes cannot hear of them: the whole cache expires every docSharing.permissions.cache-ttl-ms,
+ * so another node serves a changed permission for that long at most.
+ * The map is a boxed ConcurrentHashMap rather than a primitive long map, the project has no primitive collections
+ * library: every entry holds a Long key and a map node, about 50 bytes more than a primitive map would need,
+ * and every lookup boxes its key. The ordinals are within Integer's cached values, so the values cost nothing.
+ */
+@Component
+public class PermissionCache {
+    private static final int NO_PERMISSION = -1;
+    private static final Permission[] PERMISSIONS = Permission.values();
+
+    private final Map<Long, Integer> permissions;
+    // Bumped by every invalidation, so a load that raced with a permission change is not cached.
+    private final AtomicLong generation;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public PermissionCache(MeterRegistry meterRegistry) {
+        this.permissions = new ConcurrentHashMap<>();
+        this.generation = new AtomicLong();
+
+        this.hits = meterRegistry.counter("permissions.cache.hits");
+        this.misses = meterRegistry.counter("permissions.cache.misses");
+        meterRegistry.gauge("permissions.cache.size", permissions, Map::size);
+    }
+
+    /**
+     * Returns the cached permission, loading it on a miss.
+     * @param documentId
+     * @param userId
+     * @param loader loads the permission from the database, null if there is none
+     * @return the user's permission on the document, null if there is none
+     */
+    public Permission get(int documentId, int userId, Supplier<Permission> loader) {
+        long key = key(documentId, userId);
+        Integer cached = permissions.get(key);
+        if (cached != null) {
+            hits.increment();
+            return toPermission(cached);
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        Permission loaded = loader.get();
+        int value = loaded == null ? NO_PERMISSION : loaded.ordinal();
+        permissions.compute(key, (k, current) -> generation.get() == loadGeneration ? Integer.valueOf(value) : current);
+
+        return loaded;
+    }
+
+    /**
+     * Drops the cached permission of userId on documentId.
+     * @param documentId
+     * @param userId
+     */
+    public void invalidate(int documentId, int userId) {
+        generation.incrementAndGet();
+        permissions.remove(key(documentId, userId));
+    }
+
+    /**
+     * Drops the cached permissions of all users on documentId.
+     * @param documentId
+     */
+    public void invalidateDocument(int documentId) {
+        generation.incrementAndGet();
+        permissions.keySet().removeIf(key -> (int) (key >>> 32) == documentId);
+    }
+
+    /**
+     * Drops the cached permissions of all users on the documents, in one pass over the cache.
+     * @param documentIds
+     */
+    public void invalidateDocuments(Set<Integer> documentIds) {
+        generation.incrementAndGet();
+        permissions.keySet().removeIf(key -> documentIds.contains((int) (key >>> 32)));
+    }
+
+    /**
+     * @return a counter that changes whenever any cached permission is invalidated.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Drops all the cached permissions, the ones written on other nodes are loaded again.
+     * Bumps the generation, so the permissions pinned to STOMP sessions are resolved again too.
+     */
+    @Scheduled(fixedDelayString = "${docSharing.permissions.cache-ttl-ms:30000}")
+    public void expire() {
+        generation.incrementAndGet();
+        permissions.clear();
+    }
+
+    public int size() {
+        return permissions.size();
+    }
+
+    private static long key(int documentId, int userId) {
+        return ((long) documentId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    private static Permission toPermission(int ordinal) {
+        return ordinal == NO_PERMISSION ? null : PERMISSIONS[ordinal];
+    }
+}
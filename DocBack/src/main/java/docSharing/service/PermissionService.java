@@ -10,19 +10,24 @@ import docSharing.repository.PermissionRepository;
 import docSharing.repository.UserRepository;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class PermissionService {
     private final PermissionRepository permissionRepository;
     private final UserRepository userRepository;
     private final DocumentRepository documentRepository;
+    private final PermissionCache permissionCache;
 
       private PermissionService(PermissionRepository permissionRepository, UserRepository userRepository,
-                              DocumentRepository documentRepository) {
+                              DocumentRepository documentRepository, PermissionCache permissionCache) {
         this.permissionRepository = permissionRepository;
         this.userRepository = userRepository;
         this.documentRepository = documentRepository;
+        this.permissionCache = permissionCache;
     }
 
     /**
@@ -36,6 +41,7 @@ public class PermissionService {
         Document document = documentRepository.getReferenceById(documentId);
         Authorization authorization = new Authorization(document, user, permission);
         permissionRepository.save(authorization);
+        permissionCache.invalidate(documentId, userId);
     }
 
     /**
@@ -48,6 +54,8 @@ public class PermissionService {
         if (!authorizations.isEmpty()) {
             permissionRepository.delete(authorizations.get(0));
         }
+
+        permissionCache.invalidate(documentId, userId);
     }
 
     /**
@@ -65,6 +73,7 @@ public class PermissionService {
         if (!authorizations.isEmpty()) {
             authorizations.get(0).setPermission(permission);
             permissionRepository.save(authorizations.get(0));
+            permissionCache.invalidate(documentId, userId);
         } else {
             addPermission(documentId, userId, permission);
         }
@@ -72,20 +81,66 @@ public class PermissionService {
 
     /**
      * Checks if the user is authorized for the required operation.
-     * This method compares between Permission enum's ordinals.
+     * Decisions are served from PermissionCache, so the database is only queried on a miss.
      * @param documentId
      * @param userId
      * @param operation
      * @return true if the user has permissions for the required operation, else false.
      */
     public boolean isAuthorized(int documentId, int userId, DocOperation operation) {
-        List<Authorization> authorizations = permissionRepository.findByDocumentAndUser(documentId, userId);
-        if (authorizations.isEmpty()) {
+        return isAllowed(getPermission(documentId, userId), operation);
+    }
+
+    /**
+     * @param documentId
+     * @param userId
+     * @return the user's permission on the document, null if the user has no access.
+     */
+    public Permission getPermission(int documentId, int userId) {
+        return permissionCache.get(documentId, userId, () -> {
+            List<Permission> permissions = permissionRepository.findPermission(documentId, userId);
+            return permissions.isEmpty() ? null : permissions.get(0);
+        });
+    }
+
+    /**
+     * @param documentIds
+     * @param userId
+     * @return documentId -> the user's permission on the document, null if the user has no access.
+     * The permissions missing from PermissionCache are read with one query.
+     */
+    public Map<Integer, Permission> getPermissions(Collection<Integer> documentIds, int userId) {
+        Map<Integer, Permission> loaded = new HashMap<>();
+        Map<Integer, Permission> permissions = new HashMap<>();
+        for (Integer documentId : documentIds) {
+            permissions.put(documentId, permissionCache.get(documentId, userId, () -> {
+                // The first miss reads the permissions of all the documents.
+                if (loaded.isEmpty()) {
+                    documentIds.forEach(id -> loaded.put(id, null));
+                    for (Object[] row : permissionRepository.findPermissions(documentIds, userId)) {
+                        loaded.put((Integer) row[0], (Permission) row[1]);
+                    }
+                }
+                return loaded.get(documentId);
+            }));
+        }
+
+        return permissions;
+    }
+
+    /**
+     * Checks if permission is enough for the required operation.
+     * This method compares between Permission enum's ordinals.
+     * @param permission the user's permission, null if the user has no access
+     * @param operation
+     * @return true if permission allows the operation, else false.
+     */
+    public static boolean isAllowed(Permission permission, DocOperation operation) {
+        if (permission == null) {
             return false;
         }
 
-        return (operation.getPermission() == null ||
-                authorizations.get(0).getPermission().ordinal() <= operation.getPermission().ordinal());
+        return (operation.getPermission() == null || permission.ordinal() <= operation.getPermission().ordinal());
     }
 
     /**
@@ -95,7 +150,6 @@ public class PermissionService {
      * @return true- is the user is owner /false.
      */
     private boolean isOwner(int userId, int documentId) {
-        Document document = documentRepository.getReferenceById(documentId);
-        return document.getMetadata().getOwner().getId() == userId;
+        return documentRepository.findOwnerId(documentId).map(ownerId -> ownerId == userId).orElse(false);
     }
 }
@@ -0,0 +1,177 @@
+package docSharing.service;
+
+import docSharing.entities.DTO.PresenceDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static docSharing.controller.DocumentEditController.documentTopic;
+
+/**
+ * Tracks which users are in which document, per WebSocket session.
+ * A user is active in a document while at least one of their sessions joined it, so a second tab
+ * does not announce the user twice and closing it does not remove them. Joins and leaves are published
+ * to /topic/documents/{documentId}/presence as deltas; a session that disconnects without leaving
+ * is removed from all of its documents, see DocumentEditController.onDisconnect.
+ * Updates of a document are atomic per document; reads never block.
+ */
+@Service
+public class PresenceService {
+    public static final String PRESENCE_CHANNEL = "presence";
+
+    // documentId -> userId -> the user's sessions in the document
+    private final Map<Integer, Map<Integer, Set<String>>> documents;
+    // sessionId -> the documents the session joined
+    private final Map<String, SessionPresence> sessions;
+    private final UserNameDirectory userNameDirectory;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private static final Logger logger = LogManager.getLogger(PresenceService.class.getName());
+
+    public PresenceService(UserNameDirectory userNameDirectory, SimpMessagingTemplate messagingTemplate) {
+        this.documents = new ConcurrentHashMap<>();
+        this.sessions = new ConcurrentHashMap<>();
+        this.userNameDirectory = userNameDirectory;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    /**
+     * Adds the session's user to the document, and announces them if they were not active in it.
+     * @param documentId
+     * @param userId
+     * @param sessionId
+     */
+    public void join(int documentId, int userId, String sessionId) {
+        boolean[] joined = {false};
+        documents.compute(documentId, (id, users) -> {
+            Map<Integer, Set<String>> present = users == null ? new ConcurrentHashMap<>() : users;
+            present.computeIfAbsent(userId, user -> {
+                joined[0] = true;
+                return ConcurrentHashMap.newKeySet();
+            }).add(sessionId);
+            return present;
+        });
+        sessions.computeIfAbsent(sessionId, id -> new SessionPresence(userId)).documentIds.add(documentId);
+
+        if (joined[0]) {
+            publish(documentId, userId, true);
+        }
+    }
+
+    /**
+     * Removes the session from the document, and announces the user's leave if it was their last session in it.
+     * @param documentId
+     * @param userId
+     * @param sessionId
+     */
+    public void leave(int documentId, int userId, String sessionId) {
+        SessionPresence session = sessions.get(sessionId);
+        if (session != null) {
+            session.documentIds.remove(documentId);
+        }
+
+        if (remove(documentId, userId, sessionId)) {
+            publish(documentId, userId, false);
+        }
+    }
+
+    /**
+     * Removes a closed session from all the documents it did not leave.
+     * @param sessionId
+     * @return documentId -> userId, for every document the session was in
+     */
+    public Map<Integer, Integer> disconnect(String sessionId) {
+        SessionPresence session = sessions.remove(sessionId);
+        if (session == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Integer, Integer> left = new HashMap<>();
+        for (Integer documentId : session.documentIds) {
+            left.put(documentId, session.userId);
+            if (remove(documentId, session.userId, sessionId)) {
+                logger.debug(String.format("User #%d disconnected from document #%d", session.userId, documentId));
+                publish(documentId, session.userId, false);
+            }
+        }
+
+        return left;
+    }
+
+    /**
+     * @param documentId
+     * @return true if any user is in the document.
+     */
+    public boolean isActive(int documentId) {
+        return documents.containsKey(documentId);
+    }
+
+    /**
+     * @param documentId
+     * @param userId
+     * @return true if userId is in the document.
+     */
+    public boolean isActive(int documentId, int userId) {
+        Map<Integer, Set<String>> users = documents.get(documentId);
+        return users != null && users.containsKey(userId);
+    }
+
+    /**
+     * @param documentId
+     * @return the users in the document, with their names.
+     */
+    public List<PresenceDTO> getActiveUsers(int documentId) {
+        Map<Integer, Set<String>> users = documents.get(documentId);
+        if (users == null) {
+            return Collections.emptyList();
+        }
+
+        List<PresenceDTO> activeUsers = new ArrayList<>(users.size());
+        for (Integer userId : users.keySet()) {
+            activeUsers.add(new PresenceDTO(userId, userNameDirectory.getName(userId).orElse(null), true));
+        }
+
+        return activeUsers;
+    }
+
+    /**
+     * @return true if it was the user's last session in the document.
+     */
+    private boolean remove(int documentId, int userId, String sessionId) {
+        boolean[] left = {false};
+        documents.computeIfPresent(documentId, (id, users) -> {
+            users.computeIfPresent(userId, (user, userSessions) -> {
+                userSessions.remove(sessionId);
+                left[0] = userSessions.isEmpty();
+                return left[0] ? null : userSessions;
+            });
+            return users.isEmpty() ? null : users;
+        });
+
+        return left[0];
+    }
+
+    private void publish(int documentId, int userId, boolean active) {
+        String name = userNameDirectory.getName(userId).orElse(null);
+        messagingTemplate.convertAndSend(documentTopic(documentId, PRESENCE_CHANNEL), new PresenceDTO(userId, name, active));
+    }
+
+    private static final class SessionPresence {
+        private final int userId;
+        private final Set<Integer> documentIds;
+
+        private SessionPresence(int userId) {
+            this.userId = userId;
+            this.documentIds = ConcurrentHashMap.newKeySet();
+        }
+    }
+}
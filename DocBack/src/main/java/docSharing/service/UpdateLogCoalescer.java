@@ -0,0 +1,41 @@
+package docSharing.service;
+
+import docSharing.entities.file.UpdateLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Decides which edits are united into one history entry while users type.
+ * An edit is united into the user's current entry if it is adjacent to it, arrives within the
+ * window of the entry's last edit, and the united entry stays within the size and edit count limits.
+ * Inserts, deletes and replaces are united in any mix, so typing with corrections is one entry.
+ */
+@Component
+public class UpdateLogCoalescer {
+    private final Duration window;
+    private final int maxSize;
+    private final int maxOperations;
+
+    public UpdateLogCoalescer(@Value("${docSharing.update-log.coalesce.window-ms:5000}") long windowMillis,
+                              @Value("${docSharing.update-log.coalesce.max-size:10000}") int maxSize,
+                              @Value("${docSharing.update-log.coalesce.max-operations:500}") int maxOperations) {
+        this.window = Duration.ofMillis(windowMillis);
+        this.maxSize = maxSize;
+        this.maxOperations = maxOperations;
+    }
+
+    /**
+     * @param last the document's current entry
+     * @param next an entry applied right after last
+     * @return true if next should be united into last.
+     */
+    public boolean isContinuous(UpdateLog last, UpdateLog next) {
+        return last != null &&
+                last.isAdjacent(next) &&
+                last.getTimestamp().isAfter(next.getTimestamp().minus(window)) &&
+                last.getOperations() + next.getOperations() <= maxOperations &&
+                last.getSize() + next.getSize() <= maxSize;
+    }
+}
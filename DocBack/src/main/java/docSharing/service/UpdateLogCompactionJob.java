@@ -0,0 +1,128 @@
+package docSharing.service;
+
+import docSharing.entities.file.CompactionWatermark;
+import docSharing.entities.file.UpdateLog;
+import docSharing.repository.CompactionWatermarkRepository;
+import docSharing.repository.UpdateLogRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shrinks old edit history by uniting it into coarser entries.
+ * Logs older than the retention period are united per user into one entry per bucket (an hour or a day),
+ * as long as they are consecutive and adjacent, regardless of the typing-time window and limits.
+ * Each document is compacted in its own transaction. Rows written before logs were stored as replaces
+ * are left as they are. The end of the last run is saved, so a restart does not rescan compacted buckets.
+ * A run in which any document failed keeps the previous end, so the next run retries its buckets.
+ */
+@Component
+public class UpdateLogCompactionJob {
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final String WATERMARK = "update-logs";
+
+    private final UpdateLogRepository updateLogRepository;
+    private final CompactionWatermarkRepository compactionWatermarkRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int retentionDays;
+    private final ChronoUnit bucket;
+
+    private final Counter removedLogs;
+
+    private static final Logger logger = LogManager.getLogger(UpdateLogCompactionJob.class.getName());
+
+    public UpdateLogCompactionJob(UpdateLogRepository updateLogRepository,
+                                  CompactionWatermarkRepository compactionWatermarkRepository,
+                                  TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                                  @Value("${docSharing.update-log.compaction.retention-days:7}") int retentionDays,
+                                  @Value("${docSharing.update-log.compaction.bucket:HOURS}") ChronoUnit bucket) {
+        if (bucket != ChronoUnit.HOURS && bucket != ChronoUnit.DAYS) {
+            throw new IllegalArgumentException(String.format("Compaction bucket: %s is not supported!", bucket));
+        }
+
+        this.updateLogRepository = updateLogRepository;
+        this.compactionWatermarkRepository = compactionWatermarkRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.retentionDays = retentionDays;
+        this.bucket = bucket;
+        this.removedLogs = meterRegistry.counter("update-logs.compaction.removed");
+    }
+
+    /**
+     * Compacts the logs that aged past the retention period since the last run.
+     */
+    @Scheduled(cron = "${docSharing.update-log.compaction.cron:0 30 3 * * *}")
+    public synchronized void compact() {
+        // Logs before it were compacted by a previous run.
+        LocalDateTime compactedUntil = compactionWatermarkRepository.findById(WATERMARK)
+                .map(CompactionWatermark::getCompactedUntil).orElse(EPOCH);
+        // Whole buckets only, a bucket split between two runs would never be united.
+        LocalDateTime from = compactedUntil.truncatedTo(bucket);
+        LocalDateTime to = LocalDateTime.now().minusDays(retentionDays).truncatedTo(bucket);
+        if (!from.isBefore(to)) {
+            return;
+        }
+
+        int removed = 0;
+        int failed = 0;
+        for (Integer documentId : updateLogRepository.findDocumentIdsBetween(from, to)) {
+            try {
+                Integer documentRemoved = transactionTemplate.execute(status -> {
+                    List<UpdateLog> absorbed = compact(updateLogRepository.findByDocumentBetween(documentId, from, to), bucket);
+                    updateLogRepository.deleteAllInBatch(absorbed);
+                    return absorbed.size();
+                });
+                removed += documentRemoved == null ? 0 : documentRemoved;
+            } catch (RuntimeException e) {
+                failed++;
+                logger.error(String.format("Failed to compact the update logs of document #%d: %s", documentId, e.getMessage()));
+            }
+        }
+
+        removedLogs.increment(removed);
+        if (failed > 0) {
+            // The documents that were compacted are scanned again too, their united logs are not united further.
+            logger.warn(String.format("Compaction of %d documents failed, update logs are kept for the next run after %s",
+                    failed, from));
+            return;
+        }
+
+        compactionWatermarkRepository.save(new CompactionWatermark(WATERMARK, to));
+        logger.info(String.format("Compacted update logs before %s, %d logs removed", to, removed));
+    }
+
+    /**
+     * Unites each run of consecutive, adjacent logs of one user within one bucket into the run's first log.
+     * Legacy rows are never united and end the run before them.
+     * @param updateLogs a document's logs, in the order they were applied
+     * @param bucket
+     * @return the logs that were united into another one and should be deleted.
+     */
+    static List<UpdateLog> compact(List<UpdateLog> updateLogs, ChronoUnit bucket) {
+        List<UpdateLog> absorbed = new ArrayList<>();
+        UpdateLog head = null;
+        for (UpdateLog updateLog : updateLogs) {
+            if (updateLog.isLegacy()) {
+                head = null;
+            } else if (head != null && head.isAdjacent(updateLog) &&
+                    head.getTimestamp().truncatedTo(bucket).equals(updateLog.getTimestamp().truncatedTo(bucket))) {
+                head.unite(updateLog);
+                absorbed.add(updateLog);
+            } else {
+                head = updateLog;
+            }
+        }
+
+        return absorbed;
+    }
+}
@@ -0,0 +1,251 @@
+package docSharing.service;
+
+import docSharing.entities.file.UpdateLog;
+import docSharing.repository.UpdateLogRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves UpdateLog entries off the edit threads.
+ * Entries are queued and written in batches by a single writer thread. The queue is bounded: when it is
+ * full the entry is dropped and counted, the callers are edit mailboxes and must not wait for the database.
+ * A dropped entry only loses that edit's history entry, the edit itself is in the operation log.
+ * When a batch fails its entries are saved one by one, so one bad entry does not hold back the others.
+ * Entries that still fail are retried first on the next drain, and dropped after max-attempts tries.
+ * The queue is drained on shutdown.
+ */
+@Service
+public class UpdateLogWriter {
+    // Twice the allocationSize of UpdateLog's generator: the pool handed out from next_val starts below it.
+    private static final int ID_GAP = 100;
+
+    private final UpdateLogRepository updateLogRepository;
+    private final Queue<UpdateLog> queue;
+    private final AtomicInteger depth;
+    private final AtomicBoolean drainScheduled;
+    private final ExecutorService writerExecutor;
+    private final int capacity;
+    private final int batchSize;
+    private final int maxAttempts;
+
+    // Touched only by the writer, under the drain() lock.
+    private List<UpdateLog> failedBatch;
+    private int failedAttempts;
+
+    private final Timer batchLatency;
+    private final Counter written;
+    private final Counter shed;
+    private final Counter failures;
+    private final Counter dropped;
+
+    private static final Logger logger = LogManager.getLogger(UpdateLogWriter.class.getName());
+
+    public UpdateLogWriter(UpdateLogRepository updateLogRepository, MeterRegistry meterRegistry,
+                           @Value("${docSharing.update-log.capacity:10000}") int capacity,
+                           @Value("${docSharing.update-log.batch-size:50}") int batchSize,
+                           @Value("${docSharing.update-log.max-attempts:5}") int maxAttempts) {
+        this.updateLogRepository = updateLogRepository;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.depth = new AtomicInteger();
+        this.drainScheduled = new AtomicBoolean();
+        this.writerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "update-log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.failedBatch = Collections.emptyList();
+
+        this.batchLatency = meterRegistry.timer("update-logs.batch.latency");
+        this.written = meterRegistry.counter("update-logs.written");
+        this.shed = meterRegistry.counter("update-logs.shed");
+        this.failures = meterRegistry.counter("update-logs.failures");
+        this.dropped = meterRegistry.counter("update-logs.dropped");
+        meterRegistry.gauge("update-logs.queue.depth", depth);
+    }
+
+    /**
+     * Seeds the id table above the rows written before ids were pooled, on databases that predate it.
+     * Databases with native sequences have no such table, they are left as they are.
+     */
+    @PostConstruct
+    public void seedIds() {
+        try {
+            if (updateLogRepository.seedIds(ID_GAP) > 0) {
+                logger.info("Moved update_log_ids past the existing update logs");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not seed update_log_ids: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues updateLog to be saved. Drops it if the queue is full, without waiting for the database.
+     * updateLog must not be modified after it was queued.
+     * @param updateLog
+     */
+    public void write(UpdateLog updateLog) {
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            shed.increment();
+            logger.debug("Update log queue is full, dropped an update log of document #" + updateLog.getDocumentId());
+            scheduleDrain();
+            return;
+        }
+
+        queue.add(updateLog);
+        if (depth.get() >= batchSize) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Drops the queued entries of a document that is being deleted, so they are not inserted after it.
+     * Waits for a drain in progress, call it before deleting the document's logs.
+     * @param documentId
+     */
+    public void discard(int documentId) {
+        discard(Collections.singleton(documentId));
+    }
+
+    /**
+     * Drops the queued logs of all the documents, in one pass over the queue.
+     * @param documentIds
+     */
+    public synchronized void discard(Set<Integer> documentIds) {
+        for (UpdateLog updateLog : queue) {
+            if (documentIds.contains(updateLog.getDocumentId()) && queue.remove(updateLog)) {
+                depth.decrementAndGet();
+            }
+        }
+
+        if (!failedBatch.isEmpty()) {
+            List<UpdateLog> retained = new ArrayList<>(failedBatch.size());
+            for (UpdateLog updateLog : failedBatch) {
+                if (!documentIds.contains(updateLog.getDocumentId())) {
+                    retained.add(updateLog);
+                }
+            }
+            failedBatch = retained;
+        }
+    }
+
+    /**
+     * @return the number of queued entries.
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Saves the queued entries in batches, starting with the entries that failed before.
+     * A batch that fails is saved one entry at a time. The entries that still fail are kept and the drain
+     * stops, the next drain retries them before newer entries, up to max-attempts times.
+     */
+    @Scheduled(fixedDelayString = "${docSharing.update-log.interval-ms:500}")
+    public synchronized void drain() {
+        List<UpdateLog> batch = failedBatch.isEmpty() ? nextBatch() : failedBatch;
+        while (!batch.isEmpty()) {
+            long start = System.nanoTime();
+            List<UpdateLog> failed = Collections.emptyList();
+            try {
+                updateLogRepository.saveAll(batch);
+                written.increment(batch.size());
+            } catch (RuntimeException e) {
+                failures.increment();
+                logger.error("Failed to save " + batch.size() + " update logs, saving them one by one: "
+                        + e.getMessage());
+                failed = saveEach(batch);
+            }
+            batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            // Retrying the same entries only counts as another attempt if none of them could be saved.
+            failedAttempts = failed.isEmpty() ? 0 : failed == failedBatch ? failedAttempts + 1 : 1;
+            if (failedAttempts >= maxAttempts) {
+                dropped.increment(failed.size());
+                logger.error(String.format("Dropped %d update logs after %d attempts", failed.size(), failedAttempts));
+                failed = Collections.emptyList();
+                failedAttempts = 0;
+            }
+
+            failedBatch = failed;
+            if (!failedBatch.isEmpty()) {
+                return;
+            }
+
+            batch = nextBatch();
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        logger.info("Saving queued update logs before shutdown");
+        writerExecutor.shutdownNow();
+        drain();
+        if (depth.get() > 0 || !failedBatch.isEmpty()) {
+            logger.error(String.format("%d update logs were not saved", depth.get() + failedBatch.size()));
+        }
+    }
+
+    /**
+     * Saves the entries of a failed batch one at a time.
+     * @return the entries that could not be saved, or batch itself if none could
+     */
+    private List<UpdateLog> saveEach(List<UpdateLog> batch) {
+        List<UpdateLog> failed = new ArrayList<>();
+        for (UpdateLog updateLog : batch) {
+            try {
+                updateLogRepository.save(updateLog);
+                written.increment();
+            } catch (RuntimeException e) {
+                failed.add(updateLog);
+                logger.error("Failed to save an update log of document #" + updateLog.getDocumentId() + ": "
+                        + e.getMessage());
+            }
+        }
+
+        return failed.size() == batch.size() ? batch : failed;
+    }
+
+    private List<UpdateLog> nextBatch() {
+        List<UpdateLog> batch = new ArrayList<>(batchSize);
+        UpdateLog updateLog;
+        while (batch.size() < batchSize && (updateLog = queue.poll()) != null) {
+            batch.add(updateLog);
+        }
+
+        depth.addAndGet(-batch.size());
+        return batch;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(() -> {
+                drainScheduled.set(false);
+                drain();
+            });
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package docSharing.service;
+
+import docSharing.repository.UserRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cached userId to display name lookup, so presence updates do not query the users table.
+ * Entries are evicted when a user's name changes or the user is deleted.
+ */
+@Component
+public class UserNameDirectory {
+    private final UserRepository userRepository;
+    private final Map<Integer, String> names;
+
+    public UserNameDirectory(UserRepository userRepository) {
+        this.userRepository = userRepository;
+        this.names = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param userId
+     * @return the user's name, empty if there is no such user.
+     */
+    public Optional<String> getName(int userId) {
+        String name = names.get(userId);
+        if (name != null) {
+            return Optional.of(name);
+        }
+
+        // Loaded outside of the map, a slow query must not block lookups of other users.
+        Optional<String> loaded = userRepository.findNameById(userId);
+        loaded.ifPresent(value -> names.putIfAbsent(userId, value));
+        return loaded;
+    }
+
+    public void evict(int userId) {
+        names.remove(userId);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
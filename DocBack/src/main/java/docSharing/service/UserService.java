@@ -17,12 +17,15 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final PermissionRepository permissionRepository;
+    private final UserNameDirectory userNameDirectory;
 
     private static final Logger logger = LogManager.getLogger(UserService.class.getName());
 
-    public UserService(UserRepository userRepository, PermissionRepository permissionRepository) {
+    public UserService(UserRepository userRepository, PermissionRepository permissionRepository,
+                       UserNameDirectory userNameDirectory) {
         this.userRepository = userRepository;
         this.permissionRepository = permissionRepository;
+        this.userNameDirectory = userNameDirectory;
     }
 
     /**
@@ -62,6 +65,7 @@ public class UserService {
     public boolean deleteUser(int id) {
         int lines = userRepository.deleteById(id);
         logger.debug("lines deleted: " + lines);
+        userNameDirectory.evict(id);
 
         if (lines == 1) {
             logger.debug("User #" + id + " deleted: ");
@@ -79,6 +83,7 @@ public class UserService {
     public Optional<UserDTO> updateName(int id, String name) {
         int lines = userRepository.updateUserNameById(id, name);
         logger.debug("lines updated: " + lines);
+        userNameDirectory.evict(id);
 
         return getUpdatedUser(id, lines);
     }
@@ -1,7 +1,6 @@
 package docSharing.utils;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -11,16 +10,6 @@ public class FilesUtils {
         return path.getFileName().toString();
     }
 
-    public static String readFromFile(String path){
-        String data = "";
-        try {
-            data = new String(Files.readAllBytes(Paths.get(path)));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return data;
-    }
-
     public static void writeToFile(String content, String path){
         FileWriter fw;
         try {
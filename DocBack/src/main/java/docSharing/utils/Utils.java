@@ -2,12 +2,9 @@ package docSharing.utils;
 
 import at.favre.lib.crypto.bcrypt.BCrypt;
 import docSharing.controller.response.BaseResponse;
-import docSharing.entities.file.File;
-import docSharing.entities.file.Folder;
 import org.springframework.http.ResponseEntity;
 
 import java.time.Instant;
-import java.util.Optional;
 import java.util.UUID;
 
 public class Utils {
@@ -30,28 +27,6 @@ public class Utils {
         return result.verified;
     }
 
-    public static boolean isUniqueTitleInFolder(Optional<Folder> folder, String title) {
-        if (folder.isPresent()) {
-            for (File file : folder.get().getSubFiles()) {
-                if (file.getMetadata().getTitle().equals(title)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
-    }
-
-    public static void validateTitle(Optional<Folder> folder, String title) {
-        if (title.equals("")) {
-            throw new IllegalArgumentException("Title cannot be empty!");
-        }
-
-        if (!Utils.isUniqueTitleInFolder(folder, title)) {
-            throw new IllegalArgumentException(String.format("File with title: %s already exists in that folder!", title));
-        }
-    }
-
     public static <T> ResponseEntity<BaseResponse<T>> getNoEditPermissionResponse(int userId) {
         return ResponseEntity.badRequest().body(BaseResponse.failure(
                 String.format("User: %d does not have edit permission for this document!", userId)));
@@ -0,0 +1,180 @@
+package docSharing;
+
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static docSharing.controller.DocumentEditController.documentTopic;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs two nodes' broker relays, configured by WebSocketConfig in relay mode, against an embedded Artemis broker.
+ */
+public class BrokerRelayIntegrationTests {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private EmbeddedActiveMQ broker;
+    private int port;
+    private List<Node> nodes;
+
+    @BeforeEach
+    void beforeEach(@TempDir Path directory) throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+
+        // The prefixes route /topic to every subscriber and /queue to one, the way the relay expects.
+        Configuration configuration = new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .setJournalDirectory(directory.resolve("journal").toString())
+                .setBindingsDirectory(directory.resolve("bindings").toString())
+                .setPagingDirectory(directory.resolve("paging").toString())
+                .setLargeMessagesDirectory(directory.resolve("large-messages").toString())
+                .addAcceptorConfiguration("stomp", "tcp://localhost:" + this.port +
+                        "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+        this.broker = new EmbeddedActiveMQ();
+        this.broker.setConfiguration(configuration);
+        this.broker.start();
+
+        this.nodes = new ArrayList<>();
+    }
+
+    @AfterEach
+    void afterEach() throws Exception {
+        for (Node node : this.nodes) {
+            node.relay.stop();
+        }
+        this.broker.stop();
+    }
+
+    @Test
+    @DisplayName("a document event published on one node reaches a subscriber connected to another node")
+    void convertAndSend_SubscriberOnOtherNode_Received() throws Exception {
+        Node publisher = startNode();
+        Node subscriber = startNode();
+        String destination = documentTopic(7, "updates");
+
+        subscriber.send(connect("session"));
+        assertEquals(StompCommand.CONNECTED, subscriber.nextCommand(), "the session should be connected to the broker");
+        StompHeaderAccessor subscribe = accessor(StompCommand.SUBSCRIBE, "session");
+        subscribe.setSubscriptionId("subscription");
+        subscribe.setDestination(destination);
+        subscribe.setReceipt("subscribed");
+        subscriber.send(subscribe);
+        assertEquals(StompCommand.RECEIPT, subscriber.nextCommand(), "the broker should confirm the subscription");
+
+        // The application's broker template writes payloads as JSON, the relay forwards only bytes.
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(publisher.brokerChannel);
+        messagingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+        messagingTemplate.convertAndSend(destination, Collections.singletonMap("documentId", 7));
+
+        Message<?> received = subscriber.received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(received, "the other node's subscriber should receive the event");
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(received);
+        assertEquals(StompCommand.MESSAGE, headers.getCommand(), "the event should be delivered as a MESSAGE");
+        assertEquals(destination, headers.getDestination(), "the event should keep the document's destination");
+        assertEquals("{\"documentId\":7}", new String((byte[]) received.getPayload(), StandardCharsets.UTF_8),
+                "the event's payload should be relayed unchanged");
+    }
+
+    /**
+     * Builds a node's relay from WebSocketConfig in relay mode, and waits for its connection to the broker.
+     */
+    private Node startNode() throws Exception {
+        WebSocketConfig config = new WebSocketConfig(null);
+        setField(config, "brokerMode", "relay");
+        setField(config, "relayHost", "localhost");
+        setField(config, "relayPort", this.port);
+        setField(config, "relayLogin", "guest");
+        setField(config, "relayPasscode", "guest");
+
+        Node node = new Node();
+        MessageBrokerRegistry registry = new MessageBrokerRegistry(node.clientInboundChannel, node.clientOutboundChannel);
+        config.configureMessageBroker(registry);
+        Method getStompBrokerRelay = MessageBrokerRegistry.class.getDeclaredMethod("getStompBrokerRelay",
+                SubscribableChannel.class);
+        getStompBrokerRelay.setAccessible(true);
+        node.relay = (StompBrokerRelayMessageHandler) getStompBrokerRelay.invoke(registry, node.brokerChannel);
+        assertNotNull(node.relay, "relay mode should configure a broker relay");
+        node.relay.start();
+        this.nodes.add(node);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!node.relay.isBrokerAvailable() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(node.relay.isBrokerAvailable(), "the relay should connect to the broker");
+
+        return node;
+    }
+
+    private static StompHeaderAccessor connect(String sessionId) {
+        StompHeaderAccessor connect = accessor(StompCommand.CONNECT, sessionId);
+        connect.setAcceptVersion("1.2");
+        connect.setHeartbeat(0, 0);
+        return connect;
+    }
+
+    private static StompHeaderAccessor accessor(StompCommand command, String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static final class Node {
+        private final ExecutorSubscribableChannel clientInboundChannel = new ExecutorSubscribableChannel();
+        private final ExecutorSubscribableChannel clientOutboundChannel = new ExecutorSubscribableChannel();
+        private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        // What the node would send to its WebSocket sessions.
+        private final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+        private StompBrokerRelayMessageHandler relay;
+
+        private Node() {
+            clientOutboundChannel.subscribe(received::add);
+        }
+
+        private void send(StompHeaderAccessor accessor) {
+            relay.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        }
+
+        private StompCommand nextCommand() throws InterruptedException {
+            Message<?> message = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return message == null ? null : StompHeaderAccessor.wrap(message).getCommand();
+        }
+    }
+}
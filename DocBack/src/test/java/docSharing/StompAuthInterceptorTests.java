@@ -0,0 +1,164 @@
+package docSharing;
+
+import docSharing.entities.permission.Permission;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.PermissionRepository;
+import docSharing.repository.UserRepository;
+import docSharing.service.AuthService;
+import docSharing.service.DocumentRouter;
+import docSharing.service.PermissionCache;
+import docSharing.service.PermissionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StompAuthInterceptorTests {
+    private static final int USER_ID = 1;
+    private static final int OTHER_USER_ID = 2;
+    private static final int DOCUMENT_ID = 7;
+    private static final int OTHER_DOCUMENT_ID = 8;
+    private static final String TOKEN = "token";
+
+    // documentId -> the user's permission
+    private Map<Integer, Permission> database;
+    private PermissionCache permissionCache;
+    private StompAuthInterceptor interceptor;
+    private Map<String, Object> session;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.database = new HashMap<>();
+        this.database.put(DOCUMENT_ID, Permission.EDITOR);
+
+        PermissionRepository permissionRepository = (PermissionRepository) Proxy.newProxyInstance(
+                PermissionRepository.class.getClassLoader(), new Class[]{PermissionRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findPermission")) {
+                        Permission permission = this.database.get((Integer) args[0]);
+                        return permission == null || (Integer) args[1] != USER_ID ? Collections.emptyList()
+                                : Collections.singletonList(permission);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        this.permissionCache = new PermissionCache(new SimpleMeterRegistry());
+        Constructor<PermissionService> constructor = PermissionService.class.getDeclaredConstructor(
+                PermissionRepository.class, UserRepository.class, DocumentRepository.class, PermissionCache.class);
+        constructor.setAccessible(true);
+        PermissionService permissionService = constructor.newInstance(permissionRepository, null, null,
+                this.permissionCache);
+
+        tokens().put(USER_ID, TOKEN);
+        this.interceptor = new StompAuthInterceptor(new AuthService(null, null), permissionService,
+                this.permissionCache, new DocumentRouter("", "", 128));
+
+        this.session = new HashMap<>();
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.addNativeHeader("userId", String.valueOf(USER_ID));
+        connect.addNativeHeader("token", TOKEN);
+        this.interceptor.preSend(message(connect, new byte[0]), null);
+    }
+
+    @AfterEach
+    void afterEach() throws ReflectiveOperationException {
+        tokens().remove(USER_ID);
+    }
+
+    @Test
+    @DisplayName("preSend() accepts an update of the session's user on a document it can edit")
+    void preSend_AuthorizedUpdate_Accepted() {
+        assertDoesNotThrow(() -> send("/app/updates",
+                String.format("{\"documentId\":%d,\"userId\":%d,\"updates\":[]}", DOCUMENT_ID, USER_ID)),
+                "an editor should be able to update the document");
+    }
+
+    @Test
+    @DisplayName("preSend() rejects a frame that repeats the documentId")
+    void preSend_DuplicateDocumentId_Rejected() {
+        assertThrows(MessageDeliveryException.class, () -> send("/app/updates", String.format(
+                "{\"documentId\":%d,\"userId\":%d,\"documentId\":%d}", DOCUMENT_ID, USER_ID, OTHER_DOCUMENT_ID)),
+                "the bound documentId would be the last one, which was never authorized");
+    }
+
+    @Test
+    @DisplayName("preSend() rejects a frame that repeats the userId")
+    void preSend_DuplicateUserId_Rejected() {
+        assertThrows(MessageDeliveryException.class, () -> send("/app/join", String.format(
+                "{\"documentId\":%d,\"userId\":%d,\"userId\":%d}", DOCUMENT_ID, USER_ID, OTHER_USER_ID)),
+                "the bound userId would be the last one, which is not the session's user");
+    }
+
+    @Test
+    @DisplayName("preSend() rejects a JSON frame without a userId")
+    void preSend_MissingUserId_Rejected() {
+        assertThrows(MessageDeliveryException.class, () -> send("/app/join",
+                String.format("{\"documentId\":%d}", DOCUMENT_ID)), "a frame must name the session's user");
+        assertDoesNotThrow(() -> send("/app/metadata", String.valueOf(DOCUMENT_ID)),
+                "a bare document id has no userId to check");
+    }
+
+    @Test
+    @DisplayName("preSend() rejects a frame sent straight to a broker destination")
+    void preSend_BrokerDestination_Rejected() {
+        String update = String.format("{\"documentId\":%d,\"userId\":%d}", OTHER_DOCUMENT_ID, USER_ID);
+
+        assertThrows(MessageDeliveryException.class, () -> send(
+                String.format("/topic/documents/%d/updates", OTHER_DOCUMENT_ID), update),
+                "the broker would relay the frame to the document's subscribers unchecked");
+        assertThrows(MessageDeliveryException.class, () -> send("/queue/join", update),
+                "the broker would relay the frame to the queue's subscribers unchecked");
+        assertThrows(MessageDeliveryException.class, () -> send("/app/unknown", update),
+                "only the application's known destinations should be accepted");
+        assertDoesNotThrow(() -> send("/app/hello", "\"name\""), "a greeting does not touch a document");
+    }
+
+    @Test
+    @DisplayName("preSend() applies a permission change to an open session")
+    void preSend_PermissionRevoked_Rejected() {
+        String update = String.format("{\"documentId\":%d,\"userId\":%d,\"updates\":[]}", DOCUMENT_ID, USER_ID);
+        send("/app/updates", update);
+
+        this.database.put(DOCUMENT_ID, Permission.VIEWER);
+        this.permissionCache.invalidate(DOCUMENT_ID, USER_ID);
+
+        assertThrows(MessageDeliveryException.class, () -> send("/app/updates", update),
+                "the pinned permission should be resolved again after the change");
+    }
+
+    private void send(String destination, String payload) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination(destination);
+        this.interceptor.preSend(message(accessor, payload.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    private Message<byte[]> message(StompHeaderAccessor accessor, byte[] payload) {
+        accessor.setSessionId("session");
+        accessor.setSessionAttributes(this.session);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, String> tokens() throws ReflectiveOperationException {
+        Field field = AuthService.class.getDeclaredField("usersTokensMap");
+        field.setAccessible(true);
+        return (Map<Integer, String>) field.get(null);
+    }
+}
@@ -0,0 +1,88 @@
+package docSharing.controller;
+
+import docSharing.controller.request.UpdateRequest;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Compares broker fan-out of a single global updates topic with per-document topics.
+ * 1,000 sessions are spread over 100 documents; every session subscribes to the updates of its document
+ * (or to the global topic) and the same edits are published through Spring's simple broker.
+ * Reports outbound messages and broker CPU time per edit.
+ * Run manually: mvn test-compile exec:java -Dexec.classpathScope=test
+ *                   -Dexec.mainClass=docSharing.controller.BroadcastFanOutBenchmark
+ */
+public class BroadcastFanOutBenchmark {
+    private static final int SESSIONS = 1_000;
+    private static final int DOCUMENTS = 100;
+    private static final int EDITS = 20_000;
+
+    public static void main(String[] args) {
+        run("global /topic/updates", documentId -> "/topic/updates");
+        run("per-document topics", documentId -> DocumentEditController.documentTopic(documentId, "updates"));
+    }
+
+    private static void run(String name, IntFunction<String> destination) {
+        AtomicLong outbound = new AtomicLong();
+        MessageChannel clientOutboundChannel = (message, timeout) -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                outbound.incrementAndGet();
+            }
+            return true;
+        };
+
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(),
+                clientOutboundChannel, new ExecutorSubscribableChannel(), Collections.singletonList("/topic"));
+        broker.start();
+
+        for (int session = 0; session < SESSIONS; session++) {
+            SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+            connect.setSessionId("session-" + session);
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+
+            SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            subscribe.setSessionId("session-" + session);
+            subscribe.setSubscriptionId("sub-0");
+            subscribe.setDestination(destination.apply(session % DOCUMENTS));
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+        }
+
+        MessageChannel brokerChannel = (message, timeout) -> {
+            broker.handleMessage(message);
+            return true;
+        };
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < EDITS; i++) {
+            int documentId = i % DOCUMENTS;
+            UpdateRequest update = new UpdateRequest.UpdateRequestBuilder().setDocumentId(documentId).setUserId(1)
+                    .setType(UpdateRequest.UpdateType.APPEND).setContent("a")
+                    .setStartPosition(i).setEndPosition(i + 1).setRevision(i).build();
+            template.convertAndSend(destination.apply(documentId), update);
+        }
+
+        long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+        long elapsed = System.nanoTime() - start;
+        broker.stop();
+
+        System.out.printf("%-24s %,12d outbound messages (%,d per edit), %,8.2f us CPU per edit, %,8d ms total%n",
+                name, outbound.get(), outbound.get() / EDITS, cpu / 1_000.0 / EDITS, elapsed / 1_000_000);
+    }
+}
@@ -0,0 +1,76 @@
+package docSharing.entities.DTO;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentJoinDTOTests {
+    private static final int MAX_MISSED_OPERATIONS = 5;
+
+    private Document document;
+
+    @BeforeEach
+    void beforeEach() {
+        this.document = new Document(new User(), 0, "title");
+        this.document.setContent("say \"hi\"\n");
+    }
+
+    @Test
+    @DisplayName("of() sends the operations a client missed since its revision")
+    void of_RecentRevision_SendsMissedOperations() {
+        edit(" a");
+        edit(" b");
+
+        DocumentJoinDTO join = DocumentJoinDTO.of(this.document, null, 1, MAX_MISSED_OPERATIONS);
+
+        assertNull(join.getContent(), "the content should not be sent");
+        assertEquals(1, join.getOperations().size(), "only the operation after revision 1 should be sent");
+        assertEquals(" b", join.getOperations().get(0).getText(), "the missed operation should be sent");
+        assertEquals(2, join.getRevision(), "the reply should carry the latest revision");
+    }
+
+    @Test
+    @DisplayName("of() sends the content when the client missed too many operations or has no copy")
+    void of_LargeGap_SendsContent() {
+        for (int i = 0; i < MAX_MISSED_OPERATIONS + 1; i++) {
+            edit("x");
+        }
+
+        assertNull(DocumentJoinDTO.of(this.document, null, 0, MAX_MISSED_OPERATIONS).getOperations(),
+                "too many missed operations should be replaced by the content");
+        assertNotNull(DocumentJoinDTO.of(this.document, null, null, MAX_MISSED_OPERATIONS).getContent(),
+                "a client without a copy should get the content");
+        assertNotNull(DocumentJoinDTO.of(this.document, null, 100, MAX_MISSED_OPERATIONS).getContent(),
+                "an unknown revision should get the content");
+    }
+
+    @Test
+    @DisplayName("of() serializes the content once per revision")
+    void of_SameRevision_SharesSerializedContent() throws Exception {
+        DocumentJoinDTO first = DocumentJoinDTO.of(this.document, null, null, MAX_MISSED_OPERATIONS);
+        DocumentJoinDTO second = DocumentJoinDTO.of(this.document, null, null, MAX_MISSED_OPERATIONS);
+        edit("!");
+        DocumentJoinDTO third = DocumentJoinDTO.of(this.document, null, null, MAX_MISSED_OPERATIONS);
+
+        assertSame(first.getContent(), second.getContent(), "joiners of one revision should share the serialization");
+        assertNotSame(first.getContent(), third.getContent(), "an edit should serialize the content again");
+
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(third));
+        assertEquals(this.document.getContent(), json.get("content").asText(), "the content should be valid JSON");
+        assertFalse(json.has("operations"), "a snapshot should not carry operations");
+    }
+
+    private void edit(String text) {
+        this.document.updateContent(new UpdateRequest.UpdateRequestBuilder()
+                .setUserId(1).setType(UpdateRequest.UpdateType.APPEND).setContent(text)
+                .setStartPosition(this.document.getContentLength()).build());
+    }
+}
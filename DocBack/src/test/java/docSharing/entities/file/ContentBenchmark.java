@@ -0,0 +1,92 @@
+package docSharing.entities.file;
+
+import java.util.Random;
+
+/**
+ * Compares edit throughput of the rope-backed Content against the previous
+ * String concatenation implementation for 10 KB, 1 MB and 10 MB documents.
+ * Run manually: mvn test-compile exec:java -Dexec.classpathScope=test
+ *                   -Dexec.mainClass=docSharing.entities.file.ContentBenchmark
+ */
+public class ContentBenchmark {
+    private static final int[] DOCUMENT_SIZES = {10 * 1024, 1024 * 1024, 10 * 1024 * 1024};
+    private static final long TIME_BUDGET_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) {
+        System.out.printf("%-10s %-12s %15s%n", "size", "store", "edits/sec");
+
+        for (int size : DOCUMENT_SIZES) {
+            String text = RopeTests.randomText(new Random(size), size);
+
+            System.out.printf("%-10s %-12s %15.0f%n", label(size), "string", measure(new StringContent(text), size));
+            System.out.printf("%-10s %-12s %15.0f%n", label(size), "rope", measure(ropeContent(text), size));
+        }
+    }
+
+    private static double measure(Editable content, int size) {
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        long edits = 0;
+
+        while (System.nanoTime() - start < TIME_BUDGET_NANOS) {
+            int position = 1 + random.nextInt(size - 1);
+            if ((edits & 1) == 0) {
+                content.append("x", position);
+            } else {
+                content.delete(position, position - 1);
+            }
+            edits++;
+        }
+
+        return edits / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static Editable ropeContent(String text) {
+        Content content = new Content();
+        content.setContent(text);
+
+        return new Editable() {
+            @Override
+            public void append(String inserted, int start) {
+                content.append(inserted, start);
+            }
+
+            @Override
+            public void delete(int start, int end) {
+                content.delete(start, end);
+            }
+        };
+    }
+
+    private static String label(int size) {
+        return size >= 1024 * 1024 ? (size / (1024 * 1024)) + " MB" : (size / 1024) + " KB";
+    }
+
+    private interface Editable {
+        void append(String content, int start);
+
+        void delete(int start, int end);
+    }
+
+    /**
+     * The Content edit logic before the rope: every edit rebuilds the whole String.
+     */
+    private static class StringContent implements Editable {
+        private String content;
+
+        StringContent(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public void append(String content, int start) {
+            this.content = this.content.substring(0, start) + content + this.content.substring(start);
+        }
+
+        @Override
+        public void delete(int start, int end) {
+            int count = start - end;
+            this.content = this.content.substring(0, Math.max(0, start - count)) + this.content.substring(start);
+        }
+    }
+}
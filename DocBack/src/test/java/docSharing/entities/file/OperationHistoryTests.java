@@ -0,0 +1,362 @@
+package docSharing.entities.file;
+
+import docSharing.controller.request.BatchUpdateRequest;
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationHistoryTests {
+    private Document document;
+
+    @BeforeEach
+    void beforeEach() {
+        this.document = new Document(new User(), 0, "title");
+        this.document.setContent("Lior Mathan");
+    }
+
+    @Test
+    @DisplayName("updateContent() shifts a concurrent append after an earlier append")
+    void updateContent_ConcurrentAppends_BothApplied() {
+        this.document.updateContent(append(1, "Hi ", 0, 0));
+        this.document.updateContent(append(2, "!", 11, 0));
+
+        assertEquals("Hi Lior Mathan!", this.document.getContent(),
+                "concurrent appends should both be applied at their intended positions");
+        assertEquals(2, this.document.getRevision(), "each update should create a new revision");
+    }
+
+    @Test
+    @DisplayName("updateContent() rebases a concurrent delete over an earlier append")
+    void updateContent_ConcurrentDeleteAfterAppend_DeletesIntendedChar() {
+        this.document.updateContent(append(1, "Hi ", 0, 0));
+        UpdateRequest delete = new UpdateRequest.UpdateRequestBuilder().setUserId(2)
+                .setType(UpdateRequest.UpdateType.DELETE).setStartPosition(5).setEndPosition(4)
+                .setRevision(0).build();
+        this.document.updateContent(delete);
+
+        assertEquals("Hi LiorMathan", this.document.getContent(), "delete should remove the intended space");
+        assertEquals(8, delete.getStartPosition(), "broadcast delete should carry rebased positions");
+        assertEquals(2, delete.getRevision(), "broadcast delete should carry its new revision");
+    }
+
+    @Test
+    @DisplayName("updateContent() does not delete text twice for overlapping range deletes")
+    void updateContent_OverlappingDeleteRanges_DeletesUnion() {
+        this.document.updateContent(deleteRange(1, 0, 6, 0));
+        this.document.updateContent(deleteRange(2, 4, 11, 0));
+
+        assertEquals("", this.document.getContent(), "overlapping deletes should remove the union once");
+    }
+
+    @Test
+    @DisplayName("updateContent() based on the acknowledged revision is not transformed against it")
+    void updateContent_SameUserAfterAcknowledgment_NotTransformed() {
+        this.document.updateContent(append(1, "a", 0, 0));
+        this.document.updateContent(append(1, "b", 1, 1));
+
+        assertEquals("abLior Mathan", this.document.getContent(),
+                "the user's acknowledged operations are already included in its base");
+    }
+
+    @Test
+    @DisplayName("updateContent() keeps the first update of a document in the history it creates")
+    void updateContent_FirstUpdate_KeptInHistory() {
+        this.document.updateContent(append(1, "Hi ", 0, 0));
+
+        assertEquals(1, this.document.getHistory().since(0).size(),
+                "the history should start at the revision before the first update");
+        UpdateRequest concurrent = append(2, "!", 11, 0);
+        this.document.updateContent(concurrent);
+        assertEquals("Hi Lior Mathan!", this.document.getContent(),
+                "an update based on the revision before the first update should be rebased past it");
+    }
+
+    @Test
+    @DisplayName("transform() converges whichever of two concurrent operations is applied first")
+    void transform_RandomConcurrentOperations_Converge() {
+        Random random = new Random(4);
+        for (int i = 0; i < 20000; i++) {
+            String text = randomText(random, random.nextInt(6));
+            TextOperation first = randomOperation(random, 1, text.length());
+            TextOperation second = randomOperation(random, 2, text.length());
+            boolean priority = random.nextBoolean();
+
+            String firstApplied = apply(apply(text, first), second.transform(first, priority));
+            String secondApplied = apply(apply(text, second), first.transform(second, !priority));
+
+            assertEquals(firstApplied, secondApplied, String.format(
+                    "%s and %s on '%s' should converge in both orders", first, second, text));
+        }
+    }
+
+    @Test
+    @DisplayName("updateContent() converges a batch sent with an unacknowledged batch and a concurrent update")
+    void updateContent_BatchWhileOwnBatchInFlight_ReplicasConverge() {
+        Server server = new Server(this.document);
+        Client lior = server.connect(1);
+        Client mathan = server.connect(2);
+
+        lior.edit(new TextOperation(1, 0, 0, "Hi "));
+        lior.send();
+        lior.edit(new TextOperation(1, 3, 3, "there "));
+        mathan.edit(new TextOperation(2, 4, 5, "_"));
+        mathan.send();
+        server.receiveAll();
+        lior.receiveAll();
+        lior.send();
+        server.receiveAll();
+        lior.receiveAll();
+        mathan.receiveAll();
+
+        assertEquals("Hi there Lior_Mathan", this.document.getContent(), "both users' edits should be applied");
+        assertEquals(this.document.getContent(), lior.text, "the sender should converge with the server");
+        assertEquals(this.document.getContent(), mathan.text, "the other user should converge with the server");
+    }
+
+    @Test
+    @DisplayName("updateContent() converges random concurrent batches of several users")
+    void updateContent_RandomConcurrentBatches_ReplicasConverge() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            Document document = new Document(new User(), 0, "title");
+            document.setContent("Lior Mathan");
+            Server server = new Server(document);
+            List<Client> clients = Arrays.asList(server.connect(1), server.connect(2), server.connect(3));
+
+            for (int step = 0; step < 60; step++) {
+                Client client = clients.get(random.nextInt(clients.size()));
+                switch (random.nextInt(4)) {
+                    case 0:
+                        client.edit(randomOperation(random, client.userId, client.text.length()));
+                        break;
+                    case 1:
+                        client.send();
+                        break;
+                    case 2:
+                        server.receiveOne();
+                        break;
+                    default:
+                        client.receiveOne();
+                }
+            }
+            while (server.isBusy() || clients.stream().anyMatch(Client::isBusy)) {
+                server.receiveAll();
+                clients.forEach(Client::receiveAll);
+                clients.forEach(Client::send);
+            }
+
+            for (Client client : clients) {
+                assertEquals(document.getContent(), client.text,
+                        String.format("user #%d should converge with the server in round %d", client.userId, round));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("rebase() throws when the base revision was evicted from the history")
+    void rebase_EvictedRevision_Throws() {
+        OperationHistory history = new OperationHistory(2, 0);
+        history.append(new TextOperation(1, 0, 0, "a"));
+        history.append(new TextOperation(1, 0, 0, "b"));
+        history.append(new TextOperation(1, 0, 0, "c"));
+
+        assertThrows(IllegalStateException.class, () -> history.rebase(new TextOperation(2, 0, 0, "d"), 0),
+                "rebase() should throw when the operations since the base revision are gone");
+        assertEquals(2, history.since(1).size(), "since() should return the operations after the base revision");
+    }
+
+    @Test
+    @DisplayName("updateContent() applies a batch in order, rebased past a concurrent update")
+    void updateContent_BatchAfterConcurrentAppend_AppliedInOrder() {
+        this.document.updateContent(append(2, "Hi ", 0, 0));
+        List<UpdateRequest> batch = Arrays.asList(append(1, "!", 11, 0), append(1, "?", 12, 0));
+        this.document.updateContent(batch, 0);
+
+        assertEquals("Hi Lior Mathan!?", this.document.getContent(), "batch should be applied in order");
+        assertEquals(3, this.document.getRevision(), "each update in the batch should create a revision");
+        assertEquals(15, batch.get(1).getStartPosition(), "broadcast batch should carry rebased positions");
+    }
+
+    @Test
+    @DisplayName("updateContent() rolls back the whole batch when one update fails")
+    void updateContent_BatchWithInvalidUpdate_RolledBack() {
+        List<UpdateRequest> batch = Arrays.asList(append(1, "a", 0, 0), deleteRange(1, 5, 100, 0));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> this.document.updateContent(batch, 0),
+                "updateContent() should rethrow the failing update's exception");
+        assertEquals("Lior Mathan", this.document.getContent(), "content should be restored");
+        assertEquals(0, this.document.getRevision(), "revisions of the batch should be discarded");
+    }
+
+    private static String apply(String text, TextOperation operation) {
+        return text.substring(0, operation.getFrom()) + operation.getText() + text.substring(operation.getTo());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+        return text.toString();
+    }
+
+    private static TextOperation randomOperation(Random random, int userId, int length) {
+        int from = random.nextInt(length + 1);
+        int to = from + random.nextInt(length - from + 1);
+        return new TextOperation(userId, from, to, randomText(random, random.nextInt(3)));
+    }
+
+    /**
+     * Applies the batches of the clients in the order they arrive and broadcasts every applied batch.
+     */
+    private static class Server {
+        private final Document document;
+        private final Deque<BatchUpdateRequest> inbox = new ArrayDeque<>();
+        private final List<Client> clients = new ArrayList<>();
+
+        Server(Document document) {
+            this.document = document;
+        }
+
+        Client connect(int userId) {
+            Client client = new Client(this, userId, document.getContent(), document.getRevision());
+            clients.add(client);
+            return client;
+        }
+
+        boolean isBusy() {
+            return !inbox.isEmpty();
+        }
+
+        void receiveOne() {
+            BatchUpdateRequest batch = inbox.poll();
+            if (batch == null) {
+                return;
+            }
+
+            document.updateContent(batch.getUpdates(), batch.getRevision());
+            for (Client client : clients) {
+                client.inbox.add(new BatchUpdateRequest(0, batch.getUserId(), document.getRevision(),
+                        copy(batch.getUpdates())));
+            }
+        }
+
+        void receiveAll() {
+            while (isBusy()) {
+                receiveOne();
+            }
+        }
+    }
+
+    /**
+     * Keeps a local copy of the text, with at most one batch waiting for the server's acknowledgment,
+     * the way the editor does.
+     */
+    private static class Client {
+        private final Server server;
+        private final int userId;
+        private final Deque<BatchUpdateRequest> inbox = new ArrayDeque<>();
+        private String text;
+        private int revision;
+        private List<TextOperation> inFlight = new ArrayList<>();
+        private List<TextOperation> buffered = new ArrayList<>();
+
+        Client(Server server, int userId, String text, int revision) {
+            this.server = server;
+            this.userId = userId;
+            this.text = text;
+            this.revision = revision;
+        }
+
+        boolean isBusy() {
+            return !inbox.isEmpty() || !inFlight.isEmpty() || !buffered.isEmpty();
+        }
+
+        void edit(TextOperation operation) {
+            text = apply(text, operation);
+            buffered.add(operation);
+        }
+
+        void send() {
+            if (!inFlight.isEmpty() || buffered.isEmpty()) {
+                return;
+            }
+
+            inFlight = buffered;
+            buffered = new ArrayList<>();
+            List<UpdateRequest> updates = new ArrayList<>();
+            for (TextOperation operation : inFlight) {
+                updates.add(new UpdateRequest.UpdateRequestBuilder().setUserId(userId)
+                        .setType(UpdateRequest.UpdateType.APPEND_RANGE).setContent(operation.getText())
+                        .setStartPosition(operation.getFrom()).setEndPosition(operation.getTo()).build());
+            }
+            server.inbox.add(new BatchUpdateRequest(0, userId, revision, updates));
+        }
+
+        void receiveOne() {
+            BatchUpdateRequest batch = inbox.poll();
+            if (batch == null) {
+                return;
+            }
+
+            revision = batch.getRevision();
+            if (batch.getUserId() == userId) {
+                inFlight = new ArrayList<>();
+                return;
+            }
+
+            for (UpdateRequest update : batch.getUpdates()) {
+                TextOperation remote = TextOperation.of(update);
+                for (List<TextOperation> pending : Arrays.asList(inFlight, buffered)) {
+                    for (int i = 0; i < pending.size(); i++) {
+                        TextOperation local = pending.get(i);
+                        pending.set(i, local.transform(remote, false));
+                        remote = remote.transform(local, true);
+                    }
+                }
+                text = apply(text, remote);
+            }
+        }
+
+        void receiveAll() {
+            while (!inbox.isEmpty()) {
+                receiveOne();
+            }
+        }
+    }
+
+    private static List<UpdateRequest> copy(List<UpdateRequest> updates) {
+        List<UpdateRequest> copies = new ArrayList<>();
+        for (UpdateRequest update : updates) {
+            copies.add(new UpdateRequest.UpdateRequestBuilder().setUserId(update.getUserId())
+                    .setType(update.getType()).setContent(update.getContent())
+                    .setStartPosition(update.getStartPosition()).setEndPosition(update.getEndPosition())
+                    .setRevision(update.getRevision()).build());
+        }
+        return copies;
+    }
+
+    private static UpdateRequest append(int userId, String content, int position, int revision) {
+        return new UpdateRequest.UpdateRequestBuilder().setUserId(userId)
+                .setType(UpdateRequest.UpdateType.APPEND).setContent(content)
+                .setStartPosition(position).setEndPosition(position + content.length())
+                .setRevision(revision).build();
+    }
+
+    private static UpdateRequest deleteRange(int userId, int start, int end, int revision) {
+        return new UpdateRequest.UpdateRequestBuilder().setUserId(userId)
+                .setType(UpdateRequest.UpdateType.DELETE_RANGE).setStartPosition(start).setEndPosition(end)
+                .setRevision(revision).build();
+    }
+}
@@ -0,0 +1,67 @@
+package docSharing.entities.file;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RopeTests {
+    @Test
+    @DisplayName("of() keeps the original text")
+    void of_LongText_KeepsText() {
+        String text = randomText(new Random(1), 10_000);
+        Rope rope = Rope.of(text);
+
+        assertEquals(text.length(), rope.length(), "length() should match the original text length");
+        assertEquals(text, rope.toString(), "toString() should return the original text");
+    }
+
+    @Test
+    @DisplayName("replace() matches StringBuilder for random edits")
+    void replace_RandomEdits_MatchesStringBuilder() {
+        Random random = new Random(42);
+        StringBuilder expected = new StringBuilder(randomText(random, 3_000));
+        Rope rope = Rope.of(expected.toString());
+
+        for (int i = 0; i < 5_000; i++) {
+            int from = random.nextInt(expected.length() + 1);
+            int to = from + random.nextInt(Math.min(20, expected.length() - from) + 1);
+            String text = random.nextInt(3) == 0 ? "" : randomText(random, 1 + random.nextInt(30));
+
+            expected.replace(from, to, text);
+            rope = rope.replace(from, to, text);
+        }
+
+        assertEquals(expected.toString(), rope.toString(), "rope should match StringBuilder after random edits");
+    }
+
+    @Test
+    @DisplayName("replace() does not change the previous rope version")
+    void replace_Edit_KeepsPreviousVersion() {
+        Rope original = Rope.of("LiorMathan");
+        Rope edited = original.insert(4, " ");
+
+        assertEquals("LiorMathan", original.toString(), "original rope should not change");
+        assertEquals("Lior Mathan", edited.toString(), "edited rope should contain the insertion");
+    }
+
+    @Test
+    @DisplayName("replace() throws when range is out of bounds")
+    void replace_OutOfBounds_Throws() {
+        Rope rope = Rope.of("Lior");
+
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.replace(2, 5, "x"),
+                "replace() should throw for a range beyond the rope length");
+    }
+
+    static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+
+        return builder.toString();
+    }
+}
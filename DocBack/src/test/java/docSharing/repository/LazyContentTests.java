@@ -0,0 +1,109 @@
+package docSharing.repository;
+
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.permission.Authorization;
+import docSharing.entities.permission.Permission;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.Query;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyContentTests {
+    private static final int CONTENT_LENGTH = 200;
+
+    private QueryCountHarness harness;
+    private int documentId;
+    private int authorizationId;
+    private int ownerId;
+
+    @BeforeEach
+    void beforeEach() {
+        this.harness = new QueryCountHarness();
+
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User owner = new User("owner", "owner@mail.com", "password");
+            session.persist(owner);
+
+            Document document = new Document(owner, 0, "title");
+            document.setContent(new String(new char[CONTENT_LENGTH]).replace('\0', 'x'));
+            session.persist(document);
+
+            Authorization authorization = new Authorization(document, owner, Permission.OWNER);
+            session.persist(authorization);
+            session.getTransaction().commit();
+
+            this.documentId = document.getId();
+            this.authorizationId = authorization.getId();
+            this.ownerId = owner.getId();
+        }
+
+        this.harness.reset();
+    }
+
+    @AfterEach
+    void afterEach() {
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("find() of a document reads its metadata without its content")
+    void find_MetadataOnly_ContentNotRead() {
+        try (Session session = this.harness.openSession()) {
+            Document document = session.find(Document.class, this.documentId);
+            assertEquals("title", document.getMetadata().getTitle(), "metadata should be loaded");
+
+            assertEquals(0, this.harness.countReadsFrom("content"), "content table should not be queried");
+            assertTrue(this.harness.getBytesRead() < CONTENT_LENGTH, "content bytes should not be read");
+
+            assertEquals(CONTENT_LENGTH, document.getContentLength(), "content should load on first access");
+            assertEquals(1, this.harness.countReadsFrom("content"), "content should be read once, on access");
+        }
+    }
+
+    @Test
+    @DisplayName("find() of an authorization loads neither its document nor its user")
+    void find_Authorization_DocumentNotLoaded() {
+        try (Session session = this.harness.openSession()) {
+            Authorization authorization = session.find(Authorization.class, this.authorizationId);
+
+            assertEquals(Permission.OWNER, authorization.getPermission(), "permission should be loaded");
+            assertEquals(1, this.harness.getStatements().size(), "only the authorization row should be read");
+        }
+    }
+
+    @Test
+    @DisplayName("findOwnerId() reads the owner without the document's content")
+    void findOwnerId_Document_ContentNotRead() throws NoSuchMethodException {
+        try (Session session = this.harness.openSession()) {
+            Object ownerId = session.createQuery(query("findOwnerId")).setParameter(1, this.documentId).getSingleResult();
+
+            assertEquals(this.ownerId, ownerId, "findOwnerId() should return the owner's id");
+            assertEquals(1, this.harness.getStatements().size(), "owner should be read with a single query");
+            assertEquals(0, this.harness.countReadsFrom("content"), "content table should not be queried");
+        }
+    }
+
+    @Test
+    @DisplayName("findWithContentById() loads the document and its content in a single query")
+    void findWithContentById_Document_SingleQuery() throws NoSuchMethodException {
+        try (Session session = this.harness.openSession()) {
+            Document document = (Document) session.createQuery(query("findWithContentById"))
+                    .setParameter(1, this.documentId).getSingleResult();
+            int statements = this.harness.getStatements().size();
+
+            assertEquals(CONTENT_LENGTH, document.getContentLength(), "content should be loaded");
+            assertEquals(statements, this.harness.getStatements().size(), "content access should not query again");
+            assertTrue(this.harness.getBytesRead() >= CONTENT_LENGTH, "content bytes should be read");
+        }
+    }
+
+    private static String query(String repositoryMethod) throws NoSuchMethodException {
+        return DocumentRepository.class.getMethod(repositoryMethod, int.class).getAnnotation(Query.class).value();
+    }
+}
@@ -0,0 +1,272 @@
+package docSharing.repository;
+
+import docSharing.entities.User;
+import docSharing.entities.file.Content;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.File;
+import docSharing.entities.file.MetaData;
+import docSharing.entities.permission.Authorization;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.query.Query;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Lock;
+
+import javax.sql.DataSource;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test harness that runs the JPA mappings against an in-memory H2 database and records
+ * every SQL statement Hibernate issues and every string byte it reads from result sets.
+ * Used to prove which paths load document bodies.
+ */
+public class QueryCountHarness implements AutoCloseable {
+    private final List<String> statements;
+    private final AtomicLong bytesRead;
+    private final SessionFactory sessionFactory;
+
+    public QueryCountHarness(Class<?>... extraEntities) {
+        this.statements = Collections.synchronizedList(new ArrayList<>());
+        this.bytesRead = new AtomicLong();
+
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+
+        Configuration configuration = new Configuration()
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(MetaData.class)
+                .addAnnotatedClass(File.class)
+                .addAnnotatedClass(Document.class)
+                .addAnnotatedClass(Content.class)
+                .addAnnotatedClass(Authorization.class);
+        for (Class<?> entity : extraEntities) {
+            configuration.addAnnotatedClass(entity);
+        }
+
+        configuration.getProperties().put(AvailableSettings.DATASOURCE, countingDataSource(h2));
+        configuration.getProperties().put(AvailableSettings.STATEMENT_INSPECTOR, (StatementInspector) sql -> {
+            statements.add(sql);
+            return sql;
+        });
+        configuration.setProperty(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop");
+        configuration.setProperty(AvailableSettings.GLOBALLY_QUOTED_IDENTIFIERS, "true");
+
+        this.sessionFactory = configuration.buildSessionFactory();
+    }
+
+    public Session openSession() {
+        return sessionFactory.openSession();
+    }
+
+    /**
+     * Implements repositoryType's @Query methods (JPQL or native SQL), findById(), existsById(), save(), saveAll() and saveAllAndFlush()
+     * over this harness, each call in its own session.
+     * A Pageable argument limits the results, like Spring Data does, and @Lock locks them until the call returns.
+     * Constraint violations are translated to DataIntegrityViolationException, as Spring Data repositories do.
+     * Other methods throw UnsupportedOperationException.
+     * @param repositoryType
+     * @return the repository
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T repository(Class<T> repositoryType) {
+        return (T) Proxy.newProxyInstance(repositoryType.getClassLoader(), new Class[]{repositoryType},
+                (proxy, method, args) -> {
+                    try {
+                        if (method.getName().equals("save")) {
+                            return saveAll(Collections.singletonList(args[0])).get(0);
+                        }
+                        if (method.getName().equals("saveAll") || method.getName().equals("saveAllAndFlush")) {
+                            return saveAll((Iterable<?>) args[0]);
+                        }
+                        if (method.getName().equals("findById")) {
+                            return findById(entityType(repositoryType), args[0]);
+                        }
+                        if (method.getName().equals("existsById")) {
+                            return findById(entityType(repositoryType), args[0]).isPresent();
+                        }
+
+                        org.springframework.data.jpa.repository.Query query =
+                                method.getAnnotation(org.springframework.data.jpa.repository.Query.class);
+                        if (query == null) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+
+                        return execute(method, query, args);
+                    } catch (RuntimeException e) {
+                        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                            if (cause instanceof ConstraintViolationException) {
+                                throw new DataIntegrityViolationException(cause.getMessage(), e);
+                            }
+                        }
+                        throw e;
+                    }
+                });
+    }
+
+    /**
+     * Forgets the statements and bytes recorded so far.
+     */
+    public void reset() {
+        statements.clear();
+        bytesRead.set(0);
+    }
+
+    /**
+     * @return the statements issued since the last reset().
+     */
+    public List<String> getStatements() {
+        synchronized (statements) {
+            return new ArrayList<>(statements);
+        }
+    }
+
+    /**
+     * @param table
+     * @return the number of statements since the last reset() that read from table.
+     */
+    public long countReadsFrom(String table) {
+        String from = "\"" + table + "\"";
+        return getStatements().stream().filter(sql -> sql.startsWith("select") && sql.contains(from)).count();
+    }
+
+    /**
+     * @return the UTF-8 size of the strings read from result sets since the last reset().
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public void close() {
+        sessionFactory.close();
+    }
+
+    private List<Object> saveAll(Iterable<?> entities) {
+        List<Object> saved = new ArrayList<>();
+        try (Session session = openSession()) {
+            session.beginTransaction();
+            for (Object entity : entities) {
+                session.persist(entity);
+                saved.add(entity);
+            }
+            session.getTransaction().commit();
+        }
+
+        return saved;
+    }
+
+    private Optional<Object> findById(Class<?> entityType, Object id) {
+        try (Session session = openSession()) {
+            return Optional.ofNullable(session.get(entityType, (Serializable) id));
+        }
+    }
+
+    // The T of a repository that extends JpaRepository<T, ID>.
+    private static Class<?> entityType(Class<?> repositoryType) {
+        for (Type type : repositoryType.getGenericInterfaces()) {
+            if (type instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+            }
+        }
+
+        throw new UnsupportedOperationException(repositoryType.getName());
+    }
+
+    private Object execute(Method method, org.springframework.data.jpa.repository.Query annotation, Object[] args) {
+        try (Session session = openSession()) {
+            Query<?> query = annotation.nativeQuery()
+                    ? session.createNativeQuery(annotation.value()) : session.createQuery(annotation.value());
+            int position = 1;
+            for (int i = 0; args != null && i < args.length; i++) {
+                if (args[i] instanceof Pageable) {
+                    Pageable pageable = (Pageable) args[i];
+                    query.setFirstResult((int) pageable.getOffset());
+                    query.setMaxResults(pageable.getPageSize());
+                } else {
+                    query.setParameter(position++, args[i]);
+                }
+            }
+
+            Lock lock = method.getAnnotation(Lock.class);
+            if (lock != null) {
+                // Pessimistic locks are only taken in a transaction, it ends with the session.
+                session.beginTransaction();
+                query.setLockMode(lock.value());
+            }
+
+            if (method.isAnnotationPresent(Modifying.class)) {
+                session.beginTransaction();
+                int updated = query.executeUpdate();
+                session.getTransaction().commit();
+                return method.getReturnType() == void.class ? null : updated;
+            }
+            if (method.getReturnType() == Optional.class) {
+                return query.uniqueResultOptional();
+            }
+
+            return query.getResultList();
+        }
+    }
+
+    private DataSource countingDataSource(DataSource target) {
+        return proxy(DataSource.class, target);
+    }
+
+    /**
+     * Wraps target so that connections, statements and result sets it creates are wrapped too,
+     * and string and CLOB values read from result sets are counted.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type, T target) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            if (result instanceof String && type == ResultSet.class) {
+                bytesRead.addAndGet(((String) result).getBytes(StandardCharsets.UTF_8).length);
+            } else if (result instanceof Clob && type == ResultSet.class) {
+                Clob clob = (Clob) result;
+                bytesRead.addAndGet(clob.getSubString(1, (int) clob.length()).getBytes(StandardCharsets.UTF_8).length);
+            } else if (result instanceof ResultSet) {
+                return proxy(ResultSet.class, (ResultSet) result);
+            } else if (result instanceof PreparedStatement) {
+                return proxy(PreparedStatement.class, (PreparedStatement) result);
+            } else if (result instanceof Statement) {
+                return proxy(Statement.class, (Statement) result);
+            } else if (result instanceof Connection) {
+                return proxy(Connection.class, (Connection) result);
+            }
+
+            return result;
+        });
+    }
+}
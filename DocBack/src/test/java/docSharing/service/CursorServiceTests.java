@@ -0,0 +1,144 @@
+package docSharing.service;
+
+import docSharing.controller.request.CursorRequest;
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.OperationLogRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CursorServiceTests {
+    private static final int DOCUMENT_ID = 1;
+
+    private List<Message<?>> sent;
+    private Document document;
+    private SimpleMeterRegistry meterRegistry;
+    private DocumentEditExecutor executor;
+    private CursorService cursorService;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.sent = new ArrayList<>();
+        this.document = new Document(new User(), 0, "title");
+        this.document.setContent("Hello world");
+        Field idField = this.document.getClass().getSuperclass().getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.setInt(this.document, DOCUMENT_ID);
+
+        DocumentRepository repository = (DocumentRepository) Proxy.newProxyInstance(
+                DocumentRepository.class.getClassLoader(), new Class[]{DocumentRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findWithContentById")) {
+                        return Optional.of(this.document);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        OperationLogRepository operationLogRepository = (OperationLogRepository) Proxy.newProxyInstance(
+                OperationLogRepository.class.getClassLoader(), new Class[]{OperationLogRepository.class},
+                (proxy, method, args) -> Collections.emptyList());
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        DocumentFlushService flushService = new DocumentFlushService(repository, null, operationLogRepository, null, null,
+                this.meterRegistry, Long.MAX_VALUE, 1, 1000, 65536, 0.5);
+        DocumentCache cache = new DocumentCache(repository, operationLogRepository, flushService,
+                new PresenceService(null, null), null, null, this.meterRegistry, Long.MAX_VALUE);
+        cache.get(DOCUMENT_ID);
+
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> this.sent.add(message));
+
+        this.executor = new DocumentEditExecutor(1);
+        this.cursorService = new CursorService(cache, this.executor, messagingTemplate, this.meterRegistry);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("flush() sends only the latest cursor of each user, in one message")
+    void flush_ManyCursors_LatestPerUserInOneMessage() {
+        for (int position = 0; position < 5; position++) {
+            this.cursorService.submit(new CursorRequest(DOCUMENT_ID, 7, 0, position, position));
+        }
+        this.cursorService.submit(new CursorRequest(DOCUMENT_ID, 8, 0, 2, 4));
+
+        List<CursorRequest> cursors = tick();
+
+        assertEquals(1, this.sent.size(), "a tick should send one message per document");
+        assertEquals(2, cursors.size(), "each user's cursor should be sent once");
+        assertEquals(4, find(cursors, 7).getStartPosition(), "only the latest cursor should be sent");
+        assertEquals(6, this.meterRegistry.counter("cursors.received").count(), "every cursor should be counted");
+    }
+
+    @Test
+    @DisplayName("flush() without new cursors sends nothing")
+    void flush_NoCursors_NothingSent() {
+        this.cursorService.submit(new CursorRequest(DOCUMENT_ID, 7, 0, 1, 1));
+        tick();
+        tick();
+
+        assertEquals(1, this.sent.size(), "cursors should not be sent again");
+    }
+
+    @Test
+    @DisplayName("flush() moves cursors through edits other users applied after the cursor's revision")
+    void flush_ConcurrentEdit_CursorTransformed() {
+        this.cursorService.submit(new CursorRequest(DOCUMENT_ID, 7, 0, 6, 11));
+        this.document.updateContent(new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(DOCUMENT_ID).setUserId(8).setType(UpdateRequest.UpdateType.APPEND)
+                .setContent("big ").setStartPosition(0).setRevision(0).build());
+
+        CursorRequest cursor = find(tick(), 7);
+
+        assertEquals(1, cursor.getRevision(), "cursor should be sent at the latest revision");
+        assertEquals("world", this.document.getContent().substring(cursor.getStartPosition(), cursor.getEndPosition()),
+                "the selection should still cover the same text");
+    }
+
+    @Test
+    @DisplayName("flush() drops cursors of revisions that are no longer known")
+    void flush_UnknownRevision_Dropped() {
+        this.cursorService.submit(new CursorRequest(DOCUMENT_ID, 7, 5, 1, 1));
+
+        tick();
+
+        assertTrue(this.sent.isEmpty(), "the cursor cannot be transformed and should not be sent");
+        assertEquals(1, this.meterRegistry.counter("cursors.dropped").count(), "dropped cursor should be counted");
+    }
+
+    /**
+     * Runs one tick and waits for the document's mailbox to send it.
+     * @return the cursors sent last
+     */
+    private List<CursorRequest> tick() {
+        this.cursorService.flush();
+        this.executor.submit(DOCUMENT_ID, () -> null).join();
+
+        if (this.sent.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return (List<CursorRequest>) this.sent.get(this.sent.size() - 1).getPayload();
+    }
+
+    private static CursorRequest find(List<CursorRequest> cursors, int userId) {
+        return cursors.stream().filter(cursor -> cursor.getUserId() == userId).findFirst()
+                .orElseThrow(() -> new AssertionError("no cursor of user #" + userId));
+    }
+}
@@ -0,0 +1,113 @@
+package docSharing.service;
+
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.QueryCountHarness;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+
+import java.util.List;
+
+/**
+ * Compares startup of the previous eager cache, which loaded every document with its content, against
+ * the lazy DocumentCache, which loads a document on its first access, on a seeded H2 corpus.
+ * Run manually: mvn test-compile exec:java -Dexec.classpathScope=test
+ *                   -Dexec.mainClass=docSharing.service.DocumentCacheStartupBenchmark
+ */
+public class DocumentCacheStartupBenchmark {
+    private static final int[] CORPUS_SIZES = {1_000, 10_000};
+    // The harness maps the content column to a plain VARCHAR.
+    private static final int CONTENT_LENGTH = 200;
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %-6s %12s %12s %14s%n", "corpus", "cache", "millis", "statements", "bytes read");
+
+        for (int size : CORPUS_SIZES) {
+            try (QueryCountHarness harness = new QueryCountHarness(OperationLog.class, DocumentCheckpoint.class,
+                    Folder.class, FolderEntry.class)) {
+                int firstId = seed(harness, size);
+
+                harness.reset();
+                long start = System.nanoTime();
+                eagerStartup(harness);
+                print(size, "eager", start, harness);
+
+                harness.reset();
+                start = System.nanoTime();
+                lazyStartup(harness, firstId);
+                print(size, "lazy", start, harness);
+            }
+        }
+    }
+
+    /**
+     * What DocumentService did on startup: findAll() with the content of every document.
+     */
+    private static void eagerStartup(QueryCountHarness harness) {
+        try (Session session = harness.openSession()) {
+            List<Document> documents = session.createQuery("SELECT d FROM Document d JOIN FETCH d.content",
+                    Document.class).getResultList();
+            for (Document document : documents) {
+                document.getContentLength();
+            }
+        }
+    }
+
+    /**
+     * Creates the cache and opens one document, as the first join after startup does.
+     */
+    private static void lazyStartup(QueryCountHarness harness, int documentId) {
+        DocumentRepository documentRepository = harness.repository(DocumentRepository.class);
+        OperationLogRepository operationLogRepository = harness.repository(OperationLogRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DocumentFlushService flushService = new DocumentFlushService(documentRepository,
+                harness.repository(ContentRepository.class), operationLogRepository,
+                harness.repository(DocumentCheckpointRepository.class), new FolderTree(harness.repository(
+                        FolderEntryRepository.class), harness.repository(FolderRepository.class), 16), meterRegistry,
+                Long.MAX_VALUE, 1, 1000, Long.MAX_VALUE, 0);
+        DocumentCache cache = new DocumentCache(documentRepository, operationLogRepository, flushService,
+                new PresenceService(null, null), null, null, meterRegistry, Long.MAX_VALUE);
+
+        cache.get(documentId).getContentLength();
+    }
+
+    private static int seed(QueryCountHarness harness, int size) {
+        String content = new String(new char[CONTENT_LENGTH]).replace('\0', 'x');
+        try (Session session = harness.openSession()) {
+            session.beginTransaction();
+            User owner = new User("owner", "owner@mail.com", "password");
+            session.persist(owner);
+
+            int firstId = 0;
+            for (int i = 0; i < size; i++) {
+                Document document = new Document(owner, 0, "title-" + i);
+                document.setContent(content);
+                session.persist(document);
+                if (i == 0) {
+                    firstId = document.getId();
+                }
+                if (i % 500 == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            session.getTransaction().commit();
+            return firstId;
+        }
+    }
+
+    private static void print(int size, String cache, long start, QueryCountHarness harness) {
+        System.out.printf("%-8d %-6s %12.1f %12d %14d%n", size, cache, (System.nanoTime() - start) / 1e6,
+                harness.getStatements().size(), harness.getBytesRead());
+    }
+}
@@ -0,0 +1,245 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.UpdateLog;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.UpdateLogRepository;
+import docSharing.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentCacheTests {
+    private static final int DOCUMENT_WEIGHT = 256 + 2 * 100;
+
+    private Map<Integer, Document> database;
+    private SimpleMeterRegistry meterRegistry;
+    private PresenceService presenceService;
+    private DocumentEditExecutor executor;
+    private UpdateLogWriter updateLogWriter;
+    private DocumentCache cache;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.database = new HashMap<>();
+        for (int id = 1; id <= 5; id++) {
+            this.database.put(id, createDocument(id));
+        }
+
+        DocumentRepository repository = (DocumentRepository) Proxy.newProxyInstance(
+                DocumentRepository.class.getClassLoader(), new Class[]{DocumentRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findWithContentById")) {
+                        return Optional.ofNullable(this.database.get((Integer) args[0]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        OperationLogRepository operationLogRepository = (OperationLogRepository) Proxy.newProxyInstance(
+                OperationLogRepository.class.getClassLoader(), new Class[]{OperationLogRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findAfterRevision")) {
+                        return Collections.emptyList();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        UserRepository userRepository = (UserRepository) Proxy.newProxyInstance(
+                UserRepository.class.getClassLoader(), new Class[]{UserRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findNameById")) {
+                        return Optional.of("user-" + args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.presenceService = new PresenceService(new UserNameDirectory(userRepository),
+                new SimpMessagingTemplate((message, timeout) -> true));
+        DocumentFlushService flushService = new DocumentFlushService(repository, null, operationLogRepository, null, null,
+                this.meterRegistry, Long.MAX_VALUE, 1, 1000, 65536, 0.5);
+        this.executor = new DocumentEditExecutor(1);
+        // The batch size is above the capacity, so writes never start an asynchronous drain.
+        this.updateLogWriter = new UpdateLogWriter((UpdateLogRepository) Proxy.newProxyInstance(
+                UpdateLogRepository.class.getClassLoader(), new Class[]{UpdateLogRepository.class},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                }), this.meterRegistry, 100, 101, 1);
+        this.cache = new DocumentCache(repository, operationLogRepository, flushService, this.presenceService,
+                this.executor, this.updateLogWriter, this.meterRegistry, 3 * DOCUMENT_WEIGHT);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("get() loads the document on a miss and caches it")
+    void get_Miss_LoadsAndCaches() {
+        Document first = this.cache.get(1);
+        Document second = this.cache.get(1);
+
+        assertSame(first, second, "get() should return the cached instance");
+        assertEquals(1, this.meterRegistry.counter("documents.cache.misses").count(), "first get() should miss");
+        assertEquals(1, this.meterRegistry.counter("documents.cache.hits").count(), "second get() should hit");
+    }
+
+    @Test
+    @DisplayName("get() evicts the least recently used document when the weight is exceeded")
+    void get_OverMaxWeight_EvictsLeastRecentlyUsed() {
+        this.cache.get(1);
+        this.cache.get(2);
+        this.cache.get(3);
+        this.cache.get(1);
+        this.cache.get(4);
+
+        assertFalse(this.cache.getIfPresent(2).isPresent(), "least recently used document should be evicted");
+        assertTrue(this.cache.getIfPresent(1).isPresent(), "recently used document should stay cached");
+        assertEquals(3, this.cache.size(), "cache should hold 3 documents");
+    }
+
+    @Test
+    @DisplayName("get() never evicts documents with active users")
+    void get_ActiveUsers_NotEvicted() {
+        this.cache.get(1);
+        this.presenceService.join(1, 7, "session");
+        this.cache.get(2);
+        this.cache.get(3);
+        this.cache.get(4);
+
+        assertTrue(this.cache.getIfPresent(1).isPresent(), "document with active users should not be evicted");
+        assertFalse(this.cache.getIfPresent(2).isPresent(), "next least recently used document should be evicted");
+    }
+
+    @Test
+    @DisplayName("get() releases the mailbox of an evicted document")
+    void get_OverMaxWeight_ReleasesMailbox() {
+        this.cache.get(1);
+        this.executor.execute(1, () -> { }).join();
+        this.executor.execute(2, () -> { }).join();
+        this.cache.get(2);
+        this.cache.get(3);
+        this.cache.get(4);
+
+        // The worker drops a released mailbox after the drain that ran its last task.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.executor.size() > 1 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        assertFalse(this.cache.getIfPresent(1).isPresent(), "least recently used document should be evicted");
+        assertEquals(1, this.executor.size(), "only the cached document should keep its mailbox");
+    }
+
+    @Test
+    @DisplayName("get() queues the open update log of an evicted document from its mailbox")
+    void get_OverMaxWeight_QueuesLastUpdate() throws InterruptedException {
+        Document evicted = this.cache.get(1);
+        UpdateRequest updateRequest = new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(1)
+                .setUserId(7)
+                .setType(UpdateRequest.UpdateType.APPEND)
+                .setContent("x")
+                .setStartPosition(0)
+                .build();
+        evicted.setLastUpdate(new UpdateLog(updateRequest, LocalDateTime.now(), evicted));
+        CountDownLatch editing = new CountDownLatch(1);
+        this.executor.execute(1, () -> {
+            try {
+                editing.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        this.cache.get(2);
+        this.cache.get(3);
+        this.cache.get(4);
+
+        assertFalse(this.cache.getIfPresent(1).isPresent(), "least recently used document should be evicted");
+        assertNotNull(evicted.getLastUpdate(), "the log should be written after the edits queued before the eviction");
+        editing.countDown();
+        this.executor.execute(1, () -> { }).join();
+        assertNull(evicted.getLastUpdate(), "the evicted document should no longer hold its log");
+        assertEquals(1, this.updateLogWriter.getDepth(), "the log should be queued for saving");
+    }
+
+    @Test
+    @DisplayName("getIfPresent() weighs the content serialized for join replies")
+    void getIfPresent_ContentJsonHeld_Weighed() {
+        Document document = this.cache.get(1);
+        String contentJson = document.getContentJson();
+        this.cache.getIfPresent(1);
+
+        assertEquals(DOCUMENT_WEIGHT + 2L * contentJson.length(), this.cache.getWeight(),
+                "the serialized copy should be counted in the document's weight");
+    }
+
+    @Test
+    @DisplayName("getIfPresent() evicts when a cached document grew over the maximum weight")
+    void getIfPresent_DocumentGrew_Evicts() {
+        this.cache.get(1);
+        this.cache.get(2);
+        Document grown = this.cache.get(3);
+        grown.updateContent(new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(3)
+                .setUserId(7)
+                .setType(UpdateRequest.UpdateType.APPEND)
+                .setContent("x")
+                .setStartPosition(grown.getContentLength())
+                .build());
+
+        assertTrue(this.cache.getIfPresent(3).isPresent(), "the grown document was just used");
+        assertFalse(this.cache.getIfPresent(1).isPresent(), "least recently used document should be evicted");
+        assertTrue(this.cache.getWeight() <= 3 * DOCUMENT_WEIGHT, "the weight should be back under the maximum");
+    }
+
+    @Test
+    @DisplayName("get() drops the serialized content of an evicted document")
+    void get_OverMaxWeight_DropsContentJson() {
+        Document evicted = this.cache.get(1);
+        evicted.getContentJson();
+        this.cache.get(2);
+        this.cache.get(3);
+        this.cache.get(4);
+        this.executor.execute(1, () -> { }).join();
+
+        assertFalse(this.cache.getIfPresent(1).isPresent(), "least recently used document should be evicted");
+        assertEquals(0, evicted.getContentJsonLength(), "the evicted document should not hold the serialized copy");
+    }
+
+    @Test
+    @DisplayName("get() throws when the document does not exist")
+    void get_MissingDocument_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> this.cache.get(42),
+                "get() should throw for an unknown document");
+    }
+
+    private static Document createDocument(int id) throws ReflectiveOperationException {
+        Document document = new Document(new User(), 0, "title-" + id);
+        document.setContent(new String(new char[100]).replace('\0', 'a'));
+
+        Field idField = document.getClass().getSuperclass().getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.setInt(document, id);
+        return document;
+    }
+}
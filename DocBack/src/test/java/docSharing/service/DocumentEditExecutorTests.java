@@ -0,0 +1,142 @@
+package docSharing.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentEditExecutorTests {
+    private DocumentEditExecutor executor;
+
+    @BeforeEach
+    void beforeEach() {
+        this.executor = new DocumentEditExecutor(4);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("submit() runs tasks of one document in submission order")
+    void submit_SameDocument_RunsInOrder() {
+        int documentId = 1;
+        List<Integer> applied = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            int edit = i;
+            futures.add(this.executor.execute(documentId, () -> applied.add(edit)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for (int i = 0; i < applied.size(); i++) {
+            assertEquals(i, applied.get(i), "edits of one document should be applied in submission order");
+        }
+        assertEquals(10_000, applied.size(), "all edits should be applied");
+    }
+
+    @Test
+    @DisplayName("submit() runs tasks of different documents in parallel")
+    void submit_DifferentDocuments_RunInParallel() throws InterruptedException {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+
+        this.executor.execute(1, () -> awaitQuietly(bothRunning));
+        this.executor.execute(2, () -> awaitQuietly(bothRunning));
+
+        assertTrue(bothRunning.await(5, TimeUnit.SECONDS),
+                "a blocked document should not prevent another document's edits from running");
+    }
+
+    @Test
+    @DisplayName("submit() completes the future exceptionally when the task throws")
+    void submit_TaskThrows_CompletesExceptionally() {
+        CompletableFuture<Object> result = this.executor.submit(1, () -> {
+            throw new IllegalArgumentException("Unsupported update request type!");
+        });
+
+        assertThrows(Exception.class, result::join, "join() should rethrow the task's failure");
+        assertEquals("done", this.executor.submit(1, () -> "done").join(),
+                "a failed task should not block the document's mailbox");
+    }
+
+    @Test
+    @DisplayName("call() waits for the task and rethrows its failure")
+    void call_TaskThrows_Rethrown() {
+        assertEquals("done", this.executor.call(1, () -> "done"), "call() should return the task's result");
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> this.executor.call(1, () -> {
+            throw new IllegalStateException("failed");
+        }), "the task's own exception should be thrown");
+        assertEquals("failed", thrown.getMessage(), "the task's failure should not be wrapped");
+    }
+
+    @Test
+    @DisplayName("release() drops the mailbox once it is idle")
+    void release_AfterTasks_Dropped() {
+        this.executor.execute(1, () -> { }).join();
+
+        this.executor.release(1);
+
+        assertEquals(0, awaitSize(0), "idle mailbox should be dropped");
+    }
+
+    @Test
+    @DisplayName("release() from the document's own task drops the mailbox once it drains")
+    void release_FromOwnTask_DroppedAfterDrain() {
+        this.executor.execute(1, () -> this.executor.release(1)).join();
+
+        assertEquals(0, awaitSize(0), "mailbox should be dropped once its tasks ran");
+        assertEquals("done", this.executor.submit(1, () -> "done").join(),
+                "a released document should get a new mailbox");
+    }
+
+    @Test
+    @DisplayName("release() keeps the mailbox when a task is submitted after it")
+    void release_TaskSubmittedAfter_Kept() throws InterruptedException {
+        CountDownLatch released = new CountDownLatch(1);
+        // Counted down by the first task and by the test, once the later task is submitted.
+        CountDownLatch submitted = new CountDownLatch(2);
+        this.executor.execute(1, () -> {
+            this.executor.release(1);
+            released.countDown();
+            awaitQuietly(submitted);
+        });
+        assertTrue(released.await(5, TimeUnit.SECONDS), "first task should run");
+        CompletableFuture<Void> later = this.executor.execute(1, () -> { });
+        submitted.countDown();
+        later.join();
+
+        assertEquals(1, this.executor.size(), "mailbox should be kept for the later task");
+    }
+
+    /**
+     * Mailboxes are dropped by the worker after the drain that completed the last future, so this waits for it.
+     * @return the number of mailboxes, once it is expected or after a timeout
+     */
+    private int awaitSize(int expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.executor.size() != expected && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        return this.executor.size();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        latch.countDown();
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Load test for DocumentEditExecutor: hundreds of documents edited by concurrent editors.
+ * Reports throughput and p99 latency from submission until the edit was applied,
+ * and verifies that no edit was lost.
+ * Run manually: mvn test-compile exec:java -Dexec.classpathScope=test
+ *                   -Dexec.mainClass=docSharing.service.DocumentEditLoadTest
+ */
+public class DocumentEditLoadTest {
+    private static final int DOCUMENTS = 500;
+    private static final int EDITORS = 64;
+    private static final int EDITS_PER_EDITOR = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        DocumentEditExecutor executor = new DocumentEditExecutor(0);
+        Document[] documents = new Document[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            documents[i] = new Document(new User(), 0, "load-" + i);
+        }
+
+        ExecutorService editors = Executors.newFixedThreadPool(EDITORS);
+        long[][] latencies = new long[EDITORS][EDITS_PER_EDITOR];
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        for (int editor = 0; editor < EDITORS; editor++) {
+            int editorId = editor;
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            pending.add(done);
+
+            // Closed loop: like a typist, every editor waits for its edit to be applied before the next one.
+            editors.execute(() -> {
+                Random random = new Random(editorId);
+                awaitStart(start);
+
+                for (int i = 0; i < EDITS_PER_EDITOR; i++) {
+                    int documentIndex = random.nextInt(DOCUMENTS);
+                    int editIndex = i;
+                    long submitted = System.nanoTime();
+
+                    executor.execute(documentIndex, () -> {
+                        Document document = documents[documentIndex];
+                        document.updateContent(append(document, editorId));
+                        latencies[editorId][editIndex] = System.nanoTime() - submitted;
+                    }).join();
+                }
+
+                done.complete(null);
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        editors.shutdown();
+        executor.shutdown();
+        report(documents, latencies, seconds);
+    }
+
+    private static UpdateRequest append(Document document, int userId) {
+        return new UpdateRequest.UpdateRequestBuilder()
+                .setUserId(userId).setType(UpdateRequest.UpdateType.APPEND).setContent("x")
+                .setStartPosition(document.getContentLength())
+                .setEndPosition(document.getContentLength() + 1).build();
+    }
+
+    private static void report(Document[] documents, long[][] latencies, double seconds) {
+        long applied = 0;
+        for (Document document : documents) {
+            applied += document.getContentLength();
+        }
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        long expected = (long) EDITORS * EDITS_PER_EDITOR;
+
+        System.out.printf("documents=%d editors=%d edits=%d applied=%d%n", DOCUMENTS, EDITORS, expected, applied);
+        System.out.printf("throughput: %.0f edits/sec%n", expected / seconds);
+        System.out.printf("apply latency p50=%.1fus p99=%.1fus max=%.1fus%n",
+                all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3, all[all.length - 1] / 1e3);
+
+        if (applied != expected) {
+            throw new IllegalStateException("Lost edits: expected " + expected + " but applied " + applied);
+        }
+    }
+
+    private static void awaitStart(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.DTO.DocumentDiffDTO;
+import docSharing.entities.DTO.DocumentVersionDTO;
+import docSharing.entities.User;
+import docSharing.entities.file.Content;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.QueryCountHarness;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentHistoryTests {
+    private static final int CHECKPOINT_INTERVAL = 50;
+    private static final int EDITS = 400;
+
+    private QueryCountHarness harness;
+    private DocumentFlushService flushService;
+    private DocumentCache cache;
+    private DocumentHistoryService historyService;
+    private int documentId;
+    // versions.get(r) is the content at revision r.
+    private List<String> versions;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.harness = new QueryCountHarness(OperationLog.class, DocumentCheckpoint.class, Folder.class,
+                FolderEntry.class);
+
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User owner = new User("owner", "owner@mail.com", "password");
+            session.persist(owner);
+
+            Document document = new Document(owner, 0, "title");
+            session.persist(document);
+            session.getTransaction().commit();
+
+            this.documentId = document.getId();
+        }
+
+        DocumentRepository documentRepository = this.harness.repository(DocumentRepository.class);
+        OperationLogRepository operationLogRepository = this.harness.repository(OperationLogRepository.class);
+        DocumentCheckpointRepository checkpointRepository = this.harness.repository(DocumentCheckpointRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        this.flushService = new DocumentFlushService(documentRepository, this.harness.repository(ContentRepository.class),
+                operationLogRepository, checkpointRepository, new FolderTree(this.harness.repository(
+                        FolderEntryRepository.class), this.harness.repository(FolderRepository.class), 16), meterRegistry,
+                Long.MAX_VALUE, 1, CHECKPOINT_INTERVAL, Long.MAX_VALUE, 0);
+        this.cache = new DocumentCache(documentRepository, operationLogRepository, this.flushService,
+                new PresenceService(null, null), null, null, meterRegistry, Long.MAX_VALUE);
+
+        Constructor<DocumentHistoryService> constructor = DocumentHistoryService.class.getDeclaredConstructor(
+                DocumentCheckpointRepository.class, OperationLogRepository.class, DocumentFlushService.class);
+        constructor.setAccessible(true);
+        this.historyService = constructor.newInstance(checkpointRepository, operationLogRepository, this.flushService);
+
+        Random random = new Random(5);
+        this.versions = new ArrayList<>();
+        this.versions.add("");
+        for (int i = 1; i <= EDITS; i++) {
+            this.versions.add(edit(random));
+            if (i % 30 == 0) {
+                this.flushService.flushAll();
+            }
+        }
+    }
+
+    @AfterEach
+    void afterEach() {
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("getVersion() rebuilds the content of every revision, flushed or not")
+    void getVersion_AnyRevision_MatchesContent() {
+        for (int revision = 0; revision <= EDITS; revision += 7) {
+            DocumentVersionDTO version = this.historyService.getVersion(this.documentId, revision);
+
+            assertEquals(revision, version.getRevision(), "version should be at the requested revision");
+            assertEquals(this.versions.get(revision), version.getContent(), "content at revision " + revision);
+        }
+
+        assertEquals(this.versions.get(EDITS), this.historyService.getVersion(this.documentId, EDITS).getContent(),
+                "latest revision should include unflushed edits");
+    }
+
+    @Test
+    @DisplayName("getVersion() reads one checkpoint and at most a checkpoint interval of operations")
+    void getVersion_LateRevision_BoundedReplay() {
+        this.historyService.getVersion(this.documentId, EDITS);
+        this.harness.reset();
+
+        DocumentVersionDTO version = this.historyService.getVersion(this.documentId, EDITS - 1);
+
+        assertEquals(this.versions.get(EDITS - 1), version.getContent(), "content should match");
+        assertEquals(2, this.harness.getStatements().size(), "a checkpoint query and an operations query");
+        assertTrue(this.harness.getBytesRead() < 4 * CHECKPOINT_INTERVAL * 10 + 1000,
+                "only the operations after the nearest checkpoint should be read");
+    }
+
+    @Test
+    @DisplayName("getDiff() returns the operations that turn one revision into the other")
+    void getDiff_Range_ReplaysToTarget() {
+        DocumentDiffDTO diff = this.historyService.getDiff(this.documentId, 100, 180);
+        DocumentCheckpoint from = new DocumentCheckpoint(this.documentId,
+                new Content.Snapshot(this.versions.get(100), 100), null);
+
+        assertEquals(80, diff.getOperations().size(), "every revision in the range should be returned");
+        assertEquals(this.versions.get(180), from.replay(diff.getOperations()).getText(),
+                "replaying the diff should give the target revision");
+    }
+
+    @Test
+    @DisplayName("getVersion() of a revision that does not exist fails")
+    void getVersion_FutureRevision_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> this.historyService.getVersion(this.documentId, EDITS + 1),
+                "revision after the latest should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> this.historyService.getDiff(this.documentId, 10, 5),
+                "reversed range should be rejected");
+    }
+
+    /**
+     * Applies a random insert, delete or replace, the way DocumentService.update() does.
+     * @return the content after the edit
+     */
+    private String edit(Random random) {
+        Document document = this.cache.get(this.documentId);
+        int length = document.getContentLength();
+        int start = random.nextInt(length + 1);
+        int end = start + random.nextInt(Math.min(10, length - start) + 1);
+
+        UpdateRequest.UpdateRequestBuilder builder = new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(this.documentId)
+                .setUserId(1)
+                .setStartPosition(start)
+                .setEndPosition(end);
+        if (length < 100 || random.nextBoolean() && length < 190) {
+            builder.setType(UpdateRequest.UpdateType.APPEND_RANGE).setContent("abcdefgh".substring(random.nextInt(8)));
+        } else {
+            builder.setType(UpdateRequest.UpdateType.DELETE_RANGE);
+        }
+
+        UpdateRequest updateRequest = builder.build();
+        document.updateContent(updateRequest);
+        this.flushService.markDirty(document, Collections.singletonList(OperationLog.of(this.documentId, updateRequest)));
+        return document.getContent();
+    }
+}
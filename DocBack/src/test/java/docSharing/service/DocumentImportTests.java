@@ -0,0 +1,199 @@
+package docSharing.service;
+
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.QueryCountHarness;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentImportTests {
+    // Small enough to split the multi-byte characters between chunks.
+    private static final int CHUNK_BYTES = 7;
+    private static final int FLUSH_CHARS = 40;
+    private static final String TEXT = "Gr\u00fc\u00dfe aus K\u00f6ln \u2713 na\u00efve caf\u00e9, ";
+
+    private QueryCountHarness harness;
+    private SimpleMeterRegistry meterRegistry;
+    private DocumentFlushService flushService;
+    private DocumentCache cache;
+    private DocumentEditExecutor executor;
+    private DocumentImportService importService;
+    private int documentId;
+
+    @BeforeEach
+    void beforeEach() {
+        this.harness = new QueryCountHarness(OperationLog.class, DocumentCheckpoint.class, Folder.class,
+                FolderEntry.class);
+
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User owner = new User("owner", "owner@mail.com", "password");
+            session.persist(owner);
+
+            Document document = new Document(owner, 0, "title");
+            session.persist(document);
+            session.getTransaction().commit();
+
+            this.documentId = document.getId();
+        }
+
+        this.executor = new DocumentEditExecutor(1);
+        restart();
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("importContent() appends the decoded text in chunks and flushes them as operations")
+    void importContent_MultiByteText_AppendedAndFlushed() throws Exception {
+        String text = TEXT + TEXT + TEXT + TEXT;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        this.importService.importContent(this.documentId, 1, channel(bytes), StandardCharsets.UTF_8);
+
+        Document document = this.cache.get(this.documentId);
+        assertEquals(text, document.getContent(), "content should be the decoded file");
+        assertTrue(document.getRevision() >= bytes.length / CHUNK_BYTES, "every chunk should be its own operation");
+        assertEquals(bytes.length, this.meterRegistry.counter("documents.import.bytes").count(),
+                "every byte read should be counted");
+        assertEquals(0, this.meterRegistry.get("documents.dirty.bytes").gauge().value(),
+                "all operations should be flushed");
+        assertTrue(this.harness.getStatements().stream()
+                .filter(sql -> sql.startsWith("insert into \"documents_operation_logs\"")).count() > 1,
+                "operations should be flushed in several batches");
+
+        int revision = document.getRevision();
+        restart();
+        Document recovered = this.cache.get(this.documentId);
+
+        assertEquals(text, recovered.getContent(), "imported content should be recovered from the database");
+        assertEquals(revision, recovered.getRevision(), "revision should be the last chunk's");
+    }
+
+    @Test
+    @DisplayName("importContent() appends the chunks in the document's mailbox, after the edits queued before them")
+    void importContent_MailboxBusy_AppliedInMailbox() throws Exception {
+        String text = TEXT + TEXT;
+        CountDownLatch editing = new CountDownLatch(1);
+        this.executor.execute(this.documentId, () -> {
+            try {
+                editing.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        CompletableFuture<Void> imported = CompletableFuture.runAsync(() -> {
+            try {
+                this.importService.importContent(this.documentId, 1,
+                        channel(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        assertThrows(TimeoutException.class, () -> imported.get(200, TimeUnit.MILLISECONDS),
+                "the import should wait for its chunks to be applied");
+        assertEquals("", this.cache.get(this.documentId).getContent(),
+                "no chunk should be applied while the mailbox is busy");
+
+        editing.countDown();
+        imported.get(10, TimeUnit.SECONDS);
+
+        assertEquals(text, this.cache.get(this.documentId).getContent(), "content should be the decoded file");
+    }
+
+    @Test
+    @DisplayName("importContent() stores content longer than a VARCHAR column")
+    void importContent_LongText_Recovered() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= 4096) {
+            text.append(TEXT);
+        }
+
+        this.importService.importContent(this.documentId, 1,
+                channel(text.toString().getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        restart();
+
+        assertEquals(text.toString(), this.cache.get(this.documentId).getContent(),
+                "long content should be recovered from the database");
+    }
+
+    @Test
+    @DisplayName("importContent() rejects bytes that are not valid in the charset")
+    void importContent_MalformedInput_Throws() {
+        byte[] bytes = {'a', 'b', (byte) 0xC3, '(', 'c'};
+
+        assertThrows(CharacterCodingException.class, () -> this.importService.importContent(this.documentId, 1,
+                channel(bytes), StandardCharsets.UTF_8), "malformed input should fail the import");
+        assertEquals(1, this.meterRegistry.counter("documents.import.failures").count(), "failure should be counted");
+        assertEquals(0, this.meterRegistry.get("documents.import.active").gauge().value(),
+                "failed import should no longer be active");
+    }
+
+    @Test
+    @DisplayName("importContent() of an empty file leaves the document empty")
+    void importContent_EmptyFile_NoOperations() throws Exception {
+        this.importService.importContent(this.documentId, 1, channel(new byte[0]), StandardCharsets.UTF_8);
+
+        Document document = this.cache.get(this.documentId);
+        assertEquals("", document.getContent(), "content should be empty");
+        assertEquals(0, document.getRevision(), "no operation should be applied");
+        assertEquals(1, this.meterRegistry.counter("documents.imports").count(), "import should be counted");
+    }
+
+    /**
+     * Drops everything held in memory and starts over from the database.
+     */
+    private void restart() {
+        DocumentRepository documentRepository = this.harness.repository(DocumentRepository.class);
+        OperationLogRepository operationLogRepository = this.harness.repository(OperationLogRepository.class);
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.flushService = new DocumentFlushService(documentRepository,
+                this.harness.repository(ContentRepository.class), operationLogRepository,
+                this.harness.repository(DocumentCheckpointRepository.class), new FolderTree(this.harness.repository(
+                        FolderEntryRepository.class), this.harness.repository(FolderRepository.class), 16), this.meterRegistry,
+                Long.MAX_VALUE, 1, 1000, Long.MAX_VALUE, 0);
+        this.cache = new DocumentCache(documentRepository, operationLogRepository, this.flushService,
+                new PresenceService(null, null), null, null, this.meterRegistry, Long.MAX_VALUE);
+        this.importService = new DocumentImportService(null, this.cache, this.flushService,
+                new DocumentRouter("", "", 128), this.executor, this.meterRegistry, CHUNK_BYTES, FLUSH_CHARS);
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
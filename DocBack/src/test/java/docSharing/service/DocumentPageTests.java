@@ -0,0 +1,183 @@
+package docSharing.service;
+
+import docSharing.entities.DTO.DocumentPageDTO;
+import docSharing.entities.DTO.DocumentSummaryDTO;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentSort;
+import docSharing.entities.file.Folder;
+import docSharing.entities.permission.Authorization;
+import docSharing.entities.permission.Permission;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.PermissionRepository;
+import docSharing.repository.QueryCountHarness;
+import docSharing.repository.UpdateLogRepository;
+import docSharing.repository.UserRepository;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentPageTests {
+    private static final int PAGE_SIZE = 2;
+    private static final LocalDateTime NOW = LocalDateTime.of(2022, 9, 1, 12, 0);
+    // title and minutes before NOW of the user's documents: equal titles and equal lastUpdated must tie-break by id.
+    private static final String[] TITLES = {"b", "a", "b", "c", "a", "b", "d"};
+    private static final int[] MINUTES_AGO = {5, 1, 1, 1, 0, 1, 3};
+
+    private QueryCountHarness harness;
+    private DocumentService documentService;
+    private int userId;
+    private List<Document> documents;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void beforeEach() throws ReflectiveOperationException {
+        this.harness = new QueryCountHarness(Folder.class);
+        this.documents = new ArrayList<>();
+
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User user = new User("user", "user@mail.com", "password");
+            session.persist(user);
+            User other = new User("other", "other@mail.com", "password");
+            session.persist(other);
+
+            for (int i = 0; i < TITLES.length; i++) {
+                Document document = new Document(i % 2 == 0 ? user : other, 0, TITLES[i]);
+                document.getMetadata().setLastUpdated(NOW.minusMinutes(MINUTES_AGO[i]));
+                session.persist(document);
+                session.persist(new Authorization(document, user, i % 2 == 0 ? Permission.OWNER : Permission.VIEWER));
+                this.documents.add(document);
+            }
+
+            Document notShared = new Document(other, 0, "a");
+            session.persist(notShared);
+            session.persist(new Authorization(notShared, other, Permission.OWNER));
+            session.getTransaction().commit();
+
+            this.userId = user.getId();
+        }
+
+        Constructor<DocumentService> constructor = (Constructor<DocumentService>) DocumentService.class
+                .getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        this.documentService = constructor.newInstance(this.harness.repository(DocumentRepository.class), null,
+                this.harness.repository(UserRepository.class), this.harness.repository(PermissionRepository.class),
+                this.harness.repository(UpdateLogRepository.class), null, null,
+                this.harness.repository(OperationLogRepository.class),
+                this.harness.repository(DocumentCheckpointRepository.class), null, null, null, null, null,
+                new FolderPathIndex(this.harness.repository(FolderRepository.class)), 256);
+    }
+
+    @AfterEach
+    void afterEach() {
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() by id pages through every shared document once, in id order")
+    void getDocumentsPageByUser_ById_EveryDocumentOnce() {
+        assertPages(DocumentSort.ID, Comparator.comparingInt(Document::getId));
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() by title breaks ties between equal titles by id")
+    void getDocumentsPageByUser_ByTitleWithEqualTitles_TiesById() {
+        assertPages(DocumentSort.TITLE, Comparator.comparing((Document document) -> document.getMetadata().getTitle())
+                .thenComparingInt(Document::getId));
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() by lastUpdated breaks ties between equal timestamps by id")
+    void getDocumentsPageByUser_ByLastUpdatedWithEqualTimestamps_TiesById() {
+        assertPages(DocumentSort.LAST_UPDATED, Comparator.comparing(
+                (Document document) -> document.getMetadata().getLastUpdated()).reversed()
+                .thenComparingInt(Document::getId));
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() by lastUpdated lists the documents without lastUpdated last, by id")
+    void getDocumentsPageByUser_ByLastUpdatedWithNullTimestamps_NullsLast() {
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            for (int i : new int[]{1, 2, 5}) {
+                Document document = session.get(Document.class, this.documents.get(i).getId());
+                document.getMetadata().setLastUpdated(null);
+                this.documents.get(i).getMetadata().setLastUpdated(null);
+            }
+            session.getTransaction().commit();
+        }
+
+        assertPages(DocumentSort.LAST_UPDATED, Comparator.comparing(
+                (Document document) -> document.getMetadata().getLastUpdated(),
+                Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder()))
+                .thenComparingInt(Document::getId));
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() rejects a cursor of another sort or one that was tampered with")
+    void getDocumentsPageByUser_InvalidCursor_Throws() {
+        String titleCursor = this.documentService.getDocumentsPageByUser(this.userId, DocumentSort.TITLE, null,
+                PAGE_SIZE).getNextCursor();
+        String tampered = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("LAST_UPDATED:1:yesterday".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> this.documentService.getDocumentsPageByUser(this.userId,
+                DocumentSort.LAST_UPDATED, titleCursor, PAGE_SIZE), "a title cursor has no lastUpdated");
+        assertThrows(IllegalArgumentException.class, () -> this.documentService.getDocumentsPageByUser(this.userId,
+                DocumentSort.LAST_UPDATED, tampered, PAGE_SIZE), "the cursor's lastUpdated is not a timestamp");
+        assertThrows(IllegalArgumentException.class, () -> this.documentService.getDocumentsPageByUser(this.userId,
+                DocumentSort.ID, "not a cursor", PAGE_SIZE), "the cursor is not Base64");
+    }
+
+    @Test
+    @DisplayName("getDocumentsPageByUser() rejects a page size that is not positive")
+    void getDocumentsPageByUser_ZeroSize_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> this.documentService.getDocumentsPageByUser(this.userId,
+                DocumentSort.ID, null, 0), "a page must hold at least one document");
+    }
+
+    /**
+     * Reads all pages of sort, following nextCursor, and checks them against the seeded documents in order.
+     */
+    private void assertPages(DocumentSort sort, Comparator<Document> order) {
+        List<Integer> expected = this.documents.stream().sorted(order).map(Document::getId)
+                .collect(Collectors.toList());
+
+        List<Integer> listed = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            this.harness.reset();
+            DocumentPageDTO page = this.documentService.getDocumentsPageByUser(this.userId, sort, cursor, PAGE_SIZE);
+
+            assertEquals(1, this.harness.countReadsFrom("authorized_users"), "every page should be one query");
+            assertTrue(page.getDocuments().size() <= PAGE_SIZE, "a page should not exceed the requested size");
+            for (DocumentSummaryDTO document : page.getDocuments()) {
+                listed.add(document.getDocumentId());
+            }
+
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null && pages <= expected.size());
+
+        assertEquals(expected, listed, String.format("pages by %s should list every document once, in order", sort));
+        assertEquals((expected.size() + PAGE_SIZE - 1) / PAGE_SIZE, pages, "the last page should have no cursor");
+    }
+}
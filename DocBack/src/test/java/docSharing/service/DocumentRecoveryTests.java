@@ -0,0 +1,254 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.QueryCountHarness;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentRecoveryTests {
+    // The content column is a plain VARCHAR, the random edits keep the content below its length.
+    private static final int MAX_LENGTH = 200;
+    private static final int SNAPSHOT_MAX_OPERATIONS = 40;
+
+    private QueryCountHarness harness;
+    private SimpleMeterRegistry meterRegistry;
+    private DocumentFlushService flushService;
+    private DocumentCache cache;
+    private int documentId;
+
+    @BeforeEach
+    void beforeEach() {
+        this.harness = new QueryCountHarness(OperationLog.class, DocumentCheckpoint.class, Folder.class,
+                FolderEntry.class);
+
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User owner = new User("owner", "owner@mail.com", "password");
+            session.persist(owner);
+
+            Document document = new Document(owner, 0, "title");
+            session.persist(document);
+            session.getTransaction().commit();
+
+            this.documentId = document.getId();
+        }
+
+        restart();
+    }
+
+    @AfterEach
+    void afterEach() {
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("shutdown() removes the memory pressure listener from the platform MXBean")
+    void shutdown_MemoryPressureListener_Removed() throws ReflectiveOperationException {
+        invoke("registerMemoryPressureListener");
+        Field field = DocumentFlushService.class.getDeclaredField("memoryPressureListener");
+        field.setAccessible(true);
+        NotificationListener listener = (NotificationListener) field.get(this.flushService);
+        assertNotNull(listener, "a listener should be registered");
+
+        invoke("shutdown");
+
+        assertThrows(ListenerNotFoundException.class, () -> ((NotificationEmitter) ManagementFactory
+                .getMemoryMXBean()).removeNotificationListener(listener),
+                "the listener should no longer keep the service reachable");
+    }
+
+    @Test
+    @DisplayName("get() after a crash recovers the content and revision of the last flush")
+    void get_AfterCrash_RecoversLastFlush() {
+        Random random = new Random(13);
+        String flushedContent = "";
+        int flushedRevision = 0;
+
+        for (int i = 1; i <= 500; i++) {
+            edit(random);
+            if (i % 25 == 0) {
+                this.flushService.flushAll();
+                Document document = this.cache.get(this.documentId);
+                flushedContent = document.getContent();
+                flushedRevision = document.getRevision();
+            }
+        }
+        for (int i = 0; i < 7; i++) {
+            edit(random);
+        }
+
+        assertTrue(this.meterRegistry.counter("documents.snapshots").count() > 0, "snapshots should be taken");
+        restart();
+        Document recovered = this.cache.get(this.documentId);
+
+        assertEquals(flushedContent, recovered.getContent(), "content should match the last flush");
+        assertEquals(flushedRevision, recovered.getRevision(), "revision should match the last flush");
+    }
+
+    @Test
+    @DisplayName("flushAll() below the snapshot thresholds only appends operations")
+    void flushAll_BelowThresholds_ContentNotWritten() {
+        Random random = new Random(7);
+        for (int i = 0; i < SNAPSHOT_MAX_OPERATIONS - 1; i++) {
+            edit(random);
+        }
+
+        this.harness.reset();
+        this.flushService.flushAll();
+
+        assertEquals(0, this.meterRegistry.counter("documents.snapshots").count(), "no snapshot should be taken");
+        assertTrue(this.harness.getStatements().stream().noneMatch(sql -> sql.contains("update \"content\"")),
+                "content should not be written");
+        assertEquals(SNAPSHOT_MAX_OPERATIONS - 1, this.harness.getStatements().stream()
+                .filter(sql -> sql.startsWith("insert into \"documents_operation_logs\"")).count(),
+                "every operation should be appended to the log");
+    }
+
+    @Test
+    @DisplayName("get() replays only the operations logged after the snapshot")
+    void get_AfterSnapshot_ReplaysNewerOperations() {
+        Random random = new Random(21);
+        for (int i = 0; i < SNAPSHOT_MAX_OPERATIONS; i++) {
+            edit(random);
+        }
+        this.flushService.flushAll();
+        for (int i = 0; i < 5; i++) {
+            edit(random);
+        }
+        this.flushService.flushAll();
+        String expected = this.cache.get(this.documentId).getContent();
+
+        restart();
+        Document recovered = this.cache.get(this.documentId);
+
+        assertEquals(SNAPSHOT_MAX_OPERATIONS, recovered.getSnapshotRevision(), "snapshot should be loaded");
+        assertEquals(5, recovered.getLoggedOperations(), "only newer operations should be replayed");
+        assertEquals(expected, recovered.getContent(), "content should be the snapshot with the replayed operations");
+        assertEquals(SNAPSHOT_MAX_OPERATIONS + 5, recovered.getRevision(), "revision should be the last operation's");
+    }
+
+    @Test
+    @DisplayName("flushAll() keeps the document dirty while its operations are written and after the write failed")
+    void flushAll_DuringAndAfterFailedWrite_DocumentStaysDirty() {
+        OperationLogRepository harnessRepository = this.harness.repository(OperationLogRepository.class);
+        List<Boolean> dirtyDuringWrite = new ArrayList<>();
+        boolean[] failing = {true};
+        restart((OperationLogRepository) Proxy.newProxyInstance(OperationLogRepository.class.getClassLoader(),
+                new Class[]{OperationLogRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("saveAll")) {
+                        dirtyDuringWrite.add(this.flushService.isDirty(this.documentId));
+                        if (failing[0]) {
+                            throw new IllegalStateException("database unavailable");
+                        }
+                    }
+                    try {
+                        return method.invoke(harnessRepository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+        Random random = new Random(3);
+        edit(random);
+
+        this.flushService.flushAll();
+        assertTrue(this.flushService.isDirty(this.documentId), "the failed operations should still be unsaved");
+
+        failing[0] = false;
+        this.flushService.flushAll();
+        assertFalse(this.flushService.isDirty(this.documentId), "the document should be clean once saved");
+        assertEquals(Arrays.asList(true, true), dirtyDuringWrite,
+                "the document should count as dirty while its operations are written");
+    }
+
+    /**
+     * Drops everything held in memory, as if the server crashed, and starts over from the database.
+     */
+    private void invoke(String method) throws ReflectiveOperationException {
+        Method declared = DocumentFlushService.class.getDeclaredMethod(method);
+        declared.setAccessible(true);
+        declared.invoke(this.flushService);
+    }
+
+    private void restart() {
+        restart(this.harness.repository(OperationLogRepository.class));
+    }
+
+    private void restart(OperationLogRepository operationLogRepository) {
+        DocumentRepository documentRepository = this.harness.repository(DocumentRepository.class);
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.flushService = new DocumentFlushService(documentRepository,
+                this.harness.repository(ContentRepository.class), operationLogRepository,
+                this.harness.repository(DocumentCheckpointRepository.class), new FolderTree(this.harness.repository(
+                        FolderEntryRepository.class), this.harness.repository(FolderRepository.class), 16), this.meterRegistry,
+                Long.MAX_VALUE, 1, SNAPSHOT_MAX_OPERATIONS, Long.MAX_VALUE, 0);
+        this.cache = new DocumentCache(documentRepository, operationLogRepository, this.flushService,
+                new PresenceService(null, null), null, null, this.meterRegistry, Long.MAX_VALUE);
+    }
+
+    /**
+     * Applies a random insert, delete or replace, the way DocumentService.update() does.
+     */
+    private void edit(Random random) {
+        Document document = this.cache.get(this.documentId);
+        int length = document.getContentLength();
+        int start = random.nextInt(length + 1);
+        int end = start + random.nextInt(Math.min(10, length - start) + 1);
+
+        UpdateRequest.UpdateRequestBuilder builder = new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(this.documentId)
+                .setUserId(1)
+                .setStartPosition(start)
+                .setEndPosition(end);
+        if (length < MAX_LENGTH / 2 || random.nextBoolean() && length < MAX_LENGTH - 10) {
+            builder.setType(UpdateRequest.UpdateType.APPEND_RANGE).setContent(randomText(random));
+        } else {
+            builder.setType(UpdateRequest.UpdateType.DELETE_RANGE);
+        }
+
+        UpdateRequest updateRequest = builder.build();
+        document.updateContent(updateRequest);
+        this.flushService.markDirty(document, Collections.singletonList(OperationLog.of(this.documentId, updateRequest)));
+    }
+
+    private static String randomText(Random random) {
+        char[] text = new char[1 + random.nextInt(8)];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+
+        return new String(text);
+    }
+}
@@ -0,0 +1,100 @@
+package docSharing.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentRouterTests {
+    private static final String THREE_NODES = "a=http://a:8080,b=http://b:8080,c=http://c:8080";
+    private static final int DOCUMENTS = 3000;
+
+    @Test
+    @DisplayName("isLocal() is true for every document without cluster nodes")
+    void isLocal_NoNodes_AllLocal() {
+        DocumentRouter router = new DocumentRouter("", "", 128);
+
+        assertFalse(router.isEnabled(), "affinity should be disabled");
+        assertTrue(router.isLocal(42), "every document should be local");
+        assertNull(router.getAddress(42), "clients should stay on this node");
+    }
+
+    @Test
+    @DisplayName("getOwner() gives every document exactly one owner, the same on every node")
+    void getOwner_ThreeNodes_OneOwnerPerDocument() {
+        DocumentRouter[] nodes = {
+                new DocumentRouter("a", THREE_NODES, 128),
+                new DocumentRouter("b", THREE_NODES, 128),
+                new DocumentRouter("c", THREE_NODES, 128)
+        };
+        Map<String, Integer> owned = new HashMap<>();
+
+        for (int documentId = 1; documentId <= DOCUMENTS; documentId++) {
+            int localOn = 0;
+            for (DocumentRouter node : nodes) {
+                localOn += node.isLocal(documentId) ? 1 : 0;
+                assertEquals(nodes[0].getOwner(documentId), node.getOwner(documentId), "nodes should agree on owners");
+            }
+            assertEquals(1, localOn, "document #" + documentId + " should be local on one node");
+            owned.merge(nodes[0].getOwner(documentId), 1, Integer::sum);
+        }
+
+        for (int count : owned.values()) {
+            assertTrue(count > DOCUMENTS / 6, "documents should be spread over the nodes: " + owned);
+        }
+        assertEquals("http://b:8080", nodes[0].getAddress(firstOwnedBy(nodes[0], "b")),
+                "the owner's address should be returned");
+    }
+
+    @Test
+    @DisplayName("getOwner() after adding a node only moves documents to the new node")
+    void getOwner_NodeAdded_OnlyNewNodeTakesDocuments() {
+        DocumentRouter before = new DocumentRouter("a", THREE_NODES, 128);
+        DocumentRouter after = new DocumentRouter("a", THREE_NODES + ",d=http://d:8080", 128);
+
+        int moved = 0;
+        for (int documentId = 1; documentId <= DOCUMENTS; documentId++) {
+            if (!before.getOwner(documentId).equals(after.getOwner(documentId))) {
+                assertEquals("d", after.getOwner(documentId), "documents should only move to the new node");
+                moved++;
+            }
+        }
+
+        assertTrue(moved < DOCUMENTS / 2, "only about a quarter of the documents should move: " + moved);
+    }
+
+    @Test
+    @DisplayName("checkLocal() rejects documents owned by another node")
+    void checkLocal_DocumentOfAnotherNode_Throws() {
+        DocumentRouter router = new DocumentRouter("a", THREE_NODES, 128);
+        int local = firstOwnedBy(router, "a");
+        int remote = firstOwnedBy(router, "b");
+
+        assertDoesNotThrow(() -> router.checkLocal(Collections.singleton(local)), "a local document should pass");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> router.checkLocal(Arrays.asList(local, remote)), "a document of another node should be rejected");
+        assertTrue(e.getMessage().contains("http://b:8080"), "the owner's address should be named");
+    }
+
+    @Test
+    @DisplayName("the constructor rejects a node id that is not in the cluster")
+    void constructor_UnknownNode_Throws() {
+        assertThrows(IllegalArgumentException.class, () -> new DocumentRouter("x", THREE_NODES, 128),
+                "unknown node should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> new DocumentRouter("a", "a:8080", 128),
+                "nodes without an id should be rejected");
+    }
+
+    private static int firstOwnedBy(DocumentRouter router, String node) {
+        for (int documentId = 1; ; documentId++) {
+            if (router.getOwner(documentId).equals(node)) {
+                return documentId;
+            }
+        }
+    }
+}
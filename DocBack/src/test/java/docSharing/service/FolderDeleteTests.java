@@ -0,0 +1,338 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Content;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.entities.file.UpdateLog;
+import docSharing.entities.permission.Authorization;
+import docSharing.entities.permission.Permission;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.PermissionRepository;
+import docSharing.repository.QueryCountHarness;
+import docSharing.repository.UpdateLogRepository;
+import docSharing.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Constructor;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderDeleteTests {
+    private static final int BATCH_SIZE = 100;
+    private static final String[] TABLES = {"document", "Content", "metadata", "folder", "folder_entries",
+            "authorized_users", "documents_update_logs", "documents_operation_logs", "documents_checkpoints"};
+    private static final String TWO_NODES = "a=http://a:8080,b=http://b:8080";
+
+    private QueryCountHarness harness;
+    private User owner;
+    private PermissionCache permissionCache;
+    private PermissionService permissionService;
+    private DocumentFlushService flushService;
+    private DocumentEditExecutor executor;
+    private DocumentCache documentCache;
+    private UpdateLogWriter updateLogWriter;
+    private FolderPathIndex folderPathIndex;
+    private FolderTree folderTree;
+    private FolderService folderService;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.harness = new QueryCountHarness(Folder.class, FolderEntry.class, UpdateLog.class, OperationLog.class,
+                DocumentCheckpoint.class);
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            this.owner = new User("owner", "owner@mail.com", "password");
+            session.persist(this.owner);
+            session.getTransaction().commit();
+        }
+
+        DocumentRepository documentRepository = this.harness.repository(DocumentRepository.class);
+        FolderRepository folderRepository = this.harness.repository(FolderRepository.class);
+        OperationLogRepository operationLogRepository = this.harness.repository(OperationLogRepository.class);
+        UpdateLogRepository updateLogRepository = this.harness.repository(UpdateLogRepository.class);
+        DocumentCheckpointRepository checkpointRepository = this.harness.repository(DocumentCheckpointRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        this.permissionCache = new PermissionCache(meterRegistry);
+        Constructor<PermissionService> permissionServiceConstructor = PermissionService.class.getDeclaredConstructor(
+                PermissionRepository.class, UserRepository.class, DocumentRepository.class, PermissionCache.class);
+        permissionServiceConstructor.setAccessible(true);
+        this.permissionService = permissionServiceConstructor.newInstance(
+                this.harness.repository(PermissionRepository.class), null, documentRepository, this.permissionCache);
+        this.folderTree = new FolderTree(this.harness.repository(FolderEntryRepository.class), folderRepository, 16);
+        this.flushService = new DocumentFlushService(documentRepository,
+                this.harness.repository(ContentRepository.class), operationLogRepository, checkpointRepository,
+                this.folderTree, meterRegistry, Long.MAX_VALUE, 1, 1000, Long.MAX_VALUE, 0);
+        this.executor = new DocumentEditExecutor(1);
+        // The batch size is above the capacity, so writes never start an asynchronous drain.
+        this.updateLogWriter = new UpdateLogWriter(updateLogRepository, meterRegistry, 100, 101, 1);
+        this.documentCache = new DocumentCache(documentRepository, operationLogRepository, this.flushService,
+                new PresenceService(null, null), this.executor, this.updateLogWriter, meterRegistry, Long.MAX_VALUE);
+        this.folderPathIndex = new FolderPathIndex(folderRepository);
+
+        this.folderService = createFolderService(new DocumentRouter("", "", 128));
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("delete() removes every row of the folder's subtree and nothing else")
+    void delete_NestedFolders_RemovesSubtree() {
+        int kept = createFolder(0, "kept");
+        createDocuments(kept, 2);
+        long[] before = countRows();
+
+        int deleted = createTree(3, 3);
+        assertTrue(this.folderService.delete(deleted), "delete() should succeed");
+
+        assertArrayEquals(before, countRows(), "only the rows of the deleted subtree should be removed");
+    }
+
+    @Test
+    @DisplayName("delete() of a large folder issues a fixed number of statements per batch")
+    void delete_LargeFolder_StatementsPerBatch() {
+        int deleted = createFolder(0, "large");
+        int child = createFolder(deleted, "child");
+        createDocuments(deleted, BATCH_SIZE);
+        createDocuments(child, 2 * BATCH_SIZE);
+
+        this.harness.reset();
+        assertTrue(this.folderService.delete(deleted), "delete() should succeed");
+
+        // Loading the folder with its metadata, a locking query per level of the subtree, 10 statements per batch
+        // of documents and 4 per batch of folders.
+        assertEquals(2 + 2 + 3 * 10 + 4, this.harness.getStatements().size(), "statements should not grow per file");
+        assertEquals(0, countRows()[0], "every document should be deleted");
+        assertEquals(2, this.harness.getStatements().stream()
+                .filter(sql -> sql.contains("from \"folder_entries\"") && sql.endsWith("for update")).count(),
+                "the subtree should be read with locking reads, so no file can be added to it meanwhile");
+    }
+
+    @Test
+    @DisplayName("delete() evicts the deleted documents and drops their queued update logs")
+    void delete_CachedDocuments_Evicted() {
+        int deleted = createFolder(0, "cached");
+        List<Integer> documentIds = createDocuments(deleted, 3);
+        for (Integer documentId : documentIds) {
+            this.documentCache.get(documentId);
+            this.permissionCache.get(documentId, this.owner.getId(), () -> Permission.OWNER);
+            this.updateLogWriter.write(createUpdateLog(this.documentCache.get(documentId)));
+        }
+
+        assertTrue(this.folderService.delete(deleted), "delete() should succeed");
+        awaitMailboxesReleased();
+        this.updateLogWriter.drain();
+
+        for (Integer documentId : documentIds) {
+            assertFalse(this.documentCache.getIfPresent(documentId).isPresent(), "deleted document should be evicted");
+        }
+        assertEquals(0, this.permissionCache.size(), "deleted documents' permissions should be dropped");
+        assertEquals(0, countRows()[6], "queued update logs should not be saved after the delete");
+    }
+
+    @Test
+    @DisplayName("delete() drops the unsaved edits of the deleted documents from their mailboxes")
+    void delete_DirtyDocuments_EditsDroppedAndMailboxesReleased() {
+        int deleted = createFolder(0, "dirty");
+        List<Integer> documentIds = createDocuments(deleted, 2);
+        for (Integer documentId : documentIds) {
+            this.executor.execute(documentId, () -> {
+                Document document = this.documentCache.get(documentId);
+                UpdateRequest updateRequest = createUpdateRequest(documentId);
+                updateRequest.setRevision(null);
+                document.updateContent(updateRequest);
+                this.flushService.markDirty(document, Collections.singletonList(
+                        OperationLog.of(documentId, updateRequest)));
+            }).join();
+        }
+        long operations = countRows()[7];
+
+        assertTrue(this.folderService.delete(deleted), "delete() should succeed");
+        awaitMailboxesReleased();
+        this.flushService.flushAll();
+
+        for (Integer documentId : documentIds) {
+            assertFalse(this.flushService.isDirty(documentId), "the deleted document's edits should be dropped");
+        }
+        assertEquals(operations - documentIds.size(), countRows()[7], "the dropped edits should not be saved");
+        assertEquals(0, this.executor.size(), "the deleted documents' mailboxes should be released");
+    }
+
+    @Test
+    @DisplayName("delete() on a node that does not edit one of the documents deletes nothing")
+    void delete_DocumentOfAnotherNode_Rejected() throws ReflectiveOperationException {
+        int folderId = createFolder(0, "folder");
+        List<Integer> documentIds = createDocuments(folderId, 2);
+        FolderService otherNode = createFolderService(notOwning(documentIds.get(1)));
+        long[] before = countRows();
+
+        assertThrows(IllegalArgumentException.class, () -> otherNode.delete(folderId),
+                "the owner of every document below the folder should delete it");
+        assertArrayEquals(before, countRows(), "nothing should be deleted");
+    }
+
+    private FolderService createFolderService(DocumentRouter documentRouter) throws ReflectiveOperationException {
+        Constructor<?> constructor = FolderService.class.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        return (FolderService) constructor.newInstance(this.harness.repository(FolderRepository.class),
+                this.harness.repository(DocumentRepository.class), this.harness.repository(ContentRepository.class),
+                this.harness.repository(UserRepository.class), this.harness.repository(PermissionRepository.class),
+                this.harness.repository(UpdateLogRepository.class), this.harness.repository(OperationLogRepository.class),
+                this.harness.repository(DocumentCheckpointRepository.class), this.permissionCache,
+                this.permissionService, this.folderPathIndex, this.folderTree, this.documentCache,
+                new UserNameDirectory(this.harness.repository(UserRepository.class)),
+                new TransactionTemplate(new NoOpTransactionManager()), documentRouter, BATCH_SIZE);
+    }
+
+    /**
+     * The deleted documents are dropped from their mailboxes, the worker drops a mailbox after it drained.
+     */
+    private void awaitMailboxesReleased() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.executor.size() > 0 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return the router of a node that does not own documentId
+     */
+    private static DocumentRouter notOwning(int documentId) {
+        String owner = new DocumentRouter("a", TWO_NODES, 128).getOwner(documentId);
+        return new DocumentRouter(owner.equals("a") ? "b" : "a", TWO_NODES, 128);
+    }
+
+    /**
+     * Creates a folder with documents in it and a subfolder in it, depth levels deep.
+     * @return the top folder's id
+     */
+    private int createTree(int depth, int documentsPerFolder) {
+        int top = createFolder(0, "top");
+        int parentId = top;
+        for (int level = 1; level < depth; level++) {
+            createDocuments(parentId, documentsPerFolder);
+            parentId = createFolder(parentId, "level-" + level);
+        }
+        createDocuments(parentId, documentsPerFolder);
+
+        return top;
+    }
+
+    private int createFolder(int parentId, String title) {
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            Folder folder = new Folder(this.owner, parentId, title);
+            session.persist(folder);
+            if (parentId != FolderTree.ROOT_ID) {
+                session.persist(new FolderEntry(parentId, folder.getId(), title, true));
+            }
+            session.getTransaction().commit();
+
+            return folder.getId();
+        }
+    }
+
+    /**
+     * Creates documents in folder parentId, each with a permission, an update log, an operation log and a checkpoint.
+     * @return the documents' ids
+     */
+    private List<Integer> createDocuments(int parentId, int count) {
+        List<Integer> documentIds = new ArrayList<>();
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < count; i++) {
+                Document document = new Document(this.owner, parentId, "document-" + parentId + "-" + i);
+                session.persist(document);
+                if (parentId != FolderTree.ROOT_ID) {
+                    session.persist(new FolderEntry(parentId, document.getId(), document.getMetadata().getTitle(), false));
+                }
+                session.persist(new Authorization(document, this.owner, Permission.OWNER));
+                session.persist(createUpdateLog(document));
+                session.persist(OperationLog.of(document.getId(), createUpdateRequest(document.getId())));
+                session.persist(new DocumentCheckpoint(document.getId(), new Content.Snapshot("x", 1),
+                        LocalDateTime.now()));
+                documentIds.add(document.getId());
+            }
+            session.getTransaction().commit();
+        }
+
+        return documentIds;
+    }
+
+    private long[] countRows() {
+        long[] counts = new long[TABLES.length];
+        try (Session session = this.harness.openSession()) {
+            for (int i = 0; i < TABLES.length; i++) {
+                counts[i] = ((Number) session.createNativeQuery("SELECT COUNT(*) FROM \"" + TABLES[i] + "\"")
+                        .getSingleResult()).longValue();
+            }
+        }
+
+        return counts;
+    }
+
+    private static UpdateLog createUpdateLog(Document document) {
+        return new UpdateLog(createUpdateRequest(document.getId()), LocalDateTime.now(), document);
+    }
+
+    private static UpdateRequest createUpdateRequest(int documentId) {
+        return new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(documentId)
+                .setUserId(1)
+                .setType(UpdateRequest.UpdateType.APPEND)
+                .setContent("x")
+                .setStartPosition(0)
+                .setRevision(1)
+                .build();
+    }
+
+    /**
+     * The harness's repositories run each call in its own session, so there is no transaction to manage.
+     */
+    private static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package docSharing.service;
+
+import docSharing.entities.User;
+import docSharing.entities.file.Folder;
+import docSharing.repository.FolderRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileSystems;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderPathIndexTests {
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private Map<Integer, Folder> database;
+    private AtomicInteger queries;
+    private FolderPathIndex index;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.database = new HashMap<>();
+        this.database.put(1, createFolder(1, 0, "root"));
+        this.database.put(2, createFolder(2, 1, "projects"));
+        this.database.put(3, createFolder(3, 2, "docs"));
+        this.database.put(4, createFolder(4, 1, "archive"));
+
+        this.queries = new AtomicInteger();
+        FolderRepository repository = (FolderRepository) Proxy.newProxyInstance(
+                FolderRepository.class.getClassLoader(), new Class[]{FolderRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findById")) {
+                        this.queries.incrementAndGet();
+                        return Optional.ofNullable(this.database.get((Integer) args[0]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        this.index = new FolderPathIndex(repository);
+    }
+
+    @Test
+    @DisplayName("getPath() builds the full path once and serves it from the index afterwards")
+    void getPath_RepeatedLookups_QueriesEachFolderOnce() {
+        assertEquals(path("root", "projects", "docs", "a"), this.index.getPath(3, "a"), "path should include all ancestors");
+        int queriesAfterFirstLookup = this.queries.get();
+
+        assertEquals(path("root", "projects", "docs", "b"), this.index.getPath(3, "b"), "path should include all ancestors");
+        assertEquals(queriesAfterFirstLookup, this.queries.get(), "second lookup should not query the repository");
+    }
+
+    @Test
+    @DisplayName("getPath() returns the title alone for files without a parent folder")
+    void getPath_NoParent_ReturnsTitle() {
+        assertEquals("a", this.index.getPath(0, "a"), "file without a parent should have its title as path");
+    }
+
+    @Test
+    @DisplayName("onRenamed() rewrites the paths of the folder's subtree")
+    void onRenamed_Folder_UpdatesSubtree() {
+        this.index.getPath(3);
+        this.index.onRenamed(2, "work");
+
+        assertEquals(path("root", "work", "docs"), this.index.getPath(3), "descendant path should use the new title");
+    }
+
+    @Test
+    @DisplayName("onMoved() rewrites the paths of the folder's subtree")
+    void onMoved_Folder_UpdatesSubtree() {
+        this.index.getPath(3);
+        this.index.onMoved(2, 4);
+
+        assertEquals(path("root", "archive", "projects", "docs"), this.index.getPath(3),
+                "descendant path should be under the new parent");
+    }
+
+    @Test
+    @DisplayName("onDeleted() forgets the folder's subtree")
+    void onDeleted_Folder_RemovesSubtree() {
+        this.index.getPath(3);
+        this.index.getPath(4);
+        this.index.onDeleted(2);
+
+        assertEquals(2, this.index.size(), "only root and archive should stay indexed");
+    }
+
+    @Test
+    @DisplayName("expire() reloads folders renamed on another node")
+    void expire_FolderRenamedElsewhere_PathReloaded() throws ReflectiveOperationException {
+        this.index.getPath(3);
+        this.database.put(2, createFolder(2, 1, "work"));
+
+        this.index.expire();
+
+        assertEquals(0, this.index.size(), "expiry should forget all the indexed folders");
+        assertEquals(path("root", "work", "docs"), this.index.getPath(3), "path should use the title in the database");
+    }
+
+    private static String path(String... titles) {
+        return String.join(SEPARATOR, titles);
+    }
+
+    private static Folder createFolder(int id, int parentId, String title) throws ReflectiveOperationException {
+        Folder folder = new Folder(new User(), parentId, title);
+
+        Field idField = folder.getClass().getSuperclass().getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.setInt(folder, id);
+        return folder;
+    }
+}
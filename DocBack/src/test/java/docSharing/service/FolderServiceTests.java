@@ -0,0 +1,454 @@
+package docSharing.service;
+
+import docSharing.controller.request.MoveRequest;
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.DTO.FolderChildDTO;
+import docSharing.entities.DTO.FolderPageDTO;
+import docSharing.entities.User;
+import docSharing.entities.file.Content;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.DocumentCheckpoint;
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.entities.file.OperationLog;
+import docSharing.entities.file.UpdateLog;
+import docSharing.entities.permission.Authorization;
+import docSharing.entities.permission.Permission;
+import docSharing.repository.ContentRepository;
+import docSharing.repository.DocumentCheckpointRepository;
+import docSharing.repository.DocumentRepository;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.OperationLogRepository;
+import docSharing.repository.PermissionRepository;
+import docSharing.repository.QueryCountHarness;
+import docSharing.repository.UpdateLogRepository;
+import docSharing.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Constructor;
+import java.nio.file.FileSystems;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderServiceTests {
+    private static final int BATCH_SIZE = 100;
+    private static final String[] TABLES = {"document", "Content", "metadata", "folder", "folder_entries",
+            "authorized_users", "documents_update_logs", "documents_operation_logs", "documents_checkpoints"};
+    private static final String TWO_NODES = "a=http://a:8080,b=http://b:8080";
+
+    private QueryCountHarness harness;
+    private User owner;
+    private PermissionCache permissionCache;
+    private PermissionService permissionService;
+    private DocumentFlushService flushService;
+    private DocumentEditExecutor executor;
+    private DocumentCache documentCache;
+    private UpdateLogWriter updateLogWriter;
+    private FolderPathIndex folderPathIndex;
+    private FolderTree folderTree;
+    private FolderService folderService;
+
+    @BeforeEach
+    void beforeEach() throws ReflectiveOperationException {
+        this.harness = new QueryCountHarness(Folder.class, FolderEntry.class, UpdateLog.class, OperationLog.class,
+                DocumentCheckpoint.class);
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            this.owner = new User("owner", "owner@mail.com", "password");
+            session.persist(this.owner);
+            session.getTransaction().commit();
+        }
+
+        DocumentRepository documentRepository = this.harness.repository(DocumentRepository.class);
+        FolderRepository folderRepository = this.harness.repository(FolderRepository.class);
+        OperationLogRepository operationLogRepository = this.harness.repository(OperationLogRepository.class);
+        UpdateLogRepository updateLogRepository = this.harness.repository(UpdateLogRepository.class);
+        DocumentCheckpointRepository checkpointRepository = this.harness.repository(DocumentCheckpointRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        this.permissionCache = new PermissionCache(meterRegistry);
+        Constructor<PermissionService> permissionServiceConstructor = PermissionService.class.getDeclaredConstructor(
+                PermissionRepository.class, UserRepository.class, DocumentRepository.class, PermissionCache.class);
+        permissionServiceConstructor.setAccessible(true);
+        this.permissionService = permissionServiceConstructor.newInstance(
+                this.harness.repository(PermissionRepository.class), null, documentRepository, this.permissionCache);
+        this.folderTree = new FolderTree(this.harness.repository(FolderEntryRepository.class), folderRepository, 16);
+        this.flushService = new DocumentFlushService(documentRepository,
+                this.harness.repository(ContentRepository.class), operationLogRepository, checkpointRepository,
+                this.folderTree, meterRegistry, Long.MAX_VALUE, 1, 1000, Long.MAX_VALUE, 0);
+        this.executor = new DocumentEditExecutor(1);
+        // The batch size is above the capacity, so writes never start an asynchronous drain.
+        this.updateLogWriter = new UpdateLogWriter(updateLogRepository, meterRegistry, 100, 101, 1);
+        this.documentCache = new DocumentCache(documentRepository, operationLogRepository, this.flushService,
+                new PresenceService(null, null), this.executor, this.updateLogWriter, meterRegistry, Long.MAX_VALUE);
+        this.folderPathIndex = new FolderPathIndex(folderRepository);
+
+        this.folderService = createFolderService(new DocumentRouter("", "", 128));
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        this.executor.shutdown();
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("move() of a selection from several folders issues a fixed number of statements")
+    void move_LargeSelection_FixedStatements() {
+        int source = createFolder(0, "source");
+        int other = createFolder(0, "other");
+        int destination = createFolder(0, "destination");
+        List<MoveRequest.Item> files = new ArrayList<>();
+        for (Integer fileId : createDocuments(source, 150)) {
+            files.add(new MoveRequest.Item(fileId, null));
+        }
+        for (Integer fileId : createDocuments(other, 150)) {
+            files.add(new MoveRequest.Item(fileId, null));
+        }
+        files.add(new MoveRequest.Item(createFolder(source, "folder"), null));
+
+        this.harness.reset();
+        this.folderService.move(new MoveRequest(destination, files), this.owner.getId());
+
+        // Loading the folder with its metadata, the files' places, the user's permissions, the folder's ancestors,
+        // the folder's titles, one update per metadata type, one for the tree entries and one for the folders'
+        // modification counters.
+        assertEquals(2 + 2 + 1 + 1 + 1 + 4, this.harness.getStatements().size(), "statements should not grow per file");
+        try (Session session = this.harness.openSession()) {
+            assertEquals(301L, session.createQuery("SELECT COUNT(e) FROM FolderEntry e WHERE e.parentId=?1")
+                    .setParameter(1, destination).getSingleResult(), "every entry should be moved");
+            assertEquals(301L, session.createQuery("SELECT COUNT(m) FROM MetaData m WHERE m.parentId=?1")
+                    .setParameter(1, destination).getSingleResult(), "every file's metadata should be moved");
+        }
+    }
+
+    @Test
+    @DisplayName("move() renames files and updates the cached paths, and the cached documents from their mailboxes")
+    void move_RenamedFolder_CachesUpdated() {
+        int moved = createFolder(0, "moved");
+        int child = createFolder(moved, "child");
+        int documentId = createDocuments(moved, 1).get(0);
+        int destination = createFolder(0, "destination");
+        this.folderPathIndex.getPath(child);
+        Document document = this.documentCache.get(documentId);
+        CountDownLatch editing = new CountDownLatch(1);
+        this.executor.execute(documentId, () -> {
+            try {
+                editing.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        this.folderService.move(new MoveRequest(destination, Arrays.asList(
+                new MoveRequest.Item(moved, "renamed"), new MoveRequest.Item(documentId, "document"))), this.owner.getId());
+
+        String separator = FileSystems.getDefault().getSeparator();
+        assertEquals(String.join(separator, "destination", "renamed", "child"), this.folderPathIndex.getPath(child),
+                "the path of a folder below the moved folder should follow it");
+        assertEquals(moved, document.getMetadata().getParentId(),
+                "the cached document should be moved after the edits queued before the move");
+        editing.countDown();
+        this.executor.execute(documentId, () -> { }).join();
+        assertEquals(destination, document.getMetadata().getParentId(), "the cached document should be moved");
+        assertEquals("document", document.getMetadata().getTitle(), "the cached document should be renamed");
+    }
+
+    @Test
+    @DisplayName("move() rejects titles used in the destination and moves nothing")
+    void move_TitleTaken_NothingMoved() {
+        int source = createFolder(0, "source");
+        int destination = createFolder(0, "destination");
+        createFolder(destination, "taken");
+        int free = createFolder(source, "free");
+        int taken = createFolder(source, "other");
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.move(new MoveRequest(destination,
+                        Arrays.asList(new MoveRequest.Item(free, null), new MoveRequest.Item(taken, "taken"))), this.owner.getId()),
+                "a title used in the destination should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.move(new MoveRequest(free,
+                        Collections.singletonList(new MoveRequest.Item(source, null))), this.owner.getId()),
+                "a folder should not be moved into itself");
+        try (Session session = this.harness.openSession()) {
+            assertEquals(2L, session.createQuery("SELECT COUNT(e) FROM FolderEntry e WHERE e.parentId=?1")
+                    .setParameter(1, source).getSingleResult(), "no file should leave the source");
+        }
+    }
+
+    @Test
+    @DisplayName("move() on a node that does not edit one of the documents moves nothing")
+    void move_DocumentOfAnotherNode_Rejected() throws ReflectiveOperationException {
+        int folderId = createFolder(0, "folder");
+        int destination = createFolder(0, "destination");
+        List<Integer> documentIds = createDocuments(folderId, 2);
+        FolderService otherNode = createFolderService(notOwning(documentIds.get(1)));
+
+        assertThrows(IllegalArgumentException.class, () -> otherNode.move(new MoveRequest(destination,
+                        Collections.singletonList(new MoveRequest.Item(documentIds.get(1), null))), this.owner.getId()),
+                "the document's owner should move it");
+        assertEquals(2L, countEntries(folderId), "the documents should stay in the folder");
+    }
+
+    @Test
+    @DisplayName("move() rejects the whole batch when the user may not move or rename one of the documents")
+    void move_DocumentWithoutPermission_NothingMoved() {
+        int source = createFolder(0, "source");
+        int destination = createFolder(0, "destination");
+        List<Integer> documentIds = createDocuments(source, 3);
+        User viewer = createUser("viewer");
+        addPermission(documentIds.get(0), viewer, Permission.EDITOR);
+        addPermission(documentIds.get(1), viewer, Permission.VIEWER);
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.move(new MoveRequest(destination,
+                        Arrays.asList(new MoveRequest.Item(documentIds.get(0), null),
+                                new MoveRequest.Item(documentIds.get(1), null))), viewer.getId()),
+                "a viewer should not move the document");
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.move(new MoveRequest(destination,
+                        Arrays.asList(new MoveRequest.Item(documentIds.get(0), null),
+                                new MoveRequest.Item(documentIds.get(2), null))), viewer.getId()),
+                "a user without access should not move the document");
+        assertEquals(3L, countEntries(source), "no document should leave the source");
+    }
+
+    @Test
+    @DisplayName("move() swaps the titles of two files of the same folder")
+    void move_SwappedTitles_Renamed() {
+        int folderId = createFolder(0, "folder");
+        int first = createFolder(folderId, "first");
+        int second = createFolder(folderId, "second");
+
+        this.folderService.move(new MoveRequest(folderId, Arrays.asList(
+                new MoveRequest.Item(first, "second"), new MoveRequest.Item(second, "first"))), this.owner.getId());
+
+        List<FolderChildDTO> children = this.folderService.getChildren(folderId, null, 10).getChildren();
+        assertEquals(2, children.size(), "both files should stay in the folder");
+        assertEquals(second, children.get(0).getFileId(), "the second file should be titled first");
+        assertEquals(first, children.get(1).getFileId(), "the first file should be titled second");
+    }
+
+    @Test
+    @DisplayName("move() rejects a title another node added after the destination's titles were cached")
+    void move_TitleAddedByOtherNode_Throws() {
+        int destination = createFolder(0, "destination");
+        int documentId = createDocuments(0, 1).get(0);
+        this.folderTree.validateTitle(destination, "warm-up");
+        createFolder(destination, "document-0-0");
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.move(new MoveRequest(destination,
+                        Collections.singletonList(new MoveRequest.Item(documentId, null))), this.owner.getId()),
+                "the unique constraint should reject the file");
+    }
+
+    @Test
+    @DisplayName("getChildren() pages through the folder in title order with a fixed number of statements per page")
+    void getChildren_Pages_AllChildrenInTitleOrder() {
+        int folderId = createFolder(0, "folder");
+        createDocuments(folderId, 5);
+        createFolder(folderId, "a-folder");
+        createFolder(folderId, "z-folder");
+        this.folderService.getChildren(folderId, null, 1);
+
+        List<FolderChildDTO> children = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            this.harness.reset();
+            FolderPageDTO page = this.folderService.getChildren(folderId, cursor, 3);
+            assertTrue(this.harness.getStatements().size() <= 3, "a page query and one query per file type");
+            children.addAll(page.getChildren());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages, "7 files should take 3 pages of 3");
+        List<String> titles = new ArrayList<>();
+        children.forEach(child -> titles.add(child.getTitle()));
+        List<String> sorted = new ArrayList<>(titles);
+        Collections.sort(sorted);
+        assertEquals(sorted, titles, "files should be listed in title order");
+        assertEquals(7, new HashSet<>(titles).size(), "every file should be listed once");
+        assertTrue(children.get(0).isFolder(), "a-folder should be listed as a folder");
+        assertEquals("owner", children.get(1).getOwnerName(), "the owner's name should be listed");
+    }
+
+    @Test
+    @DisplayName("getModifications() changes when the folder's children or their lastUpdated change")
+    void getModifications_ChildrenChanged_Incremented() {
+        int folderId = createFolder(0, "folder");
+        int documentId = createDocuments(0, 1).get(0);
+        long created = this.folderService.getModifications(folderId);
+
+        this.folderService.getChildren(folderId, null, 10);
+        assertEquals(created, this.folderService.getModifications(folderId), "listing should not change the folder");
+
+        this.folderService.move(new MoveRequest(folderId, Collections.singletonList(
+                new MoveRequest.Item(documentId, null))), this.owner.getId());
+        long moved = this.folderService.getModifications(folderId);
+        assertTrue(moved > created, "a file moved into the folder should change it");
+
+        Document document = this.documentCache.get(documentId);
+        UpdateRequest updateRequest = createUpdateRequest(documentId);
+        updateRequest.setRevision(null);
+        document.updateContent(updateRequest);
+        this.flushService.markDirty(document, Collections.singletonList(OperationLog.of(documentId, updateRequest)));
+        this.flushService.flushAll();
+        assertTrue(this.folderService.getModifications(folderId) > moved, "an edited document should change it");
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderService.getModifications(documentId),
+                "a document is not a folder");
+    }
+
+    private FolderService createFolderService(DocumentRouter documentRouter) throws ReflectiveOperationException {
+        Constructor<?> constructor = FolderService.class.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        return (FolderService) constructor.newInstance(this.harness.repository(FolderRepository.class),
+                this.harness.repository(DocumentRepository.class), this.harness.repository(ContentRepository.class),
+                this.harness.repository(UserRepository.class), this.harness.repository(PermissionRepository.class),
+                this.harness.repository(UpdateLogRepository.class), this.harness.repository(OperationLogRepository.class),
+                this.harness.repository(DocumentCheckpointRepository.class), this.permissionCache,
+                this.permissionService, this.folderPathIndex, this.folderTree, this.documentCache,
+                new UserNameDirectory(this.harness.repository(UserRepository.class)),
+                new TransactionTemplate(new NoOpTransactionManager()), documentRouter, BATCH_SIZE);
+    }
+
+    /**
+     * @return the router of a node that does not own documentId
+     */
+    private static DocumentRouter notOwning(int documentId) {
+        String owner = new DocumentRouter("a", TWO_NODES, 128).getOwner(documentId);
+        return new DocumentRouter(owner.equals("a") ? "b" : "a", TWO_NODES, 128);
+    }
+
+    private int createFolder(int parentId, String title) {
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            Folder folder = new Folder(this.owner, parentId, title);
+            session.persist(folder);
+            if (parentId != FolderTree.ROOT_ID) {
+                session.persist(new FolderEntry(parentId, folder.getId(), title, true));
+            }
+            session.getTransaction().commit();
+
+            return folder.getId();
+        }
+    }
+
+    /**
+     * Creates documents in folder parentId, each with a permission, an update log, an operation log and a checkpoint.
+     * @return the documents' ids
+     */
+    private List<Integer> createDocuments(int parentId, int count) {
+        List<Integer> documentIds = new ArrayList<>();
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < count; i++) {
+                Document document = new Document(this.owner, parentId, "document-" + parentId + "-" + i);
+                session.persist(document);
+                if (parentId != FolderTree.ROOT_ID) {
+                    session.persist(new FolderEntry(parentId, document.getId(), document.getMetadata().getTitle(), false));
+                }
+                session.persist(new Authorization(document, this.owner, Permission.OWNER));
+                session.persist(createUpdateLog(document));
+                session.persist(OperationLog.of(document.getId(), createUpdateRequest(document.getId())));
+                session.persist(new DocumentCheckpoint(document.getId(), new Content.Snapshot("x", 1),
+                        LocalDateTime.now()));
+                documentIds.add(document.getId());
+            }
+            session.getTransaction().commit();
+        }
+
+        return documentIds;
+    }
+
+    private long[] countRows() {
+        long[] counts = new long[TABLES.length];
+        try (Session session = this.harness.openSession()) {
+            for (int i = 0; i < TABLES.length; i++) {
+                counts[i] = ((Number) session.createNativeQuery("SELECT COUNT(*) FROM \"" + TABLES[i] + "\"")
+                        .getSingleResult()).longValue();
+            }
+        }
+
+        return counts;
+    }
+
+    private static UpdateLog createUpdateLog(Document document) {
+        return new UpdateLog(createUpdateRequest(document.getId()), LocalDateTime.now(), document);
+    }
+
+    private static UpdateRequest createUpdateRequest(int documentId) {
+        return new UpdateRequest.UpdateRequestBuilder()
+                .setDocumentId(documentId)
+                .setUserId(1)
+                .setType(UpdateRequest.UpdateType.APPEND)
+                .setContent("x")
+                .setStartPosition(0)
+                .setRevision(1)
+                .build();
+    }
+
+    private User createUser(String name) {
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            User user = new User(name, name + "@mail.com", "password");
+            session.persist(user);
+            session.getTransaction().commit();
+
+            return user;
+        }
+    }
+
+    private void addPermission(int documentId, User user, Permission permission) {
+        try (Session session = this.harness.openSession()) {
+            session.beginTransaction();
+            session.persist(new Authorization(session.get(Document.class, documentId), user, permission));
+            session.getTransaction().commit();
+        }
+    }
+
+    private long countEntries(int parentId) {
+        try (Session session = this.harness.openSession()) {
+            return (Long) session.createQuery("SELECT COUNT(e) FROM FolderEntry e WHERE e.parentId=?1")
+                    .setParameter(1, parentId).getSingleResult();
+        }
+    }
+
+    /**
+     * The harness's repositories run each call in its own session, so there is no transaction to manage.
+     */
+    private static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
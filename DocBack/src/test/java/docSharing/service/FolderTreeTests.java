@@ -0,0 +1,128 @@
+package docSharing.service;
+
+import docSharing.entities.file.Folder;
+import docSharing.entities.file.FolderEntry;
+import docSharing.repository.FolderEntryRepository;
+import docSharing.repository.FolderRepository;
+import docSharing.repository.QueryCountHarness;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FolderTreeTests {
+    private static final int FOLDER_ID = 1;
+    private static final int OTHER_FOLDER_ID = 2;
+
+    private QueryCountHarness harness;
+    private FolderEntryRepository repository;
+    private FolderRepository folderRepository;
+    private FolderTree folderTree;
+
+    @BeforeEach
+    void beforeEach() {
+        this.harness = new QueryCountHarness(FolderEntry.class, Folder.class);
+        this.repository = this.harness.repository(FolderEntryRepository.class);
+        this.folderRepository = this.harness.repository(FolderRepository.class);
+        this.folderTree = new FolderTree(this.repository, this.folderRepository, 16);
+    }
+
+    @AfterEach
+    void afterEach() {
+        this.harness.close();
+    }
+
+    @Test
+    @DisplayName("add() in a folder with 10k files checks the title without reading the folder again")
+    void add_LargeFolder_NoReadsAfterFirstCheck() {
+        List<FolderEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            entries.add(new FolderEntry(FOLDER_ID, 1000 + i, "file-" + i, false));
+        }
+        this.repository.saveAll(entries);
+        this.folderTree.validateTitle(FOLDER_ID, "warm-up");
+
+        this.harness.reset();
+        for (int i = 0; i < 100; i++) {
+            this.folderTree.add(FOLDER_ID, 100 + i, "new-" + i, false);
+        }
+
+        assertEquals(0, this.harness.countReadsFrom("folder_entries"), "titles should be checked in memory");
+        assertThrows(IllegalArgumentException.class, () -> this.folderTree.validateTitle(FOLDER_ID, "file-9999"),
+                "existing titles should be rejected");
+    }
+
+    @Test
+    @DisplayName("checkParent() removes a file added to a folder that was deleted meanwhile")
+    void checkParent_FolderDeleted_EntryRemoved() {
+        this.folderTree.add(FOLDER_ID, 10, "report", false);
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderTree.checkParent(FOLDER_ID, 10),
+                "the folder does not exist");
+        assertTrue(this.repository.findByParentId(FOLDER_ID).isEmpty(), "the file's entry should be removed");
+        assertDoesNotThrow(() -> this.folderTree.validateTitle(FOLDER_ID, "report"), "the title should be free");
+    }
+
+    @Test
+    @DisplayName("add() rejects a title another node added first")
+    void add_TitleAddedByOtherNode_Throws() {
+        this.folderTree.validateTitle(FOLDER_ID, "report");
+        new FolderTree(this.repository, this.folderRepository, 16).add(FOLDER_ID, 10, "report", false);
+
+        assertThrows(IllegalArgumentException.class, () -> this.folderTree.add(FOLDER_ID, 11, "report", false),
+                "the unique constraint should reject the second file");
+        assertThrows(IllegalArgumentException.class, () -> this.folderTree.validateTitle(FOLDER_ID, "report"),
+                "the folder's titles should be reloaded after a conflict");
+    }
+
+    @Test
+    @DisplayName("add() accepts a title another node freed after it was cached")
+    void add_TitleFreedByOtherNode_Accepted() {
+        this.folderTree.add(FOLDER_ID, 10, "report", false);
+        new FolderTree(this.repository, this.folderRepository, 16).rename(FOLDER_ID, 10, "report", "final");
+
+        assertDoesNotThrow(() -> this.folderTree.add(FOLDER_ID, 12, "report", false),
+                "the folder should be read again before the cached title is rejected");
+        assertThrows(IllegalArgumentException.class, () -> this.folderTree.validateTitle(FOLDER_ID, "final"),
+                "the title the other node used should be known after the folder was read again");
+    }
+
+    @Test
+    @DisplayName("rename() and move() keep the titles of both folders up to date")
+    void renameAndMove_UpdateTitles() {
+        this.folderTree.add(FOLDER_ID, 10, "draft", false);
+        this.folderTree.add(OTHER_FOLDER_ID, 11, "final", false);
+
+        this.folderTree.rename(FOLDER_ID, 10, "draft", "final");
+        this.folderTree.validateTitle(FOLDER_ID, "draft");
+        assertThrows(IllegalArgumentException.class,
+                () -> this.folderTree.move(10, "final", false, FOLDER_ID, OTHER_FOLDER_ID),
+                "the target folder has a file with the same title");
+
+        this.folderTree.rename(FOLDER_ID, 10, "final", "v2");
+        this.folderTree.move(10, "v2", false, FOLDER_ID, OTHER_FOLDER_ID);
+
+        this.folderTree.validateTitle(FOLDER_ID, "v2");
+        assertEquals(2, this.folderTree.getChildren(OTHER_FOLDER_ID).size(), "the file should be in the new folder");
+        assertTrue(this.folderTree.getChildren(FOLDER_ID).isEmpty(), "the file should have left the old folder");
+    }
+
+    @Test
+    @DisplayName("files at the root are not in the tree")
+    void move_ToRoot_RemovesEntry() {
+        this.folderTree.add(FolderTree.ROOT_ID, 10, "notes", false);
+        this.folderTree.add(FolderTree.ROOT_ID, 11, "notes", false);
+        assertTrue(this.folderTree.getChildren(FolderTree.ROOT_ID).isEmpty(), "root files should not be added");
+
+        this.folderTree.move(10, "notes", false, FolderTree.ROOT_ID, FOLDER_ID);
+        this.folderTree.move(10, "notes", false, FOLDER_ID, FolderTree.ROOT_ID);
+
+        assertTrue(this.folderTree.getChildren(FOLDER_ID).isEmpty(), "the file should have left the folder");
+        this.folderTree.validateTitle(FOLDER_ID, "notes");
+    }
+}
@@ -0,0 +1,87 @@
+package docSharing.service;
+
+import docSharing.entities.permission.Permission;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PermissionCacheTests {
+    private PermissionCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void beforeEach() {
+        this.cache = new PermissionCache(new SimpleMeterRegistry());
+        this.loads = new AtomicInteger();
+    }
+
+    @Test
+    @DisplayName("get() loads a permission once and serves it from the cache afterwards")
+    void get_RepeatedLookups_LoadsOnce() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Permission.EDITOR, this.cache.get(1, 2, () -> load(Permission.EDITOR)),
+                    "get() should return the loaded permission");
+        }
+
+        assertEquals(1, this.loads.get(), "permission should be loaded only once");
+    }
+
+    @Test
+    @DisplayName("get() caches missing permissions too")
+    void get_NoPermission_CachedAsNull() {
+        assertNull(this.cache.get(1, 2, () -> load(null)), "get() should return null without a permission");
+        assertNull(this.cache.get(1, 2, () -> load(null)), "get() should return null without a permission");
+
+        assertEquals(1, this.loads.get(), "missing permission should be loaded only once");
+    }
+
+    @Test
+    @DisplayName("invalidateDocument() drops only the document's permissions")
+    void invalidateDocument_TwoDocuments_DropsOnlyOne() {
+        this.cache.get(1, 2, () -> load(Permission.EDITOR));
+        this.cache.get(1, 3, () -> load(Permission.VIEWER));
+        this.cache.get(4, 2, () -> load(Permission.OWNER));
+
+        this.cache.invalidateDocument(1);
+
+        assertEquals(1, this.cache.size(), "only the other document's permission should stay cached");
+        assertEquals(Permission.OWNER, this.cache.get(4, 2, () -> load(null)),
+                "other document's permission should be served from the cache");
+    }
+
+    @Test
+    @DisplayName("get() does not cache a permission loaded while it was being changed")
+    void get_InvalidatedDuringLoad_NotCached() {
+        Permission loaded = this.cache.get(1, 2, () -> {
+            this.cache.invalidate(1, 2);
+            return load(Permission.EDITOR);
+        });
+
+        assertEquals(Permission.EDITOR, loaded, "get() should still return the loaded permission");
+        assertEquals(0, this.cache.size(), "a permission loaded concurrently with a change should not be cached");
+    }
+
+    @Test
+    @DisplayName("expire() drops every cached permission and changes the generation")
+    void expire_CachedPermissions_Reloaded() {
+        this.cache.get(1, 2, () -> load(Permission.EDITOR));
+        long generation = this.cache.getGeneration();
+
+        this.cache.expire();
+
+        assertNotEquals(generation, this.cache.getGeneration(), "expiry should change the generation the pins check");
+        assertEquals(Permission.VIEWER, this.cache.get(1, 2, () -> load(Permission.VIEWER)),
+                "a permission changed on another node should be loaded after the expiry");
+        assertEquals(2, this.loads.get(), "permission should be loaded again after the expiry");
+    }
+
+    private Permission load(Permission permission) {
+        this.loads.incrementAndGet();
+        return permission;
+    }
+}
@@ -0,0 +1,104 @@
+package docSharing.service;
+
+import docSharing.entities.DTO.PresenceDTO;
+import docSharing.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceServiceTests {
+    private List<Message<?>> sent;
+    private int nameQueries;
+    private PresenceService presenceService;
+
+    @BeforeEach
+    void beforeEach() {
+        this.sent = new ArrayList<>();
+        this.nameQueries = 0;
+
+        UserRepository userRepository = (UserRepository) Proxy.newProxyInstance(
+                UserRepository.class.getClassLoader(), new Class[]{UserRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findNameById")) {
+                        this.nameQueries++;
+                        return Optional.of("user-" + args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> this.sent.add(message));
+        this.presenceService = new PresenceService(new UserNameDirectory(userRepository), messagingTemplate);
+    }
+
+    @Test
+    @DisplayName("join() announces a user once, however many sessions they open")
+    void join_SecondSession_NoDelta() {
+        this.presenceService.join(1, 7, "a");
+        this.presenceService.join(1, 7, "b");
+
+        assertEquals(1, this.sent.size(), "only the first session should be announced");
+        assertEquals("/topic/documents/1/presence", SimpMessageHeaderAccessor.getDestination(this.sent.get(0).getHeaders()),
+                "the delta should be sent to the document's presence topic");
+        assertEquals(1, this.presenceService.getActiveUsers(1).size(), "the user should be listed once");
+    }
+
+    @Test
+    @DisplayName("leave() announces the user only when their last session leaves")
+    void leave_LastSession_SendsDelta() {
+        this.presenceService.join(1, 7, "a");
+        this.presenceService.join(1, 7, "b");
+
+        this.presenceService.leave(1, 7, "a");
+        assertEquals(1, this.sent.size(), "the user still has a session in the document");
+        assertTrue(this.presenceService.isActive(1, 7), "the user should still be active");
+
+        this.presenceService.leave(1, 7, "b");
+        assertEquals(2, this.sent.size(), "the last leave should be announced");
+        assertFalse(this.presenceService.isActive(1), "the document should have no active users");
+    }
+
+    @Test
+    @DisplayName("disconnect() removes a closed session from all of its documents")
+    void disconnect_OpenSession_LeavesAllDocuments() {
+        this.presenceService.join(1, 7, "a");
+        this.presenceService.join(2, 7, "a");
+        this.presenceService.join(2, 8, "b");
+
+        Map<Integer, Integer> left = this.presenceService.disconnect("a");
+
+        assertEquals(2, left.size(), "both documents of the session should be left");
+        assertEquals(7, left.get(2), "the documents should be left by the session's user");
+
+        assertFalse(this.presenceService.isActive(1), "document 1 should have no active users");
+        assertFalse(this.presenceService.isActive(2, 7), "user 7 should have left document 2");
+        assertTrue(this.presenceService.isActive(2, 8), "other sessions should not be affected");
+        assertEquals(5, this.sent.size(), "three joins and two leaves should be announced");
+    }
+
+    @Test
+    @DisplayName("getActiveUsers() reads each user's name from the database once")
+    void getActiveUsers_RepeatedCalls_NamesCached() {
+        this.presenceService.join(1, 7, "a");
+        this.presenceService.join(1, 8, "b");
+        for (int i = 0; i < 10; i++) {
+            this.presenceService.getActiveUsers(1);
+        }
+
+        List<PresenceDTO> activeUsers = this.presenceService.getActiveUsers(1);
+
+        assertEquals(2, this.nameQueries, "each name should be queried once");
+        assertTrue(activeUsers.stream().anyMatch(user -> user.getUserId() == 7 && "user-7".equals(user.getName())),
+                "active users should carry their names");
+    }
+}
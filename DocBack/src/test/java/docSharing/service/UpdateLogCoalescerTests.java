@@ -0,0 +1,55 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.file.UpdateLog;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateLogCoalescerTests {
+    private static final LocalDateTime NOW = LocalDateTime.of(2022, 9, 1, 10, 15);
+
+    private final UpdateLogCoalescer coalescer = new UpdateLogCoalescer(5000, 10, 3);
+
+    @Test
+    @DisplayName("isContinuous() returns true for an adjacent edit within the window")
+    void isContinuous_AdjacentWithinWindow_ReturnsTrue() {
+        UpdateLog last = createUpdateLog(1, "ab", 20, NOW);
+
+        assertTrue(this.coalescer.isContinuous(last, createUpdateLog(1, "c", 22, NOW.plusSeconds(4))),
+                "adjacent edit within the window should be united");
+    }
+
+    @Test
+    @DisplayName("isContinuous() returns false when the window passed since the last edit")
+    void isContinuous_DistantTimestamp_ReturnsFalse() {
+        UpdateLog last = createUpdateLog(1, "ab", 20, NOW);
+
+        assertFalse(this.coalescer.isContinuous(last, createUpdateLog(1, "c", 22, NOW.plusSeconds(5))),
+                "edit after the window should start a new log");
+    }
+
+    @Test
+    @DisplayName("isContinuous() returns false once the united log would exceed its limits")
+    void isContinuous_OverLimits_ReturnsFalse() {
+        UpdateLog last = createUpdateLog(1, "abcdefgh", 20, NOW);
+        assertFalse(this.coalescer.isContinuous(last, createUpdateLog(1, "ijk", 28, NOW)),
+                "log over the maximum size should not be united");
+
+        UpdateLog counted = createUpdateLog(1, "a", 20, NOW);
+        counted.unite(createUpdateLog(1, "b", 21, NOW));
+        counted.unite(createUpdateLog(1, "c", 22, NOW));
+        assertFalse(this.coalescer.isContinuous(counted, createUpdateLog(1, "d", 23, NOW)),
+                "log over the maximum edit count should not be united");
+    }
+
+    private static UpdateLog createUpdateLog(int userId, String content, int position, LocalDateTime timestamp) {
+        UpdateRequest updateRequest = new UpdateRequest.UpdateRequestBuilder()
+                .setUserId(userId).setType(UpdateRequest.UpdateType.APPEND).setContent(content)
+                .setStartPosition(position).build();
+        return new UpdateLog(updateRequest, timestamp, null);
+    }
+}
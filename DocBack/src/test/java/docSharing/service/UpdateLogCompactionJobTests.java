@@ -0,0 +1,153 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.file.CompactionWatermark;
+import docSharing.entities.file.UpdateLog;
+import docSharing.repository.CompactionWatermarkRepository;
+import docSharing.repository.UpdateLogRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateLogCompactionJobTests {
+    private static final LocalDateTime NOW = LocalDateTime.of(2022, 9, 1, 10, 15);
+
+    // name -> the saved watermark, kept across the jobs of one test like the database across restarts.
+    private Map<String, CompactionWatermark> watermarks;
+    // The ranges the jobs scanned.
+    private List<LocalDateTime> scannedFrom;
+
+    @BeforeEach
+    void beforeEach() {
+        this.watermarks = new HashMap<>();
+        this.scannedFrom = new ArrayList<>();
+    }
+
+    @Test
+    @DisplayName("compact() unites adjacent logs of one user within a bucket")
+    void compact_AdjacentLogsInBucket_United() {
+        UpdateLog first = createUpdateLog(1, "ab", 0, NOW);
+        UpdateLog second = createUpdateLog(1, "cd", 2, NOW.plusMinutes(20));
+        UpdateLog otherUser = createUpdateLog(2, "ef", 4, NOW.plusMinutes(30));
+        UpdateLog nextHour = createUpdateLog(2, "gh", 6, NOW.plusMinutes(50));
+        List<UpdateLog> logs = Arrays.asList(first, second, otherUser, nextHour);
+
+        List<UpdateLog> absorbed = UpdateLogCompactionJob.compact(logs, ChronoUnit.HOURS);
+
+        assertEquals(Arrays.asList(second), absorbed, "only the same user's log in the same hour should be united");
+        assertEquals("abcd", first.getContent(), "the run's first log should hold the united content");
+        assertEquals("ef", otherUser.getContent(), "another user's log should not be united");
+        assertEquals("gh", nextHour.getContent(), "a log in the next hour should not be united");
+    }
+
+    @Test
+    @DisplayName("compact() leaves rows written before logs were stored as replaces")
+    void compact_LegacyLogs_NotUnited() {
+        UpdateLog first = createUpdateLog(1, "ab", 0, NOW);
+        // An append the old format stored as [start, start + length).
+        UpdateLog legacy = new UpdateLog();
+        legacy.setUserId(1);
+        legacy.setType(UpdateRequest.UpdateType.APPEND);
+        legacy.setContent("cd");
+        legacy.setStartPosition(2);
+        legacy.setEndPosition(4);
+        legacy.setTimestamp(NOW.plusMinutes(1));
+        UpdateLog last = createUpdateLog(1, "ef", 4, NOW.plusMinutes(2));
+
+        List<UpdateLog> absorbed = UpdateLogCompactionJob.compact(Arrays.asList(first, legacy, last), ChronoUnit.HOURS);
+
+        assertTrue(absorbed.isEmpty(), "a legacy row should neither be united nor join the logs around it");
+        assertEquals("ab", first.getContent(), "the log before the legacy row should be left as it is");
+        assertEquals(4, legacy.getEndPosition(), "the legacy row should be left as it is");
+    }
+
+    @Test
+    @DisplayName("compact() after a restart starts where the previous run stopped")
+    void compact_AfterRestart_ResumesFromSavedWatermark() {
+        createJob().compact();
+        assertEquals(1, this.scannedFrom.size(), "the first run should scan the logs");
+        assertTrue(this.watermarks.containsKey("update-logs"), "the run should save how far it got");
+
+        createJob().compact();
+
+        assertEquals(1, this.scannedFrom.size(), "a restarted job should not scan the compacted buckets again");
+    }
+
+    @Test
+    @DisplayName("compact() keeps the watermark when a document failed to compact")
+    void compact_DocumentFailed_WatermarkKept() {
+        TransactionTemplate failingTransactions = new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                throw new IllegalStateException("database is down");
+            }
+        };
+
+        createJob(Collections.singletonList(1), failingTransactions).compact();
+        assertFalse(this.watermarks.containsKey("update-logs"), "the failed document's buckets should not be skipped");
+
+        createJob().compact();
+
+        assertEquals(Arrays.asList(this.scannedFrom.get(0), this.scannedFrom.get(0)), this.scannedFrom,
+                "the next run should scan the failed buckets again");
+        assertTrue(this.watermarks.containsKey("update-logs"), "a run without failures should save how far it got");
+    }
+
+    private UpdateLogCompactionJob createJob() {
+        // No document has logs to compact, so no transaction is started.
+        return createJob(Collections.emptyList(), null);
+    }
+
+    private UpdateLogCompactionJob createJob(List<Integer> documentIds, TransactionTemplate transactionTemplate) {
+        UpdateLogRepository updateLogRepository = (UpdateLogRepository) Proxy.newProxyInstance(
+                UpdateLogRepository.class.getClassLoader(), new Class[]{UpdateLogRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findDocumentIdsBetween")) {
+                        this.scannedFrom.add((LocalDateTime) args[0]);
+                        return documentIds;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        CompactionWatermarkRepository compactionWatermarkRepository = (CompactionWatermarkRepository)
+                Proxy.newProxyInstance(CompactionWatermarkRepository.class.getClassLoader(),
+                        new Class[]{CompactionWatermarkRepository.class},
+                        (proxy, method, args) -> {
+                            if (method.getName().equals("findById")) {
+                                return Optional.ofNullable(this.watermarks.get((String) args[0]));
+                            }
+                            if (method.getName().equals("save")) {
+                                CompactionWatermark watermark = (CompactionWatermark) args[0];
+                                this.watermarks.put(watermark.getName(), watermark);
+                                return watermark;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        });
+
+        return new UpdateLogCompactionJob(updateLogRepository, compactionWatermarkRepository, transactionTemplate,
+                new SimpleMeterRegistry(), 7, ChronoUnit.HOURS);
+    }
+
+    private static UpdateLog createUpdateLog(int userId, String content, int position, LocalDateTime timestamp) {
+        UpdateRequest updateRequest = new UpdateRequest.UpdateRequestBuilder()
+                .setUserId(userId).setType(UpdateRequest.UpdateType.APPEND).setContent(content)
+                .setStartPosition(position).build();
+        return new UpdateLog(updateRequest, timestamp, null);
+    }
+}
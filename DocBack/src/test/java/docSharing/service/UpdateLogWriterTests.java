@@ -0,0 +1,186 @@
+package docSharing.service;
+
+import docSharing.controller.request.UpdateRequest;
+import docSharing.entities.User;
+import docSharing.entities.file.Document;
+import docSharing.entities.file.UpdateLog;
+import docSharing.repository.UpdateLogRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateLogWriterTests {
+    private static final int CAPACITY = 4;
+    private static final int MAX_ATTEMPTS = 2;
+
+    private List<UpdateLog> saved;
+    private List<Integer> batchSizes;
+    private boolean failing;
+    // Logs the database always refuses, like a row that violates a constraint.
+    private Set<UpdateLog> rejected;
+    private SimpleMeterRegistry meterRegistry;
+    private UpdateLogWriter writer;
+
+    @BeforeEach
+    void beforeEach() {
+        this.saved = Collections.synchronizedList(new ArrayList<>());
+        this.batchSizes = new ArrayList<>();
+        this.failing = false;
+        this.rejected = new HashSet<>();
+
+        UpdateLogRepository repository = (UpdateLogRepository) Proxy.newProxyInstance(
+                UpdateLogRepository.class.getClassLoader(), new Class[]{UpdateLogRepository.class},
+                (proxy, method, args) -> {
+                    if (this.failing) {
+                        throw new IllegalStateException("database is down");
+                    }
+                    if (method.getName().equals("saveAll")) {
+                        List<UpdateLog> batch = new ArrayList<>();
+                        ((Iterable<UpdateLog>) args[0]).forEach(batch::add);
+                        if (batch.stream().anyMatch(this.rejected::contains)) {
+                            throw new IllegalStateException("constraint violation");
+                        }
+                        this.batchSizes.add(batch.size());
+                        this.saved.addAll(batch);
+                        return batch;
+                    }
+                    if (method.getName().equals("save")) {
+                        if (this.rejected.contains((UpdateLog) args[0])) {
+                            throw new IllegalStateException("constraint violation");
+                        }
+                        this.saved.add((UpdateLog) args[0]);
+                        return args[0];
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        // The batch size is above the capacity, so writes never start an asynchronous drain.
+        this.writer = new UpdateLogWriter(repository, this.meterRegistry, CAPACITY, CAPACITY + 1, MAX_ATTEMPTS);
+    }
+
+    @Test
+    @DisplayName("write() queues logs and drain() saves them in one batch")
+    void drain_QueuedLogs_SavedInOneBatch() throws ReflectiveOperationException {
+        List<UpdateLog> logs = createUpdateLogs(1, 3);
+        logs.forEach(this.writer::write);
+
+        assertTrue(this.saved.isEmpty(), "write() should not save on the calling thread");
+        assertEquals(3, this.writer.getDepth(), "queue depth should count the queued logs");
+
+        this.writer.drain();
+
+        assertEquals(logs, this.saved, "queued logs should be saved in order");
+        assertEquals(1, this.batchSizes.size(), "logs should be saved in a single batch");
+        assertEquals(0, this.writer.getDepth(), "queue should be empty after drain()");
+    }
+
+    @Test
+    @DisplayName("drain() keeps a failed batch and saves it first on the next drain")
+    void drain_RepositoryFails_RetriedInOrder() throws ReflectiveOperationException {
+        List<UpdateLog> logs = createUpdateLogs(1, 4);
+        this.writer.write(logs.get(0));
+        this.writer.write(logs.get(1));
+
+        this.failing = true;
+        this.writer.drain();
+        this.failing = false;
+        this.rejected = new HashSet<>();
+        this.writer.write(logs.get(2));
+        this.writer.write(logs.get(3));
+        this.writer.drain();
+
+        assertEquals(logs, this.saved, "failed logs should be saved before newer ones");
+        assertEquals(1, this.meterRegistry.counter("update-logs.failures").count(), "failure should be counted");
+    }
+
+    @Test
+    @DisplayName("drain() saves the rest of a failed batch and drops a log that keeps failing")
+    void drain_OneLogFails_OthersSavedAndLogDropped() throws ReflectiveOperationException {
+        List<UpdateLog> logs = createUpdateLogs(1, 4);
+        this.rejected.add(logs.get(1));
+        this.writer.write(logs.get(0));
+        this.writer.write(logs.get(1));
+        this.writer.write(logs.get(2));
+
+        this.writer.drain();
+        assertEquals(Arrays.asList(logs.get(0), logs.get(2)), this.saved,
+                "the logs around the failing one should be saved");
+
+        this.writer.write(logs.get(3));
+        this.writer.drain();
+
+        assertEquals(Arrays.asList(logs.get(0), logs.get(2), logs.get(3)), this.saved,
+                "the logs behind the failing one should not be held back");
+        assertEquals(1, this.meterRegistry.counter("update-logs.dropped").count(),
+                "the failing log should be dropped after the last attempt");
+        this.rejected.clear();
+        this.writer.drain();
+        assertEquals(3, this.saved.size(), "a dropped log should not be retried");
+    }
+
+    @Test
+    @DisplayName("write() drops the log without saving it once the queue is full")
+    void write_QueueFull_Dropped() throws ReflectiveOperationException {
+        List<UpdateLog> logs = createUpdateLogs(1, CAPACITY + 1);
+        this.failing = true;
+        logs.forEach(this.writer::write);
+
+        assertEquals(1, this.meterRegistry.counter("update-logs.shed").count(), "the dropped log should be counted");
+        assertEquals(CAPACITY, this.writer.getDepth(), "the queued logs should stay queued");
+
+        // A full queue also starts a drain in the background, it fails until the database is back.
+        this.failing = false;
+        this.writer.drain();
+        assertEquals(logs.subList(0, CAPACITY), this.saved, "only the queued logs should be saved");
+    }
+
+    @Test
+    @DisplayName("discard() drops the queued logs of a deleted document")
+    void discard_QueuedLogs_NotSaved() throws ReflectiveOperationException {
+        List<UpdateLog> deleted = createUpdateLogs(1, 2);
+        List<UpdateLog> kept = createUpdateLogs(2, 1);
+        deleted.forEach(this.writer::write);
+        kept.forEach(this.writer::write);
+
+        this.writer.discard(1);
+        this.writer.drain();
+
+        assertEquals(kept, this.saved, "only the other document's logs should be saved");
+        assertEquals(0, this.writer.getDepth(), "queue should be empty after drain()");
+    }
+
+    private static List<UpdateLog> createUpdateLogs(int documentId, int count) throws ReflectiveOperationException {
+        Document document = new Document(new User(), 0, "title");
+        Field idField = document.getClass().getSuperclass().getDeclaredField("id");
+        idField.setAccessible(true);
+        idField.setInt(document, documentId);
+
+        List<UpdateLog> updateLogs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UpdateRequest updateRequest = new UpdateRequest.UpdateRequestBuilder()
+                    .setDocumentId(documentId)
+                    .setUserId(1)
+                    .setType(UpdateRequest.UpdateType.APPEND)
+                    .setContent("x")
+                    .setStartPosition(i)
+                    .build();
+            updateLogs.add(new UpdateLog(updateRequest, LocalDateTime.now(), document));
+        }
+
+        return updateLogs;
+    }
+}
@@ -1,5 +1,5 @@
 import $ from "jquery";
-import { addUpdate } from "./sockets";
+import { addUpdate, sendCursor } from "./sockets";
 import { shareRequest, fileImport, fileExport, getURL, createFolder } from "./rest";
 
 $(() => {
@@ -44,6 +44,10 @@ $(() => {
     isDelete = false;
   });
 
+  input.on("keyup click select", () => {
+    sendCursor(input.prop("selectionStart"), input.prop("selectionEnd"));
+  });
+
   $(".copyLink").on("click", function () {
     console.log("on copyLink");
     //copyLink();
@@ -55,15 +59,20 @@ $(() => {
 
     var input = document.createElement('input');
     input.type = 'file';
-    input.click();
+    input.onchange = async function () {
+      if (input.files.length == 0) {
+        return;
+      }
 
-    let parentId = localStorage.getItem("folderId");
-    if (parentId == null || parentId == "undefined") {
-      await createFolder("0", "Main");
-      parentId = localStorage.getItem("folderId");
-    }
+      let parentId = localStorage.getItem("folderId");
+      if (parentId == null || parentId == "undefined") {
+        await createFolder("0", "Main");
+        parentId = localStorage.getItem("folderId");
+      }
 
-    fileImport(localStorage.getItem("token"), localStorage.getItem("userId"), input.name, parentId);
+      fileImport(localStorage.getItem("token"), localStorage.getItem("userId"), input.files[0], parentId);
+    };
+    input.click();
   });
 
   $(".export").on("click", function () {
@@ -76,80 +85,25 @@ $(() => {
   });
 });
 
-const update = (updateData) => {
-  let user = localStorage.getItem("userId");
-  if (user != updateData.userId) {
-    switch (updateData.type) {
-      case "APPEND":
-        appendText(updateData);
-        break;
-      case "DELETE":
-        deleteText(updateData);
-        break;
-      case "APPEND_RANGE":
-        appendRange(updateData);
-        break;
-      case "DELETE_RANGE":
-        deleteRange(updateData);
-        break;
-    }
-  }
-};
-
-const appendText = (updateData) => {
-  let textArea = $("#main-doc");
-  let start = textArea.prop("selectionStart");
-  let text = textArea.val();
-
-  text =
-    text.substring(0, updateData.startPosition) +
-    updateData.content +
-    text.substring(updateData.startPosition, text.length);
-  textArea.val(text);
-
-  if (updateData.startPosition < start) {
-    start++;
-    textArea[0].setSelectionRange(start, start);
-  }
-};
-
-const deleteText = (updateData) => {
+// Replaces [from, to) with the operation's text, the caret stays on the same character.
+const applyOperation = (operation) => {
   let textArea = $("#main-doc");
-  let start = updateData.startPosition;
-  let end = updateData.endPosition;
   let text = textArea.val();
+  let selectionStart = textArea.prop("selectionStart");
+  let selectionEnd = textArea.prop("selectionEnd");
 
-  let count = start - end;
+  textArea.val(text.substring(0, operation.from) + operation.text + text.substring(operation.to));
 
-  text = text.substring(0, Math.max(0, start - count)) + text.substring(start);
-  textArea.val(text);
-
-  textArea[0].setSelectionRange(end, end);
-};
-
-const deleteRange = (updateData) => {
-  let textArea = $("#main-doc");
-  let start = updateData.startPosition;
-  let end = updateData.endPosition;
-  let text = textArea.val();
-
-  text = text.substring(0, start) + text.substring(end);
-  textArea.val(text);
-
-  textArea[0].setSelectionRange(start, start);
-};
-
-const appendRange = (updateData) => {
-  let textArea = $("#main-doc");
-  let start = updateData.startPosition;
-  let end = updateData.endPosition;
-  let text = textArea.val();
-  let endOfAppendedText = start + updateData.content.length;
-
-  text = text.substring(0, start) + updateData.content + text.substring(end);
-  textArea.val(text);
-
-  textArea[0].setSelectionRange(endOfAppendedText, endOfAppendedText);
+  const move = (position) => {
+    if (position <= operation.from) {
+      return position;
+    }
+    if (position >= operation.to) {
+      return position + operation.text.length - (operation.to - operation.from);
+    }
+    return operation.from + operation.text.length;
+  };
+  textArea[0].setSelectionRange(move(selectionStart), move(selectionEnd));
 };
 
 const copyLink = () => {
@@ -162,4 +116,4 @@ const copyLink = () => {
   $("p").text("URL copied!");
 };
 
-export { update };
+export { applyOperation };
@@ -102,42 +102,53 @@ const removeAllEmails = () => {
 
 const displayUserDocuments = async () => {
   let userId = localStorage.getItem("userId");
+  let token = localStorage.getItem("token");
 
   deleteChildren("document-id-selector");
 
-  const res = await axios({
-    method: "get",
-    url: serverAddress + "/document/getDocumentsByUser",
-    headers: {
-      userId: userId,
-    },
-  });
+  let documentSelect = document.getElementById("document-id-selector");
+  let cursor = null;
+
+  // The listing is paginated, follow nextCursor until the last page.
+  do {
+    const res = await axios({
+      method: "get",
+      url: serverAddress + "/document/listByUser",
+      headers: {
+        userId: userId,
+        token: token,
+      },
+      params: cursor === null ? {} : { cursor: cursor },
+    });
 
-  let userDocs = res.data.data;
-  console.log(userDocs);
+    let page = res.data.data;
+    console.log(page);
 
-  let documentSelect = document.getElementById("document-id-selector");
-  let idsLength = userDocs.length;
-
-  for (var i = 0; i < idsLength; i++) {
-    var text = userDocs[i].url + " (#" + userDocs[i].documentId + ")";
-    var documentData = document.createTextNode(text);
-    var option = document.createElement("option");
-    option.appendChild(documentData);
-    documentSelect.appendChild(option);
-  }
+    page.documents.forEach((userDoc) => {
+      var text = userDoc.url + " (#" + userDoc.documentId + ")";
+      var documentData = document.createTextNode(text);
+      var option = document.createElement("option");
+      option.appendChild(documentData);
+      documentSelect.appendChild(option);
+    });
+
+    cursor = page.nextCursor;
+  } while (cursor !== null);
 };
 
-const fileImport = async (token, ownerId, filePath, parentId) => {
+const fileImport = async (token, ownerId, file, parentId) => {
+  const data = new FormData();
+  data.append("file", file);
+  data.append("parentId", parentId);
+
   const res = await axios({
     method: "post",
     url: serverAddress + "/document/import",
     headers: {
       token: token,
       ownerId: ownerId,
-      filePath: filePath,
-      parentId: parentId,
     },
+    data: data,
   });
   console.log(res);
 };
@@ -179,6 +190,19 @@ const getURL = async (documentId) => {
   }
 };
 
+// The address of the server node that edits the document, null if it is the default server.
+const getDocumentNode = async (documentId) => {
+  const { data: response } = await axios({
+    method: "get",
+    url: serverAddress + "/document/node",
+    headers: {
+      documentId: documentId,
+    },
+  });
+
+  return response.success ? response.data : null;
+};
+
 const createFolder = async (parentId, title) => {
   let ownerId = localStorage.getItem("userId");
   let token = localStorage.getItem("token");
@@ -290,6 +314,7 @@ export {
   fileImport,
   fileExport,
   getURL,
+  getDocumentNode,
   displayUserDocuments,
   createDocument,
   deleteDocument,
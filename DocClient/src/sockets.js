@@ -2,18 +2,47 @@ import * as SockJS from "sockjs-client";
 import { Stomp } from "@stomp/stompjs";
 
 import { serverAddress } from "./constants";
-import { update } from "./doc-functions";
+import { applyOperation } from "./doc-functions";
 import { displayMetaData, displayActiveUsers } from "./index.js";
+import { getDocumentNode } from "./rest";
 
 let stompClient;
+let subscriptions = [];
+// userId -> name of the users in the document, kept up to date by presence deltas.
+let activeUsers = new Map();
+// userId -> {startPosition, endPosition} of the other users' carets.
+let cursors = new Map();
+let lastCursor = null;
+// Each document is edited on one server node, its socket is opened there.
+let socketAddress = serverAddress;
+// The document the editor holds a copy of, a reconnect only asks for the operations it missed.
+let syncedDocumentId = null;
+
+// Every document has its own topics, so a client only receives the events of the document it edits.
+const documentTopic = (channel) => {
+  return "/topic/documents/" + localStorage.getItem("documentId") + "/" + channel;
+};
 const socketFactory = () => {
-  return new SockJS(serverAddress + "/ws");
+  return new SockJS(socketAddress + "/ws");
 };
 
 const onMessageReceived = (payload) => {
   var message = JSON.parse(payload.body);
   console.log(message);
-  update(message);
+  localStorage.setItem("revision", message.revision);
+
+  // This session's batch comes back once the server applied it: the next batch can be sent.
+  // Batches of the user's other tabs have other ids, they are applied like any other user's.
+  if (inFlightBatchId !== null && message.batchId === inFlightBatchId) {
+    inFlightBatchId = null;
+    inFlight = [];
+    sendUpdates();
+  } else {
+    // A batch carries its updates in order, single updates are sent as is.
+    let updates = message.updates !== undefined ? message.updates : [message];
+    updates.forEach((updateData) => applyRemote(toOperation(updateData.type, updateData.content,
+      updateData.startPosition, updateData.endPosition)));
+  }
   getMetaData(localStorage.getItem("documentId"));
 };
 
@@ -23,85 +52,291 @@ const onMetaDataReceived = (payload) => {
   displayMetaData(metadata);
 };
 
+// A batch the server could not apply is answered to this session only, the editor drops its pending
+// updates and joins again for the whole content.
+const onUpdateFailed = (payload) => {
+  var message = JSON.parse(payload.body);
+  console.log(message);
+
+  if (batchTimer !== null) {
+    clearTimeout(batchTimer);
+    batchTimer = null;
+  }
+  resyncing = true;
+  inFlight = [];
+  inFlightBatchId = null;
+  buffered = [];
+
+  let documentId = localStorage.getItem("documentId");
+  let userId = localStorage.getItem("userId");
+  stompClient.send("/app/join", [], JSON.stringify({documentId, userId, revision: null}));
+};
+
 const onActiveUsersReceived = (payload) => {
-    var activeUsers = JSON.parse(payload.body);
-    console.log(activeUsers);
+    var users = JSON.parse(payload.body);
+    console.log(users);
+
+    activeUsers = new Map(users.map((user) => [user.userId, user.name]));
+    showActiveUsers();
+};
+
+// The server sends a user's join or leave, not the whole list.
+const onPresenceReceived = (payload) => {
+    var presence = JSON.parse(payload.body);
+    console.log(presence);
+
+    if (presence.active) {
+      activeUsers.set(presence.userId, presence.name);
+    } else {
+      activeUsers.delete(presence.userId);
+      cursors.delete(presence.userId);
+    }
+    showActiveUsers();
+};
+
+// The server sends the latest caret of every user who moved it, once per tick.
+const onCursorsReceived = (payload) => {
+    var message = JSON.parse(payload.body);
+    let userId = Number(localStorage.getItem("userId"));
+
+    message
+      .filter((cursor) => cursor.userId !== userId)
+      .forEach((cursor) => cursors.set(cursor.userId, cursor));
+    showActiveUsers();
+};
 
-    displayActiveUsers(activeUsers);
+const showActiveUsers = () => {
+    displayActiveUsers(Array.from(activeUsers.entries()).map(([userId, name]) => {
+      let cursor = cursors.get(userId);
+      return cursor === undefined ? name : name + " (" + cursor.startPosition + ")";
+    }));
 };
 
 const onConnected = () => {
-  stompClient.subscribe("/topic/updates", onMessageReceived);
-  stompClient.subscribe("/topic/metadata", onMetaDataReceived);
-  stompClient.subscribe("/topic/activeUsers", onActiveUsersReceived);
+  subscriptions.push(stompClient.subscribe(documentTopic("updates"), onMessageReceived));
+  subscriptions.push(stompClient.subscribe(documentTopic("metadata"), onMetaDataReceived));
+  subscriptions.push(stompClient.subscribe(documentTopic("activeUsers"), onActiveUsersReceived));
+  subscriptions.push(stompClient.subscribe(documentTopic("presence"), onPresenceReceived));
+  subscriptions.push(stompClient.subscribe(documentTopic("cursors"), onCursorsReceived));
   getMetaData(localStorage.getItem("documentId"));
   getActiveUsers(localStorage.getItem("documentId"));
 };
 
+// The join reply is sent to this session only: the operations missed since the sent revision, or the content.
 const onJoinMessageReceived = (payload) => {
     var message = JSON.parse(payload.body);
     console.log(message);
+    if (!message.body.success) {
+      return;
+    }
 
-    localStorage.setItem("document", JSON.stringify(message.body.data));
+    let data = message.body.data;
+    let textArea = document.getElementById("main-doc");
+    if (data.operations !== undefined) {
+      let userId = Number(localStorage.getItem("userId"));
+      // Own operations were applied locally before they were sent.
+      data.operations
+        .filter((operation) => operation.userId !== userId)
+        .forEach((operation) => {
+          let text = textArea.value;
+          textArea.value = text.substring(0, operation.from) + operation.text + text.substring(operation.to);
+        });
+    } else {
+      textArea.value = data.content;
+    }
 
-    let content = message.body.data.content;
-    console.log(content);
-    document.getElementById("main-doc").value = content;
+    localStorage.setItem("revision", data.revision);
+    syncedDocumentId = data.documentId.toString();
+    resyncing = false;
+    inFlight = [];
+    inFlightBatchId = null;
+    buffered = [];
 }
 
 const onJoined = () => {
-    stompClient.subscribe("/topic/join", onJoinMessageReceived);
+    subscriptions.push(stompClient.subscribe("/user/queue/join", onJoinMessageReceived));
+    subscriptions.push(stompClient.subscribe("/user/queue/updates", onUpdateFailed));
 
     let documentId = localStorage.getItem("documentId");
     let userId = localStorage.getItem("userId");
-    stompClient.send("/app/join", [], JSON.stringify({documentId, userId}));
+    let revision = syncedDocumentId === documentId ? localStorage.getItem("revision") : null;
+    stompClient.send("/app/join", [], JSON.stringify({documentId, userId, revision}));
     onConnected();
 }
 
 const openConnection = () => {
   const socket = socketFactory();
   stompClient = Stomp.over(socket);
-  stompClient.connect({}, onJoined);
+  // The session is authenticated once, on CONNECT.
+  let userId = localStorage.getItem("userId");
+  let token = localStorage.getItem("token");
+  stompClient.connect({ userId, token }, onJoined);
 };
 
-const join = (requiredDocumentId) => {
+const join = async (requiredDocumentId) => {
     localStorage.setItem("documentId", requiredDocumentId);
+
+    let node = await getDocumentNode(requiredDocumentId);
+    socketAddress = node || serverAddress;
     openConnection();
 };
 
 const leave = () => {
     displayMetaData(null);
+    activeUsers = new Map();
+    cursors = new Map();
+    lastCursor = null;
+    syncedDocumentId = null;
     displayActiveUsers([]);
 
+    if (batchTimer !== null) {
+        clearTimeout(batchTimer);
+        sendUpdates();
+    }
+    resyncing = false;
+    inFlight = [];
+    inFlightBatchId = null;
+    buffered = [];
+
     let documentId = localStorage.getItem("documentId");
     let userId = localStorage.getItem("userId");
     stompClient.send("/app/leave", [], JSON.stringify({documentId, userId}));
 
+    subscriptions.forEach((subscription) => subscription.unsubscribe());
+    subscriptions = [];
+
     localStorage.removeItem("documentId");
 };
 
+// Updates typed within BATCH_DELAY_MS are sent to the server as one batch frame.
+// Only one batch is sent at a time: the next one is based on the revision that acknowledged it, so the
+// server rebases it only past other users' updates. Until then, typed updates are buffered.
+const BATCH_DELAY_MS = 30;
+let inFlight = [];
+let buffered = [];
+let batchTimer = null;
+// Every batch is sent with an id unique to this tab, the broadcast carrying it back is the batch's ack.
+const batchIdPrefix = Math.random().toString(36).substring(2) + "-";
+let batchCount = 0;
+let inFlightBatchId = null;
+// Set from a failed batch until the join reply brings the content, nothing is sent in between.
+let resyncing = false;
+
+// Updates are kept as "replace [from, to) with text", the same form as the server's TextOperation.
+const toOperation = (type, content, startPosition, endPosition) => {
+  switch (type) {
+    case "APPEND":
+      return { from: startPosition, to: startPosition, text: content || "" };
+    case "DELETE":
+      return { from: Math.max(0, endPosition), to: startPosition, text: "" };
+    case "APPEND_RANGE":
+      return { from: startPosition, to: endPosition, text: content || "" };
+    default:
+      return { from: startPosition, to: endPosition, text: "" };
+  }
+};
+
+// Same rules as TextOperation.transform(applied, priority) on the server, so every copy converges.
+const transform = (operation, applied, priority) => {
+  let delta = applied.text.length - (applied.to - applied.from);
+  let appliedEnd = applied.from + applied.text.length;
+  let replace = (from, to, text) => ({ from, to, text });
+
+  if (operation.from === applied.from) {
+    if (operation.to < applied.to || (operation.to === applied.to && priority)) {
+      return replace(operation.from, operation.from, operation.text);
+    }
+    return replace(appliedEnd, appliedEnd + operation.to - applied.to, operation.text);
+  }
+
+  if (operation.from < applied.from) {
+    if (operation.to <= applied.from) {
+      return operation;
+    }
+    if (operation.to <= applied.to) {
+      return replace(operation.from, applied.from, operation.text);
+    }
+    return replace(operation.from, operation.to + delta, operation.text);
+  }
+
+  if (operation.from >= applied.to) {
+    return replace(operation.from + delta, operation.to + delta, operation.text);
+  }
+  if (operation.to >= applied.to) {
+    return replace(appliedEnd, appliedEnd + operation.to - applied.to, operation.text);
+  }
+  return replace(appliedEnd, appliedEnd, "");
+};
+
+// Another user's update was applied by the server before the pending ones, it goes first on a tie.
+const applyRemote = (remote) => {
+  [inFlight, buffered].forEach((pending) => {
+    for (let i = 0; i < pending.length; i++) {
+      let local = pending[i];
+      pending[i] = transform(local, remote, false);
+      remote = transform(remote, local, true);
+    }
+  });
+  applyOperation(remote);
+};
+
 const addUpdate = (type, content, startPosition, endPosition) => {
-  sendUpate(type, content, startPosition, endPosition);
+  buffered.push(toOperation(type, content, startPosition, endPosition));
+
+  if (batchTimer === null && inFlight.length === 0) {
+    batchTimer = setTimeout(sendUpdates, BATCH_DELAY_MS);
+  }
 };
 
-const sendUpate = (type, content, startPosition, endPosition) => {
+const sendUpdates = () => {
+    batchTimer = null;
+    if (resyncing || inFlight.length > 0 || buffered.length === 0) {
+      return;
+    }
+
     let documentId = localStorage.getItem("documentId");
     let userId = localStorage.getItem("userId");
+    let revision = localStorage.getItem("revision");
+    inFlight = buffered;
+    inFlightBatchId = batchIdPrefix + batchCount++;
+    buffered = [];
 
     stompClient.send(
-    "/app/update",
+    "/app/updates",
     [],
     JSON.stringify({
       documentId: documentId,
       userId: userId,
-      type: type,
-      content: content,
-      startPosition: startPosition,
-      endPosition: endPosition,
+      revision: revision,
+      batchId: inFlightBatchId,
+      updates: inFlight.map((operation) => ({
+        type: operation.text.length > 0 ? "APPEND_RANGE" : "DELETE_RANGE",
+        content: operation.text,
+        startPosition: operation.from,
+        endPosition: operation.to,
+      })),
     })
   );
 };
 
+// The server keeps only the latest caret per tick, unchanged carets are not sent at all.
+const sendCursor = (startPosition, endPosition) => {
+    let documentId = localStorage.getItem("documentId");
+    if (stompClient === undefined || documentId === null) {
+      return;
+    }
+
+    let cursor = startPosition + ":" + endPosition;
+    if (cursor === lastCursor) {
+      return;
+    }
+    lastCursor = cursor;
+
+    let userId = localStorage.getItem("userId");
+    let revision = localStorage.getItem("revision");
+    stompClient.send("/app/cursor", [], JSON.stringify({documentId, userId, revision, startPosition, endPosition}));
+};
+
 const getMetaData = () => {
     let documentId = localStorage.getItem("documentId");
     stompClient.send("/app/metadata", [], documentId.toString());
@@ -112,4 +347,4 @@ const getActiveUsers = () => {
     stompClient.send("/app/activeUsers", [], documentId.toString());
 }
 
-export { openConnection, addUpdate, join };
+export { openConnection, addUpdate, sendCursor, join };